@@ -0,0 +1,178 @@
+package at.rovo.h2test.benchmark;
+
+import at.rovo.h2test.jdbc.PoolMetrics;
+import at.rovo.h2test.jdbc.PoolSettings;
+import at.rovo.h2test.jdbc.PooledDataSources;
+import com.zaxxer.hikari.HikariDataSource;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import javax.sql.DataSource;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SimpleDriverDataSource;
+
+/**
+ * The databases benchmarks can run against. Embedded H2 is the default, MySQL is configured via
+ * the <code>benchmark.mysql.url</code>, <code>benchmark.mysql.user</code> and
+ * <code>benchmark.mysql.password</code> system properties.
+ */
+@SuppressWarnings({"SqlNoDataSourceInspection", "SqlDialectInspection"})
+public enum BenchmarkDatabase {
+
+  H2 {
+    private static final String URL = "jdbc:h2:mem:benchmarkdb;DB_CLOSE_DELAY=-1;MODE=MYSQL;";
+
+    @Override
+    public DataSource createDataSource() {
+      SimpleDriverDataSource db = new SimpleDriverDataSource();
+      db.setDriverClass(org.h2.Driver.class);
+      db.setUrl(URL);
+      return db;
+    }
+
+    @Override
+    public HikariDataSource createPooledDataSource(PoolSettings settings, PoolMetrics metrics) {
+      return PooledDataSources.h2("benchmark-h2", URL, settings, metrics);
+    }
+
+    @Override
+    public HikariDataSource createPooledShard(int shard, PoolSettings settings, PoolMetrics metrics) {
+      return PooledDataSources.h2("benchmark-h2-shard" + shard,
+          "jdbc:h2:mem:benchmarkshard" + shard + "db;DB_CLOSE_DELAY=-1;MODE=MYSQL;", settings, metrics);
+    }
+
+    @Override
+    void seed(JdbcTemplate jdbcTemplate, int messages) {
+      jdbcTemplate.update("INSERT INTO message (messageId, message, lastStatusChange) "
+          + "SELECT CONCAT('" + MESSAGE_ID_PREFIX + "', X), STRINGTOUTF8('" + SEED_PAYLOAD + "'), ? "
+          + "FROM SYSTEM_RANGE(0, ?)", SEED_TIMESTAMP, messages - 1);
+    }
+  },
+
+  MYSQL {
+    @Override
+    public DataSource createDataSource() {
+      SimpleDriverDataSource db = new SimpleDriverDataSource();
+      db.setDriverClass(com.mysql.jdbc.Driver.class);
+      db.setUrl(url());
+      db.setUsername(user());
+      db.setPassword(password());
+      return db;
+    }
+
+    @Override
+    public HikariDataSource createPooledDataSource(PoolSettings settings, PoolMetrics metrics) {
+      return PooledDataSources.mysql("benchmark-mysql", url(), user(), password(), settings, metrics);
+    }
+
+    @Override
+    public HikariDataSource createPooledShard(int shard, PoolSettings settings, PoolMetrics metrics) {
+      String url = System.getProperty("benchmark.mysql.shard" + shard + ".url");
+      if (null == url) {
+        throw new IllegalStateException("No URL of shard " + shard + " configured via benchmark.mysql.shard"
+            + shard + ".url");
+      }
+      return PooledDataSources.mysql("benchmark-mysql-shard" + shard, url, user(), password(), settings, metrics);
+    }
+
+    private String url() {
+      return System.getProperty("benchmark.mysql.url", "jdbc:mysql://localhost:3306/test?useSSL=false");
+    }
+
+    private String user() {
+      return System.getProperty("benchmark.mysql.user", "root");
+    }
+
+    private String password() {
+      return System.getProperty("benchmark.mysql.password", "");
+    }
+
+    @Override
+    void seed(JdbcTemplate jdbcTemplate, final int messages) {
+      final byte[] payload = SEED_PAYLOAD.getBytes(StandardCharsets.UTF_8);
+      for (int from = 0; from < messages; from += SEED_BATCH_SIZE) {
+        final int offset = from;
+        final int rows = Math.min(SEED_BATCH_SIZE, messages - from);
+        jdbcTemplate.batchUpdate("INSERT INTO message (messageId, message, lastStatusChange) VALUES (?, ?, ?)",
+            new BatchPreparedStatementSetter() {
+              @Override
+              public void setValues(PreparedStatement ps, int i) throws SQLException {
+                ps.setString(1, messageId(offset + i));
+                ps.setBytes(2, payload);
+                ps.setTimestamp(3, SEED_TIMESTAMP);
+              }
+
+              @Override
+              public int getBatchSize() {
+                return rows;
+              }
+            });
+      }
+    }
+  };
+
+  static final String MESSAGE_ID_PREFIX = "msg";
+  static final Timestamp SEED_TIMESTAMP = Timestamp.valueOf("2015-09-21 10:34:09");
+  private static final String SEED_PAYLOAD = "Benchmark payload";
+  private static final int SEED_BATCH_SIZE = 10_000;
+
+  /**
+   * Creates a data source opening a new physical connection whenever a connection is requested.
+   */
+  public abstract DataSource createDataSource();
+
+  /**
+   * Creates a connection pool. The caller is responsible for closing it.
+   */
+  public abstract HikariDataSource createPooledDataSource(PoolSettings settings, PoolMetrics metrics);
+
+  /**
+   * Creates a connection pool to the given shard of a sharded setup. Every shard is a database of
+   * its own, for MySQL configured via the <code>benchmark.mysql.shard&lt;n&gt;.url</code> system
+   * properties. The caller is responsible for closing it.
+   */
+  public abstract HikariDataSource createPooledShard(int shard, PoolSettings settings, PoolMetrics metrics);
+
+  abstract void seed(JdbcTemplate jdbcTemplate, int messages);
+
+  /**
+   * Recreates the <code>message</code> and <code>status</code> tables and fills the message table
+   * with <code>messages</code> rows whose business keys are {@link #messageId(int) msg0} to
+   * <code>msg(messages - 1)</code>.
+   */
+  public void initDB(JdbcTemplate jdbcTemplate, int messages) {
+    jdbcTemplate.execute("DROP TABLE IF EXISTS status");
+    jdbcTemplate.execute("DROP TABLE IF EXISTS message");
+
+    jdbcTemplate.execute("CREATE TABLE message ("
+        + "id bigint(20) NOT NULL AUTO_INCREMENT, "
+        + "messageId varchar(255) DEFAULT NULL, "
+        + "message longblob, "
+        + "lastStatusChange dateTime DEFAULT NULL, "
+        + "PRIMARY KEY (id), "
+        + "UNIQUE KEY UK_msgId (messageId), "
+        + "KEY idx_lastStatusChange (lastStatusChange) "
+        + ") ENGINE=InnoDB AUTO_INCREMENT=1 DEFAULT CHARSET=UTF8");
+
+    jdbcTemplate.execute("CREATE TABLE status ("
+        + "id bigint(20) NOT NULL AUTO_INCREMENT, "
+        + "lastChange datetime DEFAULT NULL, "
+        + "messageId bigint(20) DEFAULT NULL,"
+        + "status varchar(255) DEFAULT NULL, "
+        + "PRIMARY KEY (id), "
+        + "KEY idx_lastChange (lastChange), "
+        + "KEY fk_status_message (messageId), "
+        + "CONSTRAINT fk_status_message FOREIGN KEY (messageId) REFERENCES message (id) "
+        + ") ENGINE=InnoDB AUTO_INCREMENT=84 DEFAULT CHARSET=UTF8");
+
+    if (messages > 0) {
+      seed(jdbcTemplate, messages);
+    }
+  }
+
+  public static String messageId(int i) {
+    return MESSAGE_ID_PREFIX + i;
+  }
+}
@@ -0,0 +1,104 @@
+package at.rovo.h2test.benchmark;
+
+import at.rovo.h2test.jdbc.PoolMetrics;
+import at.rovo.h2test.jdbc.PoolSettings;
+import at.rovo.h2test.message.BatchMessageUpserter;
+import at.rovo.h2test.message.MessageUpsert;
+import com.zaxxer.hikari.HikariDataSource;
+import java.sql.Timestamp;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import javax.sql.DataSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * The upsert and status insert of the original tests, one transaction per event, issued by eight
+ * concurrent threads against a data source opening a physical connection per transaction and
+ * against a connection pool. The pool metrics are printed at the end of each trial.
+ */
+@SuppressWarnings({"SqlNoDataSourceInspection", "SqlDialectInspection"})
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@Threads(8)
+public class DataSourceBenchmark {
+
+  private static final String INSERT_STATUS_SQL = "INSERT INTO status (lastChange, messageId, status) VALUES (?, ?, ?)";
+  private static final Timestamp UPDATED = Timestamp.valueOf("2015-09-21 10:40:00");
+
+  public enum Pool {
+    SIMPLE,
+    POOLED
+  }
+
+  @Param({"SIMPLE", "POOLED"})
+  public Pool pool;
+
+  @Param({"H2"})
+  public BenchmarkDatabase database;
+
+  @Param({"100000"})
+  public int tableSize;
+
+  private PoolMetrics metrics;
+  private DataSource dataSource;
+  private JdbcTemplate jdbcTemplate;
+  private TransactionTemplate txTemplate;
+  private BatchMessageUpserter upserter;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    if (Pool.POOLED == pool) {
+      metrics = new PoolMetrics();
+      dataSource = database.createPooledDataSource(new PoolSettings().setMinimumIdle(8).setMaximumPoolSize(8),
+          metrics);
+    } else {
+      dataSource = database.createDataSource();
+    }
+    jdbcTemplate = new JdbcTemplate(dataSource);
+    txTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+    upserter = new BatchMessageUpserter(jdbcTemplate);
+    database.initDB(jdbcTemplate, tableSize);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    if (dataSource instanceof HikariDataSource) {
+      System.out.println(metrics);
+      ((HikariDataSource) dataSource).close();
+    }
+  }
+
+  @Benchmark
+  public int upsertAndInsertStatus() {
+    return txTemplate.execute(new TransactionCallback<Integer>() {
+      @Override
+      public Integer doInTransaction(TransactionStatus status) {
+        String messageId = BenchmarkDatabase.messageId(ThreadLocalRandom.current().nextInt(tableSize));
+        long messageRefId = upserter.upsert(new MessageUpsert(messageId, null, UPDATED));
+        return jdbcTemplate.update(INSERT_STATUS_SQL, UPDATED, messageRefId, "UPDATED");
+      }
+    });
+  }
+}
@@ -0,0 +1,116 @@
+package at.rovo.h2test.benchmark;
+
+import at.rovo.h2test.Dialect;
+import at.rovo.h2test.message.BatchMessageUpserter;
+import at.rovo.h2test.message.MessageKeyResolver;
+import at.rovo.h2test.message.MessageUpsert;
+import at.rovo.h2test.status.StatusEvent;
+import at.rovo.h2test.status.StatusEventPipeline;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * The full workflow of the original tests: upsert a message and append a status row referencing
+ * it, committed as one transaction per event. Compares Spring's {@link TransactionTemplate} with a
+ * plain JDBC connection and with the grouped {@link StatusEventPipeline}. All benchmarks report
+ * events per second.
+ */
+@SuppressWarnings({"SqlNoDataSourceInspection", "SqlDialectInspection"})
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ForeignKeyInsertBenchmark {
+
+  private static final int PIPELINE_EVENTS = 100;
+  private static final String INSERT_STATUS_SQL = "INSERT INTO status (lastChange, messageId, status) VALUES (?, ?, ?)";
+  private static final Timestamp UPDATED = Timestamp.valueOf("2015-09-21 10:40:00");
+
+  private TransactionTemplate txTemplate;
+  private BatchMessageUpserter upserter;
+  private StatusEventPipeline pipeline;
+  private Connection con;
+  private MessageKeyResolver keyResolver;
+
+  @Setup(Level.Trial)
+  public void setUp(MessageTableState table) throws SQLException {
+    txTemplate = new TransactionTemplate(table.transactionManager);
+    txTemplate.setIsolationLevel(TransactionDefinition.ISOLATION_READ_UNCOMMITTED);
+    upserter = new BatchMessageUpserter(table.jdbcTemplate);
+    pipeline = new StatusEventPipeline(table.jdbcTemplate, txTemplate, PIPELINE_EVENTS);
+
+    con = table.dataSource.getConnection();
+    con.setAutoCommit(false);
+    con.setTransactionIsolation(Connection.TRANSACTION_READ_UNCOMMITTED);
+    keyResolver = MessageKeyResolver.forDialect(Dialect.of(con));
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws SQLException {
+    con.close();
+  }
+
+  @Benchmark
+  public int transactionTemplate(final MessageTableState table) {
+    return txTemplate.execute(new TransactionCallback<Integer>() {
+      @Override
+      public Integer doInTransaction(TransactionStatus status) {
+        long messageRefId = upserter.upsert(new MessageUpsert(table.randomMessageId(), null, UPDATED));
+        return table.jdbcTemplate.update(INSERT_STATUS_SQL, UPDATED, messageRefId, "UPDATED");
+      }
+    });
+  }
+
+  @Benchmark
+  public int plainJdbc(MessageTableState table) throws SQLException {
+    try {
+      long messageRefId = keyResolver.upsert(con, new MessageUpsert(table.randomMessageId(), null, UPDATED));
+      int inserted;
+      try (PreparedStatement insert = con.prepareStatement(INSERT_STATUS_SQL)) {
+        insert.setTimestamp(1, UPDATED);
+        insert.setLong(2, messageRefId);
+        insert.setString(3, "UPDATED");
+        inserted = insert.executeUpdate();
+      }
+      con.commit();
+      return inserted;
+    } catch (SQLException sqlEx) {
+      con.rollback();
+      throw sqlEx;
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(PIPELINE_EVENTS)
+  public int pipeline(MessageTableState table) {
+    List<StatusEvent> events = new ArrayList<>(PIPELINE_EVENTS);
+    for (int i = 0; i < PIPELINE_EVENTS; i++) {
+      events.add(new StatusEvent(table.randomMessageId(), "UPDATED", UPDATED));
+    }
+    return pipeline.record(events.iterator());
+  }
+}
@@ -0,0 +1,46 @@
+package at.rovo.h2test.benchmark;
+
+import java.io.InputStream;
+
+/**
+ * A deterministic payload of arbitrary length which is generated while it is read, so that it
+ * never exists on the heap as a whole.
+ */
+final class GeneratedPayload extends InputStream {
+
+  private final long length;
+  private long pos;
+
+  GeneratedPayload(long length) {
+    this.length = length;
+  }
+
+  static byte[] bytes(int length) {
+    byte[] bytes = new byte[length];
+    for (int i = 0; i < length; i++) {
+      bytes[i] = valueAt(i);
+    }
+    return bytes;
+  }
+
+  private static byte valueAt(long pos) {
+    return (byte) (pos * 31 + (pos >>> 10));
+  }
+
+  @Override
+  public int read() {
+    return pos < length ? valueAt(pos++) & 0xff : -1;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) {
+    if (pos >= length) {
+      return -1;
+    }
+    int n = (int) Math.min(len, length - pos);
+    for (int i = 0; i < n; i++) {
+      b[off + i] = valueAt(pos++);
+    }
+    return n;
+  }
+}
@@ -0,0 +1,33 @@
+package at.rovo.h2test.benchmark;
+
+import at.rovo.h2test.diff.DiffReport;
+import at.rovo.h2test.diff.DiffTarget;
+import at.rovo.h2test.diff.DifferentialRunner;
+import at.rovo.h2test.diff.Workloads;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Runs the insert-on-update workload against H2 in memory, H2 on file and MySQL and prints the
+ * differences and latencies side by side, i.e.
+ * <code>java -cp target/benchmarks.jar at.rovo.h2test.benchmark.InsertOnUpdateComparison 1000</code>.
+ * MySQL is configured via the same system properties as {@link BenchmarkDatabase#MYSQL} and
+ * skipped if it can't be reached.
+ */
+public class InsertOnUpdateComparison {
+
+  public static void main(String[] args) throws Exception {
+    int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 1_000;
+    Path directory = Files.createTempDirectory("h2-diff");
+    DifferentialRunner runner = new DifferentialRunner(
+        DiffTarget.h2Memory("h2-mem"),
+        DiffTarget.h2File("h2-file", directory),
+        DiffTarget.mysql("mysql",
+            System.getProperty("benchmark.mysql.url", "jdbc:mysql://localhost:3306/test?useSSL=false"),
+            System.getProperty("benchmark.mysql.user", "root"),
+            System.getProperty("benchmark.mysql.password", "")));
+
+    DiffReport report = runner.run(Workloads.insertOnUpdate(iterations).setWarmupIterations(iterations / 10));
+    System.out.println(report.format());
+  }
+}
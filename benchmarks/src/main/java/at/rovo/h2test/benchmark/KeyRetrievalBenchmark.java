@@ -0,0 +1,131 @@
+package at.rovo.h2test.benchmark;
+
+import at.rovo.h2test.Dialect;
+import at.rovo.h2test.message.LookupKeyResolver;
+import at.rovo.h2test.message.MessageKeyResolver;
+import at.rovo.h2test.message.MessageUpsert;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
+
+/**
+ * Upsert of an existing message plus retrieval of its id, using the different approaches found in
+ * the original tests and in {@link MessageKeyResolver}.
+ * <p>
+ * Note that <code>generatedKeyHolder</code> and, on H2, <code>lastInsertId</code> return a wrong
+ * id for updated rows. They are measured nonetheless as they are the baseline the other
+ * approaches have to compete with.
+ */
+@SuppressWarnings({"SqlNoDataSourceInspection", "SqlDialectInspection"})
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class KeyRetrievalBenchmark {
+
+  private static final String UPSERT_SQL = "INSERT INTO message (messageId, message, lastStatusChange) VALUES (?, ?, ?) "
+      + "ON DUPLICATE KEY UPDATE message = VALUES(message), lastStatusChange = VALUES(lastStatusChange)";
+  private static final byte[] PAYLOAD = "Updated benchmark payload".getBytes(StandardCharsets.UTF_8);
+  private static final Timestamp UPDATED = Timestamp.valueOf("2015-09-21 10:40:00");
+
+  private Connection con;
+  private MessageKeyResolver dialectResolver;
+  private MessageKeyResolver lookupResolver;
+
+  @Setup(Level.Trial)
+  public void setUp(MessageTableState table) throws SQLException {
+    con = table.dataSource.getConnection();
+    dialectResolver = MessageKeyResolver.forDialect(Dialect.of(con));
+    lookupResolver = new LookupKeyResolver();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws SQLException {
+    con.close();
+  }
+
+  @Benchmark
+  public Object generatedKeyHolder(MessageTableState table) {
+    final String messageId = table.randomMessageId();
+    KeyHolder keyHolder = new GeneratedKeyHolder();
+    table.jdbcTemplate.update(new PreparedStatementCreator() {
+      @Override
+      public PreparedStatement createPreparedStatement(Connection con) throws SQLException {
+        PreparedStatement ps = con.prepareStatement(UPSERT_SQL, new String[] { "id" });
+        ps.setString(1, messageId);
+        ps.setBytes(2, PAYLOAD);
+        ps.setTimestamp(3, UPDATED);
+        return ps;
+      }
+    }, keyHolder);
+    Map<String, Object> keys = keyHolder.getKeyList().get(0);
+    return keys.containsKey("GENERATED_KEY") ? keys.get("GENERATED_KEY") : keys.get("ID");
+  }
+
+  /**
+   * On MySQL the <code>LAST_INSERT_ID(id)</code> resolver, on H2 the upsert followed by
+   * <code>SELECT LAST_INSERT_ID()</code> as done by the original plain JDBC test.
+   */
+  @Benchmark
+  public long lastInsertId(MessageTableState table) throws SQLException {
+    if (BenchmarkDatabase.MYSQL == table.database) {
+      return dialectResolver.upsert(con, new MessageUpsert(table.randomMessageId(), PAYLOAD, UPDATED));
+    }
+    upsert(table.randomMessageId());
+    try (Statement s = con.createStatement();
+        ResultSet rs = s.executeQuery("SELECT LAST_INSERT_ID()")) {
+      rs.next();
+      return rs.getLong(1);
+    }
+  }
+
+  @Benchmark
+  public long reselect(MessageTableState table) throws SQLException {
+    String messageId = table.randomMessageId();
+    upsert(messageId);
+    try (PreparedStatement ps = con.prepareStatement("SELECT id FROM message WHERE messageId = ?")) {
+      ps.setString(1, messageId);
+      try (ResultSet rs = ps.executeQuery()) {
+        rs.next();
+        return rs.getLong(1);
+      }
+    }
+  }
+
+  @Benchmark
+  public long lookupResolver(MessageTableState table) throws SQLException {
+    return lookupResolver.upsert(con, new MessageUpsert(table.randomMessageId(), PAYLOAD, UPDATED));
+  }
+
+  private void upsert(String messageId) throws SQLException {
+    try (PreparedStatement ps = con.prepareStatement(UPSERT_SQL)) {
+      ps.setString(1, messageId);
+      ps.setBytes(2, PAYLOAD);
+      ps.setTimestamp(3, UPDATED);
+      ps.executeUpdate();
+    }
+  }
+}
@@ -0,0 +1,45 @@
+package at.rovo.h2test.benchmark;
+
+import java.util.concurrent.ThreadLocalRandom;
+import javax.sql.DataSource;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.PlatformTransactionManager;
+
+/**
+ * The <code>message</code> and <code>status</code> tables, recreated and seeded with
+ * <code>tableSize</code> messages once per trial.
+ */
+@State(Scope.Benchmark)
+public class MessageTableState {
+
+  @Param({"H2"})
+  public BenchmarkDatabase database;
+
+  @Param({"1000", "100000", "1000000", "10000000"})
+  public int tableSize;
+
+  public DataSource dataSource;
+  public JdbcTemplate jdbcTemplate;
+  public PlatformTransactionManager transactionManager;
+
+  @Setup(Level.Trial)
+  public void initDB() {
+    dataSource = database.createDataSource();
+    jdbcTemplate = new JdbcTemplate(dataSource);
+    transactionManager = new DataSourceTransactionManager(dataSource);
+    database.initDB(jdbcTemplate, tableSize);
+  }
+
+  /**
+   * Returns the business key of a random, already existing message.
+   */
+  public String randomMessageId() {
+    return BenchmarkDatabase.messageId(ThreadLocalRandom.current().nextInt(tableSize));
+  }
+}
@@ -0,0 +1,100 @@
+package at.rovo.h2test.benchmark;
+
+import at.rovo.h2test.message.MessagePayloadStore;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import javax.sql.DataSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * Writes and reads a payload of <code>payloadSize</code> bytes, once inlined into the SQL as hex
+ * literal and read back as <code>byte[]</code> as the original tests do, and once streamed
+ * through {@link MessagePayloadStore}. The hex literal path is given its payload as ready-made
+ * array, while the streaming path generates it while it is read.
+ * <p>
+ * Heap usage is best compared by running with the GC profiler, i.e.
+ * <code>java -jar target/benchmarks.jar PayloadBenchmark -prof gc</code>, which reports the
+ * bytes allocated per operation as <code>gc.alloc.rate.norm</code>.
+ */
+@SuppressWarnings({"SqlNoDataSourceInspection", "SqlDialectInspection"})
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class PayloadBenchmark {
+
+  private static final String MESSAGE_ID = "payload0";
+  private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+  @Param({"H2"})
+  public BenchmarkDatabase database;
+
+  @Param({"65536", "1048576", "8388608"})
+  public int payloadSize;
+
+  private JdbcTemplate jdbcTemplate;
+  private MessagePayloadStore store;
+  private byte[] payload;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    DataSource dataSource = database.createDataSource();
+    jdbcTemplate = new JdbcTemplate(dataSource);
+    store = new MessagePayloadStore(jdbcTemplate);
+    database.initDB(jdbcTemplate, 0);
+    payload = GeneratedPayload.bytes(payloadSize);
+    store.write(MESSAGE_ID, new GeneratedPayload(payloadSize), payloadSize);
+  }
+
+  @Benchmark
+  public int hexLiteralWrite() {
+    StringBuilder sql = new StringBuilder(payload.length * 2 + 128)
+        .append("INSERT INTO message (messageId, message) VALUES ('").append(MESSAGE_ID).append("', X'");
+    for (byte b : payload) {
+      sql.append(HEX[(b >> 4) & 0xf]).append(HEX[b & 0xf]);
+    }
+    sql.append("') ON DUPLICATE KEY UPDATE message = VALUES(message)");
+    return jdbcTemplate.update(sql.toString());
+  }
+
+  @Benchmark
+  public int hexLiteralRead() {
+    return jdbcTemplate.queryForObject("SELECT message FROM message WHERE messageId = ?", byte[].class,
+        MESSAGE_ID).length;
+  }
+
+  @Benchmark
+  public void streamWrite() {
+    store.write(MESSAGE_ID, new GeneratedPayload(payloadSize), payloadSize);
+  }
+
+  @Benchmark
+  public long streamRead(final Blackhole blackhole) {
+    return store.read(MESSAGE_ID, new OutputStream() {
+      @Override
+      public void write(int b) {
+        blackhole.consume(b);
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) {
+        blackhole.consume(b);
+      }
+    });
+  }
+}
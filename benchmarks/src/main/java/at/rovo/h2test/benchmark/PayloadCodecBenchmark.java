@@ -0,0 +1,135 @@
+package at.rovo.h2test.benchmark;
+
+import at.rovo.h2test.message.codec.PayloadCodec;
+import at.rovo.h2test.message.codec.PayloadCodecs;
+import at.rovo.h2test.message.codec.PayloadFormat;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encodes and decodes payloads of <code>payloadSize</code> bytes with each codec. The payloads are
+ * JSON status documents, XML envelopes around base64 attachments, and random bytes standing in
+ * for already compressed or encrypted content. The compression ratio, the stored size relative to
+ * the original one, is printed at the start of each trial; the benchmark scores show its CPU cost.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PayloadCodecBenchmark {
+
+  public enum Codec {
+    NONE(PayloadCodecs.NONE),
+    DEFLATE_FAST(PayloadCodecs.deflate(Deflater.BEST_SPEED)),
+    DEFLATE(PayloadCodecs.DEFLATE),
+    LZ4(PayloadCodecs.LZ4);
+
+    private final PayloadCodec codec;
+
+    Codec(PayloadCodec codec) {
+      this.codec = codec;
+    }
+  }
+
+  public enum Content {
+    JSON {
+      @Override
+      void append(StringBuilder sb, Random random) {
+        sb.append("{\"messageId\":\"msg").append(random.nextInt(100_000)).append("\",\"status\":\"")
+            .append(STATUSES[random.nextInt(STATUSES.length)]).append("\",\"lastChange\":\"2015-09-21T10:")
+            .append(10 + random.nextInt(50)).append(":").append(10 + random.nextInt(50))
+            .append("Z\",\"attempt\":").append(random.nextInt(5)).append(",\"recipient\":\"user")
+            .append(random.nextInt(1_000)).append("@example.com\"}\n");
+      }
+    },
+    XML {
+      @Override
+      void append(StringBuilder sb, Random random) {
+        byte[] attachment = new byte[48];
+        random.nextBytes(attachment);
+        sb.append("<message id=\"msg").append(random.nextInt(100_000)).append("\"><status>")
+            .append(STATUSES[random.nextInt(STATUSES.length)]).append("</status><attachment encoding=\"base64\">")
+            .append(Base64.getEncoder().encodeToString(attachment)).append("</attachment></message>\n");
+      }
+    },
+    RANDOM {
+      @Override
+      void append(StringBuilder sb, Random random) {
+        throw new UnsupportedOperationException();
+      }
+
+      @Override
+      byte[] generate(int size) {
+        byte[] payload = new byte[size];
+        new Random(42).nextBytes(payload);
+        return payload;
+      }
+    };
+
+    private static final String[] STATUSES = {"RECEIVED", "QUEUED", "DELIVERED", "READ", "FAILED"};
+
+    abstract void append(StringBuilder sb, Random random);
+
+    byte[] generate(int size) {
+      Random random = new Random(42);
+      StringBuilder sb = new StringBuilder(size + 256);
+      while (sb.length() < size) {
+        append(sb, random);
+      }
+      return Arrays.copyOf(sb.toString().getBytes(StandardCharsets.UTF_8), size);
+    }
+  }
+
+  @Param({"NONE", "DEFLATE_FAST", "DEFLATE", "LZ4"})
+  public Codec codec;
+
+  @Param({"JSON", "XML", "RANDOM"})
+  public Content content;
+
+  @Param({"1024", "65536"})
+  public int payloadSize;
+
+  private PayloadFormat format;
+  private byte[] raw;
+  private byte[] stored;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    format = new PayloadFormat(codec.codec, 0);
+    raw = content.generate(payloadSize);
+    stored = format.encode(raw);
+    if (!Arrays.equals(raw, format.decode(stored))) {
+      throw new IllegalStateException(codec + " didn't reproduce the " + content + " payload");
+    }
+    System.out.printf("%n%s of %d bytes %s: %d bytes stored, ratio %.3f%n", content, payloadSize, codec,
+        stored.length, stored.length / (double) raw.length);
+  }
+
+  @Benchmark
+  public byte[] encode() {
+    return format.encode(raw);
+  }
+
+  @Benchmark
+  public byte[] decode() {
+    return format.decode(stored);
+  }
+}
@@ -0,0 +1,86 @@
+package at.rovo.h2test.benchmark;
+
+import at.rovo.h2test.jdbc.PoolSettings;
+import at.rovo.h2test.shard.ShardedMessageStore;
+import at.rovo.h2test.status.StatusEvent;
+import com.zaxxer.hikari.HikariDataSource;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * The upsert and status insert of the original tests, one transaction per event, issued by eight
+ * concurrent threads against a {@link ShardedMessageStore} of one to four shards. Each shard is a
+ * database of its own with a pool of <code>8 / shards</code> connections, so the total number of
+ * connections stays the same and throughput should grow with the number of shards as long as the
+ * databases don't compete for the same cores or disks. The shards start out empty and messages are
+ * inserted on first use.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@Threads(8)
+public class ShardedWriteBenchmark {
+
+  private static final int CONNECTIONS = 8;
+
+  @Param({"1", "2", "4"})
+  public int shards;
+
+  @Param({"H2"})
+  public BenchmarkDatabase database;
+
+  @Param({"100000"})
+  public int keys;
+
+  private List<HikariDataSource> dataSources;
+  private ShardedMessageStore store;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    dataSources = new ArrayList<>(shards);
+    int poolSize = Math.max(1, CONNECTIONS / shards);
+    for (int i = 0; i < shards; i++) {
+      HikariDataSource dataSource = database.createPooledShard(i,
+          new PoolSettings().setMinimumIdle(poolSize).setMaximumPoolSize(poolSize), null);
+      database.initDB(new JdbcTemplate(dataSource), 0);
+      dataSources.add(dataSource);
+    }
+    store = new ShardedMessageStore(dataSources);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    System.out.println("messages=" + store.countMessages() + ", statuses=" + store.countStatuses());
+    store.close();
+    for (HikariDataSource dataSource : dataSources) {
+      dataSource.close();
+    }
+  }
+
+  @Benchmark
+  public long recordStatus() {
+    String messageId = BenchmarkDatabase.messageId(ThreadLocalRandom.current().nextInt(keys));
+    return store.record(new StatusEvent(messageId, "UPDATED", new Timestamp(System.currentTimeMillis())));
+  }
+}
@@ -0,0 +1,71 @@
+package at.rovo.h2test.benchmark;
+
+import at.rovo.h2test.message.BatchMessageUpserter;
+import at.rovo.h2test.message.MessageUpsert;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Upserts of existing messages, one row per statement vs. many rows per statement. All
+ * benchmarks report rows per second.
+ */
+@SuppressWarnings({"SqlNoDataSourceInspection", "SqlDialectInspection"})
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class UpsertBenchmark {
+
+  private static final int BATCH_SIZE = 100;
+  private static final byte[] PAYLOAD = "Updated benchmark payload".getBytes(StandardCharsets.UTF_8);
+  private static final Timestamp UPDATED = Timestamp.valueOf("2015-09-21 10:40:00");
+
+  private BatchMessageUpserter upserter;
+
+  @Setup
+  public void setUp(MessageTableState table) {
+    upserter = new BatchMessageUpserter(table.jdbcTemplate, BATCH_SIZE);
+  }
+
+  /**
+   * The statement as issued by the original insert-on-update tests, with all values inlined.
+   */
+  @Benchmark
+  public int singleRowLiteral(MessageTableState table) {
+    String messageId = table.randomMessageId();
+    return table.jdbcTemplate.update("INSERT INTO message (messageId, message, lastStatusChange) VALUES ('"
+        + messageId + "', RAWTOHEX('Updated benchmark payload'), '2015-09-21 10:40:00') "
+        + "ON DUPLICATE KEY UPDATE message=RAWTOHEX('Updated benchmark payload'), lastStatusChange='2015-09-21 10:40:00'");
+  }
+
+  @Benchmark
+  public long singleRowResolved(MessageTableState table) {
+    return upserter.upsert(new MessageUpsert(table.randomMessageId(), PAYLOAD, UPDATED));
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(BATCH_SIZE)
+  public long[] batched(MessageTableState table) {
+    List<MessageUpsert> upserts = new ArrayList<>(BATCH_SIZE);
+    for (int i = 0; i < BATCH_SIZE; i++) {
+      upserts.add(new MessageUpsert(table.randomMessageId(), PAYLOAD, UPDATED));
+    }
+    return upserter.upsert(upserts);
+  }
+}
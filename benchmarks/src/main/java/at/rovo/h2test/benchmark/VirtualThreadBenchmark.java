@@ -0,0 +1,133 @@
+package at.rovo.h2test.benchmark;
+
+import at.rovo.h2test.jdbc.PoolMetrics;
+import at.rovo.h2test.jdbc.PoolSettings;
+import at.rovo.h2test.message.BatchMessageUpserter;
+import at.rovo.h2test.message.MessageUpsert;
+import at.rovo.h2test.stress.ThreadMode;
+import at.rovo.h2test.tx.RetryPolicy;
+import at.rovo.h2test.tx.RetryingTransactionExecutor;
+import at.rovo.h2test.tx.TransactionDispatcher;
+import com.zaxxer.hikari.HikariDataSource;
+import java.sql.Timestamp;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Bursts of <code>requests</code> concurrent requests, each running the upsert and status insert of
+ * the original tests in its own transaction, dispatched by a {@link TransactionDispatcher} onto a
+ * fixed pool of platform threads as large as the connection pool or onto one virtual thread per
+ * request. Before its transaction each request spends <code>latencyMillis</code> outside of the
+ * database, i.e. waiting for another service, which blocks a pooled platform thread but only parks
+ * a virtual one. One operation is a complete burst; the pool metrics and the dispatcher state are
+ * printed at the end of each trial.
+ * <p>
+ * The <code>VIRTUAL</code> mode needs a Java 21 runtime. The forked JVM gets more carrier threads
+ * than the pool has connections, so carriers pinned inside the driver can't starve the scheduler.
+ */
+@SuppressWarnings({"SqlNoDataSourceInspection", "SqlDialectInspection"})
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(value = 1, jvmArgsAppend = "-Djdk.virtualThreadScheduler.parallelism=16")
+public class VirtualThreadBenchmark {
+
+  private static final String INSERT_STATUS_SQL = "INSERT INTO status (lastChange, messageId, status) VALUES (?, ?, ?)";
+  private static final Timestamp UPDATED = Timestamp.valueOf("2015-09-21 10:40:00");
+
+  @Param({"PLATFORM", "VIRTUAL"})
+  public ThreadMode threadMode;
+
+  @Param({"10000"})
+  public int requests;
+
+  @Param({"0", "2"})
+  public int latencyMillis;
+
+  @Param({"10"})
+  public int poolSize;
+
+  @Param({"H2"})
+  public BenchmarkDatabase database;
+
+  @Param({"100000"})
+  public int tableSize;
+
+  private PoolMetrics metrics;
+  private HikariDataSource dataSource;
+  private JdbcTemplate jdbcTemplate;
+  private BatchMessageUpserter upserter;
+  private TransactionDispatcher dispatcher;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    metrics = new PoolMetrics();
+    dataSource = database.createPooledDataSource(
+        new PoolSettings().setMinimumIdle(poolSize).setMaximumPoolSize(poolSize), metrics);
+    jdbcTemplate = new JdbcTemplate(dataSource);
+    upserter = new BatchMessageUpserter(jdbcTemplate);
+    database.initDB(jdbcTemplate, tableSize);
+    TransactionTemplate txTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+    dispatcher = new TransactionDispatcher(
+        new RetryingTransactionExecutor(txTemplate, new RetryPolicy().setMaxAttempts(10)), threadMode, poolSize);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws InterruptedException {
+    System.out.println(dispatcher + ", pinningBounded=" + dispatcher.isPinningBounded());
+    System.out.println(dispatcher.getRetryMetrics());
+    System.out.println(metrics);
+    dispatcher.close();
+    dataSource.close();
+  }
+
+  @Benchmark
+  public Object burst() {
+    CompletableFuture<?>[] results = new CompletableFuture<?>[requests];
+    for (int i = 0; i < requests; i++) {
+      final String messageId = BenchmarkDatabase.messageId(ThreadLocalRandom.current().nextInt(tableSize));
+      results[i] = dispatcher.submit(new Callable<Integer>() {
+        @Override
+        public Integer call() throws Exception {
+          if (latencyMillis > 0) {
+            Thread.sleep(latencyMillis);
+          }
+          return dispatcher.execute(upsertAndInsertStatus(messageId));
+        }
+      });
+    }
+    return CompletableFuture.allOf(results).join();
+  }
+
+  private TransactionCallback<Integer> upsertAndInsertStatus(final String messageId) {
+    return new TransactionCallback<Integer>() {
+      @Override
+      public Integer doInTransaction(TransactionStatus status) {
+        long messageRefId = upserter.upsert(new MessageUpsert(messageId, null, UPDATED));
+        return jdbcTemplate.update(INSERT_STATUS_SQL, UPDATED, messageRefId, "UPDATED");
+      }
+    };
+  }
+}
@@ -0,0 +1,28 @@
+package at.rovo.h2test;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.SQLException;
+import java.util.Locale;
+
+/**
+ * The database products this project is able to talk to. H2 is always expected to run in
+ * <code>MODE=MYSQL</code>, so both dialects share the MySQL flavoured DDL and DML used throughout
+ * the tests; the dialect is mainly needed where the two products behave differently at runtime.
+ */
+public enum Dialect {
+
+  H2,
+  MYSQL;
+
+  public static Dialect of(Connection con) throws SQLException {
+    DatabaseMetaData metaData = con.getMetaData();
+    String product = metaData.getDatabaseProductName().toLowerCase(Locale.ROOT);
+    if (product.contains("h2")) {
+      return H2;
+    } else if (product.contains("mysql") || product.contains("mariadb")) {
+      return MYSQL;
+    }
+    throw new SQLException("Unsupported database product: " + metaData.getDatabaseProductName());
+  }
+}
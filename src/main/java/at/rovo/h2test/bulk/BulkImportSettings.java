@@ -0,0 +1,49 @@
+package at.rovo.h2test.bulk;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Settings of a {@link BulkImporter}.
+ */
+public class BulkImportSettings {
+
+  private boolean rebuildIndexes = true;
+  private long progressIntervalMillis = TimeUnit.SECONDS.toMillis(1);
+  private ImportProgressListener progressListener;
+
+  /**
+   * Whether secondary indexes of a table are dropped before and recreated after loading it. This
+   * is only done if the table is empty when the import starts, as building an index once over all
+   * rows is considerably cheaper than maintaining it row by row, and nobody can rely on the index
+   * of an empty table yet. Unique keys and indexes backing foreign keys are always kept.
+   */
+  public boolean isRebuildIndexes() {
+    return rebuildIndexes;
+  }
+
+  public BulkImportSettings setRebuildIndexes(boolean rebuildIndexes) {
+    this.rebuildIndexes = rebuildIndexes;
+    return this;
+  }
+
+  /**
+   * The minimum time between two progress reports while rows are streamed to the database.
+   */
+  public long getProgressIntervalMillis() {
+    return progressIntervalMillis;
+  }
+
+  public BulkImportSettings setProgressIntervalMillis(long progressIntervalMillis) {
+    this.progressIntervalMillis = progressIntervalMillis;
+    return this;
+  }
+
+  public ImportProgressListener getProgressListener() {
+    return progressListener;
+  }
+
+  public BulkImportSettings setProgressListener(ImportProgressListener progressListener) {
+    this.progressListener = progressListener;
+    return this;
+  }
+}
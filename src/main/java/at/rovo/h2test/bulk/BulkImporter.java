@@ -0,0 +1,285 @@
+package at.rovo.h2test.bulk;
+
+import at.rovo.h2test.Dialect;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * Loads large amounts of messages and status rows from files written in the format of
+ * {@link ImportCsvWriter}, i.e. to stand up a new environment with historical data.
+ * <p>
+ * Instead of sending the rows as statements the database parses the file on its own:
+ * <ul>
+ *   <li>On MySQL the file is streamed to the server via <code>LOAD DATA LOCAL INFILE</code>, which
+ *   requires <code>allowLoadLocalInfile</code> on the driver and <code>local_infile</code> on the
+ *   server. Progress is reported while the file is streamed.</li>
+ *   <li>On H2 <code>INSERT ... DIRECT SORTED SELECT ... FROM CSVREAD(...)</code> reads the file,
+ *   which therefore has to be accessible to the database process. As H2 embedded runs in process,
+ *   this is usually the case.</li>
+ * </ul>
+ * Status files reference their message by <code>messageId</code> rather than by
+ * <code>message.id</code>. They are loaded into the temporary staging table
+ * <code>status_import</code> first and inserted into <code>status</code> joined with
+ * <code>message</code>, so every status row refers to an existing message and rows referencing
+ * unknown messages are counted as rejected. Messages therefore have to be imported before their
+ * status rows.
+ * <p>
+ * Secondary indexes of empty tables are dropped before and rebuilt after loading, see
+ * {@link BulkImportSettings#isRebuildIndexes()}.
+ * <p>
+ * Each load runs as a single statement in auto-commit mode on one connection. As the importer
+ * issues DDL, which commits implicitly, it must not be used within a transaction.
+ */
+@SuppressWarnings({"SqlNoDataSourceInspection", "SqlDialectInspection"})
+public class BulkImporter {
+
+  static final String STAGING_TABLE = "status_import";
+
+  private static final String MYSQL_FORMAT = " CHARACTER SET utf8 FIELDS TERMINATED BY ',' "
+      + "OPTIONALLY ENCLOSED BY '\"' ESCAPED BY '' LINES TERMINATED BY '\\n' ";
+  private static final String MYSQL_MESSAGE_SQL = "LOAD DATA LOCAL INFILE 'message.csv' IGNORE INTO TABLE message"
+      + MYSQL_FORMAT + "(messageId, @message, @lastStatusChange) "
+      + "SET message = UNHEX(NULLIF(@message, '')), lastStatusChange = NULLIF(@lastStatusChange, '')";
+  private static final String MYSQL_STAGING_SQL = "LOAD DATA LOCAL INFILE 'status.csv' INTO TABLE " + STAGING_TABLE
+      + MYSQL_FORMAT + "(messageId, @lastChange, @status) "
+      + "SET lastChange = NULLIF(@lastChange, ''), status = NULLIF(@status, '')";
+  private static final String H2_CSV_OPTIONS = "'charset=UTF-8 fieldSeparator=,'";
+  private static final String STAGING_COLUMNS = "(messageId varchar(255), lastChange datetime, status varchar(255))";
+  private static final String STATUS_FROM_STAGING = " SELECT s.lastChange, m.id, s.status FROM " + STAGING_TABLE
+      + " s JOIN message m ON m.messageId = s.messageId";
+
+  private final JdbcTemplate jdbcTemplate;
+  private final BulkImportSettings settings;
+
+  public BulkImporter(JdbcTemplate jdbcTemplate) {
+    this(jdbcTemplate, new BulkImportSettings());
+  }
+
+  public BulkImporter(JdbcTemplate jdbcTemplate, BulkImportSettings settings) {
+    this.jdbcTemplate = jdbcTemplate;
+    this.settings = settings;
+  }
+
+  /**
+   * Loads the messages of the given file. On MySQL rows whose <code>messageId</code> already exists
+   * are skipped and counted as rejected, on H2 they fail the import.
+   *
+   * @param file Rows of <code>messageId,hexPayload,lastStatusChange</code>
+   */
+  public ImportResult importMessages(final Path file) {
+    return jdbcTemplate.execute(new ConnectionCallback<ImportResult>() {
+      @Override
+      public ImportResult doInConnection(Connection con) throws SQLException {
+        long start = System.nanoTime();
+        Dialect dialect = Dialect.of(con);
+        List<SecondaryIndex> dropped = dropSecondaryIndexes(con, dialect, "message");
+        long read;
+        long loaded;
+        try (Statement stmt = con.createStatement()) {
+          if (Dialect.MYSQL == dialect) {
+            LineCountingInputStream in = stream(file, "message");
+            loaded = loadLocal(stmt, in, MYSQL_MESSAGE_SQL);
+            read = in.getLines();
+          } else {
+            loaded = stmt.executeUpdate("INSERT INTO message (messageId, message, lastStatusChange) DIRECT SORTED "
+                + "SELECT messageId, NULLIF(message, ''), NULLIF(lastStatusChange, '') FROM "
+                + csvRead(file, "messageId,message,lastStatusChange"));
+            read = loaded;
+          }
+        } finally {
+          createIndexes(con, dropped);
+        }
+        long elapsed = System.nanoTime() - start;
+        finished("message", loaded, elapsed);
+        return new ImportResult("message", loaded, read - loaded, elapsed);
+      }
+    });
+  }
+
+  /**
+   * Loads the status rows of the given file for messages which already exist.
+   *
+   * @param file Rows of <code>messageId,lastChange,status</code>
+   */
+  public ImportResult importStatuses(final Path file) {
+    return jdbcTemplate.execute(new ConnectionCallback<ImportResult>() {
+      @Override
+      public ImportResult doInConnection(Connection con) throws SQLException {
+        long start = System.nanoTime();
+        Dialect dialect = Dialect.of(con);
+        List<SecondaryIndex> dropped = dropSecondaryIndexes(con, dialect, "status");
+        long staged;
+        long loaded;
+        try (Statement stmt = con.createStatement()) {
+          if (Dialect.MYSQL == dialect) {
+            stmt.execute("CREATE TEMPORARY TABLE " + STAGING_TABLE + " " + STAGING_COLUMNS);
+          } else {
+            stmt.execute("CREATE LOCAL TEMPORARY TABLE " + STAGING_TABLE + " " + STAGING_COLUMNS);
+          }
+          try {
+            if (Dialect.MYSQL == dialect) {
+              staged = loadLocal(stmt, stream(file, STAGING_TABLE), MYSQL_STAGING_SQL);
+            } else {
+              staged = stmt.executeUpdate("INSERT INTO " + STAGING_TABLE + " (messageId, lastChange, status) DIRECT "
+                  + "SELECT messageId, NULLIF(lastChange, ''), NULLIF(status, '') FROM "
+                  + csvRead(file, "messageId,lastChange,status"));
+            }
+            finished(STAGING_TABLE, staged, System.nanoTime() - start);
+            loaded = insertStatuses(stmt, dialect);
+          } finally {
+            stmt.execute("DROP TABLE IF EXISTS " + STAGING_TABLE);
+          }
+        } finally {
+          createIndexes(con, dropped);
+        }
+        long elapsed = System.nanoTime() - start;
+        finished("status", loaded, elapsed);
+        return new ImportResult("status", loaded, staged - loaded, elapsed);
+      }
+    });
+  }
+
+  private static long insertStatuses(Statement stmt, Dialect dialect) throws SQLException {
+    if (Dialect.H2 == dialect) {
+      return stmt.executeUpdate("INSERT INTO status (lastChange, messageId, status) DIRECT" + STATUS_FROM_STAGING);
+    }
+    // the join already guarantees that every referenced message exists
+    stmt.execute("SET foreign_key_checks = 0");
+    try {
+      return stmt.executeUpdate("INSERT INTO status (lastChange, messageId, status)" + STATUS_FROM_STAGING);
+    } finally {
+      stmt.execute("SET foreign_key_checks = 1");
+    }
+  }
+
+  private LineCountingInputStream stream(Path file, String table) {
+    try {
+      return new LineCountingInputStream(Files.newInputStream(file), table, settings.getProgressListener(),
+          settings.getProgressIntervalMillis());
+    } catch (IOException ioEx) {
+      throw new DataAccessResourceFailureException("Could not open import file " + file, ioEx);
+    }
+  }
+
+  private static long loadLocal(Statement stmt, InputStream in, String sql) throws SQLException {
+    try (InputStream file = in) {
+      stmt.unwrap(com.mysql.jdbc.Statement.class).setLocalInfileInputStream(file);
+      return stmt.executeUpdate(sql);
+    } catch (IOException ioEx) {
+      throw new DataAccessResourceFailureException("Could not close import file", ioEx);
+    } finally {
+      stmt.unwrap(com.mysql.jdbc.Statement.class).setLocalInfileInputStream(null);
+    }
+  }
+
+  private static String csvRead(Path file, String columns) {
+    return "CSVREAD(" + literal(file.toAbsolutePath().toString()) + ", " + literal(columns.toUpperCase(Locale.ROOT)) + ", "
+        + H2_CSV_OPTIONS + ")";
+  }
+
+  private static String literal(String value) {
+    return "'" + value.replace("'", "''") + "'";
+  }
+
+  private void finished(String table, long rows, long elapsedNanos) {
+    ImportProgressListener listener = settings.getProgressListener();
+    if (null != listener) {
+      listener.onProgress(new ImportProgress(table, rows, elapsedNanos, true));
+    }
+  }
+
+  /**
+   * Drops the non-unique indexes of the given table which don't back a foreign key, if the table
+   * is empty.
+   */
+  private List<SecondaryIndex> dropSecondaryIndexes(Connection con, Dialect dialect, String table)
+      throws SQLException {
+    if (!settings.isRebuildIndexes() || !isEmpty(con, table)) {
+      return Collections.emptyList();
+    }
+    List<SecondaryIndex> indexes = secondaryIndexes(con, table);
+    try (Statement stmt = con.createStatement()) {
+      for (SecondaryIndex index : indexes) {
+        if (Dialect.MYSQL == dialect) {
+          stmt.execute("ALTER TABLE " + table + " DROP INDEX " + index.name);
+        } else {
+          stmt.execute("DROP INDEX " + index.name);
+        }
+      }
+    }
+    return indexes;
+  }
+
+  private static void createIndexes(Connection con, List<SecondaryIndex> indexes) throws SQLException {
+    try (Statement stmt = con.createStatement()) {
+      for (SecondaryIndex index : indexes) {
+        stmt.execute("CREATE INDEX " + index.name + " ON " + index.table + " (" + String.join(", ", index.columns) + ")");
+      }
+    }
+  }
+
+  private static boolean isEmpty(Connection con, String table) throws SQLException {
+    try (Statement stmt = con.createStatement(); ResultSet rs = stmt.executeQuery("SELECT 1 FROM " + table + " LIMIT 1")) {
+      return !rs.next();
+    }
+  }
+
+  private static List<SecondaryIndex> secondaryIndexes(Connection con, String table) throws SQLException {
+    DatabaseMetaData metaData = con.getMetaData();
+    String name = metaData.storesUpperCaseIdentifiers() ? table.toUpperCase(Locale.ROOT) : table;
+    List<String> foreignKeyColumns = new ArrayList<>();
+    try (ResultSet rs = metaData.getImportedKeys(con.getCatalog(), null, name)) {
+      while (rs.next()) {
+        foreignKeyColumns.add(rs.getString("FKCOLUMN_NAME").toLowerCase(Locale.ROOT));
+      }
+    }
+    List<SecondaryIndex> indexes = new ArrayList<>();
+    try (ResultSet rs = metaData.getIndexInfo(con.getCatalog(), null, name, false, false)) {
+      SecondaryIndex current = null;
+      while (rs.next()) {
+        String indexName = rs.getString("INDEX_NAME");
+        if (!rs.getBoolean("NON_UNIQUE") || null == indexName) {
+          continue;
+        }
+        if (null == current || !current.name.equalsIgnoreCase(indexName)) {
+          current = new SecondaryIndex(table, indexName);
+          indexes.add(current);
+        }
+        current.columns.add(rs.getString("COLUMN_NAME"));
+      }
+    }
+    List<SecondaryIndex> droppable = new ArrayList<>(indexes.size());
+    for (SecondaryIndex index : indexes) {
+      if (!foreignKeyColumns.contains(index.columns.get(0).toLowerCase(Locale.ROOT))) {
+        droppable.add(index);
+      }
+    }
+    return droppable;
+  }
+
+  private static final class SecondaryIndex {
+
+    private final String table;
+    private final String name;
+    private final List<String> columns = new ArrayList<>();
+
+    SecondaryIndex(String table, String name) {
+      this.table = table;
+      this.name = name;
+    }
+  }
+}
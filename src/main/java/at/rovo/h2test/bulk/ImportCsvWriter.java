@@ -0,0 +1,83 @@
+package at.rovo.h2test.bulk;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+
+/**
+ * Writes files in the format read by {@link BulkImporter}: one row per line terminated by
+ * <code>\n</code>, fields separated by commas and enclosed in double quotes where they contain a
+ * comma, a double quote or a line break, with double quotes inside of fields doubled. Payloads are
+ * hex encoded. Empty fields are read as <code>NULL</code>.
+ */
+public class ImportCsvWriter implements Closeable {
+
+  private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+  private final Writer writer;
+
+  public ImportCsvWriter(Path file) throws IOException {
+    this(Files.newBufferedWriter(file, StandardCharsets.UTF_8));
+  }
+
+  public ImportCsvWriter(Writer writer) {
+    this.writer = writer instanceof BufferedWriter ? writer : new BufferedWriter(writer);
+  }
+
+  /**
+   * Writes a row of a message file.
+   */
+  public void writeMessage(String messageId, byte[] payload, Timestamp lastStatusChange) throws IOException {
+    writeField(messageId);
+    writer.write(',');
+    if (null != payload) {
+      for (byte b : payload) {
+        writer.write(HEX[(b >> 4) & 0x0F]);
+        writer.write(HEX[b & 0x0F]);
+      }
+    }
+    writer.write(',');
+    writeField(null != lastStatusChange ? lastStatusChange.toString() : null);
+    writer.write('\n');
+  }
+
+  /**
+   * Writes a row of a status file, which references its message by <code>messageId</code>.
+   */
+  public void writeStatus(String messageId, Timestamp lastChange, String status) throws IOException {
+    writeField(messageId);
+    writer.write(',');
+    writeField(null != lastChange ? lastChange.toString() : null);
+    writer.write(',');
+    writeField(status);
+    writer.write('\n');
+  }
+
+  private void writeField(String value) throws IOException {
+    if (null == value) {
+      return;
+    }
+    boolean quote = false;
+    for (int i = 0; i < value.length() && !quote; i++) {
+      char c = value.charAt(i);
+      quote = ',' == c || '"' == c || '\n' == c || '\r' == c;
+    }
+    if (!quote) {
+      writer.write(value);
+      return;
+    }
+    writer.write('"');
+    writer.write(value.replace("\"", "\"\""));
+    writer.write('"');
+  }
+
+  @Override
+  public void close() throws IOException {
+    writer.close();
+  }
+}
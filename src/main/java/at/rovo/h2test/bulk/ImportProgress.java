@@ -0,0 +1,55 @@
+package at.rovo.h2test.bulk;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A snapshot of the number of rows an import has processed so far.
+ */
+public class ImportProgress {
+
+  private final String table;
+  private final long rows;
+  private final long elapsedNanos;
+  private final boolean finished;
+
+  public ImportProgress(String table, long rows, long elapsedNanos, boolean finished) {
+    this.table = table;
+    this.rows = rows;
+    this.elapsedNanos = elapsedNanos;
+    this.finished = finished;
+  }
+
+  /**
+   * The table currently loaded, which is the staging table <code>status_import</code> while the
+   * rows of a status import are read.
+   */
+  public String getTable() {
+    return table;
+  }
+
+  public long getRows() {
+    return rows;
+  }
+
+  public long getElapsedMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+  }
+
+  public double getRowsPerSecond() {
+    return 0 == elapsedNanos ? 0.0 : rows * 1_000_000_000.0 / elapsedNanos;
+  }
+
+  /**
+   * Whether loading the table has completed. H2 reads import files itself and therefore only
+   * reports finished tables.
+   */
+  public boolean isFinished() {
+    return finished;
+  }
+
+  @Override
+  public String toString() {
+    return "ImportProgress{table=" + table + ", rows=" + rows + ", elapsedMillis=" + getElapsedMillis()
+        + ", rowsPerSecond=" + Math.round(getRowsPerSecond()) + ", finished=" + finished + "}";
+  }
+}
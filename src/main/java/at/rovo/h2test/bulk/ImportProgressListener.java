@@ -0,0 +1,9 @@
+package at.rovo.h2test.bulk;
+
+/**
+ * Receives the progress of a running import. Invoked on the importing thread.
+ */
+public interface ImportProgressListener {
+
+  void onProgress(ImportProgress progress);
+}
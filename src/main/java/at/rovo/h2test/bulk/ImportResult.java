@@ -0,0 +1,54 @@
+package at.rovo.h2test.bulk;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The outcome of importing a file into a table.
+ */
+public class ImportResult {
+
+  private final String table;
+  private final long loadedRows;
+  private final long rejectedRows;
+  private final long elapsedNanos;
+
+  public ImportResult(String table, long loadedRows, long rejectedRows, long elapsedNanos) {
+    this.table = table;
+    this.loadedRows = loadedRows;
+    this.rejectedRows = rejectedRows;
+    this.elapsedNanos = elapsedNanos;
+  }
+
+  public String getTable() {
+    return table;
+  }
+
+  public long getLoadedRows() {
+    return loadedRows;
+  }
+
+  /**
+   * Rows of the file which were not loaded, i.e. status rows referencing an unknown message or, on
+   * MySQL, messages whose <code>messageId</code> already existed.
+   */
+  public long getRejectedRows() {
+    return rejectedRows;
+  }
+
+  /**
+   * Includes dropping and rebuilding indexes.
+   */
+  public long getElapsedMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+  }
+
+  public double getRowsPerSecond() {
+    return 0 == elapsedNanos ? 0.0 : loadedRows * 1_000_000_000.0 / elapsedNanos;
+  }
+
+  @Override
+  public String toString() {
+    return "ImportResult{table=" + table + ", loaded=" + loadedRows + ", rejected=" + rejectedRows
+        + ", elapsedMillis=" + getElapsedMillis() + ", rowsPerSecond=" + Math.round(getRowsPerSecond()) + "}";
+  }
+}
@@ -0,0 +1,74 @@
+package at.rovo.h2test.bulk;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counts the lines read from the underlying stream and reports them as progress of the table being
+ * loaded at most once per interval.
+ */
+class LineCountingInputStream extends FilterInputStream {
+
+  private final String table;
+  private final ImportProgressListener listener;
+  private final long intervalNanos;
+  private final long startNanos;
+  private long nextReportNanos;
+  private long lines;
+  private int lastByte = '\n';
+
+  LineCountingInputStream(InputStream in, String table, ImportProgressListener listener, long intervalMillis) {
+    super(in);
+    this.table = table;
+    this.listener = listener;
+    this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+    this.startNanos = System.nanoTime();
+    this.nextReportNanos = startNanos + intervalNanos;
+  }
+
+  @Override
+  public int read() throws IOException {
+    int b = super.read();
+    if (b >= 0) {
+      count(b);
+      reportIfDue();
+    }
+    return b;
+  }
+
+  @Override
+  public int read(byte[] buffer, int off, int len) throws IOException {
+    int read = super.read(buffer, off, len);
+    for (int i = off; i < off + read; i++) {
+      count(buffer[i]);
+    }
+    if (read > 0) {
+      reportIfDue();
+    }
+    return read;
+  }
+
+  private void count(int b) {
+    if ('\n' == b) {
+      lines++;
+    }
+    lastByte = b;
+  }
+
+  private void reportIfDue() {
+    long now = System.nanoTime();
+    if (null != listener && now - nextReportNanos >= 0) {
+      nextReportNanos = now + intervalNanos;
+      listener.onProgress(new ImportProgress(table, lines, now - startNanos, false));
+    }
+  }
+
+  /**
+   * The number of lines read so far, including a last line without line terminator.
+   */
+  long getLines() {
+    return '\n' == lastByte ? lines : lines + 1;
+  }
+}
@@ -0,0 +1,153 @@
+package at.rovo.h2test.diff;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * The runs of one {@link Workload} on all targets, the differences between their outcomes and a
+ * side by side comparison of their latencies and throughput.
+ */
+public class DiffReport {
+
+  private static final int STEP_WIDTH = 36;
+  private static final int TARGET_WIDTH = 20;
+
+  private final Workload workload;
+  private final List<TargetRun> runs;
+  private final List<String> differences;
+
+  DiffReport(Workload workload, List<TargetRun> runs) {
+    this.workload = workload;
+    this.runs = Collections.unmodifiableList(runs);
+    this.differences = Collections.unmodifiableList(diff(runs));
+  }
+
+  public List<TargetRun> getRuns() {
+    return runs;
+  }
+
+  public TargetRun getRun(String target) {
+    for (TargetRun run : runs) {
+      if (run.getTarget().getName().equals(target)) {
+        return run;
+      }
+    }
+    throw new IllegalArgumentException("Unknown target " + target);
+  }
+
+  /**
+   * Every step whose outcome on a target differs from the outcome on the first executed target,
+   * including steps one of them failed on or didn't get to.
+   */
+  public List<String> getDifferences() {
+    return differences;
+  }
+
+  public boolean isConsistent() {
+    return differences.isEmpty();
+  }
+
+  private static List<String> diff(List<TargetRun> runs) {
+    List<String> differences = new ArrayList<>();
+    TargetRun reference = null;
+    for (TargetRun run : runs) {
+      if (run.isSkipped()) {
+        continue;
+      }
+      if (null == reference) {
+        reference = run;
+        continue;
+      }
+      Set<String> steps = new LinkedHashSet<>(reference.outcomes().keySet());
+      steps.addAll(run.outcomes().keySet());
+      for (String step : steps) {
+        StepOutcome expected = reference.getOutcome(step);
+        StepOutcome outcome = run.getOutcome(step);
+        if (null == expected || !expected.equals(outcome)) {
+          differences.add("'" + step + "': " + reference.getTarget() + " " + describe(expected)
+              + ", " + run.getTarget() + " " + describe(outcome) + details(expected, outcome));
+        }
+      }
+    }
+    return differences;
+  }
+
+  private static String describe(StepOutcome outcome) {
+    return null == outcome ? "not executed" : outcome.toString();
+  }
+
+  private static String details(StepOutcome expected, StepOutcome actual) {
+    StringBuilder sb = new StringBuilder();
+    for (StepOutcome outcome : new StepOutcome[] {expected, actual}) {
+      if (null != outcome && null != outcome.getDetail()) {
+        sb.append(sb.length() == 0 ? " (" : "; ").append(outcome.getDetail());
+      }
+    }
+    return sb.length() == 0 ? "" : sb.append(')').toString();
+  }
+
+  /**
+   * Formats p50 and p99 latencies of every step and the throughput of every target as a table,
+   * followed by the differences found.
+   */
+  public String format() {
+    StringBuilder sb = new StringBuilder();
+    sb.append("Workload '").append(workload.getName()).append("', ").append(workload.getIterations())
+        .append(" iterations\n");
+    row(sb, "latency p50 / p99 [us]");
+    for (TargetRun run : runs) {
+      sb.append(column(run.getTarget().getName()));
+    }
+    sb.append('\n');
+    List<String> steps = new ArrayList<>();
+    for (WorkloadStep step : workload.getSteps()) {
+      steps.add(step.name);
+    }
+    steps.add(TargetRun.COMMIT);
+    for (String step : steps) {
+      row(sb, step);
+      for (TargetRun run : runs) {
+        sb.append(column(run.isSkipped() ? "-" : String.format(Locale.ROOT, "%.1f / %.1f",
+            run.getLatencyMicros(step, 50.0), run.getLatencyMicros(step, 99.0))));
+      }
+      sb.append('\n');
+    }
+    row(sb, "throughput [tx/s]");
+    for (TargetRun run : runs) {
+      sb.append(column(run.isSkipped() ? "skipped" : String.format(Locale.ROOT, "%.0f", run.getThroughput())));
+    }
+    sb.append('\n');
+    for (TargetRun run : runs) {
+      if (run.isSkipped()) {
+        sb.append(run.getTarget()).append(" skipped: ").append(run.getSkipReason()).append('\n');
+      } else if (run.isFailed()) {
+        sb.append(run.getTarget()).append(" failed on '").append(run.getFailedStep()).append("': ")
+            .append(run.getOutcome(run.getFailedStep())).append('\n');
+      }
+    }
+    if (differences.isEmpty()) {
+      sb.append("No differences\n");
+    }
+    for (String difference : differences) {
+      sb.append("DIFF ").append(difference).append('\n');
+    }
+    return sb.toString();
+  }
+
+  private static void row(StringBuilder sb, String label) {
+    sb.append(String.format(Locale.ROOT, "%-" + STEP_WIDTH + "s", label));
+  }
+
+  private static String column(String value) {
+    return String.format(Locale.ROOT, "%" + TARGET_WIDTH + "s", value);
+  }
+
+  @Override
+  public String toString() {
+    return format();
+  }
+}
@@ -0,0 +1,97 @@
+package at.rovo.h2test.diff;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import javax.sql.DataSource;
+import org.springframework.jdbc.datasource.SimpleDriverDataSource;
+
+/**
+ * A database a {@link Workload} is executed against.
+ */
+@SuppressWarnings({"SqlNoDataSourceInspection", "SqlDialectInspection"})
+public class DiffTarget {
+
+  private final String name;
+  private final DataSource dataSource;
+  private final List<String> initStatements = new ArrayList<>();
+
+  public DiffTarget(String name, DataSource dataSource, String... initStatements) {
+    this.name = name;
+    this.dataSource = dataSource;
+    Collections.addAll(this.initStatements, initStatements);
+  }
+
+  /**
+   * An in-memory H2 database in <code>MODE=MYSQL</code>.
+   */
+  public static DiffTarget h2Memory(String name) {
+    return new DiffTarget(name, h2("jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1;MODE=MYSQL;"));
+  }
+
+  /**
+   * A file based H2 database using the MVStore in <code>MODE=MYSQL</code>, stored in the given
+   * directory.
+   */
+  public static DiffTarget h2File(String name, Path directory) {
+    return new DiffTarget(name, h2("jdbc:h2:file:" + directory.resolve(name).toAbsolutePath()
+        + ";MV_STORE=TRUE;MODE=MYSQL;"));
+  }
+
+  /**
+   * A MySQL database or a MySQL compatible stand-in like MariaDB. H2's <code>RAWTOHEX</code> is
+   * emulated by a stored function, so the workloads of the original tests run unchanged.
+   */
+  public static DiffTarget mysql(String name, String url, String user, String password) {
+    SimpleDriverDataSource db = new SimpleDriverDataSource();
+    db.setDriverClass(com.mysql.jdbc.Driver.class);
+    db.setUrl(url);
+    db.setUsername(user);
+    db.setPassword(password);
+    return new DiffTarget(name, db,
+        "DROP FUNCTION IF EXISTS RAWTOHEX",
+        "CREATE FUNCTION RAWTOHEX(message VARCHAR(64)) RETURNS VARCHAR(64) DETERMINISTIC RETURN HEX(message)");
+  }
+
+  private static DataSource h2(String url) {
+    SimpleDriverDataSource db = new SimpleDriverDataSource();
+    db.setDriverClass(org.h2.Driver.class);
+    db.setUrl(url);
+    return db;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public DataSource getDataSource() {
+    return dataSource;
+  }
+
+  /**
+   * Statements executed before the setup of every workload.
+   */
+  public List<String> getInitStatements() {
+    return Collections.unmodifiableList(initStatements);
+  }
+
+  /**
+   * Whether a connection to the target can be established, i.e. to skip a MySQL target on machines
+   * without a MySQL server.
+   */
+  public boolean isAvailable() {
+    try (Connection connection = dataSource.getConnection()) {
+      return connection.isValid(1);
+    } catch (SQLException sqlEx) {
+      return false;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return name;
+  }
+}
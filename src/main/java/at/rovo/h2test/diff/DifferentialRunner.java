@@ -0,0 +1,136 @@
+package at.rovo.h2test.diff;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.HdrHistogram.Histogram;
+
+/**
+ * Executes a {@link Workload} against several databases, i.e. H2 in memory, H2 on file and MySQL,
+ * and compares what each of them returned. This tells whether H2 behaves like MySQL for the
+ * statements of the workload and whether it performs comparably.
+ * <p>
+ * Targets are run one after another on a single connection each, so their measurements don't
+ * interfere. Targets which can't be reached are skipped, which is reported in the
+ * {@link DiffReport}. A target failing during the run, e.g. on setup or because its connection
+ * broke, is not skipped: its error becomes the outcome of the failing step, its remaining steps
+ * count as not executed, and both are compared like any other outcome.
+ */
+public class DifferentialRunner {
+
+  private final List<DiffTarget> targets;
+
+  public DifferentialRunner(DiffTarget... targets) {
+    this(Arrays.asList(targets));
+  }
+
+  public DifferentialRunner(List<DiffTarget> targets) {
+    if (targets.isEmpty()) {
+      throw new IllegalArgumentException("At least one target is required");
+    }
+    this.targets = new ArrayList<>(targets);
+  }
+
+  public DiffReport run(Workload workload) {
+    List<TargetRun> runs = new ArrayList<>(targets.size());
+    for (DiffTarget target : targets) {
+      runs.add(run(target, workload));
+    }
+    return new DiffReport(workload, runs);
+  }
+
+  private TargetRun run(DiffTarget target, Workload workload) {
+    if (!target.isAvailable()) {
+      return TargetRun.skipped(target, "not reachable");
+    }
+    Map<String, StepOutcome> outcomes = new LinkedHashMap<>();
+    Map<String, Histogram> latencies = new LinkedHashMap<>();
+    for (WorkloadStep step : workload.getSteps()) {
+      latencies.put(step.name, new Histogram(3));
+    }
+    latencies.put(TargetRun.COMMIT, new Histogram(3));
+    Progress progress = new Progress();
+    try (Connection con = target.getDataSource().getConnection()) {
+      try (Statement stmt = con.createStatement()) {
+        for (String sql : target.getInitStatements()) {
+          stmt.execute(sql);
+        }
+        for (String sql : workload.getSetup()) {
+          stmt.execute(sql);
+        }
+      }
+      outcomes.put(TargetRun.SETUP, StepOutcome.completed());
+
+      con.setAutoCommit(false);
+      for (int i = -workload.getWarmupIterations(); i < 0; i++) {
+        iteration(con, workload, i, progress, null, null);
+      }
+      progress.startNanos = System.nanoTime();
+      for (int i = 0; i < workload.getIterations(); i++) {
+        iteration(con, workload, i, progress, 0 == i ? outcomes : null, latencies);
+        progress.transactions++;
+      }
+      progress.stop();
+      con.setAutoCommit(true);
+
+      for (WorkloadStep verification : workload.getVerifications()) {
+        progress.step = verification.name;
+        outcomes.put(verification.name, verification.execute(con, workload.getIterations()));
+      }
+      return new TargetRun(target, outcomes, latencies, progress.transactions, progress.elapsedNanos, null);
+    } catch (SQLException sqlEx) {
+      // the target was reachable, so its failure is compared like any other outcome
+      progress.stop();
+      outcomes.put(progress.step, StepOutcome.failed(sqlEx));
+      return new TargetRun(target, outcomes, latencies, progress.transactions, progress.elapsedNanos,
+          progress.step);
+    }
+  }
+
+  private static void iteration(Connection con, Workload workload, int iteration, Progress progress,
+      Map<String, StepOutcome> outcomes, Map<String, Histogram> latencies) throws SQLException {
+    for (WorkloadStep step : workload.getSteps()) {
+      progress.step = step.name;
+      long start = System.nanoTime();
+      StepOutcome outcome = step.execute(con, iteration);
+      long elapsed = System.nanoTime() - start;
+      if (null != latencies) {
+        latencies.get(step.name).recordValue(elapsed);
+      }
+      if (null != outcomes) {
+        outcomes.put(step.name, outcome);
+      }
+    }
+    progress.step = TargetRun.COMMIT;
+    long start = System.nanoTime();
+    con.commit();
+    if (null != latencies) {
+      latencies.get(TargetRun.COMMIT).recordValue(System.nanoTime() - start);
+    }
+    if (null != outcomes) {
+      outcomes.put(TargetRun.COMMIT, StepOutcome.completed());
+    }
+  }
+
+  /**
+   * How far the workload got on a target, so a failure can be attributed to the step causing it.
+   */
+  private static final class Progress {
+
+    private String step = TargetRun.SETUP;
+    private long transactions;
+    private long startNanos;
+    private long elapsedNanos;
+
+    private void stop() {
+      if (0 == elapsedNanos && 0 != transactions) {
+        elapsedNanos = System.nanoTime() - startNanos;
+      }
+    }
+  }
+}
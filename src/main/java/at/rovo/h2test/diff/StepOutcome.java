@@ -0,0 +1,112 @@
+package at.rovo.h2test.diff;
+
+import at.rovo.h2test.tx.ErrorClass;
+import at.rovo.h2test.tx.SqlErrorClassifier;
+import java.math.BigDecimal;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * What a step returned on one target, reduced to a database independent textual form: column
+ * values are compared by value rather than by Java type, errors by their {@link ErrorClass} and
+ * SQLState class rather than by vendor code and message.
+ */
+final class StepOutcome {
+
+  private static final SqlErrorClassifier CLASSIFIER = new SqlErrorClassifier();
+
+  private final String description;
+  private final String detail;
+
+  private StepOutcome(String description, String detail) {
+    this.description = description;
+    this.detail = detail;
+  }
+
+  static StepOutcome completed() {
+    return new StepOutcome("completed", null);
+  }
+
+  static StepOutcome updated(int updateCount) {
+    return new StepOutcome("updated " + updateCount, null);
+  }
+
+  static StepOutcome keys(int updateCount, ResultSet keys) throws SQLException {
+    List<Long> ids = new ArrayList<>();
+    while (keys.next()) {
+      ids.add(keys.getLong(1));
+    }
+    return new StepOutcome("updated " + updateCount + ", keys " + ids, null);
+  }
+
+  static StepOutcome rows(ResultSet rs) throws SQLException {
+    int columns = rs.getMetaData().getColumnCount();
+    List<List<String>> rows = new ArrayList<>();
+    while (rs.next()) {
+      List<String> row = new ArrayList<>(columns);
+      for (int i = 1; i <= columns; i++) {
+        row.add(normalize(rs.getObject(i)));
+      }
+      rows.add(row);
+    }
+    return new StepOutcome("rows " + rows, null);
+  }
+
+  static StepOutcome failed(SQLException sqlEx) {
+    ErrorClass errorClass = CLASSIFIER.classify(sqlEx);
+    String state = sqlEx.getSQLState();
+    String stateClass = null != state && state.length() >= 2 ? state.substring(0, 2) : "??";
+    return new StepOutcome("error " + errorClass + " (SQLState " + stateClass + "xxx)",
+        sqlEx.getErrorCode() + ": " + sqlEx.getMessage());
+  }
+
+  private static String normalize(Object value) throws SQLException {
+    if (null == value) {
+      return "NULL";
+    }
+    if (value instanceof Blob) {
+      Blob blob = (Blob) value;
+      value = blob.getBytes(1, (int) blob.length());
+    } else if (value instanceof Clob) {
+      Clob clob = (Clob) value;
+      value = clob.getSubString(1, (int) clob.length());
+    }
+    if (value instanceof byte[]) {
+      StringBuilder sb = new StringBuilder("0x");
+      for (byte b : (byte[]) value) {
+        sb.append(Character.forDigit((b >> 4) & 0x0F, 16)).append(Character.forDigit(b & 0x0F, 16));
+      }
+      return sb.toString();
+    }
+    if (value instanceof Number) {
+      return new BigDecimal(value.toString()).stripTrailingZeros().toPlainString();
+    }
+    return value.toString();
+  }
+
+  /**
+   * The vendor specific error, if the step failed.
+   */
+  String getDetail() {
+    return detail;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    return this == o || (o instanceof StepOutcome && description.equals(((StepOutcome) o).description));
+  }
+
+  @Override
+  public int hashCode() {
+    return description.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return description;
+  }
+}
@@ -0,0 +1,123 @@
+package at.rovo.h2test.diff;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.HdrHistogram.Histogram;
+
+/**
+ * The outcomes and latencies of a {@link Workload} on a single {@link DiffTarget}.
+ */
+public class TargetRun {
+
+  /** Pseudo step measuring the commit ending each iteration. */
+  public static final String COMMIT = "commit";
+  /** Pseudo step executing the init statements of the target and the setup of the workload. */
+  public static final String SETUP = "setup";
+
+  private final DiffTarget target;
+  private final String skipReason;
+  private final String failedStep;
+  private final Map<String, StepOutcome> outcomes;
+  private final Map<String, Histogram> latencies;
+  private final long transactions;
+  private final long elapsedNanos;
+
+  TargetRun(DiffTarget target, Map<String, StepOutcome> outcomes, Map<String, Histogram> latencies,
+      long transactions, long elapsedNanos, String failedStep) {
+    this.target = target;
+    this.skipReason = null;
+    this.failedStep = failedStep;
+    this.outcomes = outcomes;
+    this.latencies = latencies;
+    this.transactions = transactions;
+    this.elapsedNanos = elapsedNanos;
+  }
+
+  private TargetRun(DiffTarget target, String skipReason) {
+    this.target = target;
+    this.skipReason = skipReason;
+    this.failedStep = null;
+    this.outcomes = Collections.emptyMap();
+    this.latencies = Collections.emptyMap();
+    this.transactions = 0;
+    this.elapsedNanos = 0;
+  }
+
+  static TargetRun skipped(DiffTarget target, String reason) {
+    return new TargetRun(target, reason);
+  }
+
+  public DiffTarget getTarget() {
+    return target;
+  }
+
+  public boolean isSkipped() {
+    return null != skipReason;
+  }
+
+  /**
+   * Why the workload could not be executed on the target, <code>null</code> if it was.
+   */
+  public String getSkipReason() {
+    return skipReason;
+  }
+
+  /**
+   * Whether the target failed during the run, in which case the error is the outcome of the
+   * {@link #getFailedStep() failed step} and later steps are missing.
+   */
+  public boolean isFailed() {
+    return null != failedStep;
+  }
+
+  /**
+   * The step, {@link #SETUP} or {@link #COMMIT} whose execution failed, <code>null</code> if the
+   * run completed.
+   */
+  public String getFailedStep() {
+    return failedStep;
+  }
+
+  /**
+   * The outcome of the {@link #SETUP setup}, of each step and the {@link #COMMIT commit} in the
+   * first measured iteration and of each verification query, in workload order.
+   */
+  public Map<String, String> getOutcomes() {
+    Map<String, String> described = new LinkedHashMap<>();
+    for (Map.Entry<String, StepOutcome> entry : outcomes.entrySet()) {
+      described.put(entry.getKey(), entry.getValue().toString());
+    }
+    return described;
+  }
+
+  StepOutcome getOutcome(String step) {
+    return outcomes.get(step);
+  }
+
+  Map<String, StepOutcome> outcomes() {
+    return outcomes;
+  }
+
+  /**
+   * The given percentile of the latency of a step or of the {@link #COMMIT commit} in
+   * microseconds.
+   */
+  public double getLatencyMicros(String step, double percentile) {
+    Histogram histogram = latencies.get(step);
+    return null == histogram || 0 == histogram.getTotalCount() ? 0.0
+        : histogram.getValueAtPercentile(percentile) / 1_000.0;
+  }
+
+  /**
+   * Measured transactions, i.e. iterations, per second.
+   */
+  public double getThroughput() {
+    return 0 == elapsedNanos ? 0.0 : transactions * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+  }
+
+  public long getElapsedMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+  }
+}
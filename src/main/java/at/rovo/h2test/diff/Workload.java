@@ -0,0 +1,139 @@
+package at.rovo.h2test.diff;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.IntFunction;
+
+/**
+ * A declarative workload a {@link DifferentialRunner} executes against several databases. It
+ * consists of
+ * <ul>
+ *   <li>setup statements, executed once per target, i.e. to create and seed the schema,</li>
+ *   <li>steps, executed in order within one transaction per iteration, whose latency is measured
+ *   and whose outcome in the first iteration is compared across targets, and</li>
+ *   <li>verification queries, executed once after all iterations and compared across targets.</li>
+ * </ul>
+ * Parameters created via {@link #perIteration(IntFunction)} are evaluated for every iteration.
+ */
+public class Workload {
+
+  private final String name;
+  private final List<String> setup = new ArrayList<>();
+  private final List<WorkloadStep> steps = new ArrayList<>();
+  private final List<WorkloadStep> verifications = new ArrayList<>();
+  private int iterations = 1;
+  private int warmupIterations = 0;
+
+  public Workload(String name) {
+    this.name = name;
+  }
+
+  /**
+   * A parameter whose value depends on the iteration, starting with <code>0</code> for the first
+   * measured iteration. Warmup iterations use negative numbers.
+   */
+  public static Object perIteration(IntFunction<?> value) {
+    return new IterationParameter(value);
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public Workload setup(String... statements) {
+    Collections.addAll(setup, statements);
+    return this;
+  }
+
+  /**
+   * Adds a step whose update count is compared.
+   */
+  public Workload update(String stepName, String sql, Object... params) {
+    return add(steps, new WorkloadStep(stepName, WorkloadStep.Kind.UPDATE, sql, params));
+  }
+
+  /**
+   * Adds a step whose update count and generated keys are compared.
+   */
+  public Workload updateReturningKeys(String stepName, String sql, Object... params) {
+    return add(steps, new WorkloadStep(stepName, WorkloadStep.Kind.UPDATE_RETURNING_KEYS, sql, params));
+  }
+
+  /**
+   * Adds a step whose result set is compared.
+   */
+  public Workload query(String stepName, String sql, Object... params) {
+    return add(steps, new WorkloadStep(stepName, WorkloadStep.Kind.QUERY, sql, params));
+  }
+
+  /**
+   * Adds a query executed after the last iteration whose result set is compared.
+   */
+  public Workload verify(String stepName, String sql, Object... params) {
+    return add(verifications, new WorkloadStep(stepName, WorkloadStep.Kind.QUERY, sql, params));
+  }
+
+  private Workload add(List<WorkloadStep> list, WorkloadStep step) {
+    for (WorkloadStep existing : steps) {
+      checkUnique(existing, step);
+    }
+    for (WorkloadStep existing : verifications) {
+      checkUnique(existing, step);
+    }
+    list.add(step);
+    return this;
+  }
+
+  private static void checkUnique(WorkloadStep existing, WorkloadStep step) {
+    if (existing.name.equals(step.name)) {
+      throw new IllegalArgumentException("A step named '" + step.name + "' already exists");
+    }
+  }
+
+  public int getIterations() {
+    return iterations;
+  }
+
+  public Workload setIterations(int iterations) {
+    if (iterations < 1) {
+      throw new IllegalArgumentException("Number of iterations must be positive but was " + iterations);
+    }
+    this.iterations = iterations;
+    return this;
+  }
+
+  /**
+   * Iterations executed before the measured ones, so all targets are compared with warmed up
+   * code paths and caches.
+   */
+  public int getWarmupIterations() {
+    return warmupIterations;
+  }
+
+  public Workload setWarmupIterations(int warmupIterations) {
+    this.warmupIterations = warmupIterations;
+    return this;
+  }
+
+  List<String> getSetup() {
+    return setup;
+  }
+
+  List<WorkloadStep> getSteps() {
+    return steps;
+  }
+
+  List<WorkloadStep> getVerifications() {
+    return verifications;
+  }
+
+  static final class IterationParameter {
+
+    final IntFunction<?> value;
+
+    IterationParameter(IntFunction<?> value) {
+      this.value = value;
+    }
+  }
+}
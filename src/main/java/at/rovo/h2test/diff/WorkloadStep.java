@@ -0,0 +1,66 @@
+package at.rovo.h2test.diff;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * A single statement of a {@link Workload}.
+ */
+final class WorkloadStep {
+
+  enum Kind {
+    UPDATE,
+    UPDATE_RETURNING_KEYS,
+    QUERY
+  }
+
+  final String name;
+  final Kind kind;
+  final String sql;
+  private final Object[] params;
+
+  WorkloadStep(String name, Kind kind, String sql, Object[] params) {
+    this.name = name;
+    this.kind = kind;
+    this.sql = sql;
+    this.params = params.clone();
+  }
+
+  /**
+   * Executes the step and captures its outcome. Errors are part of the outcome rather than
+   * thrown, as they have to be compared as well.
+   */
+  StepOutcome execute(Connection con, int iteration) throws SQLException {
+    try (PreparedStatement ps = Kind.UPDATE_RETURNING_KEYS == kind
+        ? con.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS) : con.prepareStatement(sql)) {
+      for (int i = 0; i < params.length; i++) {
+        Object param = params[i];
+        if (param instanceof Workload.IterationParameter) {
+          param = ((Workload.IterationParameter) param).value.apply(iteration);
+        }
+        ps.setObject(i + 1, param);
+      }
+      switch (kind) {
+        case QUERY:
+          try (ResultSet rs = ps.executeQuery()) {
+            return StepOutcome.rows(rs);
+          }
+        case UPDATE_RETURNING_KEYS:
+          int updated = ps.executeUpdate();
+          try (ResultSet keys = ps.getGeneratedKeys()) {
+            return StepOutcome.keys(updated, keys);
+          }
+        default:
+          return StepOutcome.updated(ps.executeUpdate());
+      }
+    } catch (SQLException sqlEx) {
+      if (con.isClosed()) {
+        throw sqlEx;
+      }
+      return StepOutcome.failed(sqlEx);
+    }
+  }
+}
@@ -0,0 +1,75 @@
+package at.rovo.h2test.diff;
+
+import java.util.function.IntFunction;
+
+/**
+ * Workloads comparing the behaviour H2 and MySQL are known to disagree on.
+ */
+@SuppressWarnings({"SqlNoDataSourceInspection", "SqlDialectInspection"})
+public final class Workloads {
+
+  private Workloads() {
+
+  }
+
+  /**
+   * The scenario of the original insert-on-update tests: inserting an existing message fails,
+   * <code>INSERT ... ON DUPLICATE KEY UPDATE</code> of an existing message has to report the id of
+   * the updated row, which a status row then references via <code>fk_status_message</code>. Every
+   * iteration additionally upserts a new message.
+   */
+  public static Workload insertOnUpdate(int iterations) {
+    return new Workload("insert-on-update")
+        .setup("DROP TABLE IF EXISTS status",
+            "DROP TABLE IF EXISTS message",
+            "CREATE TABLE message ("
+                + "id bigint(20) NOT NULL AUTO_INCREMENT, "
+                + "messageId varchar(255) DEFAULT NULL, "
+                + "message longblob, "
+                + "lastStatusChange dateTime DEFAULT NULL, "
+                + "PRIMARY KEY (id), "
+                + "UNIQUE KEY UK_msgId (messageId), "
+                + "KEY idx_lastStatusChange (lastStatusChange) "
+                + ") ENGINE=InnoDB AUTO_INCREMENT=1 DEFAULT CHARSET=UTF8",
+            "CREATE TABLE status ("
+                + "id bigint(20) NOT NULL AUTO_INCREMENT, "
+                + "lastChange datetime DEFAULT NULL, "
+                + "messageId bigint(20) DEFAULT NULL,"
+                + "status varchar(255) DEFAULT NULL, "
+                + "PRIMARY KEY (id), "
+                + "KEY idx_lastChange (lastChange), "
+                + "KEY fk_status_message (messageId), "
+                + "CONSTRAINT fk_status_message FOREIGN KEY (messageId) REFERENCES message (id) "
+                + ") ENGINE=InnoDB AUTO_INCREMENT=84 DEFAULT CHARSET=UTF8",
+            "INSERT INTO message (messageId, message, lastStatusChange) VALUES "
+                + "('abcd1234', RAWTOHEX('Test Message 1'), '2015-09-21 10:34:09'), "
+                + "('abcd1235', RAWTOHEX('Test Message 2'), '2015-09-21 10:34:09'), "
+                + "('abcd1236', RAWTOHEX('Test Message 3'), '2015-09-21 10:34:09'), "
+                + "('abcd1237', RAWTOHEX('Test Message 4'), '2015-09-21 10:34:09')",
+            "INSERT INTO status (lastChange, messageId, status) VALUES "
+                + "('2015-09-21 10:34:09', 1, 'RECEIVED'), ('2015-09-21 10:34:09', 1, 'DELIVERED'), "
+                + "('2015-09-21 10:34:09', 2, 'RECEIVED'), ('2015-09-21 10:34:09', 2, 'DELIVERED'), "
+                + "('2015-09-21 10:34:09', 3, 'RECEIVED'), ('2015-09-21 10:34:09', 4, 'RECEIVED')")
+        .update("insert existing message",
+            "INSERT INTO message (messageId, message, lastStatusChange) "
+                + "VALUES ('abcd1234', RAWTOHEX('Updated Message 1'), '2015-09-21 10:40:00')")
+        .update("insert existing id",
+            "INSERT INTO message (id, messageId, message, lastStatusChange) "
+                + "VALUES (1, 'abcd1234', RAWTOHEX('Updated Message 1'), '2015-09-21 10:40:00')")
+        .updateReturningKeys("upsert existing message",
+            "INSERT INTO message (messageId, message, lastStatusChange) "
+                + "VALUES ('abcd1234', RAWTOHEX('Updated Message 1'), '2015-09-21 10:40:00') "
+                + "ON DUPLICATE KEY UPDATE message = RAWTOHEX('Updated Message 1'), lastStatusChange = '2015-09-21 10:40:00'")
+        .update("insert status of existing message",
+            "INSERT INTO status (lastChange, messageId, status) "
+                + "SELECT '2015-09-21 10:40:00', id, 'UPDATED' FROM message WHERE messageId = 'abcd1234'")
+        .updateReturningKeys("upsert new message",
+            "INSERT INTO message (messageId, message, lastStatusChange) VALUES (?, RAWTOHEX('New Message'), ?) "
+                + "ON DUPLICATE KEY UPDATE lastStatusChange = VALUES(lastStatusChange)",
+            Workload.perIteration((IntFunction<String>) i -> "new" + i), "2015-09-21 10:40:00")
+        .verify("messages", "SELECT count(*) FROM message")
+        .verify("states of first message", "SELECT count(*) FROM status WHERE messageId = 1")
+        .verify("status ids", "SELECT min(id), count(*) FROM status")
+        .setIterations(iterations);
+  }
+}
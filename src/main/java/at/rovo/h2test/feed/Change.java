@@ -0,0 +1,60 @@
+package at.rovo.h2test.feed;
+
+import at.rovo.h2test.message.MessageChange;
+import at.rovo.h2test.status.StatusRecord;
+import java.util.Objects;
+
+/**
+ * A committed change published by a {@link ChangeFeed}: either an inserted <code>status</code>
+ * row or an inserted or updated <code>message</code> row.
+ */
+public final class Change {
+
+  public enum Type {
+    STATUS,
+    MESSAGE
+  }
+
+  private final StatusRecord status;
+  private final MessageChange message;
+
+  private Change(StatusRecord status, MessageChange message) {
+    this.status = status;
+    this.message = message;
+  }
+
+  public static Change of(StatusRecord status) {
+    return new Change(Objects.requireNonNull(status, "status"), null);
+  }
+
+  /**
+   * @param message The upserted message, with the <code>lastStatusChange</code> that was written,
+   *        which is <code>null</code> if the upsert kept the existing one
+   */
+  public static Change of(MessageChange message) {
+    return new Change(null, Objects.requireNonNull(message, "message"));
+  }
+
+  public Type getType() {
+    return null != status ? Type.STATUS : Type.MESSAGE;
+  }
+
+  /**
+   * The inserted status row or <code>null</code> if this is a message change.
+   */
+  public StatusRecord getStatus() {
+    return status;
+  }
+
+  /**
+   * The upserted message or <code>null</code> if this is a status change.
+   */
+  public MessageChange getMessage() {
+    return message;
+  }
+
+  @Override
+  public String toString() {
+    return "Change{" + (null != status ? status : message) + "}";
+  }
+}
@@ -0,0 +1,307 @@
+package at.rovo.h2test.feed;
+
+import at.rovo.h2test.status.StatusRecord;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Publishes committed <code>status</code> inserts and <code>message</code> upserts to in-process
+ * subscribers, so consumers learn about new status transitions without polling
+ * <code>status</code> by <code>lastChange</code>.
+ * <p>
+ * Writers hand their changes to {@link #publish(Collection)}. Within a Spring managed transaction,
+ * i.e. one run by a <code>TransactionTemplate</code>, the changes are bound to the transaction
+ * and delivered after it committed; a rollback discards them. Plain JDBC code committing its own
+ * connection collects its changes in {@link PendingChanges} instead. Changes published outside of
+ * both were auto-committed already and are delivered right away. Delivery happens on the
+ * committing thread, which at that point still holds its connection, so delivery never blocks.
+ * <p>
+ * Every {@link ChangeSubscription} has a bounded queue of its own. If it is full, the subscriber
+ * is switched to catching up rather than slowing writers down to the pace of the slowest
+ * consumer: its queued and further live changes are dropped and the next polls replay the
+ * <code>status</code> table by <code>id</code> after the subscription's checkpoint, until it
+ * caught up and continues live. The same replay resumes a subscription from a checkpoint
+ * persisted by the consumer. Message changes are not replayed, as upserts leave no history.
+ * <p>
+ * Concurrent transactions don't necessarily commit in the order of their status ids, so the
+ * checkpoint isn't simply the highest id delivered. Every transaction writing status rows joins
+ * the feed before its first insert, see {@link #join()}, and is tracked until it completed. As
+ * ids are assigned in ascending order, all ids of a transaction are higher than the highest id
+ * the feed knew when it joined. The checkpoint of a subscription never passes that floor while
+ * the transaction is open, so a row committed after a higher one was delivered is delivered live
+ * and found by a replay from the checkpoint. Status rows written by other processes, or outside of
+ * a transaction, are only covered in id order.
+ */
+@SuppressWarnings({"SqlNoDataSourceInspection", "SqlDialectInspection"})
+public class ChangeFeed {
+
+  public static final int DEFAULT_CAPACITY = 10_000;
+
+  private static final String MAX_ID_SQL = "SELECT COALESCE(MAX(id), 0) FROM status";
+  private static final String REPLAY_SQL =
+      "SELECT id, lastChange, messageId, status FROM status WHERE id > ? ORDER BY id LIMIT ";
+
+  private static final RowMapper<StatusRecord> ROW_MAPPER = new RowMapper<StatusRecord>() {
+    @Override
+    public StatusRecord mapRow(ResultSet rs, int rowNum) throws SQLException {
+      return new StatusRecord(rs.getLong(1), rs.getTimestamp(2), rs.getLong(3), rs.getString(4));
+    }
+  };
+
+  private final JdbcTemplate jdbcTemplate;
+  private final List<ChangeSubscription> subscriptions = new CopyOnWriteArrayList<>();
+  private final ThreadLocal<PendingChanges> pending = new ThreadLocal<>();
+  private final ConcurrentSkipListSet<Writer> writers = new ConcurrentSkipListSet<>();
+  private final AtomicLong writerSequence = new AtomicLong();
+  // the highest status id known to be assigned, a lower bound for ids assigned from now on
+  private final AtomicLong highestSeen = new AtomicLong();
+  private final LongAdder published = new LongAdder();
+  private final LongAdder overflows = new LongAdder();
+  private final LongAdder replayed = new LongAdder();
+
+  public ChangeFeed(JdbcTemplate jdbcTemplate) {
+    this.jdbcTemplate = jdbcTemplate;
+  }
+
+  /**
+   * Subscribes to all changes committed from now on. The checkpoint of the subscription starts at
+   * the highest <code>status.id</code> present, or below the rows of transactions still open.
+   *
+   * @param capacity The number of changes queued for the subscriber at most
+   */
+  public ChangeSubscription subscribe(int capacity) {
+    ChangeSubscription subscription = new ChangeSubscription(this, capacity, 0L, false);
+    subscriptions.add(subscription);
+    // registered first, so no change committed after reading the id is missed
+    long maxId = jdbcTemplate.queryForObject(MAX_ID_SQL, Long.class);
+    seen(maxId);
+    subscription.startAt(maxId, lowWaterMark());
+    return subscription;
+  }
+
+  /**
+   * Subscribes to all status rows with an id higher than the given checkpoint, which are replayed
+   * from the database, and all changes committed from now on. Status rows the earlier
+   * subscription delivered beyond its checkpoint are delivered again.
+   *
+   * @param capacity The number of changes queued for the subscriber at most
+   * @param afterStatusId The checkpoint of an earlier subscription
+   */
+  public ChangeSubscription subscribe(int capacity, long afterStatusId) {
+    ChangeSubscription subscription = new ChangeSubscription(this, capacity, afterStatusId, true);
+    subscriptions.add(subscription);
+    return subscription;
+  }
+
+  /**
+   * Starts collecting the changes published on the current thread until they are committed or
+   * discarded via the returned instance. Has to be called before the first status row of the
+   * transaction is inserted.
+   *
+   * @throws IllegalStateException If the current thread collects changes already
+   */
+  public PendingChanges begin() {
+    if (null != pending.get()) {
+      throw new IllegalStateException("Changes of this thread are already pending");
+    }
+    PendingChanges changes = new PendingChanges(this, register());
+    pending.set(changes);
+    return changes;
+  }
+
+  /**
+   * Registers the current Spring managed transaction as a writer of this feed. Has to be called
+   * before the first status row of the transaction is inserted, so that subscriptions don't
+   * advance their checkpoints past its rows while it is open. Outside of a transaction this does
+   * nothing; pending changes of plain JDBC code are registered when they are begun.
+   */
+  public void join() {
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      transactionChanges();
+    }
+  }
+
+  /**
+   * Publishes the given changes once the current transaction committed, or right away if there
+   * is none.
+   */
+  public void publish(Collection<Change> changes) {
+    if (changes.isEmpty()) {
+      return;
+    }
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      transactionChanges().changes.addAll(changes);
+      return;
+    }
+    PendingChanges pendingChanges = pending.get();
+    if (null != pendingChanges) {
+      pendingChanges.addAll(changes);
+      return;
+    }
+    deliver(changes);
+  }
+
+  public int getSubscriberCount() {
+    return subscriptions.size();
+  }
+
+  /**
+   * The number of committed changes delivered to the subscribers.
+   */
+  public long getPublishedCount() {
+    return published.sum();
+  }
+
+  /**
+   * How often a subscriber fell behind and had to catch up from the database.
+   */
+  public long getOverflowCount() {
+    return overflows.sum();
+  }
+
+  /**
+   * The number of status rows replayed from the database.
+   */
+  public long getReplayedCount() {
+    return replayed.sum();
+  }
+
+  void deliver(Collection<Change> changes) {
+    if (changes.isEmpty()) {
+      return;
+    }
+    long maxStatusId = 0L;
+    for (Change change : changes) {
+      if (null != change.getStatus()) {
+        maxStatusId = Math.max(maxStatusId, change.getStatus().getId());
+      }
+    }
+    seen(maxStatusId);
+    published.add(changes.size());
+    for (ChangeSubscription subscription : subscriptions) {
+      subscription.offer(changes);
+    }
+  }
+
+  List<StatusRecord> replay(long afterStatusId, int maxRows) {
+    List<StatusRecord> rows = jdbcTemplate.query(REPLAY_SQL + maxRows, ROW_MAPPER, afterStatusId);
+    replayed.add(rows.size());
+    if (!rows.isEmpty()) {
+      seen(rows.get(rows.size() - 1).getId());
+    }
+    return rows;
+  }
+
+  /**
+   * The lowest status id that may still be committed by a registered writer, or
+   * {@link Long#MAX_VALUE} if no writer is open.
+   */
+  long lowWaterMark() {
+    Writer oldest = writers.isEmpty() ? null : writers.first();
+    return null == oldest ? Long.MAX_VALUE : oldest.floor + 1;
+  }
+
+  Writer register() {
+    Writer writer = new Writer(highestSeen.get(), writerSequence.incrementAndGet());
+    writers.add(writer);
+    return writer;
+  }
+
+  void unregister(Writer writer) {
+    writers.remove(writer);
+  }
+
+  void recordOverflow() {
+    overflows.increment();
+  }
+
+  void unsubscribe(ChangeSubscription subscription) {
+    subscriptions.remove(subscription);
+  }
+
+  void unbind(PendingChanges changes) {
+    if (pending.get() == changes) {
+      pending.remove();
+    }
+  }
+
+  private void seen(long statusId) {
+    long known;
+    while ((known = highestSeen.get()) < statusId && !highestSeen.compareAndSet(known, statusId)) {
+      // retry
+    }
+  }
+
+  private TransactionChanges transactionChanges() {
+    TransactionChanges bound = (TransactionChanges) TransactionSynchronizationManager.getResource(this);
+    if (null == bound) {
+      bound = new TransactionChanges(register());
+      TransactionSynchronizationManager.bindResource(this, bound);
+      TransactionSynchronizationManager.registerSynchronization(bound);
+    }
+    return bound;
+  }
+
+  /**
+   * An open transaction whose status ids are all higher than <code>floor</code>.
+   */
+  static final class Writer implements Comparable<Writer> {
+
+    private final long floor;
+    private final long sequence;
+
+    private Writer(long floor, long sequence) {
+      this.floor = floor;
+      this.sequence = sequence;
+    }
+
+    @Override
+    public int compareTo(Writer other) {
+      int cmp = Long.compare(floor, other.floor);
+      return 0 != cmp ? cmp : Long.compare(sequence, other.sequence);
+    }
+  }
+
+  private final class TransactionChanges extends TransactionSynchronizationAdapter {
+
+    private final Writer writer;
+    private final List<Change> changes = new ArrayList<>();
+
+    private TransactionChanges(Writer writer) {
+      this.writer = writer;
+    }
+
+    @Override
+    public void suspend() {
+      TransactionSynchronizationManager.unbindResourceIfPossible(ChangeFeed.this);
+    }
+
+    @Override
+    public void resume() {
+      TransactionSynchronizationManager.bindResource(ChangeFeed.this, this);
+    }
+
+    @Override
+    public void afterCommit() {
+      deliver(changes);
+    }
+
+    @Override
+    public void afterCompletion(int status) {
+      TransactionSynchronizationManager.unbindResourceIfPossible(ChangeFeed.this);
+      // only after the changes were handed to the subscribers
+      unregister(writer);
+    }
+  }
+}
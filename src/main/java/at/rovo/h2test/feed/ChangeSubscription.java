@@ -0,0 +1,219 @@
+package at.rovo.h2test.feed;
+
+import at.rovo.h2test.status.StatusRecord;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The changes a {@link ChangeFeed} committed since subscribing, queued for a single consumer
+ * thread which fetches them via {@link #poll(int, long, TimeUnit)}.
+ * <p>
+ * While the subscription is catching up, polls return the next status rows from the database,
+ * page by page after a cursor. Rows with an id up to the cursor that are committed only
+ * afterwards are still queued and returned along with the following pages. Once the database
+ * yields fewer rows than requested, live changes are accepted again. Status ids delivered beyond
+ * the checkpoint are remembered, so no status row is delivered twice by a subscription.
+ */
+public class ChangeSubscription implements AutoCloseable {
+
+  private final ChangeFeed feed;
+  private final int capacity;
+  private final BlockingQueue<Change> queue;
+  private volatile boolean closed;
+  private volatile long checkpoint;
+  // guarded by this, as they are changed by the consumer and read by committing threads
+  private boolean catchingUp;
+  private boolean restart;
+  // the highest status id accepted into the queue
+  private long horizon;
+  // only accessed by the consumer thread
+  private long cursor;
+  private long highestDelivered;
+  private final TreeSet<Long> deliveredAbove = new TreeSet<>();
+
+  ChangeSubscription(ChangeFeed feed, int capacity, long checkpoint, boolean catchingUp) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("Capacity must be positive but was " + capacity);
+    }
+    this.feed = feed;
+    this.capacity = capacity;
+    this.queue = new ArrayBlockingQueue<>(capacity);
+    this.checkpoint = checkpoint;
+    this.highestDelivered = checkpoint;
+    this.catchingUp = catchingUp;
+    this.restart = catchingUp;
+    this.horizon = catchingUp ? Long.MIN_VALUE : Long.MAX_VALUE;
+  }
+
+  /**
+   * Returns the next changes, waiting up to the given time if there are none yet.
+   *
+   * @param maxChanges The number of changes to return at most
+   * @return The next changes, empty if none arrived in time. Live changes are returned in commit
+   *         order, which is not necessarily the order of their status ids
+   * @throws InterruptedException If interrupted while waiting
+   */
+  public List<Change> poll(int maxChanges, long timeout, TimeUnit unit) throws InterruptedException {
+    if (closed) {
+      throw new IllegalStateException("Subscription was closed");
+    }
+    if (maxChanges < 1) {
+      throw new IllegalArgumentException("At least one change has to be polled but was " + maxChanges);
+    }
+    List<Change> changes = new ArrayList<>(Math.min(maxChanges, capacity));
+    replay(changes, maxChanges);
+    drain(changes, maxChanges);
+    if (changes.isEmpty() && !isCatchingUp()) {
+      Change change = queue.poll(timeout, unit);
+      if (null != change) {
+        accept(changes, change);
+        drain(changes, maxChanges);
+      }
+    }
+    advanceCheckpoint();
+    return changes;
+  }
+
+  /**
+   * The <code>status.id</code> up to which all status rows were delivered, from which a later
+   * subscription can resume via {@link ChangeFeed#subscribe(int, long)}. Rows of transactions
+   * still open are not passed, so the checkpoint may lag behind the highest id delivered.
+   */
+  public long getCheckpoint() {
+    return checkpoint;
+  }
+
+  public synchronized boolean isCatchingUp() {
+    return catchingUp;
+  }
+
+  public int getQueuedCount() {
+    return queue.size();
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+    feed.unsubscribe(this);
+    queue.clear();
+  }
+
+  /**
+   * Starts a live subscription after the given highest status id, of which the ones from
+   * <code>lowWaterMark</code> on may still be committed.
+   */
+  synchronized void startAt(long maxStatusId, long lowWaterMark) {
+    checkpoint = Math.min(maxStatusId, lowWaterMark - 1);
+    highestDelivered = maxStatusId;
+  }
+
+  synchronized void offer(Collection<Change> changes) {
+    for (Change change : changes) {
+      if (closed) {
+        return;
+      }
+      StatusRecord status = change.getStatus();
+      boolean wanted = null == status ? !catchingUp : status.getId() <= horizon;
+      if (wanted && !queue.offer(change)) {
+        // the status rows will be replayed from the checkpoint, so the queued ones aren't needed anymore
+        catchingUp = true;
+        restart = true;
+        horizon = Long.MIN_VALUE;
+        queue.clear();
+        feed.recordOverflow();
+        return;
+      }
+    }
+  }
+
+  private void replay(List<Change> changes, int maxChanges) {
+    do {
+      long after;
+      synchronized (this) {
+        if (!catchingUp) {
+          return;
+        }
+        if (restart) {
+          restart = false;
+          cursor = checkpoint;
+          queue.clear();
+        }
+        // rows committed while querying may or may not be found, so all of them are queued
+        horizon = Long.MAX_VALUE;
+        after = cursor;
+      }
+      int limit = maxChanges - changes.size();
+      List<StatusRecord> rows = feed.replay(after, limit);
+      for (StatusRecord row : rows) {
+        accept(changes, Change.of(row));
+        cursor = row.getId();
+      }
+      synchronized (this) {
+        if (restart) {
+          continue;
+        }
+        if (rows.size() < limit) {
+          catchingUp = false;
+          return;
+        }
+        // rows after the cursor are found by the next page, rows up to it are queued if committed late
+        horizon = cursor;
+        Iterator<Change> queued = queue.iterator();
+        while (queued.hasNext()) {
+          StatusRecord status = queued.next().getStatus();
+          if (null != status && status.getId() > cursor) {
+            queued.remove();
+          }
+        }
+      }
+    } while (changes.isEmpty());
+  }
+
+  private void drain(List<Change> changes, int maxChanges) {
+    Change change;
+    while (changes.size() < maxChanges && null != (change = queue.poll())) {
+      accept(changes, change);
+    }
+  }
+
+  private void accept(List<Change> changes, Change change) {
+    StatusRecord status = change.getStatus();
+    if (null != status) {
+      long id = status.getId();
+      if (id <= checkpoint || !deliveredAbove.add(id)) {
+        return;
+      }
+      highestDelivered = Math.max(highestDelivered, id);
+    }
+    changes.add(change);
+  }
+
+  /**
+   * Moves the checkpoint up to the highest status id below which no row can be committed and
+   * delivered anymore.
+   */
+  private synchronized void advanceCheckpoint() {
+    if (restart) {
+      return;
+    }
+    long safe = Math.min(highestDelivered, feed.lowWaterMark() - 1);
+    if (catchingUp) {
+      safe = Math.min(safe, cursor);
+    }
+    for (Change change : queue) {
+      if (null != change.getStatus()) {
+        safe = Math.min(safe, change.getStatus().getId() - 1);
+      }
+    }
+    if (safe > checkpoint) {
+      checkpoint = safe;
+      deliveredAbove.headSet(safe, true).clear();
+    }
+  }
+}
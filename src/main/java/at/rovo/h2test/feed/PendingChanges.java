@@ -0,0 +1,95 @@
+package at.rovo.h2test.feed;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * The changes of a transaction that plain JDBC code commits itself, i.e. on a connection obtained
+ * via <code>DriverManager</code> with auto-commit disabled. Changes published on the opening
+ * thread while the instance is open are collected here instead of being delivered right away, and
+ * are delivered once {@link #commit(Connection)} committed the connection:
+ * <pre>
+ * try (PendingChanges changes = feed.begin()) {
+ *   // insert rows and add their changes
+ *   changes.commit(con);
+ * }
+ * </pre>
+ * The feed tracks the transaction from {@link ChangeFeed#begin()} until the instance is closed, so
+ * it has to be begun before the first status row is inserted. Closing the instance without
+ * committing discards the collected changes. Within a Spring managed transaction changes are still
+ * bound to that transaction.
+ */
+public class PendingChanges implements AutoCloseable {
+
+  private final ChangeFeed feed;
+  private final ChangeFeed.Writer writer;
+  private final List<Change> changes = new ArrayList<>();
+  private boolean closed;
+
+  PendingChanges(ChangeFeed feed, ChangeFeed.Writer writer) {
+    this.feed = feed;
+    this.writer = writer;
+  }
+
+  public void add(Change change) {
+    checkOpen();
+    changes.add(change);
+  }
+
+  public void addAll(Collection<Change> changes) {
+    checkOpen();
+    this.changes.addAll(changes);
+  }
+
+  /**
+   * The number of changes collected so far.
+   */
+  public int size() {
+    return changes.size();
+  }
+
+  /**
+   * Commits the given connection and delivers the collected changes to all subscribers. If the
+   * commit fails, the changes are discarded.
+   */
+  public void commit(Connection con) throws SQLException {
+    checkOpen();
+    try {
+      con.commit();
+      feed.deliver(changes);
+    } finally {
+      close();
+    }
+  }
+
+  /**
+   * Rolls the given connection back and discards the collected changes.
+   */
+  public void rollback(Connection con) throws SQLException {
+    checkOpen();
+    try {
+      con.rollback();
+    } finally {
+      close();
+    }
+  }
+
+  @Override
+  public void close() {
+    if (!closed) {
+      closed = true;
+      feed.unbind(this);
+      // only after the changes were handed to the subscribers
+      feed.unregister(writer);
+    }
+  }
+
+  private void checkOpen() {
+    if (closed) {
+      throw new IllegalStateException("Pending changes were already committed or discarded");
+    }
+  }
+}
@@ -0,0 +1,126 @@
+package at.rovo.h2test.jdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The prepared statements of a single connection, cached by their SQL in least recently used
+ * order. Statements returned by {@link #prepare(String)} must not be closed by the caller, they
+ * are closed on eviction or once this instance is closed.
+ * <p>
+ * Instances are not thread-safe, just like the connection they belong to.
+ */
+public final class ConnectionStatements implements AutoCloseable {
+
+  private final Connection con;
+  private final StatementCache cache;
+  private final boolean transactionBound;
+  private final Map<String, PreparedStatement> statements;
+  private final Map<String, PreparedStatement> keyStatements;
+
+  /**
+   * Creates statements for a connection without any statistics. The caller has to close them once
+   * done with the connection.
+   */
+  public ConnectionStatements(Connection con) {
+    this(con, null, StatementCache.DEFAULT_MAX_STATEMENTS_PER_CONNECTION, false);
+  }
+
+  ConnectionStatements(Connection con, StatementCache cache, int maxStatements, boolean transactionBound) {
+    this.con = con;
+    this.cache = cache;
+    this.transactionBound = transactionBound;
+    this.statements = lruMap(maxStatements);
+    this.keyStatements = lruMap(maxStatements);
+  }
+
+  public Connection getConnection() {
+    return con;
+  }
+
+  /**
+   * Returns a prepared statement for the given SQL, either cached or freshly prepared. Parameters
+   * bound by a previous use are cleared.
+   */
+  public PreparedStatement prepare(String sql) throws SQLException {
+    return prepare(statements, sql, false);
+  }
+
+  /**
+   * Like {@link #prepare(String)} but the statement returns the keys generated by the database.
+   */
+  public PreparedStatement prepareReturningKeys(String sql) throws SQLException {
+    return prepare(keyStatements, sql, true);
+  }
+
+  private PreparedStatement prepare(Map<String, PreparedStatement> map, String sql, boolean returnKeys)
+      throws SQLException {
+    PreparedStatement ps = map.get(sql);
+    if (null != ps) {
+      if (null != cache) {
+        cache.recordHit();
+      }
+      ps.clearParameters();
+      return ps;
+    }
+    if (null != cache) {
+      cache.recordMiss();
+    }
+    ps = returnKeys ? con.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS) : con.prepareStatement(sql);
+    map.put(sql, ps);
+    return ps;
+  }
+
+  /**
+   * Closes all cached statements unless they are bound to a Spring managed transaction, in which
+   * case they are closed once the transaction completes.
+   */
+  @Override
+  public void close() {
+    if (!transactionBound) {
+      closeStatements();
+    }
+  }
+
+  void closeStatements() {
+    closeAll(statements);
+    closeAll(keyStatements);
+  }
+
+  private static void closeAll(Map<String, PreparedStatement> map) {
+    for (Iterator<PreparedStatement> iter = map.values().iterator(); iter.hasNext(); ) {
+      closeQuietly(iter.next());
+      iter.remove();
+    }
+  }
+
+  private static void closeQuietly(PreparedStatement ps) {
+    try {
+      ps.close();
+    } catch (SQLException ignored) {
+      // the connection is most likely broken anyway
+    }
+  }
+
+  @SuppressWarnings("serial") // never serialized, just like the statements it holds
+  private Map<String, PreparedStatement> lruMap(final int maxStatements) {
+    return new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+        if (size() > maxStatements) {
+          closeQuietly(eldest.getValue());
+          if (null != cache) {
+            cache.recordEviction();
+          }
+          return true;
+        }
+        return false;
+      }
+    };
+  }
+}
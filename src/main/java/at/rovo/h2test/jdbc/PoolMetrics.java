@@ -0,0 +1,129 @@
+package at.rovo.h2test.jdbc;
+
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+import com.zaxxer.hikari.metrics.PoolStats;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics of a single connection pool: how long callers wait for a connection, how long creating
+ * a physical connection takes, how long connections are borrowed and how many connections are
+ * currently active or idle. The active, idle, total and pending gauges are snapshots HikariCP
+ * refreshes at most once per second.
+ * <p>
+ * An instance must only be handed to a single pool, see
+ * {@link PooledDataSources#create(String, String, String, String, String, PoolSettings, PoolMetrics)}.
+ */
+public class PoolMetrics implements MetricsTrackerFactory, IMetricsTracker {
+
+  private volatile PoolStats poolStats;
+
+  private final LongAdder acquireCount = new LongAdder();
+  private final LongAdder acquireNanos = new LongAdder();
+  private final LongAccumulator maxAcquireNanos = new LongAccumulator(Math::max, 0L);
+  private final LongAdder creationCount = new LongAdder();
+  private final LongAdder creationMillis = new LongAdder();
+  private final LongAccumulator maxCreationMillis = new LongAccumulator(Math::max, 0L);
+  private final LongAdder usageCount = new LongAdder();
+  private final LongAdder usageMillis = new LongAdder();
+  private final LongAdder timeouts = new LongAdder();
+
+  @Override
+  public IMetricsTracker create(String poolName, PoolStats poolStats) {
+    if (null != this.poolStats) {
+      throw new IllegalStateException("Pool metrics are already used by another pool");
+    }
+    this.poolStats = poolStats;
+    return this;
+  }
+
+  @Override
+  public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+    acquireCount.increment();
+    acquireNanos.add(elapsedAcquiredNanos);
+    maxAcquireNanos.accumulate(elapsedAcquiredNanos);
+  }
+
+  @Override
+  public void recordConnectionCreatedMillis(long connectionCreatedMillis) {
+    creationCount.increment();
+    creationMillis.add(connectionCreatedMillis);
+    maxCreationMillis.accumulate(connectionCreatedMillis);
+  }
+
+  @Override
+  public void recordConnectionUsageMillis(long elapsedBorrowedMillis) {
+    usageCount.increment();
+    usageMillis.add(elapsedBorrowedMillis);
+  }
+
+  @Override
+  public void recordConnectionTimeout() {
+    timeouts.increment();
+  }
+
+  public int getActiveConnections() {
+    return null != poolStats ? poolStats.getActiveConnections() : 0;
+  }
+
+  public int getIdleConnections() {
+    return null != poolStats ? poolStats.getIdleConnections() : 0;
+  }
+
+  public int getTotalConnections() {
+    return null != poolStats ? poolStats.getTotalConnections() : 0;
+  }
+
+  /**
+   * The number of threads currently waiting for a connection.
+   */
+  public int getPendingThreads() {
+    return null != poolStats ? poolStats.getPendingThreads() : 0;
+  }
+
+  public long getAcquireCount() {
+    return acquireCount.sum();
+  }
+
+  public double getMeanAcquireMicros() {
+    long count = acquireCount.sum();
+    return 0 == count ? 0.0 : TimeUnit.NANOSECONDS.toMicros(acquireNanos.sum()) / (double) count;
+  }
+
+  public long getMaxAcquireMicros() {
+    return TimeUnit.NANOSECONDS.toMicros(maxAcquireNanos.get());
+  }
+
+  public long getCreatedConnections() {
+    return creationCount.sum();
+  }
+
+  public double getMeanCreationMillis() {
+    long count = creationCount.sum();
+    return 0 == count ? 0.0 : creationMillis.sum() / (double) count;
+  }
+
+  public long getMaxCreationMillis() {
+    return maxCreationMillis.get();
+  }
+
+  public double getMeanUsageMillis() {
+    long count = usageCount.sum();
+    return 0 == count ? 0.0 : usageMillis.sum() / (double) count;
+  }
+
+  public long getTimeouts() {
+    return timeouts.sum();
+  }
+
+  @Override
+  public String toString() {
+    return "PoolMetrics{active=" + getActiveConnections() + ", idle=" + getIdleConnections()
+        + ", pending=" + getPendingThreads() + ", acquired=" + getAcquireCount()
+        + ", meanAcquireMicros=" + getMeanAcquireMicros() + ", maxAcquireMicros=" + getMaxAcquireMicros()
+        + ", created=" + getCreatedConnections() + ", meanCreationMillis=" + getMeanCreationMillis()
+        + ", timeouts=" + getTimeouts() + "}";
+  }
+}
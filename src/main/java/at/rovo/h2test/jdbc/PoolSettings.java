@@ -0,0 +1,92 @@
+package at.rovo.h2test.jdbc;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sizing, validation and leak detection settings of a connection pool created by
+ * {@link PooledDataSources}.
+ */
+public class PoolSettings {
+
+  private int minimumIdle = 2;
+  private int maximumPoolSize = 10;
+  private long connectionTimeoutMillis = TimeUnit.SECONDS.toMillis(30);
+  private long validationTimeoutMillis = TimeUnit.SECONDS.toMillis(5);
+  private long idleTimeoutMillis = TimeUnit.MINUTES.toMillis(10);
+  private long maxLifetimeMillis = TimeUnit.MINUTES.toMillis(30);
+  private long leakDetectionThresholdMillis = TimeUnit.SECONDS.toMillis(60);
+
+  public int getMinimumIdle() {
+    return minimumIdle;
+  }
+
+  public PoolSettings setMinimumIdle(int minimumIdle) {
+    this.minimumIdle = minimumIdle;
+    return this;
+  }
+
+  public int getMaximumPoolSize() {
+    return maximumPoolSize;
+  }
+
+  public PoolSettings setMaximumPoolSize(int maximumPoolSize) {
+    this.maximumPoolSize = maximumPoolSize;
+    return this;
+  }
+
+  /**
+   * How long a caller waits for a connection before giving up.
+   */
+  public long getConnectionTimeoutMillis() {
+    return connectionTimeoutMillis;
+  }
+
+  public PoolSettings setConnectionTimeoutMillis(long connectionTimeoutMillis) {
+    this.connectionTimeoutMillis = connectionTimeoutMillis;
+    return this;
+  }
+
+  /**
+   * How long validating an idle connection before handing it out may take.
+   */
+  public long getValidationTimeoutMillis() {
+    return validationTimeoutMillis;
+  }
+
+  public PoolSettings setValidationTimeoutMillis(long validationTimeoutMillis) {
+    this.validationTimeoutMillis = validationTimeoutMillis;
+    return this;
+  }
+
+  public long getIdleTimeoutMillis() {
+    return idleTimeoutMillis;
+  }
+
+  public PoolSettings setIdleTimeoutMillis(long idleTimeoutMillis) {
+    this.idleTimeoutMillis = idleTimeoutMillis;
+    return this;
+  }
+
+  public long getMaxLifetimeMillis() {
+    return maxLifetimeMillis;
+  }
+
+  public PoolSettings setMaxLifetimeMillis(long maxLifetimeMillis) {
+    this.maxLifetimeMillis = maxLifetimeMillis;
+    return this;
+  }
+
+  /**
+   * After how long a borrowed connection which was not returned to the pool is logged as possible
+   * leak, including the stack trace of where it was borrowed. <code>0</code> disables leak
+   * detection.
+   */
+  public long getLeakDetectionThresholdMillis() {
+    return leakDetectionThresholdMillis;
+  }
+
+  public PoolSettings setLeakDetectionThresholdMillis(long leakDetectionThresholdMillis) {
+    this.leakDetectionThresholdMillis = leakDetectionThresholdMillis;
+    return this;
+  }
+}
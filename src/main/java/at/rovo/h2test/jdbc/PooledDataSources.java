@@ -0,0 +1,73 @@
+package at.rovo.h2test.jdbc;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+
+/**
+ * Creates pooled data sources for H2 and MySQL. Unlike Spring's <code>SimpleDriverDataSource</code>,
+ * which opens a new physical connection for every <code>JdbcTemplate</code> call and every
+ * transaction, connections are reused, validated before they are handed out and reported if they
+ * are not returned within the leak detection threshold.
+ */
+public final class PooledDataSources {
+
+  private PooledDataSources() {
+
+  }
+
+  /**
+   * Creates a pool for an H2 database. H2 needs to run in <code>MODE=MYSQL</code> for the
+   * statements of this project to work, i.e.
+   * <code>jdbc:h2:mem:testdb;DB_CLOSE_DELAY=-1;MODE=MYSQL;</code>.
+   */
+  public static HikariDataSource h2(String poolName, String url, PoolSettings settings, PoolMetrics metrics) {
+    return create(poolName, org.h2.Driver.class.getName(), url, null, null, settings, metrics);
+  }
+
+  /**
+   * Creates a pool for a MySQL database with client and server side prepared statement caching
+   * and batch rewriting enabled.
+   */
+  public static HikariDataSource mysql(String poolName, String url, String user, String password,
+      PoolSettings settings, PoolMetrics metrics) {
+    HikariConfig config = config(poolName, com.mysql.jdbc.Driver.class.getName(), url, user, password, settings,
+        metrics);
+    config.addDataSourceProperty("cachePrepStmts", "true");
+    config.addDataSourceProperty("prepStmtCacheSize", "250");
+    config.addDataSourceProperty("prepStmtCacheSqlLimit", "4096");
+    config.addDataSourceProperty("useServerPrepStmts", "true");
+    config.addDataSourceProperty("rewriteBatchedStatements", "true");
+    return new HikariDataSource(config);
+  }
+
+  /**
+   * Creates a pool for an arbitrary JDBC driver.
+   *
+   * @param metrics Collects the metrics of the pool, may be <code>null</code>
+   */
+  public static HikariDataSource create(String poolName, String driverClassName, String url, String user,
+      String password, PoolSettings settings, PoolMetrics metrics) {
+    return new HikariDataSource(config(poolName, driverClassName, url, user, password, settings, metrics));
+  }
+
+  private static HikariConfig config(String poolName, String driverClassName, String url, String user,
+      String password, PoolSettings settings, PoolMetrics metrics) {
+    HikariConfig config = new HikariConfig();
+    config.setPoolName(poolName);
+    config.setDriverClassName(driverClassName);
+    config.setJdbcUrl(url);
+    config.setUsername(user);
+    config.setPassword(password);
+    config.setMinimumIdle(settings.getMinimumIdle());
+    config.setMaximumPoolSize(settings.getMaximumPoolSize());
+    config.setConnectionTimeout(settings.getConnectionTimeoutMillis());
+    config.setValidationTimeout(settings.getValidationTimeoutMillis());
+    config.setIdleTimeout(settings.getIdleTimeoutMillis());
+    config.setMaxLifetime(settings.getMaxLifetimeMillis());
+    config.setLeakDetectionThreshold(settings.getLeakDetectionThresholdMillis());
+    if (null != metrics) {
+      config.setMetricsTrackerFactory(metrics);
+    }
+    return config;
+  }
+}
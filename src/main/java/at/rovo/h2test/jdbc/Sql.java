@@ -0,0 +1,60 @@
+package at.rovo.h2test.jdbc;
+
+/**
+ * Helpers for building parameterized SQL whose number of parameters depends on the number of rows
+ * or values it is executed for.
+ */
+public final class Sql {
+
+  private Sql() {
+
+  }
+
+  /**
+   * Returns <code>(?, ?, ..., ?)</code> with <code>count</code> placeholders.
+   */
+  public static String placeholders(int count) {
+    StringBuilder sb = new StringBuilder(count * 3 + 2);
+    sb.append('(');
+    for (int i = 0; i < count; i++) {
+      if (i > 0) {
+        sb.append(", ");
+      }
+      sb.append('?');
+    }
+    return sb.append(')').toString();
+  }
+
+  /**
+   * Appends <code>rows</code> placeholder tuples of <code>columns</code> placeholders each, separated
+   * by commas, to the given prefix, i.e. <code>prefix (?, ?), (?, ?)</code>, and appends the suffix.
+   */
+  public static String multiRowValues(String prefix, int rows, int columns, String suffix) {
+    String tuple = placeholders(columns);
+    StringBuilder sb = new StringBuilder(prefix.length() + rows * (tuple.length() + 2) + suffix.length());
+    sb.append(prefix);
+    for (int i = 0; i < rows; i++) {
+      if (i > 0) {
+        sb.append(", ");
+      }
+      sb.append(tuple);
+    }
+    return sb.append(suffix).toString();
+  }
+
+  /**
+   * Rounds the number of values of an <code>IN</code> list up to the next power of two, capped by
+   * <code>max</code>. Padding <code>IN</code> lists to a few distinct sizes lets the same statement
+   * be reused for differently sized lookups. The padding slots are filled by repeating a value.
+   */
+  public static int inListSize(int count, int max) {
+    if (count >= max) {
+      return count;
+    }
+    int size = Integer.highestOneBit(Math.max(count, 1));
+    if (size < count) {
+      size <<= 1;
+    }
+    return Math.min(size, max);
+  }
+}
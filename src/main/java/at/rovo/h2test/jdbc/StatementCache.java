@@ -0,0 +1,123 @@
+package at.rovo.h2test.jdbc;
+
+import java.sql.Connection;
+import java.util.concurrent.atomic.LongAdder;
+import org.springframework.jdbc.datasource.ConnectionProxy;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Hands out {@link ConnectionStatements} which keep the parameterized statements prepared on a
+ * connection open for reuse, so executing the same SQL again only needs to bind new parameters
+ * rather than parse and plan the statement again.
+ * <p>
+ * Reuse is scoped to a transaction. Within a Spring managed transaction all calls on the
+ * transaction's connection share the same statements, which are closed once the transaction
+ * completes. Outside of a transaction every call returns new statements, which are only reused
+ * through the returned {@link ConnectionStatements} until the caller closes it, i.e. within a
+ * single batch. Nothing is kept across transactions or calls, as connection pools like HikariCP
+ * close the statements of a connection once it is returned to the pool.
+ * <p>
+ * Hit, miss and eviction counters are collected across all connections. Note that on MySQL
+ * server side prepared statements need to be enabled via <code>useServerPrepStmts=true</code> for
+ * reuse to save server side parsing as well.
+ */
+public class StatementCache {
+
+  public static final int DEFAULT_MAX_STATEMENTS_PER_CONNECTION = 64;
+
+  private final int maxStatementsPerConnection;
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+
+  public StatementCache() {
+    this(DEFAULT_MAX_STATEMENTS_PER_CONNECTION);
+  }
+
+  public StatementCache(int maxStatementsPerConnection) {
+    if (maxStatementsPerConnection < 1) {
+      throw new IllegalArgumentException("At least one statement per connection has to be cached");
+    }
+    this.maxStatementsPerConnection = maxStatementsPerConnection;
+  }
+
+  /**
+   * Returns the statements of the given connection. If the connection is the one of the current
+   * Spring managed transaction, the statements are bound to the transaction and closing the
+   * returned instance has no effect. Otherwise the caller owns a new, empty instance and has to
+   * close it.
+   */
+  public ConnectionStatements forConnection(Connection con) {
+    Connection target = con instanceof ConnectionProxy ? ((ConnectionProxy) con).getTargetConnection() : con;
+    if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+      return new ConnectionStatements(target, this, maxStatementsPerConnection, false);
+    }
+    TransactionStatements bound = (TransactionStatements) TransactionSynchronizationManager.getResource(this);
+    if (null == bound) {
+      bound = new TransactionStatements(new ConnectionStatements(target, this, maxStatementsPerConnection, true));
+      TransactionSynchronizationManager.bindResource(this, bound);
+      TransactionSynchronizationManager.registerSynchronization(bound);
+    } else if (bound.statements.getConnection() != target) {
+      // a different data source within the same transaction
+      return new ConnectionStatements(target, this, maxStatementsPerConnection, false);
+    }
+    return bound.statements;
+  }
+
+  public long getHitCount() {
+    return hits.sum();
+  }
+
+  public long getMissCount() {
+    return misses.sum();
+  }
+
+  public long getEvictionCount() {
+    return evictions.sum();
+  }
+
+  public double getHitRate() {
+    long hitCount = hits.sum();
+    long total = hitCount + misses.sum();
+    return 0 == total ? 1.0 : (double) hitCount / total;
+  }
+
+  void recordHit() {
+    hits.increment();
+  }
+
+  void recordMiss() {
+    misses.increment();
+  }
+
+  void recordEviction() {
+    evictions.increment();
+  }
+
+  private final class TransactionStatements extends TransactionSynchronizationAdapter {
+
+    private final ConnectionStatements statements;
+
+    private TransactionStatements(ConnectionStatements statements) {
+      this.statements = statements;
+    }
+
+    @Override
+    public void suspend() {
+      TransactionSynchronizationManager.unbindResourceIfPossible(StatementCache.this);
+    }
+
+    @Override
+    public void resume() {
+      TransactionSynchronizationManager.bindResource(StatementCache.this, this);
+    }
+
+    @Override
+    public void afterCompletion(int status) {
+      // the transaction manager releases the connection only after this callback
+      TransactionSynchronizationManager.unbindResourceIfPossible(StatementCache.this);
+      statements.closeStatements();
+    }
+  }
+}
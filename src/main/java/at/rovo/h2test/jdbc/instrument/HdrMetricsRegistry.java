@@ -0,0 +1,165 @@
+package at.rovo.h2test.jdbc.instrument;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.springframework.jmx.export.MBeanExportException;
+
+/**
+ * Keeps the values of every metric in an HdrHistogram {@link Recorder}, which records without
+ * allocating or blocking. Recorded values are moved into a cumulative histogram whenever
+ * {@link #getMetrics() metrics} are read.
+ */
+public class HdrMetricsRegistry implements MetricsRegistry, JdbcMetricsMXBean {
+
+  private static final int SIGNIFICANT_DIGITS = 3;
+
+  private final ConcurrentMap<MetricKey, HdrRecorder> recorders = new ConcurrentHashMap<>();
+
+  @Override
+  public ValueRecorder recorder(String metric, String statement) {
+    return recorders.computeIfAbsent(new MetricKey(metric, statement), HdrRecorder::new);
+  }
+
+  @Override
+  public List<MetricSnapshot> getMetrics() {
+    List<MetricSnapshot> snapshots = new ArrayList<>(recorders.size());
+    for (HdrRecorder recorder : recorders.values()) {
+      snapshots.add(recorder.snapshot());
+    }
+    snapshots.sort((a, b) -> a.getMetric().equals(b.getMetric()) ? a.getStatement().compareTo(b.getStatement())
+        : a.getMetric().compareTo(b.getMetric()));
+    return snapshots;
+  }
+
+  /**
+   * The snapshot of the given metric or <code>null</code> if nothing was recorded for it yet.
+   */
+  public MetricSnapshot getMetric(String metric, String statement) {
+    HdrRecorder recorder = recorders.get(new MetricKey(metric, statement));
+    return null != recorder ? recorder.snapshot() : null;
+  }
+
+  @Override
+  public int getStatementShapes() {
+    int shapes = 0;
+    for (MetricKey key : recorders.keySet()) {
+      if (JdbcInstrumentation.STATEMENT_NANOS.equals(key.metric)) {
+        shapes++;
+      }
+    }
+    return shapes;
+  }
+
+  @Override
+  public void reset() {
+    for (HdrRecorder recorder : recorders.values()) {
+      recorder.reset();
+    }
+  }
+
+  /**
+   * Registers this registry with the platform MBean server as
+   * <code>at.rovo.h2test:type=JdbcMetrics,name=&lt;name&gt;</code>.
+   */
+  public ObjectName registerMBean(String name) {
+    try {
+      ObjectName objectName = new ObjectName("at.rovo.h2test:type=JdbcMetrics,name=" + ObjectName.quote(name));
+      ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+      return objectName;
+    } catch (JMException jmEx) {
+      throw new MBeanExportException("Could not register JDBC metrics " + name, jmEx);
+    }
+  }
+
+  public void unregisterMBean(ObjectName objectName) {
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    try {
+      if (server.isRegistered(objectName)) {
+        server.unregisterMBean(objectName);
+      }
+    } catch (JMException jmEx) {
+      throw new MBeanExportException("Could not unregister JDBC metrics " + objectName, jmEx);
+    }
+  }
+
+  private static final class MetricKey {
+
+    private final String metric;
+    private final String statement;
+
+    MetricKey(String metric, String statement) {
+      this.metric = metric;
+      this.statement = statement;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof MetricKey)) {
+        return false;
+      }
+      MetricKey other = (MetricKey) o;
+      return metric.equals(other.metric) && statement.equals(other.statement);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(metric, statement);
+    }
+  }
+
+  private static final class HdrRecorder implements ValueRecorder {
+
+    private final MetricKey key;
+    private final Recorder recorder = new Recorder(SIGNIFICANT_DIGITS);
+    private final Histogram accumulated = new Histogram(SIGNIFICANT_DIGITS);
+    // readers swap the recorder's interval histogram, writers never take this lock
+    private final Lock readLock = new ReentrantLock();
+    private Histogram interval;
+
+    HdrRecorder(MetricKey key) {
+      this.key = key;
+    }
+
+    @Override
+    public void record(long value) {
+      recorder.recordValue(Math.max(0L, value));
+    }
+
+    MetricSnapshot snapshot() {
+      readLock.lock();
+      try {
+        interval = recorder.getIntervalHistogram(interval);
+        accumulated.add(interval);
+        return new MetricSnapshot(key.metric, key.statement, accumulated.getTotalCount(),
+            accumulated.getTotalCount() > 0 ? accumulated.getMean() : 0.0,
+            accumulated.getValueAtPercentile(50.0), accumulated.getValueAtPercentile(99.0), accumulated.getMaxValue());
+      } finally {
+        readLock.unlock();
+      }
+    }
+
+    void reset() {
+      readLock.lock();
+      try {
+        interval = recorder.getIntervalHistogram(interval);
+        accumulated.reset();
+      } finally {
+        readLock.unlock();
+      }
+    }
+  }
+}
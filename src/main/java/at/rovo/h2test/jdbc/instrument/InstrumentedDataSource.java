@@ -0,0 +1,73 @@
+package at.rovo.h2test.jdbc.instrument;
+
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.logging.Logger;
+import javax.sql.DataSource;
+
+/**
+ * Measures how long obtaining a connection takes and instruments the returned connections.
+ */
+class InstrumentedDataSource implements DataSource {
+
+  private final DataSource delegate;
+  private final JdbcInstrumentation instrumentation;
+
+  InstrumentedDataSource(DataSource delegate, JdbcInstrumentation instrumentation) {
+    this.delegate = delegate;
+    this.instrumentation = instrumentation;
+  }
+
+  @Override
+  public Connection getConnection() throws SQLException {
+    long start = System.nanoTime();
+    Connection con = delegate.getConnection();
+    instrumentation.acquireLatency.record(System.nanoTime() - start);
+    return new InstrumentedConnection(con, instrumentation);
+  }
+
+  @Override
+  public Connection getConnection(String username, String password) throws SQLException {
+    long start = System.nanoTime();
+    Connection con = delegate.getConnection(username, password);
+    instrumentation.acquireLatency.record(System.nanoTime() - start);
+    return new InstrumentedConnection(con, instrumentation);
+  }
+
+  @Override
+  public PrintWriter getLogWriter() throws SQLException {
+    return delegate.getLogWriter();
+  }
+
+  @Override
+  public void setLogWriter(PrintWriter out) throws SQLException {
+    delegate.setLogWriter(out);
+  }
+
+  @Override
+  public void setLoginTimeout(int seconds) throws SQLException {
+    delegate.setLoginTimeout(seconds);
+  }
+
+  @Override
+  public int getLoginTimeout() throws SQLException {
+    return delegate.getLoginTimeout();
+  }
+
+  @Override
+  public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+    return delegate.getParentLogger();
+  }
+
+  @Override
+  public <T> T unwrap(Class<T> iface) throws SQLException {
+    return iface.isInstance(this) ? iface.cast(this) : delegate.unwrap(iface);
+  }
+
+  @Override
+  public boolean isWrapperFor(Class<?> iface) throws SQLException {
+    return iface.isInstance(this) || delegate.isWrapperFor(iface);
+  }
+}
@@ -0,0 +1,381 @@
+package at.rovo.h2test.jdbc.instrument;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLWarning;
+import java.sql.Statement;
+
+/**
+ * Measures the SQL executed by a plain statement. The shape is resolved on every execution.
+ */
+class InstrumentedStatement implements Statement {
+
+  private final Statement delegate;
+  final InstrumentedConnection connection;
+  private StatementShape batchShape;
+
+  InstrumentedStatement(Statement delegate, InstrumentedConnection connection) {
+    this.delegate = delegate;
+    this.connection = connection;
+  }
+
+  final void executed(StatementShape shape, long start) {
+    shape.latency.record(System.nanoTime() - start);
+    connection.roundTrip();
+  }
+
+  final void updated(StatementShape shape, long start, long rows) {
+    executed(shape, start);
+    shape.rows.record(rows);
+  }
+
+  final void batched(StatementShape shape, long start, int[] counts) {
+    long rows = 0;
+    for (int count : counts) {
+      rows += Math.max(0, count);
+    }
+    updated(shape, start, rows);
+  }
+
+  final void batched(StatementShape shape, long start, long[] counts) {
+    long rows = 0;
+    for (long count : counts) {
+      rows += Math.max(0, count);
+    }
+    updated(shape, start, rows);
+  }
+
+  private StatementShape shapeOf(String sql) {
+    return connection.getInstrumentation().shapeOf(sql);
+  }
+
+  @Override
+  public ResultSet executeQuery(String sql) throws SQLException {
+    StatementShape shape = shapeOf(sql);
+    long start = System.nanoTime();
+    ResultSet rs = delegate.executeQuery(sql);
+    executed(shape, start);
+    return rs;
+  }
+
+  @Override
+  public int executeUpdate(String sql) throws SQLException {
+    StatementShape shape = shapeOf(sql);
+    long start = System.nanoTime();
+    int rows = delegate.executeUpdate(sql);
+    updated(shape, start, rows);
+    return rows;
+  }
+
+  @Override
+  public void close() throws SQLException {
+    delegate.close();
+  }
+
+  @Override
+  public int getMaxFieldSize() throws SQLException {
+    return delegate.getMaxFieldSize();
+  }
+
+  @Override
+  public void setMaxFieldSize(int max) throws SQLException {
+    delegate.setMaxFieldSize(max);
+  }
+
+  @Override
+  public int getMaxRows() throws SQLException {
+    return delegate.getMaxRows();
+  }
+
+  @Override
+  public void setMaxRows(int max) throws SQLException {
+    delegate.setMaxRows(max);
+  }
+
+  @Override
+  public void setEscapeProcessing(boolean enable) throws SQLException {
+    delegate.setEscapeProcessing(enable);
+  }
+
+  @Override
+  public int getQueryTimeout() throws SQLException {
+    return delegate.getQueryTimeout();
+  }
+
+  @Override
+  public void setQueryTimeout(int seconds) throws SQLException {
+    delegate.setQueryTimeout(seconds);
+  }
+
+  @Override
+  public void cancel() throws SQLException {
+    delegate.cancel();
+  }
+
+  @Override
+  public SQLWarning getWarnings() throws SQLException {
+    return delegate.getWarnings();
+  }
+
+  @Override
+  public void clearWarnings() throws SQLException {
+    delegate.clearWarnings();
+  }
+
+  @Override
+  public void setCursorName(String name) throws SQLException {
+    delegate.setCursorName(name);
+  }
+
+  @Override
+  public boolean execute(String sql) throws SQLException {
+    StatementShape shape = shapeOf(sql);
+    long start = System.nanoTime();
+    boolean result = delegate.execute(sql);
+    executed(shape, start);
+    return result;
+  }
+
+  @Override
+  public ResultSet getResultSet() throws SQLException {
+    return delegate.getResultSet();
+  }
+
+  @Override
+  public int getUpdateCount() throws SQLException {
+    return delegate.getUpdateCount();
+  }
+
+  @Override
+  public boolean getMoreResults() throws SQLException {
+    return delegate.getMoreResults();
+  }
+
+  @Override
+  public void setFetchDirection(int direction) throws SQLException {
+    delegate.setFetchDirection(direction);
+  }
+
+  @Override
+  public int getFetchDirection() throws SQLException {
+    return delegate.getFetchDirection();
+  }
+
+  @Override
+  public void setFetchSize(int rows) throws SQLException {
+    delegate.setFetchSize(rows);
+  }
+
+  @Override
+  public int getFetchSize() throws SQLException {
+    return delegate.getFetchSize();
+  }
+
+  @Override
+  public int getResultSetConcurrency() throws SQLException {
+    return delegate.getResultSetConcurrency();
+  }
+
+  @Override
+  public int getResultSetType() throws SQLException {
+    return delegate.getResultSetType();
+  }
+
+  @Override
+  public void addBatch(String sql) throws SQLException {
+    StatementShape shape = shapeOf(sql);
+    if (null == batchShape) {
+      batchShape = shape;
+    } else if (batchShape != shape) {
+      batchShape = shapeOf(JdbcInstrumentation.BATCH_SHAPE);
+    }
+    delegate.addBatch(sql);
+  }
+
+  @Override
+  public void clearBatch() throws SQLException {
+    batchShape = null;
+    delegate.clearBatch();
+  }
+
+  @Override
+  public int[] executeBatch() throws SQLException {
+    StatementShape shape = null != batchShape ? batchShape : shapeOf(JdbcInstrumentation.BATCH_SHAPE);
+    batchShape = null;
+    long start = System.nanoTime();
+    int[] counts = delegate.executeBatch();
+    batched(shape, start, counts);
+    return counts;
+  }
+
+  @Override
+  public Connection getConnection() throws SQLException {
+    return connection;
+  }
+
+  @Override
+  public boolean getMoreResults(int current) throws SQLException {
+    return delegate.getMoreResults(current);
+  }
+
+  @Override
+  public ResultSet getGeneratedKeys() throws SQLException {
+    return delegate.getGeneratedKeys();
+  }
+
+  @Override
+  public int executeUpdate(String sql, int autoGeneratedKeys) throws SQLException {
+    StatementShape shape = shapeOf(sql);
+    long start = System.nanoTime();
+    int rows = delegate.executeUpdate(sql, autoGeneratedKeys);
+    updated(shape, start, rows);
+    return rows;
+  }
+
+  @Override
+  public int executeUpdate(String sql, int[] columnIndexes) throws SQLException {
+    StatementShape shape = shapeOf(sql);
+    long start = System.nanoTime();
+    int rows = delegate.executeUpdate(sql, columnIndexes);
+    updated(shape, start, rows);
+    return rows;
+  }
+
+  @Override
+  public int executeUpdate(String sql, String[] columnNames) throws SQLException {
+    StatementShape shape = shapeOf(sql);
+    long start = System.nanoTime();
+    int rows = delegate.executeUpdate(sql, columnNames);
+    updated(shape, start, rows);
+    return rows;
+  }
+
+  @Override
+  public boolean execute(String sql, int autoGeneratedKeys) throws SQLException {
+    StatementShape shape = shapeOf(sql);
+    long start = System.nanoTime();
+    boolean result = delegate.execute(sql, autoGeneratedKeys);
+    executed(shape, start);
+    return result;
+  }
+
+  @Override
+  public boolean execute(String sql, int[] columnIndexes) throws SQLException {
+    StatementShape shape = shapeOf(sql);
+    long start = System.nanoTime();
+    boolean result = delegate.execute(sql, columnIndexes);
+    executed(shape, start);
+    return result;
+  }
+
+  @Override
+  public boolean execute(String sql, String[] columnNames) throws SQLException {
+    StatementShape shape = shapeOf(sql);
+    long start = System.nanoTime();
+    boolean result = delegate.execute(sql, columnNames);
+    executed(shape, start);
+    return result;
+  }
+
+  @Override
+  public int getResultSetHoldability() throws SQLException {
+    return delegate.getResultSetHoldability();
+  }
+
+  @Override
+  public boolean isClosed() throws SQLException {
+    return delegate.isClosed();
+  }
+
+  @Override
+  public void setPoolable(boolean poolable) throws SQLException {
+    delegate.setPoolable(poolable);
+  }
+
+  @Override
+  public boolean isPoolable() throws SQLException {
+    return delegate.isPoolable();
+  }
+
+  @Override
+  public void closeOnCompletion() throws SQLException {
+    delegate.closeOnCompletion();
+  }
+
+  @Override
+  public boolean isCloseOnCompletion() throws SQLException {
+    return delegate.isCloseOnCompletion();
+  }
+
+  @Override
+  public long getLargeUpdateCount() throws SQLException {
+    return delegate.getLargeUpdateCount();
+  }
+
+  @Override
+  public void setLargeMaxRows(long max) throws SQLException {
+    delegate.setLargeMaxRows(max);
+  }
+
+  @Override
+  public long getLargeMaxRows() throws SQLException {
+    return delegate.getLargeMaxRows();
+  }
+
+  @Override
+  public long[] executeLargeBatch() throws SQLException {
+    StatementShape shape = null != batchShape ? batchShape : shapeOf(JdbcInstrumentation.BATCH_SHAPE);
+    batchShape = null;
+    long start = System.nanoTime();
+    long[] counts = delegate.executeLargeBatch();
+    batched(shape, start, counts);
+    return counts;
+  }
+
+  @Override
+  public long executeLargeUpdate(String sql) throws SQLException {
+    StatementShape shape = shapeOf(sql);
+    long start = System.nanoTime();
+    long rows = delegate.executeLargeUpdate(sql);
+    updated(shape, start, rows);
+    return rows;
+  }
+
+  @Override
+  public long executeLargeUpdate(String sql, int autoGeneratedKeys) throws SQLException {
+    StatementShape shape = shapeOf(sql);
+    long start = System.nanoTime();
+    long rows = delegate.executeLargeUpdate(sql, autoGeneratedKeys);
+    updated(shape, start, rows);
+    return rows;
+  }
+
+  @Override
+  public long executeLargeUpdate(String sql, int[] columnIndexes) throws SQLException {
+    StatementShape shape = shapeOf(sql);
+    long start = System.nanoTime();
+    long rows = delegate.executeLargeUpdate(sql, columnIndexes);
+    updated(shape, start, rows);
+    return rows;
+  }
+
+  @Override
+  public long executeLargeUpdate(String sql, String[] columnNames) throws SQLException {
+    StatementShape shape = shapeOf(sql);
+    long start = System.nanoTime();
+    long rows = delegate.executeLargeUpdate(sql, columnNames);
+    updated(shape, start, rows);
+    return rows;
+  }
+
+  @Override
+  public <T> T unwrap(Class<T> iface) throws SQLException {
+    return iface.isInstance(this) ? iface.cast(this) : delegate.unwrap(iface);
+  }
+
+  @Override
+  public boolean isWrapperFor(Class<?> iface) throws SQLException {
+    return iface.isInstance(this) || delegate.isWrapperFor(iface);
+  }
+}
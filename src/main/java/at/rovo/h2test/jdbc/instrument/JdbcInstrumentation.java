@@ -0,0 +1,88 @@
+package at.rovo.h2test.jdbc.instrument;
+
+import java.sql.Connection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.sql.DataSource;
+
+/**
+ * Measures where the time of database access goes by wrapping the JDBC objects used by a
+ * {@link org.springframework.jdbc.core.JdbcTemplate} or by plain JDBC code:
+ * <ul>
+ *   <li>{@value #STATEMENT_NANOS}: the execution latency per statement shape</li>
+ *   <li>{@value #STATEMENT_ROWS}: the rows affected by updates and batches per statement shape</li>
+ *   <li>{@value #TRANSACTION_ROUND_TRIPS}: the statements executed per transaction, including the
+ *   final commit or rollback</li>
+ *   <li>{@value #COMMIT_NANOS} and {@value #ROLLBACK_NANOS}: the latency of ending a
+ *   transaction</li>
+ *   <li>{@value #ACQUIRE_NANOS}: how long obtaining a connection from the wrapped data source
+ *   takes, which for a pool is the time waited for a free connection</li>
+ * </ul>
+ * The shape of a statement is its SQL with literals replaced and repeated row tuples and
+ * <code>IN</code> lists folded, see {@link SqlShapes}. Shapes are resolved when a statement is
+ * prepared, so executing a prepared statement only reads the clock and records into recorders
+ * which were looked up beforehand. SQL executed via a plain {@link java.sql.Statement} is resolved
+ * through a bounded cache on each execution.
+ * <p>
+ * The wrappers delegate every call and expose the wrapped objects through
+ * {@link java.sql.Wrapper#unwrap(Class)}. Callable statements are not instrumented. Additional
+ * round trips a driver performs to fetch further rows of a result set are not counted.
+ */
+public class JdbcInstrumentation {
+
+  public static final String STATEMENT_NANOS = "jdbc.statement.nanos";
+  public static final String STATEMENT_ROWS = "jdbc.statement.rows";
+  public static final String TRANSACTION_ROUND_TRIPS = "jdbc.transaction.roundTrips";
+  public static final String COMMIT_NANOS = "jdbc.commit.nanos";
+  public static final String ROLLBACK_NANOS = "jdbc.rollback.nanos";
+  public static final String ACQUIRE_NANOS = "jdbc.connection.acquire.nanos";
+
+  static final String BATCH_SHAPE = "<batch>";
+  private static final int MAX_CACHED_SQL = 10_000;
+
+  private final MetricsRegistry registry;
+  private final ConcurrentMap<String, StatementShape> shapesBySql = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, StatementShape> shapes = new ConcurrentHashMap<>();
+  final ValueRecorder roundTrips;
+  final ValueRecorder commitLatency;
+  final ValueRecorder rollbackLatency;
+  final ValueRecorder acquireLatency;
+
+  public JdbcInstrumentation(MetricsRegistry registry) {
+    this.registry = registry;
+    this.roundTrips = registry.recorder(TRANSACTION_ROUND_TRIPS, "");
+    this.commitLatency = registry.recorder(COMMIT_NANOS, "");
+    this.rollbackLatency = registry.recorder(ROLLBACK_NANOS, "");
+    this.acquireLatency = registry.recorder(ACQUIRE_NANOS, "");
+  }
+
+  public MetricsRegistry getRegistry() {
+    return registry;
+  }
+
+  /**
+   * Wraps the given data source, i.e. the one handed to a <code>JdbcTemplate</code> and its
+   * transaction manager.
+   */
+  public DataSource wrap(DataSource dataSource) {
+    return new InstrumentedDataSource(dataSource, this);
+  }
+
+  /**
+   * Wraps a connection obtained by plain JDBC code, i.e. via <code>DriverManager</code>.
+   */
+  public Connection wrap(Connection connection) {
+    return new InstrumentedConnection(connection, this);
+  }
+
+  StatementShape shapeOf(String sql) {
+    StatementShape shape = shapesBySql.get(sql);
+    if (null == shape) {
+      shape = shapes.computeIfAbsent(SqlShapes.normalize(sql), normalized -> new StatementShape(normalized, registry));
+      if (shapesBySql.size() < MAX_CACHED_SQL) {
+        shapesBySql.putIfAbsent(sql, shape);
+      }
+    }
+    return shape;
+  }
+}
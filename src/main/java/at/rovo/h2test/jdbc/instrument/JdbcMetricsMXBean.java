@@ -0,0 +1,15 @@
+package at.rovo.h2test.jdbc.instrument;
+
+import java.util.List;
+
+/**
+ * Exposes the metrics of a {@link HdrMetricsRegistry} via JMX.
+ */
+public interface JdbcMetricsMXBean {
+
+  List<MetricSnapshot> getMetrics();
+
+  int getStatementShapes();
+
+  void reset();
+}
@@ -0,0 +1,63 @@
+package at.rovo.h2test.jdbc.instrument;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * The distribution of the values recorded for a metric since the registry was created or reset.
+ * Latencies are given in nanoseconds.
+ */
+public class MetricSnapshot {
+
+  private final String metric;
+  private final String statement;
+  private final long count;
+  private final double mean;
+  private final long p50;
+  private final long p99;
+  private final long max;
+
+  @ConstructorProperties({"metric", "statement", "count", "mean", "p50", "p99", "max"})
+  public MetricSnapshot(String metric, String statement, long count, double mean, long p50, long p99, long max) {
+    this.metric = metric;
+    this.statement = statement;
+    this.count = count;
+    this.mean = mean;
+    this.p50 = p50;
+    this.p99 = p99;
+    this.max = max;
+  }
+
+  public String getMetric() {
+    return metric;
+  }
+
+  public String getStatement() {
+    return statement;
+  }
+
+  public long getCount() {
+    return count;
+  }
+
+  public double getMean() {
+    return mean;
+  }
+
+  public long getP50() {
+    return p50;
+  }
+
+  public long getP99() {
+    return p99;
+  }
+
+  public long getMax() {
+    return max;
+  }
+
+  @Override
+  public String toString() {
+    return "MetricSnapshot{metric=" + metric + ", statement=" + statement + ", count=" + count + ", mean=" + mean
+        + ", p50=" + p50 + ", p99=" + p99 + ", max=" + max + "}";
+  }
+}
@@ -0,0 +1,18 @@
+package at.rovo.h2test.jdbc.instrument;
+
+/**
+ * Hands out the recorders {@link JdbcInstrumentation} records its measurements with. Recorders are
+ * looked up once per metric and statement shape and kept by the instrumentation, so lookups may be
+ * comparatively expensive. Implement this interface to forward the measurements to an existing
+ * metrics library, {@link HdrMetricsRegistry} keeps them in HdrHistograms.
+ */
+public interface MetricsRegistry {
+
+  /**
+   * @param metric One of the metric names defined by {@link JdbcInstrumentation}
+   * @param statement The normalized SQL of a statement for statement metrics, an empty string
+   *        otherwise
+   * @return The recorder to record values of the given metric with
+   */
+  ValueRecorder recorder(String metric, String statement);
+}
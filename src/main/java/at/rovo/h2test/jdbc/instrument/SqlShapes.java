@@ -0,0 +1,85 @@
+package at.rovo.h2test.jdbc.instrument;
+
+import java.util.regex.Pattern;
+
+/**
+ * Reduces SQL to its shape, so statements differing only in literals or in the number of rows or
+ * <code>IN</code> list values are measured together.
+ */
+final class SqlShapes {
+
+  private static final Pattern ROW_TUPLES = Pattern.compile("(\\(\\?(?:, ?\\?)*\\))(?: ?, ?\\(\\?(?:, ?\\?)*\\))+");
+  private static final Pattern IN_LIST = Pattern.compile("(?i)\\bIN ?\\(\\?(?:, ?\\?)*\\)");
+
+  private SqlShapes() {
+
+  }
+
+  /**
+   * Replaces string and numeric literals with <code>?</code>, collapses whitespace, folds repeated
+   * row tuples to <code>(?, ?), ...</code> and <code>IN</code> lists to <code>IN (...)</code>.
+   */
+  static String normalize(String sql) {
+    StringBuilder sb = new StringBuilder(sql.length());
+    int n = sql.length();
+    for (int i = 0; i < n; i++) {
+      char c = sql.charAt(i);
+      if ('\'' == c) {
+        i = skipString(sql, i);
+        sb.append('?');
+      } else if ('-' == c && i + 1 < n && Character.isDigit(sql.charAt(i + 1)) && isOperandStart(sb)) {
+        // a negative number, the digits are folded with the next character
+        continue;
+      } else if (Character.isDigit(c) && !isIdentifierPart(sb)) {
+        while (i + 1 < n && (Character.isLetterOrDigit(sql.charAt(i + 1)) || '.' == sql.charAt(i + 1))) {
+          i++;
+        }
+        sb.append('?');
+      } else if (Character.isWhitespace(c)) {
+        if (sb.length() > 0 && ' ' != sb.charAt(sb.length() - 1)) {
+          sb.append(' ');
+        }
+      } else {
+        sb.append(c);
+      }
+    }
+    String shape = sb.toString().trim();
+    shape = ROW_TUPLES.matcher(shape).replaceAll("$1, ...");
+    return IN_LIST.matcher(shape).replaceAll("IN (...)");
+  }
+
+  private static int skipString(String sql, int start) {
+    int i = start + 1;
+    while (i < sql.length()) {
+      char c = sql.charAt(i);
+      if ('\\' == c) {
+        i += 2;
+      } else if ('\'' == c) {
+        if (i + 1 < sql.length() && '\'' == sql.charAt(i + 1)) {
+          i += 2;
+        } else {
+          return i;
+        }
+      } else {
+        i++;
+      }
+    }
+    return sql.length() - 1;
+  }
+
+  private static boolean isOperandStart(StringBuilder sb) {
+    int i = sb.length() - 1;
+    while (i >= 0 && ' ' == sb.charAt(i)) {
+      i--;
+    }
+    return i < 0 || "(,=<>+-*/".indexOf(sb.charAt(i)) >= 0;
+  }
+
+  private static boolean isIdentifierPart(StringBuilder sb) {
+    if (0 == sb.length()) {
+      return false;
+    }
+    char prev = sb.charAt(sb.length() - 1);
+    return Character.isLetterOrDigit(prev) || '_' == prev || '$' == prev;
+  }
+}
@@ -0,0 +1,17 @@
+package at.rovo.h2test.jdbc.instrument;
+
+/**
+ * The recorders of all statements sharing the same normalized SQL.
+ */
+final class StatementShape {
+
+  final String sql;
+  final ValueRecorder latency;
+  final ValueRecorder rows;
+
+  StatementShape(String sql, MetricsRegistry registry) {
+    this.sql = sql;
+    this.latency = registry.recorder(JdbcInstrumentation.STATEMENT_NANOS, sql);
+    this.rows = registry.recorder(JdbcInstrumentation.STATEMENT_ROWS, sql);
+  }
+}
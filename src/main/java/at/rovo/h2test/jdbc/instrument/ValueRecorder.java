@@ -0,0 +1,10 @@
+package at.rovo.h2test.jdbc.instrument;
+
+/**
+ * Records the values of a single metric, i.e. latencies in nanoseconds or row counts. Invoked on
+ * the hot path of every statement, so implementations must neither block nor allocate.
+ */
+public interface ValueRecorder {
+
+  void record(long value);
+}
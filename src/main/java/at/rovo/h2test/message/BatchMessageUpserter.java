@@ -0,0 +1,303 @@
+package at.rovo.h2test.message;
+
+import at.rovo.h2test.Dialect;
+import at.rovo.h2test.feed.Change;
+import at.rovo.h2test.feed.ChangeFeed;
+import at.rovo.h2test.jdbc.ConnectionStatements;
+import at.rovo.h2test.jdbc.Sql;
+import at.rovo.h2test.jdbc.StatementCache;
+import at.rovo.h2test.message.codec.PayloadFormat;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.springframework.dao.DataRetrievalFailureException;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * Inserts or updates many <code>message</code> rows at once and reports the surrogate
+ * <code>message.id</code> of every row.
+ * <p>
+ * The input is split into chunks. Each chunk is sent as a single multi-row
+ * <code>INSERT ... ON DUPLICATE KEY UPDATE</code> statement followed by a single
+ * <code>SELECT ... WHERE messageId IN (...)</code> which resolves the ids of all rows of the chunk.
+ * Generated keys are deliberately not used here as neither H2 nor MySQL report the id of an
+ * updated row for multi-row statements. A chunk therefore costs two round trips regardless of the
+ * number of rows it contains.
+ * <p>
+ * Single messages are upserted through the {@link MessageKeyResolver} of the underlying database
+ * instead, which learns the affected id without an additional lookup where the database allows it.
+ * <p>
+ * Neither path moves <code>lastStatusChange</code> of an existing row backwards, so events recorded
+ * late don't hide newer ones.
+ * <p>
+ * If a {@link MessageIdCache} is configured, ids of cached messages are not looked up again and
+ * single messages known to the cache are updated directly via their primary key. All resolved ids
+ * are fed back into the cache.
+ * <p>
+ * If a {@link MessagePayloadCache} is configured, the cached payload of every message whose
+ * payload is replaced is invalidated.
+ * <p>
+ * If a {@link PayloadFormat} is configured, payloads are stored in that format, i.e. compressed.
+ * <p>
+ * If a {@link ChangeFeed} is configured, every upserted message is published to it once the
+ * surrounding transaction committed.
+ * <p>
+ * All statements run on the connection the {@link JdbcTemplate} obtains, so a surrounding Spring
+ * managed transaction is honoured. Statements are taken from a {@link StatementCache}, so within
+ * a Spring managed transaction they are reused for its remainder. Without one they are only
+ * reused across the chunks of a single {@link #upsert(List)} call.
+ */
+@SuppressWarnings({"SqlNoDataSourceInspection", "SqlDialectInspection"})
+public class BatchMessageUpserter {
+
+  public static final int DEFAULT_CHUNK_SIZE = 100;
+
+  private static final String INSERT_PREFIX =
+      "INSERT INTO message (messageId, message, lastStatusChange) VALUES ";
+  // lastStatusChange never moves backwards, i.e. if a group of older events is recorded late, and
+  // a NULL on either side keeps the other value, as MySQL's GREATEST is NULL if any argument is
+  private static final String UPSERT_SUFFIX = " ON DUPLICATE KEY UPDATE "
+      + "message = COALESCE(VALUES(message), message), "
+      + "lastStatusChange = GREATEST(COALESCE(VALUES(lastStatusChange), lastStatusChange), "
+      + "COALESCE(lastStatusChange, VALUES(lastStatusChange)))";
+  private static final String SELECT_PREFIX = "SELECT id, messageId FROM message WHERE messageId IN ";
+
+  private final JdbcTemplate jdbcTemplate;
+  private final int chunkSize;
+  // SQL of full chunks is always the same, so build it only once
+  private final String fullChunkUpsertSql;
+  // resolved on first use as the dialect can only be determined from a live connection
+  private volatile MessageKeyResolver keyResolver;
+  private MessageIdCache messageIdCache;
+  private MessagePayloadCache payloadCache;
+  private PayloadFormat payloadFormat;
+  private ChangeFeed changeFeed;
+  private StatementCache statementCache = new StatementCache();
+
+  public BatchMessageUpserter(JdbcTemplate jdbcTemplate) {
+    this(jdbcTemplate, DEFAULT_CHUNK_SIZE);
+  }
+
+  public BatchMessageUpserter(JdbcTemplate jdbcTemplate, int chunkSize) {
+    if (chunkSize < 1) {
+      throw new IllegalArgumentException("Chunk size must be positive but was " + chunkSize);
+    }
+    this.jdbcTemplate = jdbcTemplate;
+    this.chunkSize = chunkSize;
+    this.fullChunkUpsertSql = upsertSql(chunkSize);
+  }
+
+  public BatchMessageUpserter(JdbcTemplate jdbcTemplate, int chunkSize, MessageKeyResolver keyResolver) {
+    this(jdbcTemplate, chunkSize);
+    this.keyResolver = keyResolver;
+  }
+
+  public void setMessageIdCache(MessageIdCache messageIdCache) {
+    this.messageIdCache = messageIdCache;
+  }
+
+  public void setPayloadCache(MessagePayloadCache payloadCache) {
+    this.payloadCache = payloadCache;
+  }
+
+  public void setPayloadFormat(PayloadFormat payloadFormat) {
+    this.payloadFormat = payloadFormat;
+  }
+
+  public void setChangeFeed(ChangeFeed changeFeed) {
+    this.changeFeed = changeFeed;
+  }
+
+  /**
+   * Shares the given statement cache, i.e. with other components taking part in the same
+   * transactions.
+   */
+  public void setStatementCache(StatementCache statementCache) {
+    this.statementCache = statementCache;
+  }
+
+  public StatementCache getStatementCache() {
+    return statementCache;
+  }
+
+  /**
+   * Inserts or updates a single message.
+   *
+   * @param upsert The message to insert or update
+   * @return The <code>message.id</code> of the inserted or updated row
+   */
+  public long upsert(final MessageUpsert upsert) {
+    return jdbcTemplate.execute(new ConnectionCallback<Long>() {
+      @Override
+      public Long doInConnection(Connection con) throws SQLException {
+        try (ConnectionStatements statements = statementCache.forConnection(con)) {
+          long id = upsert(con, statements, upsert);
+          if (null != payloadCache && null != upsert.getPayload()) {
+            payloadCache.invalidate(id);
+          }
+          if (null != changeFeed) {
+            changeFeed.publish(Collections.singletonList(change(upsert, id)));
+          }
+          return id;
+        }
+      }
+    });
+  }
+
+  private long upsert(Connection con, ConnectionStatements statements, MessageUpsert original) throws SQLException {
+    MessageUpsert upsert = original;
+    if (null != payloadFormat && null != original.getPayload()) {
+      upsert = new MessageUpsert(original.getMessageId(), payloadFormat.encode(original.getPayload()),
+          original.getLastStatusChange());
+    }
+    if (null == messageIdCache) {
+      return keyResolver(con).upsert(statements, upsert);
+    }
+    long id = messageIdCache.get(upsert.getMessageId());
+    if (MessageIdCache.NOT_CACHED != id && LookupKeyResolver.update(statements, upsert, id) > 0) {
+      return id;
+    }
+    id = keyResolver(con).upsert(statements, upsert);
+    messageIdCache.put(upsert.getMessageId(), id);
+    return id;
+  }
+
+  private MessageKeyResolver keyResolver(Connection con) throws SQLException {
+    MessageKeyResolver resolver = keyResolver;
+    if (null == resolver) {
+      resolver = MessageKeyResolver.forDialect(Dialect.of(con));
+      keyResolver = resolver;
+    }
+    return resolver;
+  }
+
+  /**
+   * Inserts or updates the given messages and returns their ids in input order. The same
+   * <code>messageId</code> may occur more than once, in which case the later entry wins and all
+   * occurrences resolve to the same id.
+   *
+   * @param upserts The messages to insert or update
+   * @return The <code>message.id</code> of each input row, at the index of the input row
+   */
+  public long[] upsert(final List<MessageUpsert> upserts) {
+    final long[] ids = new long[upserts.size()];
+    if (upserts.isEmpty()) {
+      return ids;
+    }
+    jdbcTemplate.execute(new ConnectionCallback<Void>() {
+      @Override
+      public Void doInConnection(Connection con) throws SQLException {
+        try (ConnectionStatements statements = statementCache.forConnection(con)) {
+          for (int from = 0; from < upserts.size(); from += chunkSize) {
+            List<MessageUpsert> chunk = upserts.subList(from, Math.min(from + chunkSize, upserts.size()));
+            upsertChunk(statements, chunk);
+            resolveChunk(statements, chunk, ids, from);
+            invalidatePayloads(chunk, ids, from);
+            publishChanges(chunk, ids, from);
+          }
+        }
+        return null;
+      }
+    });
+    return ids;
+  }
+
+  private void upsertChunk(ConnectionStatements statements, List<MessageUpsert> chunk) throws SQLException {
+    String sql = chunk.size() == chunkSize ? fullChunkUpsertSql : upsertSql(chunk.size());
+    PreparedStatement ps = statements.prepare(sql);
+    int idx = 1;
+    for (MessageUpsert upsert : chunk) {
+      ps.setString(idx++, upsert.getMessageId());
+      ps.setBytes(idx++, null != payloadFormat ? payloadFormat.encode(upsert.getPayload()) : upsert.getPayload());
+      ps.setTimestamp(idx++, upsert.getLastStatusChange());
+    }
+    ps.executeUpdate();
+  }
+
+  private void resolveChunk(ConnectionStatements statements, List<MessageUpsert> chunk, long[] ids, int offset)
+      throws SQLException {
+    Set<String> uniqueMessageIds = new LinkedHashSet<>(chunk.size() * 2);
+    for (MessageUpsert upsert : chunk) {
+      uniqueMessageIds.add(upsert.getMessageId());
+    }
+
+    Map<String, Long> resolved = new HashMap<>(uniqueMessageIds.size() * 2);
+    List<String> lookup = new ArrayList<>(uniqueMessageIds.size());
+    for (String messageId : uniqueMessageIds) {
+      long id = null != messageIdCache ? messageIdCache.get(messageId) : MessageIdCache.NOT_CACHED;
+      if (MessageIdCache.NOT_CACHED != id) {
+        resolved.put(messageId, id);
+      } else {
+        lookup.add(messageId);
+      }
+    }
+
+    if (!lookup.isEmpty()) {
+      int inListSize = Sql.inListSize(lookup.size(), chunkSize);
+      PreparedStatement ps = statements.prepare(SELECT_PREFIX + Sql.placeholders(inListSize));
+      for (int i = 0; i < inListSize; i++) {
+        ps.setString(i + 1, lookup.get(Math.min(i, lookup.size() - 1)));
+      }
+      try (ResultSet rs = ps.executeQuery()) {
+        while (rs.next()) {
+          String messageId = rs.getString(2);
+          long id = rs.getLong(1);
+          resolved.put(messageId, id);
+          if (null != messageIdCache) {
+            messageIdCache.put(messageId, id);
+          }
+        }
+      }
+    }
+
+    for (int i = 0; i < chunk.size(); i++) {
+      String messageId = chunk.get(i).getMessageId();
+      Long id = resolved.get(messageId);
+      if (null == id) {
+        throw new DataRetrievalFailureException("No message row found for messageId '" + messageId
+            + "' after upserting it");
+      }
+      ids[offset + i] = id;
+    }
+  }
+
+  private void invalidatePayloads(List<MessageUpsert> chunk, long[] ids, int offset) {
+    if (null == payloadCache) {
+      return;
+    }
+    for (int i = 0; i < chunk.size(); i++) {
+      // upserts without payload keep the existing one
+      if (null != chunk.get(i).getPayload()) {
+        payloadCache.invalidate(ids[offset + i]);
+      }
+    }
+  }
+
+  private void publishChanges(List<MessageUpsert> chunk, long[] ids, int offset) {
+    if (null == changeFeed) {
+      return;
+    }
+    List<Change> changes = new ArrayList<>(chunk.size());
+    for (int i = 0; i < chunk.size(); i++) {
+      changes.add(change(chunk.get(i), ids[offset + i]));
+    }
+    changeFeed.publish(changes);
+  }
+
+  private static Change change(MessageUpsert upsert, long id) {
+    return Change.of(new MessageChange(id, upsert.getMessageId(), upsert.getLastStatusChange()));
+  }
+
+  private static String upsertSql(int rows) {
+    return Sql.multiRowValues(INSERT_PREFIX, rows, 3, UPSERT_SUFFIX);
+  }
+}
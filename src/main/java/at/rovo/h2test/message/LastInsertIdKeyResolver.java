@@ -0,0 +1,49 @@
+package at.rovo.h2test.message;
+
+import at.rovo.h2test.jdbc.ConnectionStatements;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Resolves the affected id on MySQL in a single round trip by assigning
+ * <code>id = LAST_INSERT_ID(id)</code> in the update clause. This makes MySQL report the id of an
+ * updated row exactly like it reports the id of an inserted one.
+ * <p>
+ * MySQL reports an affected row count of <code>0</code> if the update did not change any value,
+ * in which case Connector/J doesn't return a generated key at all. Only then
+ * <code>SELECT LAST_INSERT_ID()</code> is issued, which returns the id set by the update clause.
+ * <p>
+ * H2 does not support <code>LAST_INSERT_ID(expr)</code>, use {@link LookupKeyResolver} there.
+ */
+@SuppressWarnings({"SqlNoDataSourceInspection", "SqlDialectInspection"})
+public class LastInsertIdKeyResolver implements MessageKeyResolver {
+
+  static final String UPSERT_SQL = "INSERT INTO message (messageId, message, lastStatusChange) VALUES (?, ?, ?) "
+      + "ON DUPLICATE KEY UPDATE id = LAST_INSERT_ID(id), "
+      + "message = COALESCE(VALUES(message), message), "
+      + "lastStatusChange = GREATEST(COALESCE(VALUES(lastStatusChange), lastStatusChange), "
+      + "COALESCE(lastStatusChange, VALUES(lastStatusChange)))";
+
+  @Override
+  public long upsert(ConnectionStatements statements, MessageUpsert upsert) throws SQLException {
+    PreparedStatement ps = statements.prepareReturningKeys(UPSERT_SQL);
+    ps.setString(1, upsert.getMessageId());
+    ps.setBytes(2, upsert.getPayload());
+    ps.setTimestamp(3, upsert.getLastStatusChange());
+    ps.executeUpdate();
+    // an update reports 2 affected rows and Connector/J therefore fabricates a second key, only
+    // the first one is the actual id
+    try (ResultSet keys = ps.getGeneratedKeys()) {
+      if (keys.next()) {
+        return keys.getLong(1);
+      }
+    }
+    try (ResultSet rs = statements.prepare("SELECT LAST_INSERT_ID()").executeQuery()) {
+      if (!rs.next()) {
+        throw new SQLException("Could not determine id of message '" + upsert.getMessageId() + "'");
+      }
+      return rs.getLong(1);
+    }
+  }
+}
@@ -0,0 +1,94 @@
+package at.rovo.h2test.message;
+
+import at.rovo.h2test.jdbc.ConnectionStatements;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Resolves the affected id by looking up the business key first. Existing rows are updated via
+ * their primary key, missing rows are inserted with a plain <code>INSERT</code> whose generated
+ * key is reliable on every database. This needs two round trips, but unlike
+ * <code>ON DUPLICATE KEY UPDATE</code> on H2 it neither reports a wrong id nor burns an auto
+ * increment value for every update.
+ * <p>
+ * If a concurrent transaction inserts the same <code>messageId</code> between lookup and insert,
+ * the unique key violation is caught and the row is looked up again.
+ */
+@SuppressWarnings({"SqlNoDataSourceInspection", "SqlDialectInspection"})
+public class LookupKeyResolver implements MessageKeyResolver {
+
+  static final String SELECT_SQL = "SELECT id FROM message WHERE messageId = ?";
+  // lastStatusChange is only advanced, see BatchMessageUpserter
+  static final String UPDATE_SQL = "UPDATE message SET message = COALESCE(?, message), "
+      + "lastStatusChange = GREATEST(COALESCE(?, lastStatusChange), COALESCE(lastStatusChange, ?)) WHERE id = ?";
+  static final String INSERT_SQL = "INSERT INTO message (messageId, message, lastStatusChange) VALUES (?, ?, ?)";
+  static final String EXISTS_SQL = "SELECT 1 FROM message WHERE id = ?";
+
+  // SQLState class of integrity constraint violations, used by both H2 (23505) and MySQL (23000)
+  private static final String INTEGRITY_CONSTRAINT_VIOLATION = "23";
+
+  @Override
+  public long upsert(ConnectionStatements statements, MessageUpsert upsert) throws SQLException {
+    long id = lookup(statements, upsert.getMessageId());
+    if (id < 0) {
+      try {
+        return insert(statements, upsert);
+      } catch (SQLException sqlEx) {
+        if (null == sqlEx.getSQLState() || !sqlEx.getSQLState().startsWith(INTEGRITY_CONSTRAINT_VIOLATION)) {
+          throw sqlEx;
+        }
+        // lost the race against a concurrent insert of the same messageId
+        id = lookup(statements, upsert.getMessageId());
+        if (id < 0) {
+          throw sqlEx;
+        }
+      }
+    }
+    update(statements, upsert, id);
+    return id;
+  }
+
+  private static long lookup(ConnectionStatements statements, String messageId) throws SQLException {
+    PreparedStatement ps = statements.prepare(SELECT_SQL);
+    ps.setString(1, messageId);
+    try (ResultSet rs = ps.executeQuery()) {
+      return rs.next() ? rs.getLong(1) : -1L;
+    }
+  }
+
+  /**
+   * Updates the message with the given id and returns the number of matched rows, which is
+   * <code>0</code> if no such message exists.
+   */
+  static int update(ConnectionStatements statements, MessageUpsert upsert, long id) throws SQLException {
+    if (null == upsert.getPayload() && null == upsert.getLastStatusChange()) {
+      // nothing to update, just check whether the row still exists
+      PreparedStatement ps = statements.prepare(EXISTS_SQL);
+      ps.setLong(1, id);
+      try (ResultSet rs = ps.executeQuery()) {
+        return rs.next() ? 1 : 0;
+      }
+    }
+    PreparedStatement ps = statements.prepare(UPDATE_SQL);
+    ps.setBytes(1, upsert.getPayload());
+    ps.setTimestamp(2, upsert.getLastStatusChange());
+    ps.setTimestamp(3, upsert.getLastStatusChange());
+    ps.setLong(4, id);
+    return ps.executeUpdate();
+  }
+
+  private static long insert(ConnectionStatements statements, MessageUpsert upsert) throws SQLException {
+    PreparedStatement ps = statements.prepareReturningKeys(INSERT_SQL);
+    ps.setString(1, upsert.getMessageId());
+    ps.setBytes(2, upsert.getPayload());
+    ps.setTimestamp(3, upsert.getLastStatusChange());
+    ps.executeUpdate();
+    try (ResultSet keys = ps.getGeneratedKeys()) {
+      if (!keys.next()) {
+        throw new SQLException("No key generated for message '" + upsert.getMessageId() + "'");
+      }
+      return keys.getLong(1);
+    }
+  }
+}
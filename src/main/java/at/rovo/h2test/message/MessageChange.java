@@ -0,0 +1,37 @@
+package at.rovo.h2test.message;
+
+import java.sql.Timestamp;
+
+/**
+ * The key columns of a <code>message</code> row together with the time of its last status change,
+ * without the payload.
+ */
+public final class MessageChange {
+
+  private final long id;
+  private final String messageId;
+  private final Timestamp lastStatusChange;
+
+  public MessageChange(long id, String messageId, Timestamp lastStatusChange) {
+    this.id = id;
+    this.messageId = messageId;
+    this.lastStatusChange = lastStatusChange;
+  }
+
+  public long getId() {
+    return id;
+  }
+
+  public String getMessageId() {
+    return messageId;
+  }
+
+  public Timestamp getLastStatusChange() {
+    return lastStatusChange;
+  }
+
+  @Override
+  public String toString() {
+    return "MessageChange{id=" + id + ", messageId='" + messageId + "', lastStatusChange=" + lastStatusChange + "}";
+  }
+}
@@ -0,0 +1,158 @@
+package at.rovo.h2test.message;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Bounded in-process cache of the <code>UK_msgId</code> business key to the surrogate
+ * <code>message.id</code>. Once a message row exists this mapping never changes, so lookups for
+ * known messages don't need to reach the database at all.
+ * <p>
+ * Eviction is size and time based and follows Caffeine's W-TinyLFU policy. The cache is safe to
+ * use from concurrent writers.
+ * <p>
+ * Ids learned within a Spring managed transaction are only visible to that transaction until it
+ * commits, as a rollback may remove the row they point to. On commit they are published to the
+ * shared cache, on rollback they are dropped and removed from the shared cache as well. Callers
+ * managing transactions on their own have to {@link #invalidateAll(Collection) invalidate} the
+ * ids they {@link #put(String, long) put} if their transaction is rolled back.
+ */
+public class MessageIdCache {
+
+  public static final long DEFAULT_MAXIMUM_SIZE = 100_000L;
+  public static final long DEFAULT_TIME_TO_LIVE_MINUTES = 60L;
+
+  /** Returned by {@link #get(String)} for unknown messages. */
+  public static final long NOT_CACHED = -1L;
+
+  private final Cache<String, Long> cache;
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+
+  public MessageIdCache() {
+    this(DEFAULT_MAXIMUM_SIZE, DEFAULT_TIME_TO_LIVE_MINUTES, TimeUnit.MINUTES);
+  }
+
+  /**
+   * @param maximumSize The maximum number of cached ids
+   * @param timeToLive How long a cached id remains valid after it was put into the cache
+   * @param unit The unit of <code>timeToLive</code>
+   */
+  public MessageIdCache(long maximumSize, long timeToLive, TimeUnit unit) {
+    this.cache = Caffeine.newBuilder()
+        .maximumSize(maximumSize)
+        .expireAfterWrite(timeToLive, unit)
+        .build();
+  }
+
+  /**
+   * Returns the cached id of the given message or {@link #NOT_CACHED}.
+   */
+  public long get(String messageId) {
+    TransactionIds txIds = currentTransactionIds(false);
+    Long id = null != txIds ? txIds.ids.get(messageId) : null;
+    if (null == id) {
+      id = cache.getIfPresent(messageId);
+    }
+    if (null == id) {
+      misses.increment();
+      return NOT_CACHED;
+    }
+    hits.increment();
+    return id;
+  }
+
+  /**
+   * Remembers the id of a message that was just inserted or updated. Within a Spring managed
+   * transaction the id is only published once the transaction commits.
+   */
+  public void put(String messageId, long id) {
+    TransactionIds txIds = currentTransactionIds(true);
+    if (null != txIds) {
+      txIds.ids.put(messageId, id);
+    } else {
+      cache.put(messageId, id);
+    }
+  }
+
+  public void invalidate(String messageId) {
+    cache.invalidate(messageId);
+  }
+
+  public void invalidateAll(Collection<String> messageIds) {
+    cache.invalidateAll(messageIds);
+  }
+
+  public void clear() {
+    cache.invalidateAll();
+  }
+
+  public long size() {
+    return cache.estimatedSize();
+  }
+
+  public long getHitCount() {
+    return hits.sum();
+  }
+
+  public long getMissCount() {
+    return misses.sum();
+  }
+
+  public double getHitRate() {
+    long hitCount = hits.sum();
+    long total = hitCount + misses.sum();
+    return 0 == total ? 1.0 : (double) hitCount / total;
+  }
+
+  private TransactionIds currentTransactionIds(boolean create) {
+    if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+      return null;
+    }
+    TransactionIds txIds = (TransactionIds) TransactionSynchronizationManager.getResource(this);
+    if (null == txIds && create) {
+      txIds = new TransactionIds();
+      TransactionSynchronizationManager.bindResource(this, txIds);
+      TransactionSynchronizationManager.registerSynchronization(txIds);
+    }
+    return txIds;
+  }
+
+  /**
+   * Ids learned by the current transaction, published or discarded on completion.
+   */
+  private final class TransactionIds extends TransactionSynchronizationAdapter {
+
+    private final Map<String, Long> ids = new HashMap<>();
+
+    @Override
+    public void suspend() {
+      TransactionSynchronizationManager.unbindResourceIfPossible(MessageIdCache.this);
+    }
+
+    @Override
+    public void resume() {
+      TransactionSynchronizationManager.bindResource(MessageIdCache.this, this);
+    }
+
+    @Override
+    public void afterCommit() {
+      cache.putAll(ids);
+    }
+
+    @Override
+    public void afterCompletion(int status) {
+      TransactionSynchronizationManager.unbindResourceIfPossible(MessageIdCache.this);
+      if (STATUS_COMMITTED != status) {
+        cache.invalidateAll(ids.keySet());
+      }
+    }
+  }
+}
@@ -0,0 +1,52 @@
+package at.rovo.h2test.message;
+
+import at.rovo.h2test.Dialect;
+import at.rovo.h2test.jdbc.ConnectionStatements;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Strategy for upserting a single <code>message</code> row and learning the id of the row that
+ * was actually inserted or updated.
+ * <p>
+ * Generated keys of <code>INSERT ... ON DUPLICATE KEY UPDATE</code> can't be trusted across
+ * databases: H2 1.4.197 hands out the <em>next</em> auto increment value if the statement ends up
+ * updating an existing row, while MySQL reports nothing useful for updates unless the statement is
+ * crafted accordingly. Implementations hide these differences and always report the id of the
+ * affected row as primitive <code>long</code>.
+ */
+public interface MessageKeyResolver {
+
+  /**
+   * Inserts the given message or updates the existing one with the same <code>messageId</code>.
+   *
+   * @param statements The statements of the connection to use. Transaction handling is left to
+   *     the caller
+   * @param upsert The message to insert or update
+   * @return The <code>message.id</code> of the inserted or updated row
+   * @throws SQLException If the statements could not be executed
+   */
+  long upsert(ConnectionStatements statements, MessageUpsert upsert) throws SQLException;
+
+  /**
+   * Like {@link #upsert(ConnectionStatements, MessageUpsert)} but without reusing any statements.
+   */
+  default long upsert(Connection con, MessageUpsert upsert) throws SQLException {
+    try (ConnectionStatements statements = new ConnectionStatements(con)) {
+      return upsert(statements, upsert);
+    }
+  }
+
+  /**
+   * Returns the resolver best suited for the given database.
+   */
+  static MessageKeyResolver forDialect(Dialect dialect) {
+    switch (dialect) {
+      case MYSQL:
+        return new LastInsertIdKeyResolver();
+      case H2:
+      default:
+        return new LookupKeyResolver();
+    }
+  }
+}
@@ -0,0 +1,333 @@
+package at.rovo.h2test.message;
+
+import at.rovo.h2test.message.codec.PayloadFormat;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Weigher;
+import java.nio.ByteBuffer;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Read-through cache of the <code>message</code> payload keyed by the surrogate
+ * <code>message.id</code>. Payloads are read far more often than they change, and every read
+ * from the database transfers the whole BLOB.
+ * <p>
+ * Eviction follows Caffeine's W-TinyLFU policy within a budget of bytes rather than entries, each
+ * entry weighing its payload size plus a fixed overhead, so a few large payloads can't push the
+ * cache beyond its memory budget. Payloads exceeding a maximum entry size are never cached. If
+ * configured, payloads are kept in direct buffers outside of the Java heap. Callers always get a
+ * copy of the cached payload.
+ * <p>
+ * Writers of a payload have to {@link #invalidate(long) invalidate} it, which the
+ * {@link BatchMessageUpserter} and the {@link MessagePayloadStore} do if a cache is configured.
+ * Within a Spring managed transaction, payloads invalidated by the transaction are read from the
+ * database for the rest of it, so the transaction sees its own writes while the cache only ever
+ * holds committed payloads. As a concurrent reader may load and cache the previous payload until
+ * the writing transaction commits, invalidated payloads are invalidated once more after the
+ * transaction completed, whether it committed or rolled back.
+ * <p>
+ * Only reads outside of a transaction populate the cache. Each of them sees the latest committed
+ * payload, and loading and invalidating the same payload are serialized by the cache, so such a
+ * load racing with the final invalidation can't leave a stale entry behind. A read within a
+ * transaction may see a snapshot older than a commit whose invalidation happened already, e.g.
+ * under <code>REPEATABLE READ</code>, so on a miss it reads from the database without caching the
+ * payload.
+ * <p>
+ * If a {@link PayloadFormat} is configured, payloads are decoded when they are loaded, so the
+ * cache holds and returns uncompressed payloads.
+ */
+@SuppressWarnings({"SqlNoDataSourceInspection", "SqlDialectInspection"})
+public class MessagePayloadCache {
+
+  /** The approximate heap footprint of an entry in addition to its payload. */
+  static final int ENTRY_OVERHEAD_BYTES = 64;
+
+  private static final String SELECT_SQL = "SELECT message FROM message WHERE id = ?";
+  private static final CachedPayload NO_PAYLOAD = new CachedPayload(0) {
+    @Override
+    byte[] toBytes() {
+      return null;
+    }
+  };
+
+  private final JdbcTemplate jdbcTemplate;
+  private final PayloadCacheSettings settings;
+  private final Cache<Long, CachedPayload> cache;
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder bytesSaved = new LongAdder();
+  private final LongAdder bytesLoaded = new LongAdder();
+  private PayloadFormat payloadFormat;
+
+  public MessagePayloadCache(JdbcTemplate jdbcTemplate) {
+    this(jdbcTemplate, new PayloadCacheSettings());
+  }
+
+  public MessagePayloadCache(JdbcTemplate jdbcTemplate, PayloadCacheSettings settings) {
+    this.jdbcTemplate = jdbcTemplate;
+    this.settings = settings;
+    this.cache = Caffeine.newBuilder()
+        .maximumWeight(settings.getMaximumBytes())
+        .weigher(new Weigher<Long, CachedPayload>() {
+          @Override
+          public int weigh(Long id, CachedPayload payload) {
+            return payload.length + ENTRY_OVERHEAD_BYTES;
+          }
+        })
+        .build();
+  }
+
+  public void setPayloadFormat(PayloadFormat payloadFormat) {
+    this.payloadFormat = payloadFormat;
+  }
+
+  /**
+   * Returns the payload of the given message, reading it from the database if it isn't cached.
+   *
+   * @param messageRefId The <code>message.id</code> of the message
+   * @return The payload or <code>null</code> if the message doesn't exist or has no payload
+   */
+  public byte[] get(long messageRefId) {
+    TransactionWrites writes = currentTransactionWrites(false);
+    boolean ownWrite = null != writes && writes.ids.contains(messageRefId);
+    if (!ownWrite) {
+      CachedPayload cached = cache.getIfPresent(messageRefId);
+      if (null != cached) {
+        hits.increment();
+        bytesSaved.add(cached.length);
+        return cached.toBytes();
+      }
+    }
+    misses.increment();
+    if (ownWrite || TransactionSynchronizationManager.isActualTransactionActive()) {
+      // the snapshot of the transaction may predate a commit whose invalidation happened already
+      byte[][] payload = load(messageRefId);
+      return null != payload ? payload[0] : null;
+    }
+
+    final byte[][] loaded = new byte[1][];
+    CachedPayload cached = cache.get(messageRefId, new Function<Long, CachedPayload>() {
+      @Override
+      public CachedPayload apply(Long id) {
+        byte[][] payload = load(id);
+        if (null == payload) {
+          // the message may still be inserted with this id
+          return null;
+        }
+        loaded[0] = payload[0];
+        return cacheable(payload[0]);
+      }
+    });
+    if (null != loaded[0]) {
+      return loaded[0];
+    }
+    return null != cached ? cached.toBytes() : null;
+  }
+
+  /**
+   * Removes the payload of the given message, which was just modified, from the cache. Within a
+   * Spring managed transaction the payload is removed again once the transaction completed.
+   */
+  public void invalidate(long messageRefId) {
+    cache.invalidate(messageRefId);
+    TransactionWrites writes = currentTransactionWrites(true);
+    if (null != writes) {
+      writes.ids.add(messageRefId);
+    }
+  }
+
+  public void invalidateAll(Collection<Long> messageRefIds) {
+    for (long id : messageRefIds) {
+      invalidate(id);
+    }
+  }
+
+  public void clear() {
+    cache.invalidateAll();
+  }
+
+  public long size() {
+    return cache.estimatedSize();
+  }
+
+  /**
+   * Performs pending maintenance, i.e. evictions, which the cache otherwise does asynchronously.
+   */
+  public void cleanUp() {
+    cache.cleanUp();
+  }
+
+  /**
+   * The weight of all cached entries, i.e. their payload sizes plus the per entry overhead.
+   */
+  public long getCachedBytes() {
+    return cache.policy().eviction().get().weightedSize().orElse(0L);
+  }
+
+  public long getHitCount() {
+    return hits.sum();
+  }
+
+  public long getMissCount() {
+    return misses.sum();
+  }
+
+  public double getHitRate() {
+    long hitCount = hits.sum();
+    long total = hitCount + misses.sum();
+    return 0 == total ? 1.0 : (double) hitCount / total;
+  }
+
+  /**
+   * The number of payload bytes served from the cache instead of being read from the database.
+   */
+  public long getBytesSaved() {
+    return bytesSaved.sum();
+  }
+
+  /**
+   * The number of payload bytes read from the database on cache misses, as stored, i.e.
+   * compressed.
+   */
+  public long getBytesLoaded() {
+    return bytesLoaded.sum();
+  }
+
+  @Override
+  public String toString() {
+    return "MessagePayloadCache{size=" + size() + ", cachedBytes=" + getCachedBytes() + ", hits=" + getHitCount()
+        + ", misses=" + getMissCount() + ", hitRate=" + getHitRate() + ", bytesSaved=" + getBytesSaved()
+        + ", bytesLoaded=" + getBytesLoaded() + "}";
+  }
+
+  /**
+   * Reads the payload of a message and returns it as the only element of an array, which is
+   * <code>null</code> if the message doesn't exist.
+   */
+  private byte[][] load(long messageRefId) {
+    List<byte[]> rows = jdbcTemplate.query(SELECT_SQL, new RowMapper<byte[]>() {
+      @Override
+      public byte[] mapRow(ResultSet rs, int rowNum) throws SQLException {
+        return rs.getBytes(1);
+      }
+    }, messageRefId);
+    if (rows.isEmpty()) {
+      return null;
+    }
+    byte[] payload = rows.get(0);
+    if (null != payload) {
+      bytesLoaded.add(payload.length);
+      if (null != payloadFormat) {
+        payload = payloadFormat.decode(payload);
+      }
+    }
+    return new byte[][] {payload};
+  }
+
+  private CachedPayload cacheable(byte[] payload) {
+    if (null == payload) {
+      return NO_PAYLOAD;
+    }
+    if (payload.length > settings.getMaximumEntryBytes()) {
+      return null;
+    }
+    if (settings.isOffHeap()) {
+      ByteBuffer buffer = ByteBuffer.allocateDirect(payload.length);
+      buffer.put(payload).flip();
+      return new DirectPayload(buffer);
+    }
+    return new HeapPayload(payload.clone());
+  }
+
+  private TransactionWrites currentTransactionWrites(boolean create) {
+    if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+      return null;
+    }
+    TransactionWrites writes = (TransactionWrites) TransactionSynchronizationManager.getResource(this);
+    if (null == writes && create) {
+      writes = new TransactionWrites();
+      TransactionSynchronizationManager.bindResource(this, writes);
+      TransactionSynchronizationManager.registerSynchronization(writes);
+    }
+    return writes;
+  }
+
+  private abstract static class CachedPayload {
+
+    final int length;
+
+    CachedPayload(int length) {
+      this.length = length;
+    }
+
+    abstract byte[] toBytes();
+  }
+
+  private static final class HeapPayload extends CachedPayload {
+
+    private final byte[] payload;
+
+    HeapPayload(byte[] payload) {
+      super(payload.length);
+      this.payload = payload;
+    }
+
+    @Override
+    byte[] toBytes() {
+      return payload.clone();
+    }
+  }
+
+  private static final class DirectPayload extends CachedPayload {
+
+    private final ByteBuffer buffer;
+
+    DirectPayload(ByteBuffer buffer) {
+      super(buffer.remaining());
+      this.buffer = buffer;
+    }
+
+    @Override
+    byte[] toBytes() {
+      byte[] payload = new byte[length];
+      // a duplicate has its own position, so concurrent readers don't interfere
+      buffer.duplicate().get(payload);
+      return payload;
+    }
+  }
+
+  /**
+   * Payloads invalidated by the current transaction, invalidated once more on completion.
+   */
+  private final class TransactionWrites extends TransactionSynchronizationAdapter {
+
+    private final Set<Long> ids = new HashSet<>();
+
+    @Override
+    public void suspend() {
+      TransactionSynchronizationManager.unbindResourceIfPossible(MessagePayloadCache.this);
+    }
+
+    @Override
+    public void resume() {
+      TransactionSynchronizationManager.bindResource(MessagePayloadCache.this, this);
+    }
+
+    @Override
+    public void afterCompletion(int status) {
+      TransactionSynchronizationManager.unbindResourceIfPossible(MessagePayloadCache.this);
+      cache.invalidateAll(ids);
+    }
+  }
+}
@@ -0,0 +1,174 @@
+package at.rovo.h2test.message;
+
+import at.rovo.h2test.Dialect;
+import at.rovo.h2test.message.codec.PayloadFormat;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * Writes and reads the <code>message</code> payload as a stream, so a payload never has to be
+ * held on the heap as a whole, let alone be inlined into the SQL as hex literal twice its size.
+ * <p>
+ * Payloads are bound via {@link PreparedStatement#setBinaryStream(int, InputStream, long)} and
+ * read via {@link ResultSet#getBinaryStream(int)}, copying through a buffer of fixed size. H2
+ * spools bound streams into its LOB storage and hands out LOBs in chunks. For MySQL, results are
+ * streamed row by row (<code>fetchSize = Integer.MIN_VALUE</code>), and bound streams are sent in
+ * chunks if server side prepared statements are enabled (<code>useServerPrepStmts=true</code>, as
+ * configured by {@link at.rovo.h2test.jdbc.PooledDataSources#mysql}). Note that Connector/J
+ * still reads a complete row at once unless <code>emulateLocators=true</code> is set, and that
+ * <code>max_allowed_packet</code> has to exceed the largest payload.
+ * <p>
+ * All statements run on the connection the {@link JdbcTemplate} obtains, so a surrounding Spring
+ * managed transaction is honoured.
+ * <p>
+ * If a {@link MessagePayloadCache} is configured, the id of a written message is looked up after
+ * its payload was replaced, and the cached payload is invalidated.
+ * <p>
+ * If a {@link PayloadFormat} is configured, payloads are written in that format and read payloads
+ * are decoded, so the store can share the <code>message</code> table with a
+ * {@link BatchMessageUpserter} and {@link MessagePayloadCache} using the same format. Whether
+ * payloads are compressed on the fly depends on the codec of the format.
+ */
+@SuppressWarnings({"SqlNoDataSourceInspection", "SqlDialectInspection"})
+public class MessagePayloadStore {
+
+  public static final int DEFAULT_BUFFER_SIZE = 8 * 1024;
+
+  private static final String UPSERT_SQL = "INSERT INTO message (messageId, message) VALUES (?, ?) "
+      + "ON DUPLICATE KEY UPDATE message = VALUES(message)";
+  private static final String SELECT_SQL = "SELECT LENGTH(message), message FROM message WHERE messageId = ?";
+  private static final String SELECT_ID_SQL = "SELECT id FROM message WHERE messageId = ?";
+
+  private final JdbcTemplate jdbcTemplate;
+  private final int bufferSize;
+  private MessagePayloadCache payloadCache;
+  private PayloadFormat payloadFormat;
+
+  public MessagePayloadStore(JdbcTemplate jdbcTemplate) {
+    this(jdbcTemplate, DEFAULT_BUFFER_SIZE);
+  }
+
+  public MessagePayloadStore(JdbcTemplate jdbcTemplate, int bufferSize) {
+    if (bufferSize < 1) {
+      throw new IllegalArgumentException("Buffer size must be positive but was " + bufferSize);
+    }
+    this.jdbcTemplate = jdbcTemplate;
+    this.bufferSize = bufferSize;
+  }
+
+  public void setPayloadCache(MessagePayloadCache payloadCache) {
+    this.payloadCache = payloadCache;
+  }
+
+  public void setPayloadFormat(PayloadFormat payloadFormat) {
+    this.payloadFormat = payloadFormat;
+  }
+
+  /**
+   * Inserts the message with the given payload or replaces the payload of an existing message.
+   * The stream is consumed but not closed.
+   *
+   * @param messageId The business key of the message
+   * @param payload The payload to store
+   * @param length The number of bytes of the payload
+   */
+  public void write(final String messageId, final InputStream payload, final long length) {
+    jdbcTemplate.execute(new ConnectionCallback<Void>() {
+      @Override
+      public Void doInConnection(Connection con) throws SQLException {
+        try (PreparedStatement ps = con.prepareStatement(UPSERT_SQL)) {
+          ps.setString(1, messageId);
+          if (null != payloadFormat) {
+            // the length of an encoded payload is only known once it was sent
+            try (InputStream encoded = payloadFormat.encode(payload, length)) {
+              ps.setBinaryStream(2, encoded);
+              ps.executeUpdate();
+            }
+          } else {
+            ps.setBinaryStream(2, payload, length);
+            ps.executeUpdate();
+          }
+        } catch (IOException ioEx) {
+          throw new DataAccessResourceFailureException("Could not encode payload of message '" + messageId + "'",
+              ioEx);
+        }
+        if (null != payloadCache) {
+          invalidateCachedPayload(con, messageId);
+        }
+        return null;
+      }
+    });
+  }
+
+  /**
+   * Copies the payload of the given message to the target stream, which is not closed.
+   *
+   * @param messageId The business key of the message
+   * @param target The stream to copy the payload to
+   * @return The number of copied bytes, i.e. of the decoded payload, or <code>-1</code> if the
+   *         message doesn't exist or has no payload
+   */
+  public long read(final String messageId, final OutputStream target) {
+    return jdbcTemplate.execute(new ConnectionCallback<Long>() {
+      @Override
+      public Long doInConnection(Connection con) throws SQLException {
+        try (PreparedStatement ps = con.prepareStatement(SELECT_SQL, ResultSet.TYPE_FORWARD_ONLY,
+            ResultSet.CONCUR_READ_ONLY)) {
+          if (Dialect.MYSQL == Dialect.of(con)) {
+            ps.setFetchSize(Integer.MIN_VALUE);
+          }
+          ps.setString(1, messageId);
+          try (ResultSet rs = ps.executeQuery()) {
+            if (!rs.next()) {
+              return -1L;
+            }
+            long storedLength = rs.getLong(1);
+            try (InputStream payload = rs.getBinaryStream(2)) {
+              if (null == payload) {
+                return -1L;
+              }
+              if (null == payloadFormat) {
+                return copy(payload, target);
+              }
+              try (InputStream decoded = payloadFormat.decode(payload, storedLength)) {
+                return copy(decoded, target);
+              }
+            }
+          }
+        } catch (IOException ioEx) {
+          throw new DataAccessResourceFailureException("Could not copy payload of message '" + messageId + "'", ioEx);
+        }
+      }
+    });
+  }
+
+  private void invalidateCachedPayload(Connection con, String messageId) throws SQLException {
+    try (PreparedStatement ps = con.prepareStatement(SELECT_ID_SQL)) {
+      ps.setString(1, messageId);
+      try (ResultSet rs = ps.executeQuery()) {
+        if (rs.next()) {
+          payloadCache.invalidate(rs.getLong(1));
+        }
+      }
+    }
+  }
+
+  private long copy(InputStream in, OutputStream out) throws IOException {
+    byte[] buffer = new byte[bufferSize];
+    long copied = 0;
+    int read;
+    while ((read = in.read(buffer)) != -1) {
+      out.write(buffer, 0, read);
+      copied += read;
+    }
+    return copied;
+  }
+}
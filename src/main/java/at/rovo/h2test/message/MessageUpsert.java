@@ -0,0 +1,43 @@
+package at.rovo.h2test.message;
+
+import java.sql.Timestamp;
+import java.util.Objects;
+
+/**
+ * A single row to insert into, or update within, the <code>message</code> table. Rows are matched
+ * on the <code>UK_msgId</code> business key.
+ * <p>
+ * A <code>null</code> payload or status change timestamp leaves the value of an already existing
+ * row untouched.
+ */
+public final class MessageUpsert {
+
+  private final String messageId;
+  private final byte[] payload;
+  private final Timestamp lastStatusChange;
+
+  public MessageUpsert(String messageId, byte[] payload, Timestamp lastStatusChange) {
+    this.messageId = Objects.requireNonNull(messageId, "messageId");
+    this.payload = payload;
+    this.lastStatusChange = lastStatusChange;
+  }
+
+  public String getMessageId() {
+    return messageId;
+  }
+
+  public byte[] getPayload() {
+    return payload;
+  }
+
+  public Timestamp getLastStatusChange() {
+    return lastStatusChange;
+  }
+
+  @Override
+  public String toString() {
+    return "MessageUpsert{messageId='" + messageId + "', payload="
+        + (null != payload ? payload.length + " bytes" : "null")
+        + ", lastStatusChange=" + lastStatusChange + "}";
+  }
+}
@@ -0,0 +1,52 @@
+package at.rovo.h2test.message;
+
+/**
+ * Settings of a {@link MessagePayloadCache}.
+ */
+public class PayloadCacheSettings {
+
+  private long maximumBytes = 64L * 1024 * 1024;
+  private int maximumEntryBytes = 1024 * 1024;
+  private boolean offHeap;
+
+  /**
+   * The eviction budget of the cache: the total size of all cached payloads, including a small
+   * fixed overhead per entry.
+   */
+  public long getMaximumBytes() {
+    return maximumBytes;
+  }
+
+  public PayloadCacheSettings setMaximumBytes(long maximumBytes) {
+    this.maximumBytes = maximumBytes;
+    return this;
+  }
+
+  /**
+   * Payloads larger than this are read from the database every time instead of displacing many
+   * smaller payloads from the cache.
+   */
+  public int getMaximumEntryBytes() {
+    return maximumEntryBytes;
+  }
+
+  public PayloadCacheSettings setMaximumEntryBytes(int maximumEntryBytes) {
+    this.maximumEntryBytes = maximumEntryBytes;
+    return this;
+  }
+
+  /**
+   * Whether cached payloads are kept in direct buffers outside of the Java heap. Direct memory is
+   * released once the garbage collector reclaims an evicted buffer, so
+   * <code>-XX:MaxDirectMemorySize</code> should leave room for the eviction budget and the evicted
+   * but not yet collected buffers.
+   */
+  public boolean isOffHeap() {
+    return offHeap;
+  }
+
+  public PayloadCacheSettings setOffHeap(boolean offHeap) {
+    this.offHeap = offHeap;
+    return this;
+  }
+}
@@ -0,0 +1,50 @@
+package at.rovo.h2test.message.codec;
+
+import java.io.InputStream;
+
+/**
+ * Compresses <code>message</code> payloads. The id of the codec is stored in the header of every
+ * payload it compressed, so it must never change once payloads were written with it. Ids
+ * <code>0</code> to <code>15</code> are reserved for the codecs of {@link PayloadCodecs}.
+ * <p>
+ * Implementations have to be safe for use by concurrent threads.
+ */
+public interface PayloadCodec {
+
+  int getId();
+
+  byte[] compress(byte[] raw);
+
+  /**
+   * Decompresses <code>length</code> bytes of <code>src</code> starting at <code>offset</code>.
+   *
+   * @param originalLength The length of the uncompressed payload as recorded on compression
+   * @return The uncompressed payload
+   * @throws IllegalArgumentException If the data is corrupt
+   */
+  byte[] decompress(byte[] src, int offset, int length, int originalLength);
+
+  /**
+   * Returns the compressed form of the given stream as a stream, for payloads too large to be
+   * compressed as a whole. Closing the returned stream releases the resources of the codec but
+   * leaves <code>raw</code> open.
+   *
+   * @return The compressing stream or <code>null</code> if the codec only compresses whole
+   *         payloads
+   */
+  default InputStream compressing(InputStream raw) {
+    return null;
+  }
+
+  /**
+   * Returns the uncompressed form of the given stream as a stream. Reading it fails with an
+   * {@link java.io.IOException} if the data is corrupt.
+   *
+   * @param originalLength The length of the uncompressed payload as recorded on compression
+   * @return The decompressing stream or <code>null</code> if the codec only decompresses whole
+   *         payloads
+   */
+  default InputStream decompressing(InputStream compressed, int originalLength) {
+    return null;
+  }
+}
@@ -0,0 +1,231 @@
+package at.rovo.h2test.message.codec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Exception;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4SafeDecompressor;
+
+/**
+ * The built-in codecs. {@link #DEFLATE} trades CPU for a good ratio on text, {@link #LZ4}
+ * compresses less but several times faster, which usually pays off as soon as the payload has to
+ * cross the network.
+ */
+public final class PayloadCodecs {
+
+  /** Stores payloads as they are, only used for payloads that would otherwise look encoded. */
+  public static final PayloadCodec NONE = new PayloadCodec() {
+    @Override
+    public int getId() {
+      return 0;
+    }
+
+    @Override
+    public byte[] compress(byte[] raw) {
+      return raw;
+    }
+
+    @Override
+    public byte[] decompress(byte[] src, int offset, int length, int originalLength) {
+      if (length != originalLength) {
+        throw new IllegalArgumentException("Expected " + originalLength + " uncompressed bytes but got " + length);
+      }
+      return Arrays.copyOfRange(src, offset, offset + length);
+    }
+
+    @Override
+    public String toString() {
+      return "NONE";
+    }
+  };
+
+  /** zlib compressed payloads at the default compression level. */
+  public static final PayloadCodec DEFLATE = deflate(Deflater.DEFAULT_COMPRESSION);
+
+  /**
+   * LZ4 block compressed payloads using the fastest available implementation. Decompression is
+   * bounds checked, as stored payloads aren't necessarily written by this codec.
+   */
+  public static final PayloadCodec LZ4 = new Lz4Codec(LZ4Factory.fastestInstance());
+
+  private PayloadCodecs() {
+
+  }
+
+  /**
+   * A codec writing zlib compressed payloads at the given level, from
+   * {@link Deflater#BEST_SPEED} to {@link Deflater#BEST_COMPRESSION}. Payloads of all levels
+   * share the same id and are decompressed alike. Streams are compressed and decompressed on the
+   * fly.
+   */
+  public static PayloadCodec deflate(int level) {
+    return new DeflateCodec(level);
+  }
+
+  private static final class DeflateCodec implements PayloadCodec {
+
+    private final int level;
+
+    private DeflateCodec(int level) {
+      this.level = level;
+    }
+
+    @Override
+    public int getId() {
+      return 1;
+    }
+
+    @Override
+    public byte[] compress(byte[] raw) {
+      Deflater deflater = new Deflater(level);
+      try {
+        deflater.setInput(raw);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 2 + 16);
+        byte[] buffer = new byte[Math.min(Math.max(raw.length, 64), 64 * 1024)];
+        while (!deflater.finished()) {
+          out.write(buffer, 0, deflater.deflate(buffer));
+        }
+        return out.toByteArray();
+      } finally {
+        deflater.end();
+      }
+    }
+
+    @Override
+    public byte[] decompress(byte[] src, int offset, int length, int originalLength) {
+      Inflater inflater = new Inflater();
+      try {
+        inflater.setInput(src, offset, length);
+        byte[] raw = new byte[originalLength];
+        int inflated = 0;
+        while (inflated < originalLength && !inflater.finished()) {
+          int n = inflater.inflate(raw, inflated, originalLength - inflated);
+          if (0 == n && (inflater.needsInput() || inflater.needsDictionary())) {
+            break;
+          }
+          inflated += n;
+        }
+        if (inflated != originalLength || !inflater.finished()) {
+          throw new IllegalArgumentException("Expected " + originalLength + " uncompressed bytes but got "
+              + inflated);
+        }
+        return raw;
+      } catch (DataFormatException dfEx) {
+        throw new IllegalArgumentException("Corrupt deflate payload", dfEx);
+      } finally {
+        inflater.end();
+      }
+    }
+
+    @Override
+    public InputStream compressing(InputStream raw) {
+      final Deflater deflater = new Deflater(level);
+      return new DeflaterInputStream(raw, deflater) {
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+          if (deflater.finished()) {
+            close();
+            return -1;
+          }
+          return super.read(b, off, len);
+        }
+
+        @Override
+        public void close() {
+          // the raw stream belongs to the caller
+          deflater.end();
+        }
+      };
+    }
+
+    @Override
+    public InputStream decompressing(InputStream compressed, final int originalLength) {
+      final Inflater inflater = new Inflater();
+      return new InflaterInputStream(compressed, inflater) {
+        private long inflated;
+        private boolean ended;
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+          if (ended) {
+            return -1;
+          }
+          int n = super.read(b, off, len);
+          if (n > 0) {
+            inflated += n;
+          } else if (-1 == n) {
+            close();
+            if (inflated != originalLength) {
+              throw new IOException("Expected " + originalLength + " uncompressed bytes but got " + inflated);
+            }
+          }
+          return n;
+        }
+
+        @Override
+        public void close() {
+          // the compressed stream belongs to the caller
+          if (!ended) {
+            ended = true;
+            inflater.end();
+          }
+        }
+      };
+    }
+
+    @Override
+    public String toString() {
+      return "DEFLATE(" + level + ")";
+    }
+  }
+
+  private static final class Lz4Codec implements PayloadCodec {
+
+    private final LZ4Compressor compressor;
+    private final LZ4SafeDecompressor decompressor;
+
+    private Lz4Codec(LZ4Factory factory) {
+      this.compressor = factory.fastCompressor();
+      this.decompressor = factory.safeDecompressor();
+    }
+
+    @Override
+    public int getId() {
+      return 2;
+    }
+
+    @Override
+    public byte[] compress(byte[] raw) {
+      return compressor.compress(raw);
+    }
+
+    @Override
+    public byte[] decompress(byte[] src, int offset, int length, int originalLength) {
+      byte[] raw = new byte[originalLength];
+      try {
+        int decompressed = decompressor.decompress(src, offset, length, raw, 0, originalLength);
+        if (decompressed != originalLength) {
+          throw new IllegalArgumentException("Expected " + originalLength + " uncompressed bytes but got "
+              + decompressed);
+        }
+      } catch (LZ4Exception lz4Ex) {
+        throw new IllegalArgumentException("Corrupt LZ4 payload", lz4Ex);
+      }
+      return raw;
+    }
+
+    @Override
+    public String toString() {
+      return "LZ4";
+    }
+  }
+}
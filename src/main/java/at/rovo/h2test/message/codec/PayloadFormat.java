@@ -0,0 +1,241 @@
+package at.rovo.h2test.message.codec;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.io.SequenceInputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The storage format of the <code>message</code> payload. Payloads of at least
+ * <code>threshold</code> bytes are compressed with the configured {@link PayloadCodec} and
+ * prefixed by a header of 7 bytes: the magic bytes <code>0xF5 0x9A</code>, the id of the codec and
+ * the length of the uncompressed payload as 4 byte big endian integer.
+ * <p>
+ * Smaller payloads, and payloads that don't get smaller by compression, are stored as they are,
+ * exactly like all payloads written before codecs were introduced. Decoding therefore passes any
+ * payload without a valid header through unchanged. <code>0xF5</code> never occurs in UTF-8
+ * text, so textual payloads can't be mistaken for encoded ones; raw payloads that happen to start
+ * with the magic bytes are written with a header of the {@link PayloadCodecs#NONE NONE} codec.
+ * <p>
+ * Binary payloads written before this format may start with the magic bytes as well. A header is
+ * therefore only trusted if its codec is known and its length is plausible, i.e. at most
+ * {@value #MAX_COMPRESSION_RATIO} times the compressed size, so an arbitrary header can't make
+ * decoding allocate gigabytes. A payload whose header is trusted but whose data doesn't decode is
+ * returned as it is stored as well.
+ * <p>
+ * Payloads of every registered codec are decoded, independent of the codec used for writing, so
+ * the codec can be changed at any time.
+ * <p>
+ * Streams are encoded and decoded on the fly if the codec supports it, see
+ * {@link PayloadCodec#compressing(InputStream)}. Streamed payloads are compressed regardless of
+ * whether they get smaller, and a corrupt streamed payload fails while it is read instead of
+ * being returned as stored. Codecs that don't support streams store streamed payloads as they
+ * are, and decode stored payloads as a whole.
+ */
+public class PayloadFormat {
+
+  public static final int HEADER_LENGTH = 7;
+  public static final int DEFAULT_THRESHOLD = 256;
+  /** Above the highest ratio DEFLATE achieves, which is the highest of the built-in codecs. */
+  public static final int MAX_COMPRESSION_RATIO = 1_100;
+
+  private static final byte MAGIC_0 = (byte) 0xF5;
+  private static final byte MAGIC_1 = (byte) 0x9A;
+
+  private final PayloadCodec codec;
+  private final int threshold;
+  private final Map<Integer, PayloadCodec> codecs = new HashMap<>();
+
+  public PayloadFormat(PayloadCodec codec) {
+    this(codec, DEFAULT_THRESHOLD);
+  }
+
+  /**
+   * @param codec The codec payloads are compressed with
+   * @param threshold The minimum size of payloads to compress
+   */
+  public PayloadFormat(PayloadCodec codec, int threshold) {
+    if (threshold < 0) {
+      throw new IllegalArgumentException("Threshold must not be negative but was " + threshold);
+    }
+    this.codec = codec;
+    this.threshold = threshold;
+    register(PayloadCodecs.NONE);
+    register(PayloadCodecs.DEFLATE);
+    register(PayloadCodecs.LZ4);
+    register(codec);
+  }
+
+  /**
+   * Lets payloads compressed by the given codec be decoded in addition to those of the built-in
+   * codecs and the codec used for writing. Codecs have to be registered before the format is
+   * shared with other threads.
+   */
+  public PayloadFormat register(PayloadCodec decoder) {
+    if (decoder.getId() < 0 || decoder.getId() > 0xFF) {
+      throw new IllegalArgumentException("Codec id must be within [0, 255] but was " + decoder.getId());
+    }
+    codecs.put(decoder.getId(), decoder);
+    return this;
+  }
+
+  public PayloadCodec getCodec() {
+    return codec;
+  }
+
+  public int getThreshold() {
+    return threshold;
+  }
+
+  /**
+   * Returns the payload in its storage format.
+   */
+  public byte[] encode(byte[] raw) {
+    if (null == raw) {
+      return null;
+    }
+    if (raw.length >= threshold && PayloadCodecs.NONE != codec) {
+      byte[] compressed = codec.compress(raw);
+      if (HEADER_LENGTH + compressed.length < raw.length && isPlausible(codec, compressed.length, raw.length)) {
+        return withHeader(codec, compressed, raw.length);
+      }
+    }
+    return hasMagic(raw) ? withHeader(PayloadCodecs.NONE, raw, raw.length) : raw;
+  }
+
+  /**
+   * Returns the original payload of a stored payload, or the stored payload itself if it wasn't
+   * written by this format.
+   */
+  public byte[] decode(byte[] stored) {
+    if (null == stored || stored.length < HEADER_LENGTH || !hasMagic(stored)) {
+      return stored;
+    }
+    PayloadCodec decoder = codecs.get(stored[2] & 0xFF);
+    int originalLength = originalLength(stored);
+    if (null == decoder || !isPlausible(decoder, stored.length - HEADER_LENGTH, originalLength)) {
+      // not written by this format
+      return stored;
+    }
+    try {
+      return decoder.decompress(stored, HEADER_LENGTH, stored.length - HEADER_LENGTH, originalLength);
+    } catch (IllegalArgumentException iaEx) {
+      // a raw payload that merely looks encoded
+      return stored;
+    }
+  }
+
+  /**
+   * Returns the payload of the given stream in its storage format. The stream is consumed but not
+   * closed. The returned stream has to be closed to release the resources of the codec, which
+   * leaves <code>raw</code> open.
+   *
+   * @param length The number of bytes of the payload
+   */
+  public InputStream encode(InputStream raw, long length) throws IOException {
+    if (length >= threshold && length <= Integer.MAX_VALUE && PayloadCodecs.NONE != codec) {
+      InputStream compressed = codec.compressing(raw);
+      if (null != compressed) {
+        return new SequenceInputStream(new ByteArrayInputStream(header(codec, (int) length)), compressed);
+      }
+    }
+    PushbackInputStream in = new PushbackInputStream(raw, 2) {
+      @Override
+      public void close() {
+        // the raw stream belongs to the caller
+      }
+    };
+    byte[] start = new byte[2];
+    int read = readFully(in, start);
+    in.unread(start, 0, read);
+    if (hasMagic(start) && length <= Integer.MAX_VALUE) {
+      return new SequenceInputStream(new ByteArrayInputStream(header(PayloadCodecs.NONE, (int) length)), in);
+    }
+    return in;
+  }
+
+  /**
+   * Returns the original payload of a stored payload read from the given stream, or the stored
+   * payload itself if it wasn't written by this format.
+   *
+   * @param storedLength The number of bytes of the stored payload
+   */
+  public InputStream decode(InputStream stored, long storedLength) throws IOException {
+    PushbackInputStream in = new PushbackInputStream(stored, HEADER_LENGTH);
+    byte[] header = new byte[HEADER_LENGTH];
+    int read = readFully(in, header);
+    PayloadCodec decoder = HEADER_LENGTH == read && hasMagic(header) ? codecs.get(header[2] & 0xFF) : null;
+    long compressedLength = storedLength - HEADER_LENGTH;
+    if (null == decoder || compressedLength > Integer.MAX_VALUE
+        || !isPlausible(decoder, (int) compressedLength, originalLength(header))) {
+      in.unread(header, 0, read);
+      return in;
+    }
+    InputStream decompressed = decoder.decompressing(in, originalLength(header));
+    if (null != decompressed) {
+      return decompressed;
+    }
+    byte[] whole = new byte[(int) storedLength];
+    System.arraycopy(header, 0, whole, 0, HEADER_LENGTH);
+    int length = HEADER_LENGTH + readFully(in, whole, HEADER_LENGTH, whole.length - HEADER_LENGTH);
+    if (length != whole.length) {
+      throw new IOException("Expected a stored payload of " + storedLength + " bytes but got " + length);
+    }
+    return new ByteArrayInputStream(decode(whole));
+  }
+
+  private static boolean isPlausible(PayloadCodec codec, int compressedLength, long originalLength) {
+    if (PayloadCodecs.NONE == codec) {
+      return originalLength == compressedLength;
+    }
+    return originalLength >= 0 && originalLength <= (long) compressedLength * MAX_COMPRESSION_RATIO;
+  }
+
+  private static boolean hasMagic(byte[] payload) {
+    return payload.length >= 2 && MAGIC_0 == payload[0] && MAGIC_1 == payload[1];
+  }
+
+  private static int originalLength(byte[] header) {
+    return ((header[3] & 0xFF) << 24) | ((header[4] & 0xFF) << 16) | ((header[5] & 0xFF) << 8) | (header[6] & 0xFF);
+  }
+
+  private static byte[] header(PayloadCodec codec, int originalLength) {
+    byte[] header = new byte[HEADER_LENGTH];
+    header[0] = MAGIC_0;
+    header[1] = MAGIC_1;
+    header[2] = (byte) codec.getId();
+    header[3] = (byte) (originalLength >>> 24);
+    header[4] = (byte) (originalLength >>> 16);
+    header[5] = (byte) (originalLength >>> 8);
+    header[6] = (byte) originalLength;
+    return header;
+  }
+
+  private static byte[] withHeader(PayloadCodec codec, byte[] data, int originalLength) {
+    byte[] stored = new byte[HEADER_LENGTH + data.length];
+    System.arraycopy(header(codec, originalLength), 0, stored, 0, HEADER_LENGTH);
+    System.arraycopy(data, 0, stored, HEADER_LENGTH, data.length);
+    return stored;
+  }
+
+  private static int readFully(InputStream in, byte[] buffer) throws IOException {
+    return readFully(in, buffer, 0, buffer.length);
+  }
+
+  private static int readFully(InputStream in, byte[] buffer, int offset, int length) throws IOException {
+    int total = 0;
+    int read;
+    while (total < length && (read = in.read(buffer, offset + total, length - total)) != -1) {
+      total += read;
+    }
+    return total;
+  }
+
+  @Override
+  public String toString() {
+    return "PayloadFormat{codec=" + codec + ", threshold=" + threshold + "}";
+  }
+}
@@ -0,0 +1,37 @@
+package at.rovo.h2test.shard;
+
+/**
+ * Globally unique ids of rows stored on one of several shards. Every shard keeps generating its
+ * own <code>AUTO_INCREMENT</code> ids, the global id appends the shard index to them:
+ * <code>globalId = localId &lt;&lt; SHARD_BITS | shard</code>. No central sequence is needed, the
+ * shard storing a row can be told from its id alone and ids of the same shard keep their order.
+ */
+public final class GlobalIds {
+
+  public static final int SHARD_BITS = 10;
+  public static final int MAX_SHARDS = 1 << SHARD_BITS;
+
+  private static final long MAX_LOCAL_ID = Long.MAX_VALUE >>> SHARD_BITS;
+
+  private GlobalIds() {
+
+  }
+
+  public static long globalId(long localId, int shard) {
+    if (localId < 0 || localId > MAX_LOCAL_ID) {
+      throw new IllegalArgumentException("Local id " + localId + " exceeds the range of global ids");
+    }
+    if (shard < 0 || shard >= MAX_SHARDS) {
+      throw new IllegalArgumentException("Shard " + shard + " is not within [0, " + MAX_SHARDS + ")");
+    }
+    return localId << SHARD_BITS | shard;
+  }
+
+  public static int shardOf(long globalId) {
+    return (int) (globalId & (MAX_SHARDS - 1));
+  }
+
+  public static long localId(long globalId) {
+    return globalId >>> SHARD_BITS;
+  }
+}
@@ -0,0 +1,40 @@
+package at.rovo.h2test.shard;
+
+/**
+ * Maps the <code>messageId</code> business key of a message to the shard storing it. The
+ * mapping only depends on the key and the number of shards, so every client routes a message to
+ * the same shard, but changing the number of shards moves most messages to another shard.
+ * <p>
+ * The hash is the specified {@link String#hashCode()} of the key, spread by the finalizer of
+ * MurmurHash3 so that keys differing only in their last characters, like sequence numbers, don't
+ * end up on neighbouring shards in lockstep.
+ */
+public class ShardRouter {
+
+  private final int shards;
+
+  public ShardRouter(int shards) {
+    if (shards < 1 || shards > GlobalIds.MAX_SHARDS) {
+      throw new IllegalArgumentException("Number of shards must be within [1, " + GlobalIds.MAX_SHARDS
+          + "] but was " + shards);
+    }
+    this.shards = shards;
+  }
+
+  public int getShards() {
+    return shards;
+  }
+
+  public int shardOf(String messageId) {
+    return Math.floorMod(mix(messageId.hashCode()), shards);
+  }
+
+  private static int mix(int h) {
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    h *= 0xc2b2ae35;
+    h ^= h >>> 16;
+    return h;
+  }
+}
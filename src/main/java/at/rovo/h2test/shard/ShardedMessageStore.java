@@ -0,0 +1,338 @@
+package at.rovo.h2test.shard;
+
+import at.rovo.h2test.message.BatchMessageUpserter;
+import at.rovo.h2test.message.MessageUpsert;
+import at.rovo.h2test.status.StatusEvent;
+import at.rovo.h2test.status.StatusEventPipeline;
+import at.rovo.h2test.status.StatusHistoryReader;
+import at.rovo.h2test.status.StatusRecord;
+import at.rovo.h2test.tx.RetryingTransactionExecutor;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import javax.sql.DataSource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Spreads messages and their status rows over several databases, each holding its own
+ * <code>message</code> and <code>status</code> tables, so that writers of different messages
+ * don't contend on the same <code>UK_msgId</code> index and auto-increment lock.
+ * <p>
+ * A message is stored on the shard its <code>messageId</code> is routed to by a
+ * {@link ShardRouter}, and all status rows of the message are stored on the same shard. Every
+ * write therefore stays within one database and one local transaction, and
+ * <code>fk_status_message</code> keeps being enforced by that database. The ids returned and
+ * accepted by the store are {@link GlobalIds global ids} combining the id generated by the shard
+ * with the shard index, so no central sequence is needed.
+ * <p>
+ * Counts and time range queries are scattered to all shards and gathered: counts run on all
+ * shards in parallel and are summed up, time ranges are merged from the ordered per shard streams
+ * of a {@link StatusHistoryReader} into a single stream ordered by <code>(lastChange, id)</code>.
+ * <p>
+ * The store neither creates the tables on the shards nor moves rows when the number of shards
+ * changes. It has to be {@link #close() closed} to release the threads used for scatter-gather.
+ */
+@SuppressWarnings({"SqlNoDataSourceInspection", "SqlDialectInspection"})
+public class ShardedMessageStore implements AutoCloseable {
+
+  private static final String INSERT_STATUS_SQL = "INSERT INTO status (lastChange, messageId, status) VALUES (?, ?, ?)";
+  private static final Comparator<StatusRecord> LAST_CHANGE_ORDER = new Comparator<StatusRecord>() {
+    @Override
+    public int compare(StatusRecord r1, StatusRecord r2) {
+      int cmp = r1.getLastChange().compareTo(r2.getLastChange());
+      return 0 != cmp ? cmp : Long.compare(r1.getId(), r2.getId());
+    }
+  };
+
+  private final ShardRouter router;
+  private final List<Shard> shards;
+  private final ExecutorService executor;
+
+  public ShardedMessageStore(List<? extends DataSource> dataSources) {
+    this(dataSources, StatusEventPipeline.DEFAULT_TRANSACTION_SIZE);
+  }
+
+  /**
+   * @param dataSources The data sources of the shards, in shard order
+   * @param transactionSize The number of status events recorded per transaction and shard by
+   *                        {@link #record(Collection)}
+   */
+  public ShardedMessageStore(List<? extends DataSource> dataSources, int transactionSize) {
+    this.router = new ShardRouter(dataSources.size());
+    this.shards = new ArrayList<>(dataSources.size());
+    for (int i = 0; i < dataSources.size(); i++) {
+      shards.add(new Shard(i, dataSources.get(i), transactionSize));
+    }
+    this.executor = Executors.newFixedThreadPool(dataSources.size(), new ThreadFactory() {
+      private final AtomicInteger count = new AtomicInteger();
+
+      @Override
+      public Thread newThread(Runnable task) {
+        Thread thread = new Thread(task, "shard-worker-" + count.getAndIncrement());
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+  }
+
+  public int getShardCount() {
+    return shards.size();
+  }
+
+  /**
+   * The index of the shard the given message is stored on.
+   */
+  public int shardOf(String messageId) {
+    return router.shardOf(messageId);
+  }
+
+  /**
+   * Inserts or updates a single message on its shard.
+   *
+   * @return The global id of the inserted or updated message
+   */
+  public long upsert(MessageUpsert upsert) {
+    Shard shard = shards.get(router.shardOf(upsert.getMessageId()));
+    return GlobalIds.globalId(shard.upserter.upsert(upsert), shard.index);
+  }
+
+  /**
+   * Upserts the message of the event and appends a status row for it within a single transaction
+   * on the shard of the message. The transaction is retried if it fails with a transient error,
+   * i.e. when racing another writer to insert the same message.
+   *
+   * @return The global id of the message
+   */
+  public long record(final StatusEvent event) {
+    final Shard shard = shards.get(router.shardOf(event.getMessageId()));
+    long localId = shard.txExecutor.execute(new TransactionCallback<Long>() {
+      @Override
+      public Long doInTransaction(TransactionStatus status) {
+        long messageRefId = shard.upserter.upsert(new MessageUpsert(event.getMessageId(), null, event.getTimestamp()));
+        shard.jdbcTemplate.update(INSERT_STATUS_SQL, event.getTimestamp(), messageRefId, event.getStatus());
+        return messageRefId;
+      }
+    });
+    return GlobalIds.globalId(localId, shard.index);
+  }
+
+  /**
+   * Records many events, grouped by shard. The shards record their events in parallel, each
+   * through a {@link StatusEventPipeline}. There is no transaction spanning shards: if recording
+   * fails on one shard, the events of the other shards and already committed transactions stay
+   * recorded.
+   *
+   * @return The number of recorded events
+   */
+  public int record(Collection<StatusEvent> events) {
+    final List<List<StatusEvent>> byShard = new ArrayList<>(shards.size());
+    for (int i = 0; i < shards.size(); i++) {
+      byShard.add(new ArrayList<StatusEvent>());
+    }
+    for (StatusEvent event : events) {
+      byShard.get(router.shardOf(event.getMessageId())).add(event);
+    }
+    return (int) scatter(new ShardQuery() {
+      @Override
+      public long run(Shard shard) {
+        List<StatusEvent> shardEvents = byShard.get(shard.index);
+        return shardEvents.isEmpty() ? 0 : shard.pipeline.record(shardEvents.iterator());
+      }
+    });
+  }
+
+  public long countMessages() {
+    return scatterCount("SELECT COUNT(*) FROM message");
+  }
+
+  public long countStatuses() {
+    return scatterCount("SELECT COUNT(*) FROM status");
+  }
+
+  /**
+   * The number of status rows changed at or after <code>from</code> and before
+   * <code>until</code> on all shards.
+   */
+  public long countStatusChangedBetween(Timestamp from, Timestamp until) {
+    return scatterCount("SELECT COUNT(*) FROM status WHERE lastChange >= ? AND lastChange < ?", from, until);
+  }
+
+  /**
+   * All status rows of all shards changed at or after <code>from</code> and before
+   * <code>until</code>, ordered by <code>lastChange</code> and global id. The ids of the returned
+   * records are global ids. Each shard is read lazily page by page, so at most one page per shard
+   * is held in memory.
+   */
+  public Stream<StatusRecord> statusChangedBetween(Timestamp from, Timestamp until) {
+    List<Iterator<StatusRecord>> sources = new ArrayList<>(shards.size());
+    for (Shard shard : shards) {
+      sources.add(shard.globalIds(shard.reader.statusChangedBetween(from, until)).iterator());
+    }
+    return StreamSupport.stream(Spliterators.spliteratorUnknownSize(new MergingIterator(sources),
+        Spliterator.ORDERED | Spliterator.NONNULL), false);
+  }
+
+  /**
+   * The complete status history of a message, oldest first, with global ids.
+   *
+   * @param messageId The global id of the message
+   */
+  public Stream<StatusRecord> history(long messageId) {
+    Shard shard = shards.get(GlobalIds.shardOf(messageId));
+    return shard.globalIds(shard.reader.history(GlobalIds.localId(messageId)));
+  }
+
+  @Override
+  public void close() {
+    executor.shutdown();
+  }
+
+  private long scatterCount(final String sql, final Object... args) {
+    return scatter(new ShardQuery() {
+      @Override
+      public long run(Shard shard) {
+        return shard.jdbcTemplate.queryForObject(sql, Long.class, args);
+      }
+    });
+  }
+
+  /**
+   * Runs the query on all shards in parallel and sums up the results.
+   */
+  private long scatter(final ShardQuery query) {
+    List<Future<Long>> results = new ArrayList<>(shards.size());
+    for (final Shard shard : shards) {
+      results.add(executor.submit(new Callable<Long>() {
+        @Override
+        public Long call() {
+          return query.run(shard);
+        }
+      }));
+    }
+    long sum = 0;
+    RuntimeException failure = null;
+    for (Future<Long> result : results) {
+      try {
+        sum += result.get();
+      } catch (InterruptedException iEx) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while waiting for the shards", iEx);
+      } catch (ExecutionException eEx) {
+        // wait for the remaining shards before reporting the first failure
+        if (null == failure) {
+          failure = eEx.getCause() instanceof RuntimeException ? (RuntimeException) eEx.getCause()
+              : new IllegalStateException(eEx.getCause());
+        }
+      }
+    }
+    if (null != failure) {
+      throw failure;
+    }
+    return sum;
+  }
+
+  private interface ShardQuery {
+
+    long run(Shard shard);
+  }
+
+  private static final class Shard {
+
+    private final int index;
+    private final JdbcTemplate jdbcTemplate;
+    private final RetryingTransactionExecutor txExecutor;
+    private final BatchMessageUpserter upserter;
+    private final StatusEventPipeline pipeline;
+    private final StatusHistoryReader reader;
+
+    private Shard(int index, DataSource dataSource, int transactionSize) {
+      this.index = index;
+      this.jdbcTemplate = new JdbcTemplate(dataSource);
+      TransactionTemplate txTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+      this.txExecutor = new RetryingTransactionExecutor(txTemplate);
+      this.upserter = new BatchMessageUpserter(jdbcTemplate);
+      this.pipeline = new StatusEventPipeline(jdbcTemplate, txTemplate, transactionSize);
+      this.reader = new StatusHistoryReader(jdbcTemplate);
+    }
+
+    private Stream<StatusRecord> globalIds(Stream<StatusRecord> records) {
+      return records.map(r -> new StatusRecord(GlobalIds.globalId(r.getId(), index), r.getLastChange(),
+          GlobalIds.globalId(r.getMessageRefId(), index), r.getStatus()));
+    }
+  }
+
+  /**
+   * Merges iterators ordered by {@link #LAST_CHANGE_ORDER} into one. The first element of every
+   * source is only requested once the merged iterator is first advanced.
+   */
+  private static final class MergingIterator implements Iterator<StatusRecord> {
+
+    private final List<Iterator<StatusRecord>> sources;
+    private PriorityQueue<Head> heads;
+
+    private MergingIterator(List<Iterator<StatusRecord>> sources) {
+      this.sources = sources;
+    }
+
+    @Override
+    public boolean hasNext() {
+      if (null == heads) {
+        heads = new PriorityQueue<>(Math.max(1, sources.size()));
+        for (Iterator<StatusRecord> source : sources) {
+          if (source.hasNext()) {
+            heads.add(new Head(source.next(), source));
+          }
+        }
+      }
+      return !heads.isEmpty();
+    }
+
+    @Override
+    public StatusRecord next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      Head head = heads.poll();
+      if (head.source.hasNext()) {
+        heads.add(new Head(head.source.next(), head.source));
+      }
+      return head.record;
+    }
+  }
+
+  private static final class Head implements Comparable<Head> {
+
+    private final StatusRecord record;
+    private final Iterator<StatusRecord> source;
+
+    private Head(StatusRecord record, Iterator<StatusRecord> source) {
+      this.record = record;
+      this.source = source;
+    }
+
+    @Override
+    public int compareTo(Head other) {
+      return LAST_CHANGE_ORDER.compare(record, other.record);
+    }
+  }
+}
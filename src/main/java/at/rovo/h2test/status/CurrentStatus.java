@@ -0,0 +1,58 @@
+package at.rovo.h2test.status;
+
+import java.sql.Timestamp;
+
+/**
+ * The newest status of a message as kept by the {@link CurrentStatusProjection}.
+ */
+public final class CurrentStatus {
+
+  private final long messageRefId;
+  private final long statusId;
+  private final Timestamp lastChange;
+  private final String status;
+
+  public CurrentStatus(long messageRefId, long statusId, Timestamp lastChange, String status) {
+    this.messageRefId = messageRefId;
+    this.statusId = statusId;
+    this.lastChange = lastChange;
+    this.status = status;
+  }
+
+  /**
+   * The <code>message.id</code> the status belongs to.
+   */
+  public long getMessageRefId() {
+    return messageRefId;
+  }
+
+  /**
+   * The <code>status.id</code> of the newest status row of the message.
+   */
+  public long getStatusId() {
+    return statusId;
+  }
+
+  public Timestamp getLastChange() {
+    return lastChange;
+  }
+
+  public String getStatus() {
+    return status;
+  }
+
+  /**
+   * Whether this status supersedes the given one, i.e. it changed later or, at the same time, was
+   * inserted later.
+   */
+  boolean isNewerThan(CurrentStatus other) {
+    int cmp = lastChange.compareTo(other.lastChange);
+    return cmp > 0 || (0 == cmp && statusId > other.statusId);
+  }
+
+  @Override
+  public String toString() {
+    return "CurrentStatus{messageRefId=" + messageRefId + ", statusId=" + statusId + ", lastChange=" + lastChange
+        + ", status='" + status + "'}";
+  }
+}
@@ -0,0 +1,176 @@
+package at.rovo.h2test.status;
+
+import at.rovo.h2test.jdbc.ConnectionStatements;
+import at.rovo.h2test.jdbc.Sql;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.springframework.dao.support.DataAccessUtils;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
+
+/**
+ * Keeps the newest status of every message in the <code>message_current_status</code> table, so
+ * the current status of a message is a primary key lookup instead of a scan over its whole status
+ * history.
+ * <p>
+ * The projection is maintained by the {@link StatusEventPipeline} within the same transaction
+ * that inserts the status rows. A status supersedes the projected one if it changed later or, at
+ * the same time, has a higher <code>status.id</code>; older events arriving late therefore leave
+ * the projection untouched. Status rows without <code>lastChange</code> or
+ * <code>messageId</code> are not projected.
+ * <p>
+ * {@link #rebuild()} recreates the projection from the status history, i.e. after status rows
+ * were written by other means, and {@link #check()} reports where projection and history
+ * disagree.
+ */
+@SuppressWarnings({"SqlNoDataSourceInspection", "SqlDialectInspection"})
+public class CurrentStatusProjection {
+
+  private static final String CREATE_TABLE_SQL = "CREATE TABLE IF NOT EXISTS message_current_status ("
+      + "messageId bigint(20) NOT NULL, "
+      + "statusId bigint(20) NOT NULL, "
+      + "lastChange datetime NOT NULL, "
+      + "status varchar(255) DEFAULT NULL, "
+      + "PRIMARY KEY (messageId), "
+      + "CONSTRAINT fk_current_status_message FOREIGN KEY (messageId) REFERENCES message (id) "
+      + ") ENGINE=InnoDB DEFAULT CHARSET=UTF8";
+
+  private static final String UPSERT_PREFIX =
+      "INSERT INTO message_current_status (messageId, statusId, lastChange, status) VALUES ";
+  private static final String NEWER = "VALUES(lastChange) > lastChange "
+      + "OR (VALUES(lastChange) = lastChange AND VALUES(statusId) > statusId)";
+  // MySQL assigns the columns from left to right and later conditions see the already updated
+  // values, so the columns the condition depends on have to be assigned last
+  private static final String UPSERT_SUFFIX = " ON DUPLICATE KEY UPDATE "
+      + "status = CASE WHEN " + NEWER + " THEN VALUES(status) ELSE status END, "
+      + "statusId = CASE WHEN " + NEWER + " THEN VALUES(statusId) ELSE statusId END, "
+      + "lastChange = CASE WHEN " + NEWER + " THEN VALUES(lastChange) ELSE lastChange END";
+
+  private static final String SELECT_BY_REF_ID_SQL =
+      "SELECT messageId, statusId, lastChange, status FROM message_current_status WHERE messageId = ?";
+  private static final String SELECT_BY_MESSAGE_ID_SQL = "SELECT c.messageId, c.statusId, c.lastChange, c.status "
+      + "FROM message m JOIN message_current_status c ON c.messageId = m.id WHERE m.messageId = ?";
+
+  /** The newest status row of each message, derived from the history. */
+  private static final String LATEST_SQL = "SELECT s.messageId, s.id, s.lastChange, s.status FROM status s "
+      + "WHERE s.messageId IS NOT NULL AND s.lastChange IS NOT NULL AND NOT EXISTS ("
+      + "SELECT 1 FROM status n WHERE n.messageId = s.messageId "
+      + "AND (n.lastChange > s.lastChange OR (n.lastChange = s.lastChange AND n.id > s.id)))";
+  private static final String REBUILD_SQL =
+      "INSERT INTO message_current_status (messageId, statusId, lastChange, status) " + LATEST_SQL;
+  private static final String CHECK_LATEST_SQL = "SELECT l.messageId, l.id, c.statusId "
+      + "FROM (" + LATEST_SQL + ") l LEFT JOIN message_current_status c ON c.messageId = l.messageId "
+      + "WHERE c.messageId IS NULL OR c.statusId <> l.id OR c.lastChange <> l.lastChange "
+      + "OR COALESCE(c.status, '') <> COALESCE(l.status, '')";
+  private static final String CHECK_PROJECTED_SQL = "SELECT c.messageId, c.statusId FROM message_current_status c "
+      + "LEFT JOIN status s ON s.id = c.statusId WHERE s.id IS NULL OR s.messageId <> c.messageId";
+
+  private static final RowMapper<CurrentStatus> ROW_MAPPER = new RowMapper<CurrentStatus>() {
+    @Override
+    public CurrentStatus mapRow(ResultSet rs, int rowNum) throws SQLException {
+      return new CurrentStatus(rs.getLong(1), rs.getLong(2), rs.getTimestamp(3), rs.getString(4));
+    }
+  };
+
+  private final JdbcTemplate jdbcTemplate;
+
+  public CurrentStatusProjection(JdbcTemplate jdbcTemplate) {
+    this.jdbcTemplate = jdbcTemplate;
+  }
+
+  /**
+   * Creates the <code>message_current_status</code> table unless it exists already.
+   */
+  public void createTable() {
+    jdbcTemplate.execute(CREATE_TABLE_SQL);
+  }
+
+  /**
+   * Returns the current status of a message or <code>null</code> if it has none.
+   *
+   * @param messageRefId The <code>message.id</code> of the message
+   */
+  public CurrentStatus get(long messageRefId) {
+    return DataAccessUtils.singleResult(jdbcTemplate.query(SELECT_BY_REF_ID_SQL, ROW_MAPPER, messageRefId));
+  }
+
+  /**
+   * Returns the current status of a message or <code>null</code> if it has none.
+   *
+   * @param messageId The business key of the message
+   */
+  public CurrentStatus get(String messageId) {
+    return DataAccessUtils.singleResult(jdbcTemplate.query(SELECT_BY_MESSAGE_ID_SQL, ROW_MAPPER, messageId));
+  }
+
+  /**
+   * Replaces the whole projection with the newest status of every message found in the
+   * <code>status</code> table. Should be run within a transaction, so that readers never observe
+   * an empty projection.
+   *
+   * @return The number of projected messages
+   */
+  public int rebuild() {
+    jdbcTemplate.update("DELETE FROM message_current_status");
+    return jdbcTemplate.update(REBUILD_SQL);
+  }
+
+  /**
+   * Compares the projection with the status history.
+   *
+   * @return Descriptions of all messages whose projected status is missing, outdated or points
+   *         to a status row that doesn't exist, empty if projection and history agree
+   */
+  public List<String> check() {
+    final List<String> violations = new ArrayList<>();
+    jdbcTemplate.query(CHECK_LATEST_SQL, new RowCallbackHandler() {
+      @Override
+      public void processRow(ResultSet rs) throws SQLException {
+        long projected = rs.getLong(3);
+        boolean missing = rs.wasNull();
+        violations.add("message " + rs.getLong(1) + ": newest status is " + rs.getLong(2)
+            + (missing ? " but none is projected" : " but projected is " + projected));
+      }
+    });
+    jdbcTemplate.query(CHECK_PROJECTED_SQL, new RowCallbackHandler() {
+      @Override
+      public void processRow(ResultSet rs) throws SQLException {
+        violations.add("message " + rs.getLong(1) + ": projected status " + rs.getLong(2)
+            + " does not exist or belongs to another message");
+      }
+    });
+    return violations;
+  }
+
+  /**
+   * Advances the projection to the given statuses where they are newer than the projected ones.
+   */
+  void apply(ConnectionStatements statements, List<CurrentStatus> statuses) throws SQLException {
+    // several statuses of the same message only need to send the newest one
+    Map<Long, CurrentStatus> newest = new LinkedHashMap<>(statuses.size() * 2);
+    for (CurrentStatus status : statuses) {
+      CurrentStatus known = newest.get(status.getMessageRefId());
+      if (null == known || status.isNewerThan(known)) {
+        newest.put(status.getMessageRefId(), status);
+      }
+    }
+    if (newest.isEmpty()) {
+      return;
+    }
+    PreparedStatement ps = statements.prepare(Sql.multiRowValues(UPSERT_PREFIX, newest.size(), 4, UPSERT_SUFFIX));
+    int idx = 1;
+    for (CurrentStatus status : newest.values()) {
+      ps.setLong(idx++, status.getMessageRefId());
+      ps.setLong(idx++, status.getStatusId());
+      ps.setTimestamp(idx++, status.getLastChange());
+      ps.setString(idx++, status.getStatus());
+    }
+    ps.executeUpdate();
+  }
+}
@@ -0,0 +1,38 @@
+package at.rovo.h2test.status;
+
+import java.sql.Timestamp;
+import java.util.Objects;
+
+/**
+ * A status change of a message, identified by the <code>messageId</code> business key of the
+ * message rather than by its surrogate id.
+ */
+public final class StatusEvent {
+
+  private final String messageId;
+  private final String status;
+  private final Timestamp timestamp;
+
+  public StatusEvent(String messageId, String status, Timestamp timestamp) {
+    this.messageId = Objects.requireNonNull(messageId, "messageId");
+    this.status = Objects.requireNonNull(status, "status");
+    this.timestamp = Objects.requireNonNull(timestamp, "timestamp");
+  }
+
+  public String getMessageId() {
+    return messageId;
+  }
+
+  public String getStatus() {
+    return status;
+  }
+
+  public Timestamp getTimestamp() {
+    return timestamp;
+  }
+
+  @Override
+  public String toString() {
+    return "StatusEvent{messageId='" + messageId + "', status='" + status + "', timestamp=" + timestamp + "}";
+  }
+}
@@ -0,0 +1,334 @@
+package at.rovo.h2test.status;
+
+import at.rovo.h2test.feed.Change;
+import at.rovo.h2test.feed.ChangeFeed;
+import at.rovo.h2test.jdbc.ConnectionStatements;
+import at.rovo.h2test.jdbc.Sql;
+import at.rovo.h2test.jdbc.StatementCache;
+import at.rovo.h2test.message.BatchMessageUpserter;
+import at.rovo.h2test.message.MessageIdCache;
+import at.rovo.h2test.message.MessageUpsert;
+import at.rovo.h2test.status.partition.PartitionedStatusStorage;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import org.springframework.dao.DataRetrievalFailureException;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Records status events, i.e. upserts the referenced <code>message</code> row and appends a
+ * <code>status</code> row pointing to it via <code>fk_status_message</code>.
+ * <p>
+ * Instead of spending a transaction and two to three statements per event, incoming events are
+ * grouped into transactions of a configurable size. Per group the messages are upserted and
+ * their ids resolved in bulk via a {@link BatchMessageUpserter}, which also advances
+ * <code>lastStatusChange</code> to the newest event of each message, unless an earlier group
+ * recorded a newer one already, and all status rows are
+ * written with multi-row inserts. A group of <code>n</code> events thus needs roughly
+ * <code>3 * n / chunkSize + 1</code> round trips including the commit. The statements of a
+ * transaction are shared with the upserter through a common {@link StatementCache}.
+ * <p>
+ * If a {@link CurrentStatusProjection} is configured, the generated ids of the status rows are
+ * retrieved and the projection is advanced with one additional statement per chunk within the
+ * same transaction.
+ * <p>
+ * If a {@link PartitionedStatusStorage} is configured, status rows are inserted into the bucket of
+ * their timestamp instead of the <code>status</code> table, with one multi-row insert per bucket
+ * touched by a chunk.
+ * <p>
+ * If a {@link ChangeFeed} is configured, the generated ids of the status rows are retrieved as
+ * well and the inserted status rows and upserted messages are published once their transaction
+ * committed. The feed replays the <code>status</code> table and thus can't be combined with
+ * partitioned storage either.
+ */
+@SuppressWarnings({"SqlNoDataSourceInspection", "SqlDialectInspection"})
+public class StatusEventPipeline {
+
+  public static final int DEFAULT_TRANSACTION_SIZE = 500;
+
+  private static final String INSERT_PREFIX = "INSERT INTO status (lastChange, messageId, status) VALUES ";
+
+  private final JdbcTemplate jdbcTemplate;
+  private final TransactionTemplate txTemplate;
+  private final BatchMessageUpserter upserter;
+  private final int transactionSize;
+  private final int chunkSize;
+  private final String fullChunkInsertSql;
+  private CurrentStatusProjection currentStatusProjection;
+  private PartitionedStatusStorage partitionedStorage;
+  private ChangeFeed changeFeed;
+
+  public StatusEventPipeline(JdbcTemplate jdbcTemplate, TransactionTemplate txTemplate) {
+    this(jdbcTemplate, txTemplate, DEFAULT_TRANSACTION_SIZE);
+  }
+
+  public StatusEventPipeline(JdbcTemplate jdbcTemplate, TransactionTemplate txTemplate, int transactionSize) {
+    this(jdbcTemplate, txTemplate, transactionSize, BatchMessageUpserter.DEFAULT_CHUNK_SIZE);
+  }
+
+  public StatusEventPipeline(JdbcTemplate jdbcTemplate, TransactionTemplate txTemplate, int transactionSize,
+      int chunkSize) {
+    if (transactionSize < 1) {
+      throw new IllegalArgumentException("Transaction size must be positive but was " + transactionSize);
+    }
+    this.jdbcTemplate = jdbcTemplate;
+    this.txTemplate = txTemplate;
+    this.upserter = new BatchMessageUpserter(jdbcTemplate, chunkSize);
+    this.transactionSize = transactionSize;
+    this.chunkSize = chunkSize;
+    this.fullChunkInsertSql = insertSql(chunkSize);
+  }
+
+  /**
+   * Lets the message id resolution of each transaction skip the database for known messages.
+   */
+  public void setMessageIdCache(MessageIdCache messageIdCache) {
+    upserter.setMessageIdCache(messageIdCache);
+  }
+
+  /**
+   * Shares the given statement cache with the message upserter and any other component using it.
+   */
+  public void setStatementCache(StatementCache statementCache) {
+    upserter.setStatementCache(statementCache);
+  }
+
+  public StatementCache getStatementCache() {
+    return upserter.getStatementCache();
+  }
+
+  /**
+   * Maintains the given projection of the newest status of each message along with the status
+   * rows.
+   */
+  public void setCurrentStatusProjection(CurrentStatusProjection currentStatusProjection) {
+    if (null != currentStatusProjection && null != partitionedStorage) {
+      throw new IllegalStateException("The current status projection can't be combined with partitioned storage");
+    }
+    this.currentStatusProjection = currentStatusProjection;
+  }
+
+  /**
+   * Inserts status rows into the time buckets of the given storage. The buckets of all recorded
+   * events have to exist already. Can't be combined with a {@link CurrentStatusProjection}, whose
+   * foreign key references the <code>status</code> table.
+   */
+  public void setPartitionedStorage(PartitionedStatusStorage partitionedStorage) {
+    if (null != partitionedStorage && null != currentStatusProjection) {
+      throw new IllegalStateException("Partitioned storage can't be combined with the current status projection");
+    }
+    if (null != partitionedStorage && null != changeFeed) {
+      throw new IllegalStateException("Partitioned storage can't be combined with a change feed");
+    }
+    this.partitionedStorage = partitionedStorage;
+  }
+
+  /**
+   * Publishes the recorded status rows and the upserted messages to the given feed after each
+   * transaction committed.
+   */
+  public void setChangeFeed(ChangeFeed changeFeed) {
+    if (null != changeFeed && null != partitionedStorage) {
+      throw new IllegalStateException("A change feed can't be combined with partitioned storage");
+    }
+    this.changeFeed = changeFeed;
+    upserter.setChangeFeed(changeFeed);
+  }
+
+  /**
+   * Records all events of the given stream. The stream is consumed lazily, at most one
+   * transaction worth of events is held in memory at any time.
+   *
+   * @param events The status events to record
+   * @return The number of recorded events
+   */
+  public int record(Stream<StatusEvent> events) {
+    return record(events.iterator());
+  }
+
+  /**
+   * Records all events returned by the given iterator, committing a transaction every
+   * <code>transactionSize</code> events. If a transaction fails, the events of already committed
+   * transactions stay recorded.
+   *
+   * @param events The status events to record
+   * @return The number of recorded events
+   */
+  public int record(Iterator<StatusEvent> events) {
+    int recorded = 0;
+    List<StatusEvent> group = new ArrayList<>(Math.min(transactionSize, 1024));
+    while (events.hasNext()) {
+      group.add(events.next());
+      if (group.size() == transactionSize) {
+        recorded += recordGroup(group);
+        group.clear();
+      }
+    }
+    if (!group.isEmpty()) {
+      recorded += recordGroup(group);
+    }
+    return recorded;
+  }
+
+  private int recordGroup(final List<StatusEvent> group) {
+    return txTemplate.execute(new TransactionCallback<Integer>() {
+      @Override
+      public Integer doInTransaction(TransactionStatus status) {
+        if (null != changeFeed) {
+          // before any status id is assigned, see ChangeFeed#join()
+          changeFeed.join();
+        }
+        final long[] messageRefIds = resolveMessages(group);
+        return jdbcTemplate.execute(new ConnectionCallback<Integer>() {
+          @Override
+          public Integer doInConnection(Connection con) throws SQLException {
+            int inserted = 0;
+            try (ConnectionStatements statements = upserter.getStatementCache().forConnection(con)) {
+              for (int from = 0; from < group.size(); from += chunkSize) {
+                inserted += insertChunk(statements, group, messageRefIds, from, Math.min(from + chunkSize, group.size()));
+              }
+            }
+            return inserted;
+          }
+        });
+      }
+    });
+  }
+
+  /**
+   * Upserts every message referenced by the group once, with the newest status timestamp of the
+   * group, and returns the message id of each event of the group.
+   */
+  private long[] resolveMessages(List<StatusEvent> group) {
+    Map<String, Integer> positions = new LinkedHashMap<>(group.size() * 2);
+    List<MessageUpsert> upserts = new ArrayList<>(group.size());
+    int[] eventToUpsert = new int[group.size()];
+    for (int i = 0; i < group.size(); i++) {
+      StatusEvent event = group.get(i);
+      Integer pos = positions.get(event.getMessageId());
+      if (null == pos) {
+        pos = upserts.size();
+        positions.put(event.getMessageId(), pos);
+        upserts.add(new MessageUpsert(event.getMessageId(), null, event.getTimestamp()));
+      } else if (event.getTimestamp().after(upserts.get(pos).getLastStatusChange())) {
+        upserts.set(pos, new MessageUpsert(event.getMessageId(), null, event.getTimestamp()));
+      }
+      eventToUpsert[i] = pos;
+    }
+
+    long[] upsertIds = upserter.upsert(upserts);
+    long[] messageRefIds = new long[group.size()];
+    for (int i = 0; i < group.size(); i++) {
+      messageRefIds[i] = upsertIds[eventToUpsert[i]];
+    }
+    return messageRefIds;
+  }
+
+  private int insertChunk(ConnectionStatements statements, List<StatusEvent> group, long[] messageRefIds,
+      int from, int to) throws SQLException {
+    if (null != partitionedStorage) {
+      return insertPartitionedChunk(statements, group, messageRefIds, from, to);
+    }
+    int rows = to - from;
+    String sql = rows == chunkSize ? fullChunkInsertSql : insertSql(rows);
+    boolean returnKeys = null != currentStatusProjection || null != changeFeed;
+    PreparedStatement ps = returnKeys ? statements.prepareReturningKeys(sql) : statements.prepare(sql);
+    int idx = 1;
+    for (int i = from; i < to; i++) {
+      StatusEvent event = group.get(i);
+      ps.setTimestamp(idx++, event.getTimestamp());
+      ps.setLong(idx++, messageRefIds[i]);
+      ps.setString(idx++, event.getStatus());
+    }
+    int inserted = ps.executeUpdate();
+    if (returnKeys) {
+      long[] statusIds = generatedIds(ps, to - from);
+      if (null != currentStatusProjection) {
+        currentStatusProjection.apply(statements, currentStatuses(statusIds, group, messageRefIds, from));
+      }
+      if (null != changeFeed) {
+        changeFeed.publish(changes(statusIds, group, messageRefIds, from));
+      }
+    }
+    return inserted;
+  }
+
+  private int insertPartitionedChunk(ConnectionStatements statements, List<StatusEvent> group, long[] messageRefIds,
+      int from, int to) throws SQLException {
+    Map<String, List<Integer>> byTable = new LinkedHashMap<>();
+    for (int i = from; i < to; i++) {
+      String table = partitionedStorage.tableFor(group.get(i).getTimestamp());
+      List<Integer> rows = byTable.get(table);
+      if (null == rows) {
+        rows = new ArrayList<>(to - from);
+        byTable.put(table, rows);
+      }
+      rows.add(i);
+    }
+    int inserted = 0;
+    for (Map.Entry<String, List<Integer>> entry : byTable.entrySet()) {
+      List<Integer> rows = entry.getValue();
+      PreparedStatement ps = statements.prepare(
+          Sql.multiRowValues("INSERT INTO " + entry.getKey() + " (lastChange, messageId, status) VALUES ",
+              rows.size(), 3, ""));
+      int idx = 1;
+      for (int i : rows) {
+        StatusEvent event = group.get(i);
+        ps.setTimestamp(idx++, event.getTimestamp());
+        ps.setLong(idx++, messageRefIds[i]);
+        ps.setString(idx++, event.getStatus());
+      }
+      inserted += ps.executeUpdate();
+    }
+    return inserted;
+  }
+
+  private static long[] generatedIds(PreparedStatement ps, int rows) throws SQLException {
+    long[] ids = new long[rows];
+    int retrieved = 0;
+    try (ResultSet keys = ps.getGeneratedKeys()) {
+      while (retrieved < rows && keys.next()) {
+        ids[retrieved++] = keys.getLong(1);
+      }
+    }
+    if (retrieved != rows) {
+      throw new DataRetrievalFailureException("Expected " + rows + " generated status ids but got " + retrieved);
+    }
+    return ids;
+  }
+
+  private static List<CurrentStatus> currentStatuses(long[] statusIds, List<StatusEvent> group, long[] messageRefIds,
+      int from) {
+    List<CurrentStatus> statuses = new ArrayList<>(statusIds.length);
+    for (int i = 0; i < statusIds.length; i++) {
+      StatusEvent event = group.get(from + i);
+      statuses.add(new CurrentStatus(messageRefIds[from + i], statusIds[i], event.getTimestamp(), event.getStatus()));
+    }
+    return statuses;
+  }
+
+  private static List<Change> changes(long[] statusIds, List<StatusEvent> group, long[] messageRefIds, int from) {
+    List<Change> changes = new ArrayList<>(statusIds.length);
+    for (int i = 0; i < statusIds.length; i++) {
+      StatusEvent event = group.get(from + i);
+      changes.add(Change.of(new StatusRecord(statusIds[i], event.getTimestamp(), messageRefIds[from + i],
+          event.getStatus())));
+    }
+    return changes;
+  }
+
+  private static String insertSql(int rows) {
+    return Sql.multiRowValues(INSERT_PREFIX, rows, 3, "");
+  }
+}
@@ -0,0 +1,238 @@
+package at.rovo.h2test.status;
+
+import at.rovo.h2test.message.MessageChange;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * Streams status histories and "changed since" feeds of arbitrary length with constant memory.
+ * <p>
+ * Rows are read in pages ordered by <code>(lastChange, id)</code> using keyset pagination: each
+ * page continues after the last row of the previous one via
+ * <code>lastChange &gt; ? OR (lastChange = ? AND id &gt; ?)</code> instead of skipping rows with
+ * <code>OFFSET</code>, so every page is a range scan on <code>idx_lastChange</code> or
+ * <code>idx_lastStatusChange</code> no matter how deep into the result it is. Only one page is
+ * held in memory, and the connection is released between pages, so an abandoned stream holds no
+ * database resources. Rows without a timestamp are not part of any feed.
+ * <p>
+ * A page is read completely before its connection is released, fetched in a single round trip
+ * where the driver honours the fetch size. Memory is thus bounded by the page size rather than by
+ * streaming rows within a page.
+ * <p>
+ * The returned streams are lazy, sequential and ordered. Rows committed while a stream is
+ * consumed are included if they sort after the current position.
+ */
+@SuppressWarnings({"SqlNoDataSourceInspection", "SqlDialectInspection"})
+public class StatusHistoryReader {
+
+  public static final int DEFAULT_PAGE_SIZE = 1_000;
+
+  /** Lower bound of all feeds, the smallest value a MySQL <code>DATETIME</code> supports. */
+  static final Timestamp BEGINNING = Timestamp.valueOf("1000-01-01 00:00:00");
+
+  private static final String STATUS_TABLE = "status";
+  private static final String STATUS_KEYSET = "lastChange >= ? AND (lastChange > ? OR (lastChange = ? AND id > ?)) "
+      + "ORDER BY lastChange, id LIMIT ";
+  private static final String MESSAGE_SQL = "SELECT id, messageId, lastStatusChange FROM message WHERE "
+      + "lastStatusChange >= ? AND (lastStatusChange > ? OR (lastStatusChange = ? AND id > ?)) "
+      + "ORDER BY lastStatusChange, id LIMIT ";
+
+  private final JdbcTemplate jdbcTemplate;
+  private final int pageSize;
+  private final String statusSql;
+
+  public StatusHistoryReader(JdbcTemplate jdbcTemplate) {
+    this(jdbcTemplate, DEFAULT_PAGE_SIZE);
+  }
+
+  public StatusHistoryReader(JdbcTemplate jdbcTemplate, int pageSize) {
+    this(jdbcTemplate, pageSize, STATUS_TABLE);
+  }
+
+  /**
+   * @param statusTable The table to read status rows from, which must have the columns and
+   *        indexes of the <code>status</code> table
+   */
+  public StatusHistoryReader(JdbcTemplate jdbcTemplate, int pageSize, String statusTable) {
+    if (pageSize < 1) {
+      throw new IllegalArgumentException("Page size must be positive but was " + pageSize);
+    }
+    this.jdbcTemplate = jdbcTemplate;
+    this.pageSize = pageSize;
+    this.statusSql = "SELECT id, lastChange, messageId, status FROM " + statusTable + " WHERE ";
+  }
+
+  /**
+   * All status rows changed at or after the given time, oldest first.
+   */
+  public Stream<StatusRecord> statusChangedSince(Timestamp since) {
+    return stream(new StatusPage(statusSql + STATUS_KEYSET + pageSize), since);
+  }
+
+  /**
+   * All status rows changed at or after <code>from</code> and before <code>until</code>, oldest
+   * first.
+   */
+  public Stream<StatusRecord> statusChangedBetween(Timestamp from, Timestamp until) {
+    return stream(new StatusPage(statusSql + "lastChange < ? AND " + STATUS_KEYSET + pageSize, until), from);
+  }
+
+  /**
+   * The complete status history of a message, oldest first.
+   *
+   * @param messageRefId The <code>message.id</code> of the message
+   */
+  public Stream<StatusRecord> history(long messageRefId) {
+    return stream(new StatusPage(statusSql + "messageId = ? AND " + STATUS_KEYSET + pageSize, messageRefId),
+        BEGINNING);
+  }
+
+  /**
+   * All messages whose last status change happened at or after the given time, least recently
+   * changed first.
+   */
+  public Stream<MessageChange> messagesChangedSince(Timestamp since) {
+    return stream(new KeysetPage<MessageChange>(MESSAGE_SQL + pageSize) {
+      @Override
+      MessageChange map(ResultSet rs) throws SQLException {
+        return new MessageChange(rs.getLong(1), rs.getString(2), rs.getTimestamp(3));
+      }
+
+      @Override
+      Timestamp timestampOf(MessageChange row) {
+        return row.getLastStatusChange();
+      }
+
+      @Override
+      long idOf(MessageChange row) {
+        return row.getId();
+      }
+    }, since);
+  }
+
+  private <T> Stream<T> stream(KeysetPage<T> page, Timestamp since) {
+    return StreamSupport.stream(new KeysetSpliterator<>(page, since), false);
+  }
+
+  /**
+   * The query of a single page. Filter parameters come first, followed by the four keyset
+   * parameters.
+   */
+  private abstract static class KeysetPage<T> {
+
+    private final String sql;
+    private final Object[] filter;
+
+    KeysetPage(String sql, Object... filter) {
+      this.sql = sql;
+      this.filter = filter;
+    }
+
+    abstract T map(ResultSet rs) throws SQLException;
+
+    abstract Timestamp timestampOf(T row);
+
+    abstract long idOf(T row);
+  }
+
+  private static final class StatusPage extends KeysetPage<StatusRecord> {
+
+    StatusPage(String sql, Object... filter) {
+      super(sql, filter);
+    }
+
+    @Override
+    StatusRecord map(ResultSet rs) throws SQLException {
+      return new StatusRecord(rs.getLong(1), rs.getTimestamp(2), rs.getLong(3), rs.getString(4));
+    }
+
+    @Override
+    Timestamp timestampOf(StatusRecord row) {
+      return row.getLastChange();
+    }
+
+    @Override
+    long idOf(StatusRecord row) {
+      return row.getId();
+    }
+  }
+
+  private final class KeysetSpliterator<T> extends Spliterators.AbstractSpliterator<T> {
+
+    private final KeysetPage<T> query;
+    private final Timestamp since;
+    private final List<T> page = new ArrayList<>();
+    private int pos;
+    private boolean lastPage;
+    private Timestamp afterTimestamp;
+    private long afterId = Long.MIN_VALUE;
+
+    private KeysetSpliterator(KeysetPage<T> query, Timestamp since) {
+      super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+      this.query = query;
+      this.since = since;
+      this.afterTimestamp = since;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super T> action) {
+      if (pos == page.size()) {
+        if (lastPage) {
+          return false;
+        }
+        fetchNextPage();
+        if (page.isEmpty()) {
+          return false;
+        }
+      }
+      action.accept(page.get(pos++));
+      return true;
+    }
+
+    private void fetchNextPage() {
+      page.clear();
+      pos = 0;
+      jdbcTemplate.execute(new ConnectionCallback<Void>() {
+        @Override
+        public Void doInConnection(Connection con) throws SQLException {
+          try (PreparedStatement ps = con.prepareStatement(query.sql, ResultSet.TYPE_FORWARD_ONLY,
+              ResultSet.CONCUR_READ_ONLY)) {
+            ps.setFetchSize(pageSize);
+            int idx = 1;
+            for (Object param : query.filter) {
+              ps.setObject(idx++, param);
+            }
+            ps.setTimestamp(idx++, since);
+            ps.setTimestamp(idx++, afterTimestamp);
+            ps.setTimestamp(idx++, afterTimestamp);
+            ps.setLong(idx, afterId);
+            try (ResultSet rs = ps.executeQuery()) {
+              while (rs.next()) {
+                page.add(query.map(rs));
+              }
+            }
+          }
+          return null;
+        }
+      });
+      lastPage = page.size() < pageSize;
+      if (!page.isEmpty()) {
+        T last = page.get(page.size() - 1);
+        afterTimestamp = query.timestampOf(last);
+        afterId = query.idOf(last);
+      }
+    }
+  }
+}
@@ -0,0 +1,46 @@
+package at.rovo.h2test.status;
+
+import java.sql.Timestamp;
+
+/**
+ * A row of the <code>status</code> table.
+ */
+public final class StatusRecord {
+
+  private final long id;
+  private final Timestamp lastChange;
+  private final long messageRefId;
+  private final String status;
+
+  public StatusRecord(long id, Timestamp lastChange, long messageRefId, String status) {
+    this.id = id;
+    this.lastChange = lastChange;
+    this.messageRefId = messageRefId;
+    this.status = status;
+  }
+
+  public long getId() {
+    return id;
+  }
+
+  public Timestamp getLastChange() {
+    return lastChange;
+  }
+
+  /**
+   * The <code>message.id</code> this status belongs to.
+   */
+  public long getMessageRefId() {
+    return messageRefId;
+  }
+
+  public String getStatus() {
+    return status;
+  }
+
+  @Override
+  public String toString() {
+    return "StatusRecord{id=" + id + ", lastChange=" + lastChange + ", messageRefId=" + messageRefId
+        + ", status='" + status + "'}";
+  }
+}
@@ -0,0 +1,273 @@
+package at.rovo.h2test.status;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Asynchronous write-behind buffer for status events. Callers {@link #submit(StatusEvent) submit}
+ * an event and receive a future which completes once the event was committed, instead of paying
+ * for a commit of their own.
+ * <p>
+ * A single flusher thread group-commits accumulated events through a {@link StatusEventPipeline}
+ * as soon as <code>flushRows</code> events are pending or <code>flushIntervalMillis</code> passed
+ * since the oldest pending event arrived, so each flush is exactly one transaction. If a flush
+ * fails, the futures of all of its events complete exceptionally. If the flusher itself fails,
+ * i.e. on an <code>Error</code> or if it is interrupted, the buffer rejects further events and
+ * the futures of all events it still holds complete exceptionally.
+ * <p>
+ * At most <code>capacity</code> events are buffered. Once the buffer is full, submitting callers
+ * block until the flusher made room again. {@link #close() Closing} the buffer rejects further
+ * events, flushes everything submitted before and waits for the flusher to terminate.
+ */
+public class StatusWriteBehindBuffer implements AutoCloseable {
+
+  public static final int DEFAULT_CAPACITY = 10_000;
+  public static final int DEFAULT_FLUSH_ROWS = StatusEventPipeline.DEFAULT_TRANSACTION_SIZE;
+  public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 50L;
+
+  /** Enqueued by {@link #close()} as last element, tells the flusher to stop. */
+  private static final Pending SHUTDOWN = new Pending(null);
+
+  private final StatusEventPipeline pipeline;
+  private final BlockingQueue<Pending> queue;
+  private final int flushRows;
+  private final long flushIntervalNanos;
+  private final Thread flusher;
+  // submitters share the lock while enqueueing, close() takes it exclusively so that no event can
+  // be enqueued behind SHUTDOWN
+  private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+  private boolean closed;
+  // set once the flusher failed for good, the buffer rejects events from then on
+  private volatile Throwable failure;
+
+  private final LongAdder flushes = new LongAdder();
+  private final LongAdder flushedEvents = new LongAdder();
+  private final LongAdder failedEvents = new LongAdder();
+
+  public StatusWriteBehindBuffer(JdbcTemplate jdbcTemplate, TransactionTemplate txTemplate) {
+    this(jdbcTemplate, txTemplate, DEFAULT_CAPACITY, DEFAULT_FLUSH_ROWS, DEFAULT_FLUSH_INTERVAL_MILLIS);
+  }
+
+  /**
+   * @param capacity The maximum number of buffered events
+   * @param flushRows The number of pending events that triggers a flush
+   * @param flushIntervalMillis The maximum time an event waits for a flush
+   */
+  public StatusWriteBehindBuffer(JdbcTemplate jdbcTemplate, TransactionTemplate txTemplate, int capacity,
+      int flushRows, long flushIntervalMillis) {
+    if (capacity < flushRows) {
+      throw new IllegalArgumentException("Capacity " + capacity + " must not be less than flush rows " + flushRows);
+    }
+    this.pipeline = new StatusEventPipeline(jdbcTemplate, txTemplate, flushRows);
+    this.queue = new ArrayBlockingQueue<>(capacity);
+    this.flushRows = flushRows;
+    this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+    this.flusher = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        flushUntilClosed();
+      }
+    }, "status-write-behind");
+    this.flusher.setDaemon(true);
+    this.flusher.start();
+  }
+
+  /**
+   * The pipeline events are flushed with, i.e. to configure caches. Events must not be recorded
+   * through it directly.
+   */
+  public StatusEventPipeline getPipeline() {
+    return pipeline;
+  }
+
+  /**
+   * Buffers the event for the next flush, blocking while the buffer is full.
+   *
+   * @param event The event to record
+   * @return A future completing once the event was committed
+   * @throws IllegalStateException If the buffer was closed or its flusher failed
+   * @throws InterruptedException If interrupted while waiting for room in the buffer
+   */
+  public CompletableFuture<Void> submit(StatusEvent event) throws InterruptedException {
+    Pending pending = new Pending(event);
+    closeLock.readLock().lock();
+    try {
+      if (closed) {
+        throw new IllegalStateException("Write-behind buffer is closed");
+      }
+      if (null != failure) {
+        throw new IllegalStateException("Write-behind buffer failed", failure);
+      }
+      queue.put(pending);
+    } finally {
+      closeLock.readLock().unlock();
+    }
+    return pending.future;
+  }
+
+  /**
+   * The number of events waiting for a flush.
+   */
+  public int getPendingEvents() {
+    return queue.size();
+  }
+
+  public long getFlushCount() {
+    return flushes.sum();
+  }
+
+  public long getFlushedEvents() {
+    return flushedEvents.sum();
+  }
+
+  public long getFailedEvents() {
+    return failedEvents.sum();
+  }
+
+  /**
+   * Stops accepting events and blocks until all buffered events are flushed. If the calling thread
+   * is interrupted, it stops waiting, the remaining events are still flushed in the background and
+   * the interrupt flag of the thread is restored.
+   */
+  @Override
+  public void close() {
+    boolean interrupted = false;
+    closeLock.writeLock().lock();
+    try {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      // the flusher keeps taking events until it sees SHUTDOWN, so there will be room for it
+      while (true) {
+        try {
+          queue.put(SHUTDOWN);
+          break;
+        } catch (InterruptedException iEx) {
+          interrupted = true;
+        }
+      }
+    } finally {
+      closeLock.writeLock().unlock();
+    }
+    try {
+      if (!interrupted) {
+        flusher.join();
+      }
+    } catch (InterruptedException iEx) {
+      interrupted = true;
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void flushUntilClosed() {
+    List<Pending> batch = new ArrayList<>(flushRows);
+    boolean running = true;
+    try {
+      while (running) {
+        Pending first = queue.take();
+        if (SHUTDOWN == first) {
+          break;
+        }
+        batch.add(first);
+        long deadline = System.nanoTime() + flushIntervalNanos;
+        while (running && batch.size() < flushRows) {
+          if (0 == queue.drainTo(batch, flushRows - batch.size())) {
+            long remaining = deadline - System.nanoTime();
+            Pending next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : null;
+            if (null == next) {
+              break;
+            }
+            batch.add(next);
+          }
+          // SHUTDOWN is always the last element ever enqueued
+          if (SHUTDOWN == batch.get(batch.size() - 1)) {
+            batch.remove(batch.size() - 1);
+            running = false;
+          }
+        }
+        flush(batch);
+      }
+    } catch (Throwable t) {
+      // interrupts and errors are not recoverable, reject everything from now on
+      failure = t;
+      fail(batch, t);
+      if (running) {
+        rejectUntilClosed(t);
+      }
+      // otherwise SHUTDOWN was taken already, and nothing is ever enqueued behind it
+    }
+  }
+
+  /**
+   * Fails every event taken from the buffer until {@link #close()} was called, so neither
+   * submitters waiting for room nor the closing thread wait forever.
+   */
+  private void rejectUntilClosed(Throwable cause) {
+    List<Pending> rejected = new ArrayList<>();
+    boolean shutdown = false;
+    while (!shutdown) {
+      try {
+        rejected.add(queue.take());
+      } catch (InterruptedException iEx) {
+        // the buffer failed already, it is only closed by SHUTDOWN
+        continue;
+      }
+      queue.drainTo(rejected);
+      shutdown = rejected.remove(SHUTDOWN);
+      fail(rejected, cause);
+      rejected.clear();
+    }
+  }
+
+  private void flush(List<Pending> batch) {
+    if (batch.isEmpty()) {
+      return;
+    }
+    List<StatusEvent> events = new ArrayList<>(batch.size());
+    for (Pending pending : batch) {
+      events.add(pending.event);
+    }
+    try {
+      pipeline.record(events.iterator());
+    } catch (RuntimeException rtEx) {
+      fail(batch, rtEx);
+      batch.clear();
+      return;
+    }
+    flushes.increment();
+    flushedEvents.add(batch.size());
+    for (Pending pending : batch) {
+      pending.future.complete(null);
+    }
+    batch.clear();
+  }
+
+  private void fail(List<Pending> batch, Throwable cause) {
+    for (Pending pending : batch) {
+      pending.future.completeExceptionally(cause);
+    }
+    failedEvents.add(batch.size());
+  }
+
+  private static final class Pending {
+
+    private final StatusEvent event;
+    private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+    private Pending(StatusEvent event) {
+      this.event = event;
+    }
+  }
+}
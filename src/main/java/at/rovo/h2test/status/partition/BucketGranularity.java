@@ -0,0 +1,97 @@
+package at.rovo.h2test.status.partition;
+
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * The width of the time buckets status rows are partitioned into. A bucket is identified by the
+ * date it starts at.
+ */
+public enum BucketGranularity {
+
+  DAY("yyyyMMdd") {
+    @Override
+    public LocalDate bucketOf(LocalDate date) {
+      return date;
+    }
+
+    @Override
+    public LocalDate next(LocalDate bucket) {
+      return bucket.plusDays(1);
+    }
+
+    @Override
+    long index(LocalDate bucket) {
+      return bucket.toEpochDay();
+    }
+
+    @Override
+    LocalDate parse(String suffix) {
+      return LocalDate.parse(suffix, formatter);
+    }
+  },
+
+  MONTH("yyyyMM") {
+    @Override
+    public LocalDate bucketOf(LocalDate date) {
+      return date.withDayOfMonth(1);
+    }
+
+    @Override
+    public LocalDate next(LocalDate bucket) {
+      return bucket.plusMonths(1);
+    }
+
+    @Override
+    long index(LocalDate bucket) {
+      return ChronoUnit.MONTHS.between(LocalDate.ofEpochDay(0), bucket);
+    }
+
+    @Override
+    LocalDate parse(String suffix) {
+      return LocalDate.parse(suffix + "01", DateTimeFormatter.BASIC_ISO_DATE);
+    }
+  };
+
+  final DateTimeFormatter formatter;
+  final int suffixLength;
+
+  BucketGranularity(String pattern) {
+    this.formatter = DateTimeFormatter.ofPattern(pattern);
+    this.suffixLength = pattern.length();
+  }
+
+  /**
+   * The start of the bucket the given date falls into.
+   */
+  public abstract LocalDate bucketOf(LocalDate date);
+
+  /**
+   * The start of the bucket following the given one.
+   */
+  public abstract LocalDate next(LocalDate bucket);
+
+  /**
+   * A sequential number of the bucket, <code>0</code> for the bucket of 1970-01-01.
+   */
+  abstract long index(LocalDate bucket);
+
+  abstract LocalDate parse(String suffix);
+
+  public LocalDate bucketOf(Timestamp timestamp) {
+    return bucketOf(timestamp.toLocalDateTime().toLocalDate());
+  }
+
+  /**
+   * The name suffix of tables or partitions holding the given bucket, i.e. <code>20150921</code>.
+   */
+  String suffix(LocalDate bucket) {
+    return formatter.format(bucket);
+  }
+
+  static Timestamp startOf(LocalDate bucket) {
+    return Timestamp.valueOf(bucket.atStartOfDay());
+  }
+}
@@ -0,0 +1,162 @@
+package at.rovo.h2test.status.partition;
+
+import at.rovo.h2test.Dialect;
+import at.rovo.h2test.status.StatusRecord;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import org.springframework.dao.InvalidDataAccessApiUsageException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * Keeps every bucket in a table of its own, i.e. <code>status_20150921</code>, which has the same
+ * columns, indexes and foreign key as the <code>status</code> table. A check constraint rejects
+ * rows outside of the bucket.
+ */
+@SuppressWarnings({"SqlNoDataSourceInspection", "SqlDialectInspection"})
+class BucketTableStorage extends PartitionedStatusStorage {
+
+  private static final String TABLE_PREFIX = "status_";
+  private static final Pattern TABLE_NAME = Pattern.compile("status_(\\d{6}|\\d{8})", Pattern.CASE_INSENSITIVE);
+  private static final String TABLES_SQL = "SELECT TABLE_NAME FROM INFORMATION_SCHEMA.TABLES "
+      + "WHERE TABLE_SCHEMA = SCHEMA() AND UPPER(TABLE_NAME) LIKE 'STATUS%'";
+
+  BucketTableStorage(JdbcTemplate jdbcTemplate, BucketGranularity granularity) {
+    super(jdbcTemplate, granularity);
+  }
+
+  @Override
+  public String tableFor(Timestamp lastChange) {
+    LocalDate bucket = granularity.bucketOf(lastChange);
+    if (!getBuckets().contains(bucket) && !reloadBuckets().contains(bucket)) {
+      throw new InvalidDataAccessApiUsageException("No status bucket exists for " + lastChange
+          + ", create it via ensureBuckets() first");
+    }
+    return table(bucket);
+  }
+
+  @Override
+  public Stream<StatusRecord> read(Timestamp from, Timestamp until) {
+    List<LocalDate> overlapping = new ArrayList<>();
+    for (LocalDate bucket : getBuckets()) {
+      if (BucketGranularity.startOf(bucket).before(until)
+          && BucketGranularity.startOf(granularity.next(bucket)).after(from)) {
+        overlapping.add(bucket);
+      }
+    }
+    BucketIterator iterator = new BucketIterator(overlapping.iterator(), from, until);
+    return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator,
+        Spliterator.ORDERED | Spliterator.NONNULL), false).onClose(iterator::close);
+  }
+
+  @Override
+  NavigableSet<LocalDate> loadBuckets() {
+    NavigableSet<LocalDate> buckets = new TreeSet<>();
+    for (String table : jdbcTemplate.queryForList(TABLES_SQL, String.class)) {
+      Matcher matcher = TABLE_NAME.matcher(table);
+      if (matcher.matches() && matcher.group(1).length() == granularity.suffixLength) {
+        buckets.add(granularity.parse(matcher.group(1)));
+      }
+    }
+    return buckets;
+  }
+
+  @Override
+  int createBuckets(NavigableSet<LocalDate> existing, List<LocalDate> missing) {
+    Dialect dialect = dialect();
+    for (LocalDate bucket : missing) {
+      createBucket(dialect, bucket);
+    }
+    return missing.size();
+  }
+
+  private void createBucket(Dialect dialect, LocalDate bucket) {
+    String table = table(bucket);
+    jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS " + table + " ("
+        + "id bigint(20) NOT NULL AUTO_INCREMENT, "
+        + "lastChange datetime NOT NULL, "
+        + "messageId bigint(20) DEFAULT NULL, "
+        + "status varchar(255) DEFAULT NULL, "
+        + "PRIMARY KEY (id), "
+        + "KEY idx_" + table + "_lastChange (lastChange), "
+        + "KEY fk_" + table + "_message (messageId), "
+        + "CONSTRAINT fk_" + table + "_message FOREIGN KEY (messageId) REFERENCES message (id), "
+        + "CONSTRAINT chk_" + table + "_bucket CHECK (lastChange >= '" + BucketGranularity.startOf(bucket)
+        + "' AND lastChange < '" + BucketGranularity.startOf(granularity.next(bucket)) + "')"
+        + ") ENGINE=InnoDB DEFAULT CHARSET=UTF8");
+    // ids of later buckets are greater than those of earlier ones and never collide
+    long firstId = Math.max(1L, granularity.index(bucket) << 32);
+    if (Dialect.H2 == dialect) {
+      jdbcTemplate.execute("ALTER TABLE " + table + " ALTER COLUMN id RESTART WITH " + firstId);
+    } else {
+      jdbcTemplate.execute("ALTER TABLE " + table + " AUTO_INCREMENT = " + firstId);
+    }
+  }
+
+  @Override
+  void dropBuckets(List<LocalDate> expired) {
+    for (LocalDate bucket : expired) {
+      jdbcTemplate.execute("DROP TABLE IF EXISTS " + table(bucket));
+    }
+  }
+
+  private String table(LocalDate bucket) {
+    return TABLE_PREFIX + granularity.suffix(bucket);
+  }
+
+  /**
+   * Concatenates the rows of the given buckets, only querying a bucket once the previous one is
+   * exhausted.
+   */
+  private final class BucketIterator implements Iterator<StatusRecord> {
+
+    private final Iterator<LocalDate> buckets;
+    private final Timestamp from;
+    private final Timestamp until;
+    private Stream<StatusRecord> current;
+    private Iterator<StatusRecord> rows;
+
+    BucketIterator(Iterator<LocalDate> buckets, Timestamp from, Timestamp until) {
+      this.buckets = buckets;
+      this.from = from;
+      this.until = until;
+    }
+
+    @Override
+    public boolean hasNext() {
+      while ((null == rows || !rows.hasNext()) && buckets.hasNext()) {
+        close();
+        LocalDate bucket = buckets.next();
+        current = reader(table(bucket)).statusChangedBetween(from, until);
+        rows = current.iterator();
+      }
+      return null != rows && rows.hasNext();
+    }
+
+    @Override
+    public StatusRecord next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      return rows.next();
+    }
+
+    void close() {
+      if (null != current) {
+        current.close();
+        current = null;
+      }
+    }
+  }
+}
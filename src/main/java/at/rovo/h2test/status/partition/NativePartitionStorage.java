@@ -0,0 +1,110 @@
+package at.rovo.h2test.status.partition;
+
+import at.rovo.h2test.Dialect;
+import at.rovo.h2test.status.StatusRecord;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+import org.springframework.dao.InvalidDataAccessApiUsageException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * Keeps all buckets as <code>RANGE COLUMNS (lastChange)</code> partitions <code>p&lt;suffix&gt;</code>
+ * of the MySQL table <code>status_partitioned</code>, so the optimizer prunes partitions outside of
+ * the queried time range on its own.
+ * <p>
+ * MySQL requires the partitioning column to be part of every unique key and doesn't support foreign
+ * keys on partitioned tables, hence the primary key spans <code>(id, lastChange)</code> and
+ * <code>messageId</code> is not constrained. Rows newer than the last bucket end up in the catch-all
+ * partition <code>pmax</code>, which is split when later buckets are created. Buckets are only ever
+ * appended, missing buckets before the oldest existing one are not created.
+ */
+@SuppressWarnings({"SqlNoDataSourceInspection", "SqlDialectInspection"})
+class NativePartitionStorage extends PartitionedStatusStorage {
+
+  static final String TABLE = "status_partitioned";
+
+  private static final String CATCH_ALL = "pmax";
+  private static final String PARTITIONS_SQL = "SELECT PARTITION_NAME FROM INFORMATION_SCHEMA.PARTITIONS "
+      + "WHERE TABLE_SCHEMA = SCHEMA() AND TABLE_NAME = '" + TABLE + "' AND PARTITION_NAME IS NOT NULL";
+
+  NativePartitionStorage(JdbcTemplate jdbcTemplate, BucketGranularity granularity) {
+    super(jdbcTemplate, granularity);
+  }
+
+  @Override
+  public String tableFor(Timestamp lastChange) {
+    return TABLE;
+  }
+
+  @Override
+  public Stream<StatusRecord> read(Timestamp from, Timestamp until) {
+    return reader(TABLE).statusChangedBetween(from, until);
+  }
+
+  @Override
+  NavigableSet<LocalDate> loadBuckets() {
+    NavigableSet<LocalDate> buckets = new TreeSet<>();
+    for (String partition : jdbcTemplate.queryForList(PARTITIONS_SQL, String.class)) {
+      if (!CATCH_ALL.equalsIgnoreCase(partition)) {
+        buckets.add(granularity.parse(partition.substring(1)));
+      }
+    }
+    return buckets;
+  }
+
+  @Override
+  int createBuckets(NavigableSet<LocalDate> existing, List<LocalDate> missing) {
+    requireMySql();
+    if (existing.isEmpty()) {
+      jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS " + TABLE + " ("
+          + "id bigint(20) NOT NULL AUTO_INCREMENT, "
+          + "lastChange datetime NOT NULL, "
+          + "messageId bigint(20) DEFAULT NULL, "
+          + "status varchar(255) DEFAULT NULL, "
+          + "PRIMARY KEY (id, lastChange), "
+          + "KEY idx_lastChange (lastChange), "
+          + "KEY idx_messageId (messageId)"
+          + ") ENGINE=InnoDB DEFAULT CHARSET=UTF8 "
+          + "PARTITION BY RANGE COLUMNS (lastChange) (PARTITION " + CATCH_ALL + " VALUES LESS THAN (MAXVALUE))");
+    }
+    int created = 0;
+    StringBuilder partitions = new StringBuilder();
+    for (LocalDate bucket : missing) {
+      if (!existing.isEmpty() && bucket.isBefore(existing.last())) {
+        continue;
+      }
+      partitions.append("PARTITION p").append(granularity.suffix(bucket))
+          .append(" VALUES LESS THAN ('").append(BucketGranularity.startOf(granularity.next(bucket))).append("'), ");
+      created++;
+    }
+    if (partitions.length() > 0) {
+      jdbcTemplate.execute("ALTER TABLE " + TABLE + " REORGANIZE PARTITION " + CATCH_ALL + " INTO ("
+          + partitions + "PARTITION " + CATCH_ALL + " VALUES LESS THAN (MAXVALUE))");
+    }
+    return created;
+  }
+
+  @Override
+  void dropBuckets(List<LocalDate> expired) {
+    StringBuilder partitions = new StringBuilder();
+    for (LocalDate bucket : expired) {
+      if (partitions.length() > 0) {
+        partitions.append(", ");
+      }
+      partitions.append('p').append(granularity.suffix(bucket));
+    }
+    jdbcTemplate.execute("ALTER TABLE " + TABLE + " DROP PARTITION " + partitions);
+  }
+
+  private void requireMySql() {
+    Dialect dialect = dialect();
+    if (Dialect.MYSQL != dialect) {
+      throw new InvalidDataAccessApiUsageException("Native partitioning of status rows requires MySQL but found "
+          + dialect);
+    }
+  }
+}
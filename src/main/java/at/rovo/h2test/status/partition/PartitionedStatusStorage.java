@@ -0,0 +1,164 @@
+package at.rovo.h2test.status.partition;
+
+import at.rovo.h2test.Dialect;
+import at.rovo.h2test.status.StatusHistoryReader;
+import at.rovo.h2test.status.StatusRecord;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * Stores status rows partitioned by the time bucket of their <code>lastChange</code> instead of in
+ * the single, unbounded <code>status</code> table. Each bucket has indexes of its own, which stay
+ * bounded in size, and retention drops whole buckets instead of deleting rows one by one.
+ * <p>
+ * Two layouts are available:
+ * <ul>
+ *   <li>{@link #tablePerBucket(JdbcTemplate, BucketGranularity) One table per bucket}, which works
+ *   on H2 and MySQL and keeps the <code>fk_status_message</code> foreign key.</li>
+ *   <li>{@link #mysqlPartitioned(JdbcTemplate, BucketGranularity) A natively RANGE partitioned
+ *   table} on MySQL. MySQL doesn't support foreign keys on partitioned tables, so the reference to
+ *   <code>message</code> is not enforced by the database in this layout.</li>
+ * </ul>
+ * Buckets have to be created ahead of time via {@link #ensureBuckets(Timestamp, Timestamp)}, i.e.
+ * by a daily maintenance job, as DDL statements implicitly commit the surrounding transaction on
+ * MySQL and thus can't be issued while recording status events.
+ * <p>
+ * The {@link at.rovo.h2test.status.StatusEventPipeline} routes status rows to their bucket once
+ * configured with a storage, {@link #read(Timestamp, Timestamp) reads} only touch the buckets
+ * overlapping the requested time range.
+ */
+public abstract class PartitionedStatusStorage {
+
+  final JdbcTemplate jdbcTemplate;
+  final BucketGranularity granularity;
+  // immutable snapshot, replaced whenever buckets are created or dropped
+  private volatile NavigableSet<LocalDate> buckets;
+
+  PartitionedStatusStorage(JdbcTemplate jdbcTemplate, BucketGranularity granularity) {
+    this.jdbcTemplate = jdbcTemplate;
+    this.granularity = granularity;
+  }
+
+  /**
+   * Stores each bucket in a table of its own, named <code>status_yyyyMMdd</code> or
+   * <code>status_yyyyMM</code> depending on the granularity. Ids are unique across buckets as
+   * every table starts its <code>AUTO_INCREMENT</code> at <code>bucket index &lt;&lt; 32</code>.
+   */
+  public static PartitionedStatusStorage tablePerBucket(JdbcTemplate jdbcTemplate, BucketGranularity granularity) {
+    return new BucketTableStorage(jdbcTemplate, granularity);
+  }
+
+  /**
+   * Stores all buckets as RANGE partitions of the MySQL table <code>status_partitioned</code>.
+   */
+  public static PartitionedStatusStorage mysqlPartitioned(JdbcTemplate jdbcTemplate, BucketGranularity granularity) {
+    return new NativePartitionStorage(jdbcTemplate, granularity);
+  }
+
+  public BucketGranularity getGranularity() {
+    return granularity;
+  }
+
+  /**
+   * The start dates of all existing buckets in ascending order.
+   */
+  public NavigableSet<LocalDate> getBuckets() {
+    NavigableSet<LocalDate> current = buckets;
+    if (null == current) {
+      current = reloadBuckets();
+    }
+    return current;
+  }
+
+  /**
+   * Creates all missing buckets needed to store status rows changed at or after
+   * <code>from</code> and before <code>until</code>.
+   *
+   * @return The number of created buckets
+   */
+  public int ensureBuckets(Timestamp from, Timestamp until) {
+    NavigableSet<LocalDate> existing = reloadBuckets();
+    List<LocalDate> missing = new ArrayList<>();
+    for (LocalDate bucket = granularity.bucketOf(from); BucketGranularity.startOf(bucket).before(until);
+        bucket = granularity.next(bucket)) {
+      if (!existing.contains(bucket)) {
+        missing.add(bucket);
+      }
+    }
+    if (missing.isEmpty()) {
+      return 0;
+    }
+    int created = createBuckets(existing, missing);
+    reloadBuckets();
+    return created;
+  }
+
+  /**
+   * Drops all buckets which only cover times before the given cutoff, including their rows.
+   *
+   * @return The number of dropped buckets
+   */
+  public int dropBucketsBefore(Timestamp cutoff) {
+    List<LocalDate> expired = new ArrayList<>();
+    for (LocalDate bucket : reloadBuckets()) {
+      if (BucketGranularity.startOf(granularity.next(bucket)).after(cutoff)) {
+        break;
+      }
+      expired.add(bucket);
+    }
+    if (!expired.isEmpty()) {
+      dropBuckets(expired);
+      reloadBuckets();
+    }
+    return expired.size();
+  }
+
+  /**
+   * Streams the status rows changed at or after <code>from</code> and before <code>until</code>,
+   * oldest first. Buckets outside of the range are not queried.
+   */
+  public abstract Stream<StatusRecord> read(Timestamp from, Timestamp until);
+
+  /**
+   * The table a status row changed at the given time has to be inserted into.
+   *
+   * @throws org.springframework.dao.InvalidDataAccessApiUsageException If the bucket of the row
+   *         doesn't exist
+   */
+  public abstract String tableFor(Timestamp lastChange);
+
+  abstract NavigableSet<LocalDate> loadBuckets();
+
+  abstract int createBuckets(NavigableSet<LocalDate> existing, List<LocalDate> missing);
+
+  abstract void dropBuckets(List<LocalDate> expired);
+
+  StatusHistoryReader reader(String table) {
+    return new StatusHistoryReader(jdbcTemplate, StatusHistoryReader.DEFAULT_PAGE_SIZE, table);
+  }
+
+  Dialect dialect() {
+    return jdbcTemplate.execute(new ConnectionCallback<Dialect>() {
+      @Override
+      public Dialect doInConnection(Connection con) throws SQLException {
+        return Dialect.of(con);
+      }
+    });
+  }
+
+  final NavigableSet<LocalDate> reloadBuckets() {
+    NavigableSet<LocalDate> loaded = Collections.unmodifiableNavigableSet(new TreeSet<>(loadBuckets()));
+    buckets = loaded;
+    return loaded;
+  }
+}
@@ -0,0 +1,100 @@
+package at.rovo.h2test.stress;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Picks the message a writer of the {@link StressHarness} upserts next, as an index in
+ * <code>[0, keys)</code>. The skew of the distribution determines how often concurrent writers
+ * collide on the same <code>UK_msgId</code> entry.
+ */
+public abstract class KeyDistribution {
+
+  private final int keys;
+
+  KeyDistribution(int keys) {
+    if (keys < 1) {
+      throw new IllegalArgumentException("Number of keys must be positive but was " + keys);
+    }
+    this.keys = keys;
+  }
+
+  /**
+   * Every key is equally likely.
+   */
+  public static KeyDistribution uniform(int keys) {
+    return new Uniform(keys);
+  }
+
+  /**
+   * The probability of key <code>k</code> is proportional to <code>1 / (k + 1)^exponent</code>, so
+   * a few hot keys receive most of the writes. An exponent of <code>0</code> is uniform, values
+   * around <code>1</code> resemble typical production skew.
+   */
+  public static KeyDistribution zipf(int keys, double exponent) {
+    return new Zipf(keys, exponent);
+  }
+
+  public int getKeys() {
+    return keys;
+  }
+
+  /**
+   * Returns the next key. Safe to call from concurrent threads.
+   */
+  public abstract int nextKey();
+
+  private static final class Uniform extends KeyDistribution {
+
+    private Uniform(int keys) {
+      super(keys);
+    }
+
+    @Override
+    public int nextKey() {
+      return ThreadLocalRandom.current().nextInt(getKeys());
+    }
+
+    @Override
+    public String toString() {
+      return "uniform(" + getKeys() + ")";
+    }
+  }
+
+  /**
+   * Inverse transform sampling on the precomputed cumulative distribution.
+   */
+  private static final class Zipf extends KeyDistribution {
+
+    private final double exponent;
+    private final double[] cdf;
+
+    private Zipf(int keys, double exponent) {
+      super(keys);
+      if (exponent < 0) {
+        throw new IllegalArgumentException("Zipf exponent must not be negative but was " + exponent);
+      }
+      this.exponent = exponent;
+      this.cdf = new double[keys];
+      double sum = 0;
+      for (int k = 0; k < keys; k++) {
+        sum += 1.0 / Math.pow(k + 1, exponent);
+        cdf[k] = sum;
+      }
+      for (int k = 0; k < keys; k++) {
+        cdf[k] /= sum;
+      }
+    }
+
+    @Override
+    public int nextKey() {
+      int pos = Arrays.binarySearch(cdf, ThreadLocalRandom.current().nextDouble());
+      return Math.min(pos >= 0 ? pos : -pos - 1, cdf.length - 1);
+    }
+
+    @Override
+    public String toString() {
+      return "zipf(" + getKeys() + ", " + exponent + ")";
+    }
+  }
+}
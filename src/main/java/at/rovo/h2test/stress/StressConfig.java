@@ -0,0 +1,117 @@
+package at.rovo.h2test.stress;
+
+import at.rovo.h2test.tx.RetryPolicy;
+import java.util.concurrent.TimeUnit;
+import org.springframework.transaction.TransactionDefinition;
+
+/**
+ * Load shape of a {@link StressHarness} run. A run ends once its duration has elapsed or, if
+ * configured, every writer has committed <code>transactionsPerWriter</code> transactions,
+ * whichever comes first.
+ */
+public class StressConfig {
+
+  private int writers = 8;
+  private ThreadMode threadMode = ThreadMode.PLATFORM;
+  private KeyDistribution keyDistribution = KeyDistribution.uniform(1_000);
+  private String messageIdPrefix = "stress";
+  private int isolationLevel = TransactionDefinition.ISOLATION_READ_COMMITTED;
+  private long durationMillis = TimeUnit.SECONDS.toMillis(10);
+  private long transactionsPerWriter = 0;
+  private RetryPolicy retryPolicy = new RetryPolicy();
+
+  public int getWriters() {
+    return writers;
+  }
+
+  public StressConfig setWriters(int writers) {
+    if (writers < 1) {
+      throw new IllegalArgumentException("Number of writers must be positive but was " + writers);
+    }
+    this.writers = writers;
+    return this;
+  }
+
+  public ThreadMode getThreadMode() {
+    return threadMode;
+  }
+
+  public StressConfig setThreadMode(ThreadMode threadMode) {
+    this.threadMode = threadMode;
+    return this;
+  }
+
+  public KeyDistribution getKeyDistribution() {
+    return keyDistribution;
+  }
+
+  public StressConfig setKeyDistribution(KeyDistribution keyDistribution) {
+    this.keyDistribution = keyDistribution;
+    return this;
+  }
+
+  /**
+   * Key <code>k</code> of the key distribution is written as <code>messageId</code>
+   * <code>prefix + k</code>.
+   */
+  public String getMessageIdPrefix() {
+    return messageIdPrefix;
+  }
+
+  public StressConfig setMessageIdPrefix(String messageIdPrefix) {
+    this.messageIdPrefix = messageIdPrefix;
+    return this;
+  }
+
+  /**
+   * One of the <code>ISOLATION_*</code> constants of {@link TransactionDefinition}.
+   */
+  public int getIsolationLevel() {
+    return isolationLevel;
+  }
+
+  public StressConfig setIsolationLevel(int isolationLevel) {
+    this.isolationLevel = isolationLevel;
+    return this;
+  }
+
+  public long getDurationMillis() {
+    return durationMillis;
+  }
+
+  public StressConfig setDurationMillis(long durationMillis) {
+    this.durationMillis = durationMillis;
+    return this;
+  }
+
+  /**
+   * The number of transactions after which a writer stops, <code>0</code> for no limit.
+   */
+  public long getTransactionsPerWriter() {
+    return transactionsPerWriter;
+  }
+
+  public StressConfig setTransactionsPerWriter(long transactionsPerWriter) {
+    this.transactionsPerWriter = transactionsPerWriter;
+    return this;
+  }
+
+  /**
+   * How transactions failing with a deadlock, lock timeout or duplicate key are retried.
+   */
+  public RetryPolicy getRetryPolicy() {
+    return retryPolicy;
+  }
+
+  public StressConfig setRetryPolicy(RetryPolicy retryPolicy) {
+    this.retryPolicy = retryPolicy;
+    return this;
+  }
+
+  @Override
+  public String toString() {
+    return "StressConfig{writers=" + writers + ", threadMode=" + threadMode + ", keys=" + keyDistribution
+        + ", isolationLevel=" + isolationLevel + ", durationMillis=" + durationMillis
+        + ", transactionsPerWriter=" + transactionsPerWriter + ", " + retryPolicy + "}";
+  }
+}
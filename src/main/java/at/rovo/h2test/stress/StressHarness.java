@@ -0,0 +1,216 @@
+package at.rovo.h2test.stress;
+
+import at.rovo.h2test.message.BatchMessageUpserter;
+import at.rovo.h2test.message.MessageUpsert;
+import at.rovo.h2test.tx.RetryingTransactionExecutor;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import javax.sql.DataSource;
+import org.HdrHistogram.Histogram;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Load generator for the upsert-plus-status transaction of the original tests. A configurable
+ * number of writers concurrently upsert a <code>message</code> row, picked from a
+ * {@link KeyDistribution}, and append a <code>status</code> row referencing it, each in its own
+ * transaction of the configured isolation level.
+ * <p>
+ * Transactions run through a {@link RetryingTransactionExecutor}, so deadlocks, lock timeouts and
+ * duplicate key violations on <code>UK_msgId</code> are counted and retried according to the
+ * configured {@link StressConfig#getRetryPolicy() retry policy}. After
+ * all writers finished the final state is checked: no message may exist twice, no status row may
+ * point to a missing message and every message must have exactly as many new status rows as
+ * transactions for it were committed.
+ * <p>
+ * The harness runs against the existing <code>message</code> and <code>status</code> tables and
+ * should be given a pooled data source, otherwise connection setup dominates the measurements.
+ */
+@SuppressWarnings({"SqlNoDataSourceInspection", "SqlDialectInspection"})
+public class StressHarness {
+
+  private static final String INSERT_STATUS_SQL = "INSERT INTO status (lastChange, messageId, status) VALUES (?, ?, ?)";
+  private static final String STATUS_COUNTS_SQL = "SELECT m.messageId, COUNT(s.id) FROM message m "
+      + "LEFT JOIN status s ON s.messageId = m.id WHERE m.messageId LIKE ? GROUP BY m.messageId";
+  private static final String DUPLICATE_MESSAGES_SQL = "SELECT COUNT(*) - COUNT(DISTINCT messageId) FROM message";
+  private static final String ORPHANED_STATUS_SQL = "SELECT COUNT(*) FROM status s "
+      + "LEFT JOIN message m ON s.messageId = m.id WHERE s.messageId IS NOT NULL AND m.id IS NULL";
+  private static final String STATUS = "STRESSED";
+  private static final long HIGHEST_TRACKABLE_NANOS = TimeUnit.MINUTES.toNanos(10);
+
+  private final JdbcTemplate jdbcTemplate;
+  private final RetryingTransactionExecutor txExecutor;
+  private final BatchMessageUpserter upserter;
+  private final StressConfig config;
+
+  public StressHarness(DataSource dataSource, StressConfig config) {
+    this.jdbcTemplate = new JdbcTemplate(dataSource);
+    TransactionTemplate txTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+    txTemplate.setIsolationLevel(config.getIsolationLevel());
+    this.txExecutor = new RetryingTransactionExecutor(txTemplate, config.getRetryPolicy());
+    this.upserter = new BatchMessageUpserter(jdbcTemplate);
+    this.config = config;
+  }
+
+  /**
+   * Runs the configured load and blocks until all writers finished. The retry metrics of the
+   * report accumulate over all runs of this harness.
+   */
+  public StressReport run() throws InterruptedException {
+    KeyDistribution keys = config.getKeyDistribution();
+    AtomicLongArray committedPerKey = new AtomicLongArray(keys.getKeys());
+    Map<String, Long> statusCountsBefore = statusCounts();
+
+    CountDownLatch start = new CountDownLatch(1);
+    List<Writer> writers = new ArrayList<>(config.getWriters());
+    List<Thread> threads = new ArrayList<>(config.getWriters());
+    for (int i = 0; i < config.getWriters(); i++) {
+      Writer writer = new Writer(start, committedPerKey);
+      Thread thread = config.getThreadMode().threadFactory().newThread(writer);
+      thread.setName("stress-writer-" + i);
+      writers.add(writer);
+      threads.add(thread);
+      thread.start();
+    }
+
+    long startNanos = System.nanoTime();
+    long deadline = startNanos + TimeUnit.MILLISECONDS.toNanos(config.getDurationMillis());
+    for (Writer writer : writers) {
+      writer.deadline = deadline;
+    }
+    start.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    long elapsedNanos = System.nanoTime() - startNanos;
+
+    Histogram latency = new Histogram(HIGHEST_TRACKABLE_NANOS, 3);
+    long committed = 0;
+    long failed = 0;
+    for (Writer writer : writers) {
+      latency.add(writer.latency);
+      committed += writer.committed;
+      failed += writer.failed;
+    }
+    return new StressReport(config, elapsedNanos, committed, failed, txExecutor.getMetrics(), latency,
+        checkConsistency(statusCountsBefore, committedPerKey));
+  }
+
+  private List<String> checkConsistency(Map<String, Long> statusCountsBefore, AtomicLongArray committedPerKey) {
+    List<String> violations = new ArrayList<>();
+    long duplicates = jdbcTemplate.queryForObject(DUPLICATE_MESSAGES_SQL, Long.class);
+    if (0 != duplicates) {
+      violations.add(duplicates + " duplicate messageIds");
+    }
+    long orphans = jdbcTemplate.queryForObject(ORPHANED_STATUS_SQL, Long.class);
+    if (0 != orphans) {
+      violations.add(orphans + " status rows referencing a missing message");
+    }
+
+    Map<String, Long> statusCountsAfter = statusCounts();
+    for (int key = 0; key < committedPerKey.length(); key++) {
+      String messageId = messageId(key);
+      long expected = committedPerKey.get(key);
+      Long before = statusCountsBefore.get(messageId);
+      Long after = statusCountsAfter.get(messageId);
+      if (expected > 0 && null == after) {
+        violations.add("message '" + messageId + "' with " + expected + " committed transactions is missing");
+      } else if (null != after) {
+        long added = after - (null != before ? before : 0L);
+        if (added != expected) {
+          violations.add("message '" + messageId + "' gained " + added + " status rows but " + expected
+              + " transactions were committed");
+        }
+      }
+    }
+    return violations;
+  }
+
+  private Map<String, Long> statusCounts() {
+    final Map<String, Long> counts = new HashMap<>();
+    jdbcTemplate.query(STATUS_COUNTS_SQL, new RowCallbackHandler() {
+      @Override
+      public void processRow(ResultSet rs) throws SQLException {
+        counts.put(rs.getString(1), rs.getLong(2));
+      }
+    }, config.getMessageIdPrefix() + "%");
+    return counts;
+  }
+
+  private String messageId(int key) {
+    return config.getMessageIdPrefix() + key;
+  }
+
+  /**
+   * Runs transactions until the deadline passed or its transaction limit is reached. Counters
+   * are only touched by the writer's own thread and read after it terminated.
+   */
+  private final class Writer implements Runnable {
+
+    private final CountDownLatch start;
+    private final AtomicLongArray committedPerKey;
+    private final Histogram latency = new Histogram(HIGHEST_TRACKABLE_NANOS, 3);
+    // published to the writer thread by the start latch
+    private long deadline;
+    private long committed;
+    private long failed;
+
+    private Writer(CountDownLatch start, AtomicLongArray committedPerKey) {
+      this.start = start;
+      this.committedPerKey = committedPerKey;
+    }
+
+    @Override
+    public void run() {
+      try {
+        start.await();
+      } catch (InterruptedException iEx) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+      long limit = config.getTransactionsPerWriter();
+      while (System.nanoTime() - deadline < 0 && (0 == limit || committed + failed < limit)) {
+        int key = config.getKeyDistribution().nextKey();
+        long begin = System.nanoTime();
+        if (execute(messageId(key))) {
+          latency.recordValue(Math.min(System.nanoTime() - begin, HIGHEST_TRACKABLE_NANOS));
+          committedPerKey.incrementAndGet(key);
+          committed++;
+        } else {
+          failed++;
+        }
+      }
+    }
+
+    private boolean execute(final String messageId) {
+      try {
+        txExecutor.execute(new TransactionCallbackWithoutResult() {
+          @Override
+          protected void doInTransactionWithoutResult(TransactionStatus status) {
+            Timestamp now = new Timestamp(System.currentTimeMillis());
+            long messageRefId = upserter.upsert(
+                new MessageUpsert(messageId, ("Payload of " + messageId).getBytes(StandardCharsets.UTF_8), now));
+            jdbcTemplate.update(INSERT_STATUS_SQL, now, messageRefId, STATUS);
+          }
+        });
+        return true;
+      } catch (RuntimeException rtEx) {
+        // counted by the retry metrics
+        return false;
+      }
+    }
+  }
+}
@@ -0,0 +1,127 @@
+package at.rovo.h2test.stress;
+
+import at.rovo.h2test.tx.ErrorClass;
+import at.rovo.h2test.tx.RetryMetrics;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import org.HdrHistogram.Histogram;
+
+/**
+ * Outcome of a {@link StressHarness} run: throughput, latency percentiles of committed
+ * transactions including their retries, the conflicts encountered and the violations found by the
+ * final consistency checks.
+ */
+public class StressReport {
+
+  private final StressConfig config;
+  private final long elapsedNanos;
+  private final long committed;
+  private final long failed;
+  private final RetryMetrics retryMetrics;
+  private final Histogram latencyNanos;
+  private final List<String> violations;
+
+  StressReport(StressConfig config, long elapsedNanos, long committed, long failed, RetryMetrics retryMetrics,
+      Histogram latencyNanos, List<String> violations) {
+    this.config = config;
+    this.elapsedNanos = elapsedNanos;
+    this.committed = committed;
+    this.failed = failed;
+    this.retryMetrics = retryMetrics;
+    this.latencyNanos = latencyNanos;
+    this.violations = Collections.unmodifiableList(violations);
+  }
+
+  public StressConfig getConfig() {
+    return config;
+  }
+
+  public long getElapsedMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+  }
+
+  public long getCommitted() {
+    return committed;
+  }
+
+  /**
+   * Transactions given up on, either after exhausting all attempts or due to a non-transient error.
+   */
+  public long getFailed() {
+    return failed;
+  }
+
+  public long getDeadlocks() {
+    return retryMetrics.getErrors(ErrorClass.DEADLOCK);
+  }
+
+  public long getLockTimeouts() {
+    return retryMetrics.getErrors(ErrorClass.LOCK_TIMEOUT);
+  }
+
+  public long getDuplicateKeys() {
+    return retryMetrics.getErrors(ErrorClass.DUPLICATE_KEY);
+  }
+
+  public long getOtherErrors() {
+    return retryMetrics.getErrors(ErrorClass.NON_TRANSIENT);
+  }
+
+  public long getRetries() {
+    return retryMetrics.getRetries();
+  }
+
+  /**
+   * The per error class metrics of the retrying executor the writers used.
+   */
+  public RetryMetrics getRetryMetrics() {
+    return retryMetrics;
+  }
+
+  /**
+   * Committed transactions per second.
+   */
+  public double getThroughput() {
+    return 0 == elapsedNanos ? 0.0 : committed * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+  }
+
+  /**
+   * The latency of committed transactions at the given percentile, i.e. <code>99.9</code>.
+   */
+  public long getLatencyMicros(double percentile) {
+    return TimeUnit.NANOSECONDS.toMicros(latencyNanos.getValueAtPercentile(percentile));
+  }
+
+  public long getMaxLatencyMicros() {
+    return TimeUnit.NANOSECONDS.toMicros(latencyNanos.getMaxValue());
+  }
+
+  /**
+   * Descriptions of the inconsistencies found after the run, empty if the final state is
+   * consistent.
+   */
+  public List<String> getViolations() {
+    return violations;
+  }
+
+  public boolean isConsistent() {
+    return violations.isEmpty();
+  }
+
+  @Override
+  public String toString() {
+    return String.format(Locale.ROOT, "%s%n"
+            + "  committed %d, failed %d in %d ms: %.1f tx/s%n"
+            + "  latency p50 %d us, p99 %d us, p999 %d us, max %d us%n"
+            + "  deadlocks %d, lock timeouts %d, duplicate keys %d, other errors %d, retries %d, "
+            + "retry budget exhausted %d%n"
+            + "  consistency: %s",
+        config, committed, failed, getElapsedMillis(), getThroughput(),
+        getLatencyMicros(50), getLatencyMicros(99), getLatencyMicros(99.9), getMaxLatencyMicros(),
+        getDeadlocks(), getLockTimeouts(), getDuplicateKeys(), getOtherErrors(), getRetries(),
+        retryMetrics.getBudgetExhausted(),
+        violations.isEmpty() ? "ok" : violations);
+  }
+}
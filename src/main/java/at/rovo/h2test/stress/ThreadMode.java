@@ -0,0 +1,80 @@
+package at.rovo.h2test.stress;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * The kind of threads the writers of the {@link StressHarness} and the tasks of a
+ * {@link at.rovo.h2test.tx.TransactionDispatcher} run on.
+ */
+public enum ThreadMode {
+
+  PLATFORM {
+    @Override
+    public ThreadFactory threadFactory() {
+      return new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable task) {
+          return new Thread(task);
+        }
+      };
+    }
+
+    @Override
+    public ExecutorService newExecutor(int platformThreads) {
+      return Executors.newFixedThreadPool(platformThreads, threadFactory());
+    }
+  },
+
+  /**
+   * Virtual threads as introduced with Java 21. As this project targets Java 8 they are created
+   * reflectively and are only available when running on a Java 21 or later runtime.
+   */
+  VIRTUAL {
+    @Override
+    public ThreadFactory threadFactory() {
+      try {
+        Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+        Method factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+        return (ThreadFactory) factory.invoke(builder);
+      } catch (ReflectiveOperationException roEx) {
+        throw new UnsupportedOperationException("Virtual threads require Java 21 or later but running on "
+            + System.getProperty("java.version"), roEx);
+      }
+    }
+
+    @Override
+    public ExecutorService newExecutor(int platformThreads) {
+      try {
+        return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+            .invoke(null, threadFactory());
+      } catch (ReflectiveOperationException roEx) {
+        throw new UnsupportedOperationException("Virtual threads require Java 21 or later but running on "
+            + System.getProperty("java.version"), roEx);
+      }
+    }
+  };
+
+  public abstract ThreadFactory threadFactory();
+
+  /**
+   * Creates an executor running its tasks on threads of this mode: a fixed pool of
+   * <code>platformThreads</code> threads for platform threads and a new thread per task for
+   * virtual threads, which are cheap enough not to be pooled.
+   */
+  public abstract ExecutorService newExecutor(int platformThreads);
+
+  /**
+   * Whether threads of this mode can be created on the running JVM.
+   */
+  public boolean isAvailable() {
+    try {
+      threadFactory();
+      return true;
+    } catch (UnsupportedOperationException uoEx) {
+      return false;
+    }
+  }
+}
@@ -0,0 +1,33 @@
+package at.rovo.h2test.tx;
+
+/**
+ * Classes of errors a transaction may fail with, as determined by the {@link SqlErrorClassifier}.
+ */
+public enum ErrorClass {
+
+  /** The transaction was chosen as deadlock victim or lost a concurrent update. */
+  DEADLOCK(true),
+  /** A lock could not be acquired within the lock wait timeout. */
+  LOCK_TIMEOUT(true),
+  /**
+   * A unique key was violated, i.e. by two transactions inserting the same new message at once.
+   * Only that race is resolved by a retry, so it is retried once per transaction by default, see
+   * {@link RetryPolicy#getMaxDuplicateKeyRetries()}.
+   */
+  DUPLICATE_KEY(true),
+  /** Any other error, retrying won't help. */
+  NON_TRANSIENT(false);
+
+  private final boolean transientError;
+
+  ErrorClass(boolean transientError) {
+    this.transientError = transientError;
+  }
+
+  /**
+   * Whether a retry of the whole transaction may succeed.
+   */
+  public boolean isTransient() {
+    return transientError;
+  }
+}
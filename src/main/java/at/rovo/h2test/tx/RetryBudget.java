@@ -0,0 +1,47 @@
+package at.rovo.h2test.tx;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket shared by all transactions of a {@link RetryingTransactionExecutor}, see
+ * {@link RetryPolicy}. Tokens are kept as thousandths to allow fractional deposits.
+ */
+final class RetryBudget {
+
+  private static final long SCALE = 1_000L;
+
+  private final long deposit;
+  private final long maxTokens;
+  private final AtomicLong tokens;
+
+  RetryBudget(double ratio, int maxTokens) {
+    this.deposit = Math.round(ratio * SCALE);
+    this.maxTokens = maxTokens * SCALE;
+    this.tokens = new AtomicLong(this.maxTokens);
+  }
+
+  void deposit() {
+    long current;
+    do {
+      current = tokens.get();
+      if (current >= maxTokens) {
+        return;
+      }
+    } while (!tokens.compareAndSet(current, Math.min(maxTokens, current + deposit)));
+  }
+
+  boolean tryWithdraw() {
+    long current;
+    do {
+      current = tokens.get();
+      if (current < SCALE) {
+        return false;
+      }
+    } while (!tokens.compareAndSet(current, current - SCALE));
+    return true;
+  }
+
+  double getTokens() {
+    return tokens.get() / (double) SCALE;
+  }
+}
@@ -0,0 +1,114 @@
+package at.rovo.h2test.tx;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of a {@link RetryingTransactionExecutor}, per {@link ErrorClass} where applicable.
+ */
+public class RetryMetrics {
+
+  private final LongAdder transactions = new LongAdder();
+  private final LongAdder committed = new LongAdder();
+  private final LongAdder budgetExhausted = new LongAdder();
+  private final LongAdder backoffNanos = new LongAdder();
+  private final Map<ErrorClass, LongAdder> errors = counters();
+  private final Map<ErrorClass, LongAdder> retries = counters();
+  private final Map<ErrorClass, LongAdder> givenUp = counters();
+
+  private static Map<ErrorClass, LongAdder> counters() {
+    Map<ErrorClass, LongAdder> counters = new EnumMap<>(ErrorClass.class);
+    for (ErrorClass errorClass : ErrorClass.values()) {
+      counters.put(errorClass, new LongAdder());
+    }
+    return counters;
+  }
+
+  void recordTransaction() {
+    transactions.increment();
+  }
+
+  void recordCommit() {
+    committed.increment();
+  }
+
+  void recordError(ErrorClass errorClass) {
+    errors.get(errorClass).increment();
+  }
+
+  void recordRetry(ErrorClass errorClass, long backoffNanos) {
+    retries.get(errorClass).increment();
+    this.backoffNanos.add(backoffNanos);
+  }
+
+  void recordGivenUp(ErrorClass errorClass) {
+    givenUp.get(errorClass).increment();
+  }
+
+  void recordBudgetExhausted() {
+    budgetExhausted.increment();
+  }
+
+  /**
+   * The number of transactions executed, not counting retries.
+   */
+  public long getTransactions() {
+    return transactions.sum();
+  }
+
+  public long getCommitted() {
+    return committed.sum();
+  }
+
+  /**
+   * The number of failed attempts with an error of the given class.
+   */
+  public long getErrors(ErrorClass errorClass) {
+    return errors.get(errorClass).sum();
+  }
+
+  public long getRetries(ErrorClass errorClass) {
+    return retries.get(errorClass).sum();
+  }
+
+  public long getRetries() {
+    long sum = 0;
+    for (LongAdder counter : retries.values()) {
+      sum += counter.sum();
+    }
+    return sum;
+  }
+
+  /**
+   * The number of transactions whose error of the given class was passed on to the caller.
+   */
+  public long getGivenUp(ErrorClass errorClass) {
+    return givenUp.get(errorClass).sum();
+  }
+
+  /**
+   * The number of transient errors not retried as the retry budget was exhausted.
+   */
+  public long getBudgetExhausted() {
+    return budgetExhausted.sum();
+  }
+
+  public long getBackoffMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(backoffNanos.sum());
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder("RetryMetrics{transactions=").append(getTransactions())
+        .append(", committed=").append(getCommitted());
+    for (ErrorClass errorClass : ErrorClass.values()) {
+      sb.append(", ").append(errorClass).append("={errors=").append(getErrors(errorClass))
+          .append(", retries=").append(getRetries(errorClass))
+          .append(", givenUp=").append(getGivenUp(errorClass)).append('}');
+    }
+    return sb.append(", budgetExhausted=").append(getBudgetExhausted())
+        .append(", backoffMillis=").append(getBackoffMillis()).append('}').toString();
+  }
+}
@@ -0,0 +1,131 @@
+package at.rovo.h2test.tx;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How often and how fast a {@link RetryingTransactionExecutor} retries transactions failing with
+ * a transient error.
+ * <p>
+ * The n-th retry waits a random time between zero and
+ * <code>min(maxBackoff, initialBackoff * multiplier^(n - 1))</code>. The jitter spreads out
+ * writers that collided with each other, so they don't collide again on their next attempt.
+ * <p>
+ * On top of the attempts per transaction the retry budget limits retries across all
+ * transactions of an executor: every transaction earns <code>budgetRatio</code> tokens, up to
+ * <code>budgetMaxTokens</code>, and every retry costs one token. Under sustained contention at most
+ * about <code>budgetRatio</code> additional attempts per transaction are made, so retries can't
+ * multiply the load on an already overloaded database.
+ * <p>
+ * Duplicate keys are retried {@link #getMaxDuplicateKeyRetries() once} per transaction by
+ * default. That resolves the race the retry is meant for, two transactions inserting the same
+ * new message, i.e. violating <code>UK_msgId</code>, between looking it up and inserting it: the
+ * retry finds the row committed by the winner and updates it. Any other unique key violation
+ * fails the same way again, so it must not use up more attempts and budget than that.
+ */
+public class RetryPolicy {
+
+  private int maxAttempts = 5;
+  private long initialBackoffMicros = TimeUnit.MILLISECONDS.toMicros(2);
+  private long maxBackoffMicros = TimeUnit.MILLISECONDS.toMicros(200);
+  private double multiplier = 2.0;
+  private double budgetRatio = 0.2;
+  private int budgetMaxTokens = 100;
+  private int maxDuplicateKeyRetries = 1;
+
+  /**
+   * The number of attempts including the first one.
+   */
+  public int getMaxAttempts() {
+    return maxAttempts;
+  }
+
+  public RetryPolicy setMaxAttempts(int maxAttempts) {
+    if (maxAttempts < 1) {
+      throw new IllegalArgumentException("Number of attempts must be positive but was " + maxAttempts);
+    }
+    this.maxAttempts = maxAttempts;
+    return this;
+  }
+
+  public long getInitialBackoffMicros() {
+    return initialBackoffMicros;
+  }
+
+  public RetryPolicy setInitialBackoffMicros(long initialBackoffMicros) {
+    this.initialBackoffMicros = initialBackoffMicros;
+    return this;
+  }
+
+  public long getMaxBackoffMicros() {
+    return maxBackoffMicros;
+  }
+
+  public RetryPolicy setMaxBackoffMicros(long maxBackoffMicros) {
+    this.maxBackoffMicros = maxBackoffMicros;
+    return this;
+  }
+
+  public double getMultiplier() {
+    return multiplier;
+  }
+
+  public RetryPolicy setMultiplier(double multiplier) {
+    if (multiplier < 1.0) {
+      throw new IllegalArgumentException("Backoff multiplier must be at least 1 but was " + multiplier);
+    }
+    this.multiplier = multiplier;
+    return this;
+  }
+
+  public double getBudgetRatio() {
+    return budgetRatio;
+  }
+
+  public RetryPolicy setBudgetRatio(double budgetRatio) {
+    this.budgetRatio = budgetRatio;
+    return this;
+  }
+
+  public int getBudgetMaxTokens() {
+    return budgetMaxTokens;
+  }
+
+  public RetryPolicy setBudgetMaxTokens(int budgetMaxTokens) {
+    this.budgetMaxTokens = budgetMaxTokens;
+    return this;
+  }
+
+  /**
+   * The number of retries of a transaction failing with a {@link ErrorClass#DUPLICATE_KEY} at
+   * most, within its {@link #getMaxAttempts() attempts}. <code>0</code> doesn't retry duplicate
+   * keys at all.
+   */
+  public int getMaxDuplicateKeyRetries() {
+    return maxDuplicateKeyRetries;
+  }
+
+  public RetryPolicy setMaxDuplicateKeyRetries(int maxDuplicateKeyRetries) {
+    if (maxDuplicateKeyRetries < 0) {
+      throw new IllegalArgumentException("Number of duplicate key retries must not be negative but was "
+          + maxDuplicateKeyRetries);
+    }
+    this.maxDuplicateKeyRetries = maxDuplicateKeyRetries;
+    return this;
+  }
+
+  /**
+   * The upper bound of the backoff before the given retry, starting with <code>1</code>.
+   */
+  long backoffCapMicros(int retry) {
+    double cap = initialBackoffMicros * Math.pow(multiplier, retry - 1);
+    return cap >= maxBackoffMicros ? maxBackoffMicros : (long) cap;
+  }
+
+  @Override
+  public String toString() {
+    return "RetryPolicy{maxAttempts=" + maxAttempts + ", initialBackoffMicros=" + initialBackoffMicros
+        + ", maxBackoffMicros=" + maxBackoffMicros + ", multiplier=" + multiplier
+        + ", budgetRatio=" + budgetRatio + ", budgetMaxTokens=" + budgetMaxTokens
+        + ", maxDuplicateKeyRetries=" + maxDuplicateKeyRetries + "}";
+  }
+}
@@ -0,0 +1,110 @@
+package at.rovo.h2test.tx;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Executes transactions via a {@link TransactionTemplate} and retries them if they fail with a
+ * transient error, i.e. a deadlock, a lock wait timeout or two writers racing to insert the same
+ * unique key. Errors are classified by a {@link SqlErrorClassifier}; retries back off with jitter
+ * and are limited per transaction and overall as configured by the {@link RetryPolicy}, which
+ * retries duplicate keys only once per transaction by default. If a
+ * transaction is not retried its last error is passed on unchanged.
+ * <p>
+ * The callback is invoked once per attempt and therefore must not have side effects outside of
+ * the transaction, or must tolerate being repeated.
+ * <p>
+ * Retrying only helps if the template starts a new transaction. When joining a transaction that
+ * is already active, a failure marks that transaction rollback-only, so the callback is run
+ * exactly once in that case and errors are left to the owner of the outer transaction.
+ */
+public class RetryingTransactionExecutor {
+
+  private final TransactionTemplate txTemplate;
+  private final RetryPolicy policy;
+  private final SqlErrorClassifier classifier;
+  private final RetryBudget budget;
+  private final RetryMetrics metrics = new RetryMetrics();
+
+  public RetryingTransactionExecutor(TransactionTemplate txTemplate) {
+    this(txTemplate, new RetryPolicy());
+  }
+
+  public RetryingTransactionExecutor(TransactionTemplate txTemplate, RetryPolicy policy) {
+    this(txTemplate, policy, new SqlErrorClassifier());
+  }
+
+  public RetryingTransactionExecutor(TransactionTemplate txTemplate, RetryPolicy policy,
+      SqlErrorClassifier classifier) {
+    this.txTemplate = txTemplate;
+    this.policy = policy;
+    this.classifier = classifier;
+    this.budget = new RetryBudget(policy.getBudgetRatio(), policy.getBudgetMaxTokens());
+  }
+
+  public RetryMetrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * Runs the callback in a transaction, retrying it on transient errors.
+   *
+   * @param action The work to do within the transaction
+   * @return The result of the callback of the committed attempt
+   */
+  public <T> T execute(TransactionCallback<T> action) {
+    metrics.recordTransaction();
+    budget.deposit();
+    boolean retryable = !joinsActiveTransaction();
+    int duplicateKeyRetries = 0;
+    for (int attempt = 1; ; attempt++) {
+      try {
+        T result = txTemplate.execute(action);
+        metrics.recordCommit();
+        return result;
+      } catch (RuntimeException rtEx) {
+        ErrorClass errorClass = classifier.classify(rtEx);
+        metrics.recordError(errorClass);
+        if (!retryable || !errorClass.isTransient() || attempt >= policy.getMaxAttempts()
+            || ErrorClass.DUPLICATE_KEY == errorClass && duplicateKeyRetries >= policy.getMaxDuplicateKeyRetries()) {
+          metrics.recordGivenUp(errorClass);
+          throw rtEx;
+        }
+        if (!budget.tryWithdraw()) {
+          metrics.recordBudgetExhausted();
+          metrics.recordGivenUp(errorClass);
+          throw rtEx;
+        }
+        if (ErrorClass.DUPLICATE_KEY == errorClass) {
+          duplicateKeyRetries++;
+        }
+        long backoffNanos = backoffNanos(attempt);
+        metrics.recordRetry(errorClass, backoffNanos);
+        try {
+          TimeUnit.NANOSECONDS.sleep(backoffNanos);
+        } catch (InterruptedException iEx) {
+          Thread.currentThread().interrupt();
+          throw rtEx;
+        }
+      }
+    }
+  }
+
+  private boolean joinsActiveTransaction() {
+    int propagation = txTemplate.getPropagationBehavior();
+    return TransactionSynchronizationManager.isActualTransactionActive()
+        && TransactionDefinition.PROPAGATION_REQUIRES_NEW != propagation
+        && TransactionDefinition.PROPAGATION_NOT_SUPPORTED != propagation
+        && TransactionDefinition.PROPAGATION_NEVER != propagation;
+  }
+
+  private long backoffNanos(int retry) {
+    long capMicros = policy.backoffCapMicros(retry);
+    long micros = capMicros > 0 ? ThreadLocalRandom.current().nextLong(capMicros + 1) : 0L;
+    return TimeUnit.MICROSECONDS.toNanos(micros);
+  }
+}
@@ -0,0 +1,64 @@
+package at.rovo.h2test.tx;
+
+import java.sql.SQLException;
+
+/**
+ * Classifies the vendor error codes of H2 and MySQL. The cause chain of the given exception is
+ * searched for the first {@link SQLException}, so exceptions already translated by Spring, i.e.
+ * a <code>DataAccessException</code> wrapping a <code>JdbcSQLException</code> or a
+ * <code>MySQLIntegrityConstraintViolationException</code>, are classified as well.
+ * <p>
+ * The error codes of both databases don't overlap, so no dialect needs to be known:
+ * <table summary="Classified error codes">
+ *   <tr><th>Class</th><th>H2</th><th>MySQL</th></tr>
+ *   <tr><td>{@link ErrorClass#DEADLOCK}</td><td>40001, 90131</td><td>1213</td></tr>
+ *   <tr><td>{@link ErrorClass#LOCK_TIMEOUT}</td><td>50200</td><td>1205</td></tr>
+ *   <tr><td>{@link ErrorClass#DUPLICATE_KEY}</td><td>23505</td><td>1062</td></tr>
+ * </table>
+ * H2's 90131 is reported by MVStore if a row was concurrently updated by another transaction, the
+ * transaction lost just like a deadlock victim. Other drivers are classified by the SQLState
+ * <code>40001</code> (serialization failure) only.
+ */
+public class SqlErrorClassifier {
+
+  // H2
+  private static final int H2_DEADLOCK = 40001;
+  private static final int H2_CONCURRENT_UPDATE = 90131;
+  private static final int H2_LOCK_TIMEOUT = 50200;
+  private static final int H2_DUPLICATE_KEY = 23505;
+  // MySQL
+  private static final int MYSQL_DEADLOCK = 1213;
+  private static final int MYSQL_LOCK_WAIT_TIMEOUT = 1205;
+  private static final int MYSQL_DUPLICATE_ENTRY = 1062;
+
+  private static final String SERIALIZATION_FAILURE = "40001";
+
+  public ErrorClass classify(Throwable error) {
+    for (Throwable cause = error; null != cause; cause = cause.getCause()) {
+      if (cause instanceof SQLException) {
+        return classify((SQLException) cause);
+      }
+      if (cause == cause.getCause()) {
+        break;
+      }
+    }
+    return ErrorClass.NON_TRANSIENT;
+  }
+
+  protected ErrorClass classify(SQLException sqlEx) {
+    switch (sqlEx.getErrorCode()) {
+      case H2_DEADLOCK:
+      case H2_CONCURRENT_UPDATE:
+      case MYSQL_DEADLOCK:
+        return ErrorClass.DEADLOCK;
+      case H2_LOCK_TIMEOUT:
+      case MYSQL_LOCK_WAIT_TIMEOUT:
+        return ErrorClass.LOCK_TIMEOUT;
+      case H2_DUPLICATE_KEY:
+      case MYSQL_DUPLICATE_ENTRY:
+        return ErrorClass.DUPLICATE_KEY;
+      default:
+        return SERIALIZATION_FAILURE.equals(sqlEx.getSQLState()) ? ErrorClass.DEADLOCK : ErrorClass.NON_TRANSIENT;
+    }
+  }
+}
@@ -0,0 +1,218 @@
+package at.rovo.h2test.tx;
+
+import at.rovo.h2test.stress.ThreadMode;
+import com.zaxxer.hikari.HikariDataSource;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.function.Supplier;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.CannotCreateTransactionException;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Runs many concurrent requests, i.e. the upsert-plus-status transaction of the original tests,
+ * on platform or virtual threads while admitting only as many transactions at a time as the
+ * connection pool has connections.
+ * <p>
+ * With {@link ThreadMode#VIRTUAL virtual threads} every request gets its own thread, so tens of
+ * thousands of requests may be in flight at once. Without a gate all of them would queue inside
+ * the pool and fail once its connection timeout elapsed. The dispatcher therefore lets a request
+ * enter its transaction only after acquiring one of <code>maxConcurrency</code> fair permits,
+ * which are handed out in arrival order. Waiting for a permit parks a virtual thread without
+ * occupying its carrier. With {@link ThreadMode#PLATFORM platform threads} the requests run on a
+ * fixed pool of <code>maxConcurrency</code> threads and queue in front of it instead.
+ * <p>
+ * A virtual thread blocking while it holds a monitor pins its carrier thread on Java 21. Nothing
+ * on the transaction path of this project synchronizes, shared state is guarded by
+ * <code>java.util.concurrent</code> locks and atomics, but both drivers do: MySQL Connector/J 5.1
+ * executes every statement, including waiting for the server's response, while holding the
+ * connection's monitor, and embedded H2 runs statements, including waits for locks, while
+ * holding the monitor of its database, or of the session in <code>MULTI_THREADED</code> mode. A
+ * transaction in a driver call thus occupies a carrier for its whole duration. As the gate never
+ * admits more than <code>maxConcurrency</code> transactions, at most that many carriers can be
+ * pinned; the virtual thread scheduler should be given at least that many carriers via
+ * <code>-Djdk.virtualThreadScheduler.parallelism</code>, see {@link #isPinningBounded()}, so that a
+ * transaction holding a row lock can always be scheduled while others wait for it inside the
+ * driver. Running with <code>-Djdk.tracePinnedThreads=short</code>, as the <code>java21</code>
+ * build profile does for the tests, reports virtual threads parking while pinned.
+ * <p>
+ * Retries of the {@link RetryingTransactionExecutor} happen while holding the permit, so a
+ * request backing off still counts against the gate but doesn't hold a connection.
+ */
+public class TransactionDispatcher implements AutoCloseable {
+
+  private static final long SHUTDOWN_TIMEOUT_SECONDS = 60L;
+
+  private final RetryingTransactionExecutor txExecutor;
+  private final ThreadMode threadMode;
+  private final int maxConcurrency;
+  private final Semaphore permits;
+  private final ExecutorService executor;
+  private final LongAccumulator peakActive = new LongAccumulator(Math::max, 0L);
+
+  /**
+   * @param txExecutor Executes the transactions of the submitted requests
+   * @param threadMode The kind of threads requests run on
+   * @param maxConcurrency The maximum number of concurrent transactions, usually the maximum size
+   *                       of the connection pool the transactions use
+   */
+  public TransactionDispatcher(RetryingTransactionExecutor txExecutor, ThreadMode threadMode, int maxConcurrency) {
+    if (maxConcurrency < 1) {
+      throw new IllegalArgumentException("Maximum concurrency must be positive but was " + maxConcurrency);
+    }
+    this.txExecutor = txExecutor;
+    this.threadMode = threadMode;
+    this.maxConcurrency = maxConcurrency;
+    this.permits = new Semaphore(maxConcurrency, true);
+    this.executor = threadMode.newExecutor(maxConcurrency);
+  }
+
+  /**
+   * Creates a dispatcher admitting as many concurrent transactions as the given pool has
+   * connections at most. Transactions use the default isolation level and retry policy.
+   */
+  public static TransactionDispatcher forPool(HikariDataSource pool, ThreadMode threadMode) {
+    TransactionTemplate txTemplate = new TransactionTemplate(new DataSourceTransactionManager(pool));
+    return new TransactionDispatcher(new RetryingTransactionExecutor(txTemplate), threadMode,
+        pool.getMaximumPoolSize());
+  }
+
+  public ThreadMode getThreadMode() {
+    return threadMode;
+  }
+
+  public int getMaxConcurrency() {
+    return maxConcurrency;
+  }
+
+  public RetryMetrics getRetryMetrics() {
+    return txExecutor.getMetrics();
+  }
+
+  /**
+   * The number of transactions currently running.
+   */
+  public int getActiveTransactions() {
+    return maxConcurrency - permits.availablePermits();
+  }
+
+  /**
+   * The highest number of transactions that ran at the same time so far.
+   */
+  public int getPeakActiveTransactions() {
+    return (int) peakActive.get();
+  }
+
+  /**
+   * An estimate of the number of requests waiting to start their transaction.
+   */
+  public int getQueuedTransactions() {
+    return permits.getQueueLength();
+  }
+
+  /**
+   * Whether the virtual thread scheduler has enough carriers that carriers pinned by driver calls
+   * of all admitted transactions can't starve the other virtual threads. Always true for platform
+   * threads.
+   */
+  public boolean isPinningBounded() {
+    if (ThreadMode.VIRTUAL != threadMode) {
+      return true;
+    }
+    return Integer.getInteger("jdk.virtualThreadScheduler.parallelism", Runtime.getRuntime().availableProcessors())
+        >= maxConcurrency;
+  }
+
+  /**
+   * Runs the callback in a transaction on a thread of this dispatcher once a permit is available.
+   *
+   * @param action The work to do within the transaction
+   * @return A future completing with the result of the callback of the committed attempt
+   */
+  public <T> CompletableFuture<T> submit(final TransactionCallback<T> action) {
+    return CompletableFuture.supplyAsync(new Supplier<T>() {
+      @Override
+      public T get() {
+        return execute(action);
+      }
+    }, executor);
+  }
+
+  /**
+   * Runs the given request on a thread of this dispatcher. Other than with
+   * {@link #submit(TransactionCallback)} the request doesn't wait for a permit, but may run work
+   * outside of a transaction, i.e. preparing its data or calling other services, and then
+   * {@link #execute(TransactionCallback) execute} its transaction.
+   *
+   * @param request The request to run
+   * @return A future completing with the result of the request
+   */
+  public <T> CompletableFuture<T> submit(final Callable<T> request) {
+    return CompletableFuture.supplyAsync(new Supplier<T>() {
+      @Override
+      public T get() {
+        try {
+          return request.call();
+        } catch (RuntimeException rtEx) {
+          throw rtEx;
+        } catch (Exception ex) {
+          throw new CompletionException(ex);
+        }
+      }
+    }, executor);
+  }
+
+  /**
+   * Runs the callback in a transaction on the calling thread, waiting for a permit first.
+   *
+   * @param action The work to do within the transaction
+   * @return The result of the callback of the committed attempt
+   * @throws CannotCreateTransactionException If the thread is interrupted while waiting for a
+   *                                          permit
+   */
+  public <T> T execute(TransactionCallback<T> action) {
+    try {
+      permits.acquire();
+    } catch (InterruptedException iEx) {
+      Thread.currentThread().interrupt();
+      throw new CannotCreateTransactionException("Interrupted while waiting for a transaction permit", iEx);
+    }
+    try {
+      peakActive.accumulate(getActiveTransactions());
+      return txExecutor.execute(action);
+    } finally {
+      permits.release();
+    }
+  }
+
+  /**
+   * Stops accepting requests and waits for the submitted ones to complete. Requests still running
+   * after the shutdown timeout, or once the calling thread is interrupted, are interrupted; in the
+   * latter case the interrupt flag of the calling thread is restored.
+   */
+  @Override
+  public void close() {
+    executor.shutdown();
+    try {
+      if (!executor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+        executor.shutdownNow();
+      }
+    } catch (InterruptedException iEx) {
+      executor.shutdownNow();
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "TransactionDispatcher{threadMode=" + threadMode + ", maxConcurrency=" + maxConcurrency
+        + ", active=" + getActiveTransactions() + ", peak=" + getPeakActiveTransactions()
+        + ", queued=" + getQueuedTransactions() + "}";
+  }
+}
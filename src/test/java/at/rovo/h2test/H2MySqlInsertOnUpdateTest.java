@@ -6,6 +6,9 @@ import static org.hamcrest.core.IsEqual.equalTo;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
 
+import at.rovo.h2test.jdbc.PoolMetrics;
+import at.rovo.h2test.jdbc.PoolSettings;
+import at.rovo.h2test.jdbc.PooledDataSources;
 import java.util.Map;
 import org.h2.jdbc.JdbcSQLException;
 import org.junit.Test;
@@ -16,7 +19,6 @@ import org.springframework.dao.DataAccessException;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.PreparedStatementCreator;
 import org.springframework.jdbc.datasource.DataSourceTransactionManager;
-import org.springframework.jdbc.datasource.SimpleDriverDataSource;
 import org.springframework.jdbc.support.GeneratedKeyHolder;
 import org.springframework.jdbc.support.KeyHolder;
 import org.springframework.test.context.ContextConfiguration;
@@ -179,12 +181,15 @@ public class H2MySqlInsertOnUpdateTest {
   @Configuration
   public static class ContextConfig {
 
+    @Bean
+    public PoolMetrics poolMetrics() {
+      return new PoolMetrics();
+    }
+
     @Bean
     public DataSource dataSource() throws Exception {
-      SimpleDriverDataSource db = new SimpleDriverDataSource();
-      db.setDriverClass(org.h2.Driver.class);
-      db.setUrl("jdbc:h2:mem:testdb;DB_CLOSE_DELAY=-1;MODE=MYSQL;");
-      return db;
+      return PooledDataSources.h2("h2-test", "jdbc:h2:mem:testdb;DB_CLOSE_DELAY=-1;MODE=MYSQL;",
+          new PoolSettings(), poolMetrics());
     }
 
     @Bean
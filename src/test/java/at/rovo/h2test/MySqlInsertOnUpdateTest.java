@@ -6,6 +6,9 @@ import static org.hamcrest.core.IsEqual.equalTo;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
 
+import at.rovo.h2test.jdbc.PoolMetrics;
+import at.rovo.h2test.jdbc.PoolSettings;
+import at.rovo.h2test.jdbc.PooledDataSources;
 import com.mysql.jdbc.exceptions.jdbc4.MySQLIntegrityConstraintViolationException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
@@ -22,7 +25,6 @@ import org.springframework.dao.DataAccessException;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.PreparedStatementCreator;
 import org.springframework.jdbc.datasource.DataSourceTransactionManager;
-import org.springframework.jdbc.datasource.SimpleDriverDataSource;
 import org.springframework.jdbc.support.GeneratedKeyHolder;
 import org.springframework.jdbc.support.KeyHolder;
 import org.springframework.test.context.ContextConfiguration;
@@ -181,13 +183,15 @@ public class MySqlInsertOnUpdateTest {
   @Configuration
   public static class ContextConfig {
 
+    @Bean
+    public PoolMetrics poolMetrics() {
+      return new PoolMetrics();
+    }
+
     @Bean
     public DataSource dataSource() throws Exception {
-      SimpleDriverDataSource db = new SimpleDriverDataSource();
-      db.setDriverClass(com.mysql.jdbc.Driver.class);
-      db.setUrl("jdbc:mysql://localhost:3306/test?useSSL=false");
-      db.setUsername("root");
-      return db;
+      return PooledDataSources.mysql("mysql-test", "jdbc:mysql://localhost:3306/test?useSSL=false", "root", "",
+          new PoolSettings(), poolMetrics());
     }
 
     @Bean
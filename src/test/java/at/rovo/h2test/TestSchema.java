@@ -0,0 +1,53 @@
+package at.rovo.h2test;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * Creates the <code>message</code> and <code>status</code> tables used throughout the tests and
+ * seeds them with the same four messages the original insert-on-update tests start with.
+ */
+@SuppressWarnings({"SqlNoDataSourceInspection", "SqlDialectInspection"})
+public final class TestSchema {
+
+  private TestSchema() {
+
+  }
+
+  public static void initDB(JdbcTemplate jdbcTemplate) {
+
+    jdbcTemplate.execute("DROP TABLE IF EXISTS status");
+    jdbcTemplate.execute("DROP TABLE IF EXISTS message");
+
+    jdbcTemplate.execute("CREATE TABLE message ("
+        + "id bigint(20) NOT NULL AUTO_INCREMENT, "
+        + "messageId varchar(255) DEFAULT NULL, "
+        + "message longblob, "
+        + "lastStatusChange dateTime DEFAULT NULL, "
+        + "PRIMARY KEY (id), "
+        + "UNIQUE KEY UK_msgId (messageId), "
+        + "KEY idx_lastStatusChange (lastStatusChange) "
+        + ") ENGINE=InnoDB AUTO_INCREMENT=1 DEFAULT CHARSET=UTF8");
+
+    jdbcTemplate.execute("CREATE TABLE status ("
+        + "id bigint(20) NOT NULL AUTO_INCREMENT, "
+        + "lastChange datetime DEFAULT NULL, "
+        + "messageId bigint(20) DEFAULT NULL,"
+        + "status varchar(255) DEFAULT NULL, "
+        + "PRIMARY KEY (id), "
+        + "KEY idx_lastChange (lastChange), "
+        + "KEY fk_status_message (messageId), "
+        + "CONSTRAINT fk_status_message FOREIGN KEY (messageId) REFERENCES message (id) "
+        + ") ENGINE=InnoDB AUTO_INCREMENT=84 DEFAULT CHARSET=UTF8");
+
+    jdbcTemplate.execute("INSERT INTO message (messageId, message, lastStatusChange) VALUES ('abcd1234', RAWTOHEX('Test Message 1'), '2015-09-21 10:34:09')");
+    jdbcTemplate.execute("INSERT INTO status (lastChange, messageId, status) VALUES ('2015-09-21 10:34:09', 1, 'RECEIVED')");
+    jdbcTemplate.execute("INSERT INTO status (lastChange, messageId, status) VALUES ('2015-09-21 10:34:09', 1, 'DELIVERED')");
+    jdbcTemplate.execute("INSERT INTO message (messageId, message, lastStatusChange) VALUES ('abcd1235', RAWTOHEX('Test Message 2'), '2015-09-21 10:34:09')");
+    jdbcTemplate.execute("INSERT INTO status (lastChange, messageId, status) VALUES ('2015-09-21 10:34:09', 2, 'RECEIVED')");
+    jdbcTemplate.execute("INSERT INTO status (lastChange, messageId, status) VALUES ('2015-09-21 10:34:09', 2, 'DELIVERED')");
+    jdbcTemplate.execute("INSERT INTO message (messageId, message, lastStatusChange) VALUES ('abcd1236', RAWTOHEX('Test Message 3'), '2015-09-21 10:34:09')");
+    jdbcTemplate.execute("INSERT INTO status (lastChange, messageId, status) VALUES ('2015-09-21 10:34:09', 3, 'RECEIVED')");
+    jdbcTemplate.execute("INSERT INTO message (messageId, message, lastStatusChange) VALUES ('abcd1237', RAWTOHEX('Test Message 4'), '2015-09-21 10:34:09')");
+    jdbcTemplate.execute("INSERT INTO status (lastChange, messageId, status) VALUES ('2015-09-21 10:34:09', 4, 'RECEIVED')");
+  }
+}
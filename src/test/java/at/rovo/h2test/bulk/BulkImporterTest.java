@@ -0,0 +1,129 @@
+package at.rovo.h2test.bulk;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import at.rovo.h2test.TestSchema;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import javax.annotation.Resource;
+import javax.sql.DataSource;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SimpleDriverDataSource;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+@SuppressWarnings({"SqlNoDataSourceInspection", "SqlDialectInspection"})
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(classes= {BulkImporterTest.ContextConfig.class})
+public class BulkImporterTest {
+
+  private static final Timestamp IMPORTED = Timestamp.valueOf("2015-09-21 10:40:00");
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Resource
+  private JdbcTemplate jdbcTemplate;
+
+  @Before
+  public void initDB() {
+    TestSchema.initDB(jdbcTemplate);
+  }
+
+  @Test
+  public void importMessagesIntoEmptyTableRebuildsSecondaryIndexes() throws Exception {
+    jdbcTemplate.execute("DELETE FROM status");
+    jdbcTemplate.execute("DELETE FROM message");
+    Path file = folder.newFile("message.csv").toPath();
+    try (ImportCsvWriter writer = new ImportCsvWriter(file)) {
+      for (int i = 0; i < 1000; i++) {
+        writer.writeMessage("import" + i, bytes("Imported Message " + i), IMPORTED);
+      }
+      writer.writeMessage("quoted, \"id\"", null, null);
+    }
+    List<ImportProgress> progress = new ArrayList<>();
+    BulkImporter importer = new BulkImporter(jdbcTemplate, new BulkImportSettings().setProgressListener(progress::add));
+
+    ImportResult result = importer.importMessages(file);
+
+    assertThat(result.getLoadedRows(), is(equalTo(1001L)));
+    assertThat(result.getRejectedRows(), is(equalTo(0L)));
+    assertThat(jdbcTemplate.queryForObject("SELECT count(*) FROM message", Integer.class), is(equalTo(1001)));
+    assertArrayEquals(bytes("Imported Message 42"),
+        jdbcTemplate.queryForObject("SELECT message FROM message WHERE messageId = 'import42'", byte[].class));
+    assertThat(jdbcTemplate.queryForObject("SELECT lastStatusChange FROM message WHERE messageId = 'import42'",
+        Timestamp.class), is(equalTo(IMPORTED)));
+    assertNull(jdbcTemplate.queryForObject("SELECT message FROM message WHERE messageId = 'quoted, \"id\"'",
+        byte[].class));
+    assertThat(indexCount("MESSAGE", "IDX_LASTSTATUSCHANGE"), is(equalTo(1)));
+    ImportProgress last = progress.get(progress.size() - 1);
+    assertTrue(last.isFinished());
+    assertThat(last.getRows(), is(equalTo(1001L)));
+  }
+
+  @Test
+  public void importStatusesResolvesMessagesAndRejectsUnknownOnes() throws Exception {
+    Path file = folder.newFile("status.csv").toPath();
+    try (ImportCsvWriter writer = new ImportCsvWriter(file)) {
+      for (int i = 0; i < 500; i++) {
+        writer.writeStatus("abcd123" + (4 + i % 4), IMPORTED, "STATUS" + i);
+      }
+      writer.writeStatus("unknown", IMPORTED, "LOST");
+      writer.writeStatus("abcd1235", IMPORTED, null);
+    }
+
+    ImportResult result = new BulkImporter(jdbcTemplate).importStatuses(file);
+
+    assertThat(result.getLoadedRows(), is(equalTo(501L)));
+    assertThat(result.getRejectedRows(), is(equalTo(1L)));
+    assertThat(jdbcTemplate.queryForObject("SELECT count(*) FROM status s JOIN message m ON m.id = s.messageId "
+        + "WHERE m.messageId = 'abcd1236' AND s.lastChange = ?", Integer.class, IMPORTED), is(equalTo(125)));
+    assertThat(jdbcTemplate.queryForObject("SELECT count(*) FROM status WHERE status IS NULL", Integer.class),
+        is(equalTo(1)));
+    // the table wasn't empty, so its indexes are kept
+    assertThat(indexCount("STATUS", "IDX_LASTCHANGE"), is(equalTo(1)));
+    assertThat(jdbcTemplate.queryForObject("SELECT count(*) FROM INFORMATION_SCHEMA.TABLES "
+        + "WHERE TABLE_NAME = 'STATUS_IMPORT'", Integer.class), is(equalTo(0)));
+  }
+
+  private int indexCount(String table, String index) {
+    return jdbcTemplate.queryForObject("SELECT count(DISTINCT INDEX_NAME) FROM INFORMATION_SCHEMA.INDEXES "
+        + "WHERE TABLE_NAME = ? AND INDEX_NAME = ?", Integer.class, table, index);
+  }
+
+  private static byte[] bytes(String text) {
+    return text.getBytes(StandardCharsets.UTF_8);
+  }
+
+  @Configuration
+  public static class ContextConfig {
+
+    @Bean
+    public DataSource dataSource() throws Exception {
+      SimpleDriverDataSource db = new SimpleDriverDataSource();
+      db.setDriverClass(org.h2.Driver.class);
+      db.setUrl("jdbc:h2:mem:importdb;DB_CLOSE_DELAY=-1;MODE=MYSQL;");
+      return db;
+    }
+
+    @Bean
+    public JdbcTemplate jdbcTemplate() throws Exception {
+      return new JdbcTemplate(dataSource());
+    }
+  }
+}
@@ -0,0 +1,136 @@
+package at.rovo.h2test.diff;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.endsWith;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.startsWith;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.sql.DataSource;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.jdbc.datasource.SimpleDriverDataSource;
+
+@SuppressWarnings({"SqlNoDataSourceInspection", "SqlDialectInspection"})
+public class DifferentialRunnerTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void insertOnUpdateBehavesTheSameOnH2InMemoryAndOnFile() throws Exception {
+    DifferentialRunner runner = new DifferentialRunner(
+        DiffTarget.h2Memory("diffmem"),
+        DiffTarget.h2File("difffile", folder.newFolder().toPath()),
+        DiffTarget.mysql("mysql", "jdbc:mysql://localhost:1/test?useSSL=false&connectTimeout=500", "root", ""));
+
+    DiffReport report = runner.run(Workloads.insertOnUpdate(20).setWarmupIterations(5));
+    String formatted = report.format();
+    assertThat(formatted, startsWith("Workload 'insert-on-update', 20 iterations\n"));
+    assertThat(formatted, containsString("insert existing message"));
+    assertThat(formatted, containsString("mysql skipped: not reachable\n"));
+    assertThat(formatted, endsWith("No differences\n"));
+
+    assertTrue(report.getDifferences().toString(), report.isConsistent());
+    TargetRun mem = report.getRun("diffmem");
+    assertThat(mem.getOutcomes().get("insert existing message"), is(equalTo("error DUPLICATE_KEY (SQLState 23xxx)")));
+    assertThat(mem.getOutcomes().get("messages"), is(equalTo("rows [[29]]")));
+    assertTrue(mem.getThroughput() > 0.0);
+    assertTrue(mem.getLatencyMicros(TargetRun.COMMIT, 99.0) > 0.0);
+    assertTrue(report.getRun("mysql").isSkipped());
+  }
+
+  @Test
+  public void differingOutcomesAreReported() {
+    DifferentialRunner runner = new DifferentialRunner(
+        new DiffTarget("empty", DiffTarget.h2Memory("diffempty").getDataSource(),
+            "DROP TABLE IF EXISTS marker", "CREATE TABLE marker (id int)"),
+        new DiffTarget("filled", DiffTarget.h2Memory("difffilled").getDataSource(),
+            "DROP TABLE IF EXISTS marker", "CREATE TABLE marker (id int)", "INSERT INTO marker VALUES (1)"));
+    Workload workload = new Workload("marker")
+        .query("markers", "SELECT count(*) FROM marker")
+        .update("insert marker", "INSERT INTO marker VALUES (?)", Workload.perIteration(i -> i + 10))
+        .verify("marker ids", "SELECT id FROM marker ORDER BY id")
+        .setIterations(2);
+
+    DiffReport report = runner.run(workload);
+
+    List<String> differences = report.getDifferences();
+    assertThat(differences.toString(), differences.size(), is(equalTo(2)));
+    assertThat(differences.get(0), is(equalTo("'markers': empty rows [[0]], filled rows [[1]]")));
+    assertThat(differences.get(1), is(equalTo("'marker ids': empty rows [[10], [11]], filled rows [[1], [10], [11]]")));
+    assertThat(report.format(), endsWith("DIFF " + differences.get(0) + "\nDIFF " + differences.get(1) + "\n"));
+  }
+
+  @Test
+  public void targetsFailingMidRunAreComparedRatherThanSkipped() {
+    DifferentialRunner runner = new DifferentialRunner(
+        new DiffTarget("stable", DiffTarget.h2Memory("diffstable").getDataSource(),
+            "DROP TABLE IF EXISTS marker", "CREATE TABLE marker (id int)"),
+        new DiffTarget("broken", failingCommits("diffbroken", 2),
+            "DROP TABLE IF EXISTS marker", "CREATE TABLE marker (id int)"));
+    Workload workload = new Workload("marker")
+        .update("insert marker", "INSERT INTO marker VALUES (?)", Workload.perIteration(i -> i))
+        .verify("marker count", "SELECT count(*) FROM marker")
+        .setIterations(4);
+
+    DiffReport report = runner.run(workload);
+
+    TargetRun broken = report.getRun("broken");
+    assertFalse(broken.isSkipped());
+    assertTrue(broken.isFailed());
+    assertThat(broken.getFailedStep(), is(equalTo(TargetRun.COMMIT)));
+    assertFalse(report.getRun("stable").isFailed());
+    List<String> differences = report.getDifferences();
+    assertThat(differences.toString(), differences.size(), is(equalTo(2)));
+    assertThat(differences.get(0), is(equalTo("'commit': stable completed, broken error NON_TRANSIENT (SQLState 08xxx) "
+        + "(0: Communications link failure)")));
+    assertThat(differences.get(1), is(equalTo("'marker count': stable rows [[4]], broken not executed")));
+    assertThat(report.format(), containsString(
+        "broken failed on 'commit': error NON_TRANSIENT (SQLState 08xxx)\n"));
+  }
+
+  /**
+   * An in-memory H2 database whose connections fail to commit after the given number of commits,
+   * like a connection to a server that went away.
+   */
+  private static DataSource failingCommits(String name, final int commits) {
+    SimpleDriverDataSource db = new SimpleDriverDataSource() {
+      @Override
+      protected Connection getConnectionFromDriver(Properties props) throws SQLException {
+        final Connection con = super.getConnectionFromDriver(props);
+        final AtomicInteger committed = new AtomicInteger();
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+            new Class<?>[] {Connection.class}, new InvocationHandler() {
+              @Override
+              public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if ("commit".equals(method.getName()) && committed.incrementAndGet() > commits) {
+                  throw new SQLException("Communications link failure", "08S01");
+                }
+                try {
+                  return method.invoke(con, args);
+                } catch (InvocationTargetException itEx) {
+                  throw itEx.getCause();
+                }
+              }
+            });
+      }
+    };
+    db.setDriverClass(org.h2.Driver.class);
+    db.setUrl("jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1;MODE=MYSQL;");
+    return db;
+  }
+}
@@ -0,0 +1,281 @@
+package at.rovo.h2test.feed;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import at.rovo.h2test.TestSchema;
+import at.rovo.h2test.status.StatusEvent;
+import at.rovo.h2test.status.StatusEventPipeline;
+import at.rovo.h2test.status.StatusRecord;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DataSourceUtils;
+import org.springframework.jdbc.datasource.SimpleDriverDataSource;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+
+@SuppressWarnings({"SqlNoDataSourceInspection", "SqlDialectInspection"})
+public class ChangeFeedTest {
+
+  private static final Timestamp BASE = Timestamp.valueOf("2015-09-21 10:40:00");
+
+  private SimpleDriverDataSource db;
+  private JdbcTemplate jdbcTemplate;
+  private TransactionTemplate txTemplate;
+  private ChangeFeed feed;
+
+  @Before
+  public void initDB() {
+    db = new SimpleDriverDataSource();
+    db.setDriverClass(org.h2.Driver.class);
+    db.setUrl("jdbc:h2:mem:feeddb;DB_CLOSE_DELAY=-1;MODE=MYSQL;");
+    jdbcTemplate = new JdbcTemplate(db);
+    TestSchema.initDB(jdbcTemplate);
+    txTemplate = new TransactionTemplate(new DataSourceTransactionManager(db));
+    feed = new ChangeFeed(jdbcTemplate);
+  }
+
+  @Test
+  public void changesOfTransactionTemplatesArePublishedOnlyAfterCommit() throws Exception {
+    final StatusEventPipeline pipeline = new StatusEventPipeline(jdbcTemplate, txTemplate, 10, 4);
+    pipeline.setChangeFeed(feed);
+    ChangeSubscription subscription = feed.subscribe(100);
+    long checkpoint = subscription.getCheckpoint();
+    assertThat(checkpoint, is(equalTo(jdbcTemplate.queryForObject("SELECT MAX(id) FROM status", Long.class))));
+
+    try {
+      txTemplate.execute(new TransactionCallbackWithoutResult() {
+        @Override
+        protected void doInTransactionWithoutResult(TransactionStatus status) {
+          pipeline.record(events("rolledBack", 5).stream());
+          throw new IllegalStateException("rollback");
+        }
+      });
+    } catch (IllegalStateException isEx) {
+      // expected
+    }
+    assertTrue(subscription.poll(100, 0, TimeUnit.MILLISECONDS).isEmpty());
+
+    pipeline.record(events("feed", 6).stream());
+    List<Change> changes = subscription.poll(100, 0, TimeUnit.MILLISECONDS);
+    List<StatusRecord> statuses = statuses(changes);
+    assertThat(statuses.size(), is(equalTo(6)));
+    assertThat(changes.size() - statuses.size(), is(equalTo(6)));
+    List<Long> stored = jdbcTemplate.queryForList("SELECT id FROM status WHERE id > ? ORDER BY id", Long.class,
+        checkpoint);
+    for (int i = 0; i < statuses.size(); i++) {
+      assertThat(statuses.get(i).getId(), is(equalTo(stored.get(i))));
+      assertThat(statuses.get(i).getStatus(), is(equalTo("S" + i)));
+    }
+    assertThat(subscription.getCheckpoint(), is(equalTo(stored.get(stored.size() - 1))));
+    assertThat(feed.getPublishedCount(), is(equalTo(12L)));
+  }
+
+  @Test
+  public void plainJdbcChangesArePublishedOnCommit() throws Exception {
+    ChangeSubscription subscription = feed.subscribe(100);
+    try (Connection con = db.getConnection()) {
+      con.setAutoCommit(false);
+      try (PendingChanges changes = feed.begin()) {
+        changes.add(Change.of(insertStatus(con, "DISCARDED")));
+      }
+      con.rollback();
+
+      try (PendingChanges changes = feed.begin()) {
+        StatusRecord inserted = insertStatus(con, "PLAIN");
+        changes.add(Change.of(inserted));
+        assertTrue(subscription.poll(10, 0, TimeUnit.MILLISECONDS).isEmpty());
+        changes.commit(con);
+
+        List<Change> polled = subscription.poll(10, 0, TimeUnit.MILLISECONDS);
+        assertThat(polled.size(), is(equalTo(1)));
+        assertThat(polled.get(0).getStatus().getId(), is(equalTo(inserted.getId())));
+      }
+    }
+    assertTrue(subscription.poll(10, 0, TimeUnit.MILLISECONDS).isEmpty());
+  }
+
+  @Test
+  public void slowSubscribersCatchUpFromTheDatabaseAndResumeFromTheirCheckpoint() throws Exception {
+    StatusEventPipeline pipeline = new StatusEventPipeline(jdbcTemplate, txTemplate, 25, 10);
+    pipeline.setChangeFeed(feed);
+    ChangeSubscription slow = feed.subscribe(5);
+    ChangeSubscription fast = feed.subscribe(1_000);
+    long start = slow.getCheckpoint();
+
+    pipeline.record(events("slow", 40).stream());
+    assertTrue(slow.isCatchingUp());
+    assertThat(fast.poll(1_000, 0, TimeUnit.MILLISECONDS).size(), is(equalTo(40 + 2 * 8)));
+
+    List<StatusRecord> received = new ArrayList<>();
+    received.addAll(statuses(slow.poll(15, 0, TimeUnit.MILLISECONDS)));
+    long checkpoint = slow.getCheckpoint();
+    slow.close();
+    assertThat(received.size(), is(equalTo(15)));
+    assertThat(feed.getSubscriberCount(), is(equalTo(1)));
+
+    ChangeSubscription resumed = feed.subscribe(5, checkpoint);
+    pipeline.record(events("late", 3).stream());
+    List<Change> changes;
+    while (!(changes = resumed.poll(10, 0, TimeUnit.MILLISECONDS)).isEmpty()) {
+      received.addAll(statuses(changes));
+    }
+    assertFalse(resumed.isCatchingUp());
+    pipeline.record(Collections.singletonList(new StatusEvent("slow0", "LIVE", BASE)).stream());
+    received.addAll(statuses(resumed.poll(10, 0, TimeUnit.MILLISECONDS)));
+
+    List<Long> stored = jdbcTemplate.queryForList("SELECT id FROM status WHERE id > ? ORDER BY id", Long.class, start);
+    assertThat(stored.size(), is(equalTo(44)));
+    assertThat(received.size(), is(equalTo(stored.size())));
+    for (int i = 0; i < received.size(); i++) {
+      assertThat(received.get(i).getId(), is(equalTo(stored.get(i))));
+    }
+    assertThat(received.get(received.size() - 1).getStatus(), is(equalTo("LIVE")));
+    assertTrue(feed.getOverflowCount() >= 1);
+  }
+
+  @Test
+  public void transactionsCommittingOutOfIdOrderAreNeitherSkippedLiveNorOnResume() throws Exception {
+    ChangeSubscription live = feed.subscribe(100);
+    ChangeSubscription lagging = feed.subscribe(2);
+    final long start = live.getCheckpoint();
+    final CountDownLatch inserted = new CountDownLatch(1);
+    final CountDownLatch commit = new CountDownLatch(1);
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      // takes the lowest id but commits last
+      Future<StatusRecord> slow = executor.submit(new Callable<StatusRecord>() {
+        @Override
+        public StatusRecord call() {
+          return txTemplate.execute(new TransactionCallback<StatusRecord>() {
+            @Override
+            public StatusRecord doInTransaction(TransactionStatus status) {
+              StatusRecord record = insertAndPublish("SLOW");
+              inserted.countDown();
+              try {
+                assertTrue(commit.await(10, TimeUnit.SECONDS));
+              } catch (InterruptedException iEx) {
+                throw new IllegalStateException(iEx);
+              }
+              return record;
+            }
+          });
+        }
+      });
+      assertTrue(inserted.await(10, TimeUnit.SECONDS));
+      List<Long> fast = new ArrayList<>();
+      for (int i = 0; i < 5; i++) {
+        fast.add(txTemplate.execute(new TransactionCallback<StatusRecord>() {
+          @Override
+          public StatusRecord doInTransaction(TransactionStatus status) {
+            return insertAndPublish("FAST");
+          }
+        }).getId());
+      }
+
+      assertThat(ids(live.poll(100, 0, TimeUnit.MILLISECONDS)), is(equalTo(fast)));
+      assertThat(live.getCheckpoint(), is(equalTo(start)));
+
+      // the lagging subscription replays past the open transaction before it commits
+      assertTrue(lagging.isCatchingUp());
+      List<Long> caughtUp = new ArrayList<>(ids(lagging.poll(2, 0, TimeUnit.MILLISECONDS)));
+      assertThat(caughtUp, is(equalTo(fast.subList(0, 2))));
+      assertThat(lagging.getCheckpoint(), is(equalTo(start)));
+
+      commit.countDown();
+      long slowId = slow.get(10, TimeUnit.SECONDS).getId();
+      assertTrue(slowId < fast.get(0));
+      List<Change> changes;
+      while (!(changes = lagging.poll(2, 0, TimeUnit.MILLISECONDS)).isEmpty()) {
+        caughtUp.addAll(ids(changes));
+      }
+      List<Long> expected = new ArrayList<>(fast);
+      expected.add(slowId);
+      assertThat(new TreeSet<>(caughtUp), is(equalTo(new TreeSet<>(expected))));
+      assertThat(caughtUp.size(), is(equalTo(expected.size())));
+      assertThat(lagging.getCheckpoint(), is(equalTo(fast.get(fast.size() - 1))));
+
+      assertThat(ids(live.poll(100, 0, TimeUnit.MILLISECONDS)), is(equalTo(Collections.singletonList(slowId))));
+      assertThat(live.getCheckpoint(), is(equalTo(fast.get(fast.size() - 1))));
+
+      ChangeSubscription resumed = feed.subscribe(100, start);
+      List<Long> replayed = ids(resumed.poll(100, 0, TimeUnit.MILLISECONDS));
+      assertThat(new TreeSet<>(replayed), is(equalTo(new TreeSet<>(expected))));
+    } finally {
+      commit.countDown();
+      executor.shutdownNow();
+    }
+  }
+
+  private StatusRecord insertAndPublish(String status) {
+    feed.join();
+    try {
+      StatusRecord record = insertStatus(DataSourceUtils.getConnection(db), status);
+      feed.publish(Collections.singletonList(Change.of(record)));
+      return record;
+    } catch (Exception ex) {
+      throw new IllegalStateException(ex);
+    }
+  }
+
+  private static List<StatusEvent> events(String prefix, int count) {
+    List<StatusEvent> events = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      events.add(new StatusEvent(prefix + i % 8, "S" + i, new Timestamp(BASE.getTime() + i * 1_000L)));
+    }
+    return events;
+  }
+
+  private static List<StatusRecord> statuses(List<Change> changes) {
+    List<StatusRecord> statuses = new ArrayList<>();
+    for (Change change : changes) {
+      if (Change.Type.STATUS == change.getType()) {
+        statuses.add(change.getStatus());
+      }
+    }
+    return statuses;
+  }
+
+  private static List<Long> ids(List<Change> changes) {
+    List<Long> ids = new ArrayList<>();
+    for (StatusRecord status : statuses(changes)) {
+      ids.add(status.getId());
+    }
+    return ids;
+  }
+
+  private static StatusRecord insertStatus(Connection con, String status) throws Exception {
+    try (PreparedStatement ps = con.prepareStatement(
+        "INSERT INTO status (lastChange, messageId, status) VALUES (?, 1, ?)", Statement.RETURN_GENERATED_KEYS)) {
+      ps.setTimestamp(1, BASE);
+      ps.setString(2, status);
+      ps.executeUpdate();
+      try (ResultSet keys = ps.getGeneratedKeys()) {
+        keys.next();
+        return new StatusRecord(keys.getLong(1), BASE, 1L, status);
+      }
+    }
+  }
+}
@@ -0,0 +1,61 @@
+package at.rovo.h2test.jdbc;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.zaxxer.hikari.HikariDataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+public class PooledDataSourcesTest {
+
+  private static final String URL = "jdbc:h2:mem:pooldb;DB_CLOSE_DELAY=-1;MODE=MYSQL;";
+
+  @Test
+  public void connectionsAreReusedAndReportedByMetrics() throws Exception {
+    PoolMetrics metrics = new PoolMetrics();
+    try (HikariDataSource dataSource = PooledDataSources.h2("reuse", URL,
+        new PoolSettings().setMinimumIdle(1).setMaximumPoolSize(2), metrics)) {
+      JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+      for (int i = 0; i < 50; i++) {
+        assertThat(jdbcTemplate.queryForObject("SELECT 1", Integer.class), is(equalTo(1)));
+      }
+
+      assertThat(metrics.getAcquireCount(), is(equalTo(50L)));
+      assertTrue("Unexpected number of physical connections: " + metrics.getCreatedConnections(),
+          metrics.getCreatedConnections() <= 2);
+      assertTrue("Unexpected number of pooled connections: " + dataSource.getHikariPoolMXBean().getTotalConnections(),
+          dataSource.getHikariPoolMXBean().getTotalConnections() >= 1);
+
+      try (Connection connection = dataSource.getConnection()) {
+        assertTrue(connection.isValid(1));
+        assertThat(dataSource.getHikariPoolMXBean().getActiveConnections(), is(equalTo(1)));
+      }
+      assertThat(dataSource.getHikariPoolMXBean().getActiveConnections(), is(equalTo(0)));
+      assertThat(metrics.getAcquireCount(), is(equalTo(51L)));
+    }
+  }
+
+  @Test
+  public void exhaustedPoolTimesOut() throws Exception {
+    PoolMetrics metrics = new PoolMetrics();
+    PoolSettings settings = new PoolSettings()
+        .setMinimumIdle(1)
+        .setMaximumPoolSize(1)
+        .setConnectionTimeoutMillis(250L);
+    try (HikariDataSource dataSource = PooledDataSources.h2("exhausted", URL, settings, metrics);
+         Connection first = dataSource.getConnection()) {
+      assertTrue(first.isValid(1));
+      try (Connection second = dataSource.getConnection()) {
+        fail("Pool of size one handed out a second connection " + second);
+      } catch (SQLException expected) {
+        assertThat(metrics.getTimeouts(), is(equalTo(1L)));
+      }
+    }
+  }
+}
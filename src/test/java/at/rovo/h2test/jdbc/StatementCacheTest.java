@@ -0,0 +1,199 @@
+package at.rovo.h2test.jdbc;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertThat;
+
+import at.rovo.h2test.TestSchema;
+import at.rovo.h2test.message.BatchMessageUpserter;
+import at.rovo.h2test.message.MessageUpsert;
+import at.rovo.h2test.status.StatusEvent;
+import at.rovo.h2test.status.StatusEventPipeline;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.annotation.Resource;
+import javax.sql.DataSource;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.SimpleDriverDataSource;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+
+@SuppressWarnings({"SqlNoDataSourceInspection", "SqlDialectInspection"})
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(classes= {StatementCacheTest.ContextConfig.class})
+public class StatementCacheTest {
+
+  private static final Timestamp UPDATED = Timestamp.valueOf("2015-09-21 10:40:00");
+
+  @Resource
+  private JdbcTemplate jdbcTemplate;
+  @Resource
+  private PlatformTransactionManager tm;
+
+  @Before
+  public void initDB() {
+    TestSchema.initDB(jdbcTemplate);
+  }
+
+  @Test
+  public void statementsAreReusedWithinTransactionAndClosedAfterwards() {
+    final StatementCache cache = new StatementCache();
+
+    PreparedStatement ps = new TransactionTemplate(tm).execute(new TransactionCallback<PreparedStatement>() {
+      @Override
+      public PreparedStatement doInTransaction(TransactionStatus status) {
+        PreparedStatement first = prepare(cache, "SELECT id FROM message WHERE messageId = ?");
+        PreparedStatement second = prepare(cache, "SELECT id FROM message WHERE messageId = ?");
+        assertThat(second, is(sameInstance(first)));
+        return first;
+      }
+    });
+
+    assertThat(cache.getMissCount(), is(equalTo(1L)));
+    assertThat(cache.getHitCount(), is(equalTo(1L)));
+    assertThat(isClosed(ps), is(true));
+  }
+
+  @Test
+  public void statementsOutsideOfTransactionAreReusedUntilClosed() throws Exception {
+    StatementCache cache = new StatementCache(2);
+    try (Connection con = jdbcTemplate.getDataSource().getConnection();
+        ConnectionStatements owned = cache.forConnection(con)) {
+      PreparedStatement first = owned.prepare("SELECT 1");
+      assertThat(owned.prepare("SELECT 1"), is(sameInstance(first)));
+      owned.prepare("SELECT 2");
+      owned.prepare("SELECT 3");
+      // least recently used statement got evicted and closed
+      assertThat(first.isClosed(), is(true));
+      assertThat(cache.getEvictionCount(), is(equalTo(1L)));
+    }
+  }
+
+  @Test
+  public void statementsAreNotReusedAcrossCallsOutsideOfTransaction() {
+    StatementCache cache = new StatementCache();
+
+    PreparedStatement first = prepare(cache, "SELECT id FROM message WHERE messageId = ?");
+    PreparedStatement second = prepare(cache, "SELECT id FROM message WHERE messageId = ?");
+
+    assertThat(second, is(not(sameInstance(first))));
+    assertThat(isClosed(first), is(true));
+    assertThat(cache.getMissCount(), is(equalTo(2L)));
+    assertThat(cache.getHitCount(), is(equalTo(0L)));
+  }
+
+  @Test
+  public void upsertAndStatusInsertsShareStatementsOfTransaction() {
+    final StatementCache cache = new StatementCache();
+    final BatchMessageUpserter upserter = new BatchMessageUpserter(jdbcTemplate, 2);
+    upserter.setStatementCache(cache);
+
+    new TransactionTemplate(tm).execute(new TransactionCallbackWithoutResult() {
+      @Override
+      protected void doInTransactionWithoutResult(TransactionStatus status) {
+        for (int i = 0; i < 5; i++) {
+          upserter.upsert(new MessageUpsert("abcd1234", null, UPDATED));
+        }
+        List<MessageUpsert> upserts = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+          upserts.add(new MessageUpsert("new" + i, null, UPDATED));
+        }
+        upserter.upsert(upserts);
+      }
+    });
+    // single upserts: lookup and update prepared once each, batch: upsert and lookup prepared once
+    assertThat(cache.getMissCount(), is(equalTo(4L)));
+    assertThat(cache.getHitCount(), is(equalTo(8L + 8L)));
+
+    StatusEventPipeline pipeline = new StatusEventPipeline(jdbcTemplate, new TransactionTemplate(tm), 10, 5);
+    pipeline.setStatementCache(cache);
+    pipeline.record(Arrays.asList(
+        new StatusEvent("abcd1234", "UPDATED", UPDATED),
+        new StatusEvent("abcd1235", "UPDATED", UPDATED),
+        new StatusEvent("abcd1236", "UPDATED", UPDATED),
+        new StatusEvent("abcd1237", "UPDATED", UPDATED),
+        new StatusEvent("new1", "UPDATED", UPDATED),
+        new StatusEvent("new2", "UPDATED", UPDATED),
+        new StatusEvent("new3", "UPDATED", UPDATED),
+        new StatusEvent("new4", "UPDATED", UPDATED),
+        new StatusEvent("new5", "UPDATED", UPDATED),
+        new StatusEvent("new6", "UPDATED", UPDATED)).iterator());
+    // two chunks of five: upsert, lookup and status insert prepared once, reused for second chunk
+    assertThat(cache.getMissCount(), is(equalTo(4L + 3L)));
+    assertThat(cache.getHitCount(), is(equalTo(16L + 3L)));
+
+    int numMessages = jdbcTemplate.queryForObject("SELECT count(*) FROM status", Integer.class);
+    assertThat("Unexpected number of states", numMessages, is(equalTo(16)));
+  }
+
+  @Test
+  public void inListSizesArePaddedToPowersOfTwo() {
+    assertThat(Sql.inListSize(1, 100), is(equalTo(1)));
+    assertThat(Sql.inListSize(3, 100), is(equalTo(4)));
+    assertThat(Sql.inListSize(64, 100), is(equalTo(64)));
+    assertThat(Sql.inListSize(65, 100), is(equalTo(100)));
+    assertThat(Sql.inListSize(100, 100), is(equalTo(100)));
+    assertThat(Sql.placeholders(3), is(equalTo("(?, ?, ?)")));
+    assertThat(Sql.multiRowValues("VALUES ", 2, 2, ";"), is(equalTo("VALUES (?, ?), (?, ?);")));
+  }
+
+  private PreparedStatement prepare(final StatementCache cache, final String sql) {
+    return jdbcTemplate.execute(new ConnectionCallback<PreparedStatement>() {
+      @Override
+      public PreparedStatement doInConnection(Connection con) throws SQLException {
+        try (ConnectionStatements statements = cache.forConnection(con)) {
+          return statements.prepare(sql);
+        }
+      }
+    });
+  }
+
+  private static boolean isClosed(PreparedStatement ps) {
+    try {
+      return ps.isClosed();
+    } catch (SQLException sqlEx) {
+      throw new IllegalStateException(sqlEx);
+    }
+  }
+
+  @Configuration
+  public static class ContextConfig {
+
+    @Bean
+    public DataSource dataSource() throws Exception {
+      SimpleDriverDataSource db = new SimpleDriverDataSource();
+      db.setDriverClass(org.h2.Driver.class);
+      db.setUrl("jdbc:h2:mem:stmtcachedb;DB_CLOSE_DELAY=-1;MODE=MYSQL;");
+      return db;
+    }
+
+    @Bean
+    public JdbcTemplate jdbcTemplate() throws Exception {
+      return new JdbcTemplate(dataSource());
+    }
+
+    @Bean
+    public PlatformTransactionManager transactionManager() throws Exception {
+      return new DataSourceTransactionManager(dataSource());
+    }
+  }
+}
@@ -0,0 +1,158 @@
+package at.rovo.h2test.jdbc.instrument;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import at.rovo.h2test.TestSchema;
+import at.rovo.h2test.status.StatusEvent;
+import at.rovo.h2test.status.StatusEventPipeline;
+import java.lang.management.ManagementFactory;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import javax.annotation.Resource;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.sql.DataSource;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.SimpleDriverDataSource;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.support.TransactionTemplate;
+
+@SuppressWarnings({"SqlNoDataSourceInspection", "SqlDialectInspection"})
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(classes= {JdbcInstrumentationTest.ContextConfig.class})
+public class JdbcInstrumentationTest {
+
+  private static final String URL = "jdbc:h2:mem:instrumentdb;DB_CLOSE_DELAY=-1;MODE=MYSQL;";
+  private static final Timestamp UPDATED = Timestamp.valueOf("2015-09-21 10:40:00");
+
+  @Resource
+  private JdbcTemplate jdbcTemplate;
+  @Resource
+  private TransactionTemplate txTemplate;
+  @Resource
+  private HdrMetricsRegistry registry;
+
+  @Before
+  public void initDB() {
+    TestSchema.initDB(jdbcTemplate);
+    registry.reset();
+  }
+
+  @Test
+  public void statementsOfATransactionAreMeasuredPerShape() {
+    StatusEventPipeline pipeline = new StatusEventPipeline(jdbcTemplate, txTemplate, 10, 4);
+    List<StatusEvent> events = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      events.add(new StatusEvent("abcd123" + (4 + i % 2), "STATUS" + i, UPDATED));
+    }
+
+    pipeline.record(events.iterator());
+
+    // 4 + 4 + 2 status rows, so two shapes of multi-row inserts fold into the same one
+    MetricSnapshot inserts = registry.getMetric(JdbcInstrumentation.STATEMENT_NANOS,
+        "INSERT INTO status (lastChange, messageId, status) VALUES (?, ?, ?), ...");
+    assertThat(inserts.getCount(), is(equalTo(3L)));
+    MetricSnapshot rows = registry.getMetric(JdbcInstrumentation.STATEMENT_ROWS,
+        "INSERT INTO status (lastChange, messageId, status) VALUES (?, ?, ?), ...");
+    assertThat(rows.getMax(), is(equalTo(4L)));
+    assertThat(rows.getMean(), is(equalTo(10.0 / 3)));
+    // message upsert, id lookup, three status inserts and the commit
+    MetricSnapshot roundTrips = registry.getMetric(JdbcInstrumentation.TRANSACTION_ROUND_TRIPS, "");
+    assertThat(roundTrips.getCount(), is(equalTo(1L)));
+    assertThat(roundTrips.getMax(), is(equalTo(6L)));
+    assertThat(registry.getMetric(JdbcInstrumentation.COMMIT_NANOS, "").getCount(), is(equalTo(1L)));
+    assertTrue(registry.getMetric(JdbcInstrumentation.ACQUIRE_NANOS, "").getCount() >= 1L);
+  }
+
+  @Test
+  public void plainJdbcConnectionsCanBeInstrumented() throws Exception {
+    JdbcInstrumentation instrumentation = new JdbcInstrumentation(registry);
+    try (Connection con = instrumentation.wrap(DriverManager.getConnection(URL))) {
+      con.setAutoCommit(false);
+      try (PreparedStatement ps = con.prepareStatement("UPDATE message SET lastStatusChange = ? WHERE id IN (?, ?)")) {
+        ps.setTimestamp(1, UPDATED);
+        ps.setLong(2, 1L);
+        ps.setLong(3, 2L);
+        assertThat(ps.executeUpdate(), is(equalTo(2)));
+      }
+      con.createStatement().executeUpdate("DELETE FROM status WHERE messageId = 4 AND status = 'RECEIVED'");
+      con.rollback();
+    }
+
+    assertThat(registry.getMetric(JdbcInstrumentation.STATEMENT_ROWS,
+        "UPDATE message SET lastStatusChange = ? WHERE id IN (...)").getMax(), is(equalTo(2L)));
+    assertThat(registry.getMetric(JdbcInstrumentation.STATEMENT_NANOS,
+        "DELETE FROM status WHERE messageId = ? AND status = ?").getCount(), is(equalTo(1L)));
+    assertThat(registry.getMetric(JdbcInstrumentation.ROLLBACK_NANOS, "").getCount(), is(equalTo(1L)));
+    assertThat(registry.getMetric(JdbcInstrumentation.TRANSACTION_ROUND_TRIPS, "").getMax(), is(equalTo(3L)));
+  }
+
+  @Test
+  public void normalizationFoldsLiteralsTuplesAndInLists() {
+    assertThat(SqlShapes.normalize("SELECT id FROM message WHERE messageId IN (?, ?, ?,?)"),
+        is(equalTo("SELECT id FROM message WHERE messageId IN (...)")));
+    assertThat(SqlShapes.normalize("INSERT INTO status_20150921 (a, b)\n  VALUES ('it''s', 12.5), (?, -3)"),
+        is(equalTo("INSERT INTO status_20150921 (a, b) VALUES (?, ?), ...")));
+  }
+
+  @Test
+  public void metricsAreExposedViaJmx() throws Exception {
+    jdbcTemplate.queryForObject("SELECT count(*) FROM message", Integer.class);
+    ObjectName name = registry.registerMBean("instrumentdb");
+    try {
+      CompositeData[] metrics = (CompositeData[]) ManagementFactory.getPlatformMBeanServer()
+          .getAttribute(name, "Metrics");
+      boolean found = false;
+      for (CompositeData metric : metrics) {
+        found |= "SELECT count(*) FROM message".equals(metric.get("statement"))
+            && JdbcInstrumentation.STATEMENT_NANOS.equals(metric.get("metric"))
+            && Long.valueOf(1L).equals(metric.get("count"));
+      }
+      assertTrue("Query not exposed via JMX", found);
+      assertTrue((Integer) ManagementFactory.getPlatformMBeanServer().getAttribute(name, "StatementShapes") >= 1);
+    } finally {
+      registry.unregisterMBean(name);
+    }
+  }
+
+  @Configuration
+  public static class ContextConfig {
+
+    @Bean
+    public HdrMetricsRegistry metricsRegistry() {
+      return new HdrMetricsRegistry();
+    }
+
+    @Bean
+    public DataSource dataSource() throws Exception {
+      SimpleDriverDataSource db = new SimpleDriverDataSource();
+      db.setDriverClass(org.h2.Driver.class);
+      db.setUrl(URL);
+      return new JdbcInstrumentation(metricsRegistry()).wrap(db);
+    }
+
+    @Bean
+    public JdbcTemplate jdbcTemplate() throws Exception {
+      return new JdbcTemplate(dataSource());
+    }
+
+    @Bean
+    public TransactionTemplate txTemplate() throws Exception {
+      return new TransactionTemplate(new DataSourceTransactionManager(dataSource()));
+    }
+  }
+}
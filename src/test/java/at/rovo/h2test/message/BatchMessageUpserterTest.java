@@ -0,0 +1,158 @@
+package at.rovo.h2test.message;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThat;
+
+import at.rovo.h2test.TestSchema;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.annotation.Resource;
+import javax.sql.DataSource;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SimpleDriverDataSource;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+@SuppressWarnings({"SqlNoDataSourceInspection", "SqlDialectInspection"})
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(classes= {BatchMessageUpserterTest.ContextConfig.class})
+public class BatchMessageUpserterTest {
+
+  private static final Timestamp UPDATED = Timestamp.valueOf("2015-09-21 10:40:00");
+
+  @Resource
+  private JdbcTemplate jdbcTemplate;
+
+  @Before
+  public void initDB() {
+    TestSchema.initDB(jdbcTemplate);
+  }
+
+  @Test
+  public void upsertReturnsIdsOfUpdatedAndInsertedRowsInInputOrder() {
+    BatchMessageUpserter upserter = new BatchMessageUpserter(jdbcTemplate);
+
+    long[] ids = upserter.upsert(Arrays.asList(
+        new MessageUpsert("abcd1236", bytes("Updated Message 3"), UPDATED),
+        new MessageUpsert("new0001", bytes("New Message 1"), UPDATED),
+        new MessageUpsert("abcd1234", bytes("Updated Message 1"), UPDATED),
+        new MessageUpsert("new0002", bytes("New Message 2"), UPDATED)));
+
+    assertThat(ids[0], is(equalTo(3L)));
+    assertThat(ids[2], is(equalTo(1L)));
+    assertThat(ids[1], is(equalTo(queryId("new0001"))));
+    assertThat(ids[3], is(equalTo(queryId("new0002"))));
+
+    int numMessages = jdbcTemplate.queryForObject("SELECT count(*) FROM message", Integer.class);
+    assertThat("Unexpected number of messages after batched upsert", numMessages, is(equalTo(6)));
+    assertArrayEquals(bytes("Updated Message 1"),
+        jdbcTemplate.queryForObject("SELECT message FROM message WHERE id = 1", byte[].class));
+
+    // the resolved ids can be used right away as foreign key of status rows
+    jdbcTemplate.update("INSERT INTO status (lastChange, messageId, status) VALUES (?, ?, ?)", UPDATED, ids[2], "UPDATED");
+    numMessages = jdbcTemplate.queryForObject("SELECT count(*) FROM status WHERE messageId = 1", Integer.class);
+    assertThat("Unexpected number of states for first message", numMessages, is(equalTo(3)));
+  }
+
+  @Test
+  public void upsertSpanningSeveralChunksWithRepeatedMessageIds() {
+    BatchMessageUpserter upserter = new BatchMessageUpserter(jdbcTemplate, 7);
+
+    List<MessageUpsert> upserts = new ArrayList<>();
+    for (int i = 0; i < 50; i++) {
+      upserts.add(new MessageUpsert("bulk" + (i % 20), bytes("Bulk " + i), UPDATED));
+    }
+    long[] ids = upserter.upsert(upserts);
+
+    assertThat(ids.length, is(equalTo(50)));
+    for (int i = 0; i < 50; i++) {
+      assertThat(ids[i], is(equalTo(ids[i % 20])));
+      assertThat(ids[i], is(equalTo(queryId("bulk" + (i % 20)))));
+    }
+    int numMessages = jdbcTemplate.queryForObject("SELECT count(*) FROM message", Integer.class);
+    assertThat("Unexpected number of messages after batched upsert", numMessages, is(equalTo(24)));
+    // the last occurrence of a messageId wins
+    assertArrayEquals(bytes("Bulk 49"),
+        jdbcTemplate.queryForObject("SELECT message FROM message WHERE messageId = 'bulk9'", byte[].class));
+  }
+
+  @Test
+  public void upsertSingleMessageReturnsIdOfUpdatedRow() {
+    BatchMessageUpserter upserter = new BatchMessageUpserter(jdbcTemplate);
+
+    assertThat(upserter.upsert(new MessageUpsert("abcd1234", bytes("Updated Message 1"), UPDATED)), is(equalTo(1L)));
+    assertThat(upserter.upsert(new MessageUpsert("new0001", bytes("New Message 1"), UPDATED)), is(equalTo(5L)));
+  }
+
+  @Test
+  public void upsertWithoutPayloadKeepsExistingPayload() {
+    BatchMessageUpserter upserter = new BatchMessageUpserter(jdbcTemplate);
+
+    long[] ids = upserter.upsert(Arrays.asList(new MessageUpsert("abcd1235", null, UPDATED)));
+
+    assertThat(ids[0], is(equalTo(2L)));
+    assertArrayEquals(jdbcTemplate.queryForObject("SELECT RAWTOHEX('Test Message 2')", byte[].class),
+        jdbcTemplate.queryForObject("SELECT message FROM message WHERE id = 2", byte[].class));
+    assertThat(jdbcTemplate.queryForObject("SELECT lastStatusChange FROM message WHERE id = 2", Timestamp.class),
+        is(equalTo(UPDATED)));
+  }
+
+  @Test
+  public void singleUpsertsNeverMoveLastStatusChangeBackwards() {
+    Timestamp older = Timestamp.valueOf("2015-09-21 10:35:00");
+    BatchMessageUpserter uncached = new BatchMessageUpserter(jdbcTemplate);
+    BatchMessageUpserter cached = new BatchMessageUpserter(jdbcTemplate);
+    cached.setMessageIdCache(new MessageIdCache());
+
+    uncached.upsert(new MessageUpsert("abcd1234", null, UPDATED));
+    uncached.upsert(new MessageUpsert("abcd1234", null, older));
+    // the first upsert caches the id, the second updates the row by it
+    cached.upsert(new MessageUpsert("abcd1235", null, UPDATED));
+    cached.upsert(new MessageUpsert("abcd1235", null, older));
+    cached.upsert(new MessageUpsert("abcd1236", null, older));
+
+    assertThat(lastStatusChange("abcd1234"), is(equalTo(UPDATED)));
+    assertThat(lastStatusChange("abcd1235"), is(equalTo(UPDATED)));
+    assertThat("Newer timestamps are still taken over", lastStatusChange("abcd1236"), is(equalTo(older)));
+  }
+
+  private Timestamp lastStatusChange(String messageId) {
+    return jdbcTemplate.queryForObject("SELECT lastStatusChange FROM message WHERE messageId = ?", Timestamp.class,
+        messageId);
+  }
+
+  private long queryId(String messageId) {
+    return jdbcTemplate.queryForObject("SELECT id FROM message WHERE messageId = ?", Long.class, messageId);
+  }
+
+  private static byte[] bytes(String text) {
+    return text.getBytes(StandardCharsets.UTF_8);
+  }
+
+  @Configuration
+  public static class ContextConfig {
+
+    @Bean
+    public DataSource dataSource() throws Exception {
+      SimpleDriverDataSource db = new SimpleDriverDataSource();
+      db.setDriverClass(org.h2.Driver.class);
+      db.setUrl("jdbc:h2:mem:upsertdb;DB_CLOSE_DELAY=-1;MODE=MYSQL;");
+      return db;
+    }
+
+    @Bean
+    public JdbcTemplate jdbcTemplate() throws Exception {
+      return new JdbcTemplate(dataSource());
+    }
+  }
+}
@@ -0,0 +1,145 @@
+package at.rovo.h2test.message;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertThat;
+
+import at.rovo.h2test.TestSchema;
+import at.rovo.h2test.status.StatusEvent;
+import at.rovo.h2test.status.StatusEventPipeline;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Resource;
+import javax.sql.DataSource;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.SimpleDriverDataSource;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+
+@SuppressWarnings({"SqlNoDataSourceInspection", "SqlDialectInspection"})
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(classes= {MessageIdCacheTest.ContextConfig.class})
+public class MessageIdCacheTest {
+
+  private static final Timestamp UPDATED = Timestamp.valueOf("2015-09-21 10:40:00");
+
+  @Resource
+  private JdbcTemplate jdbcTemplate;
+  @Resource
+  private PlatformTransactionManager tm;
+
+  private MessageIdCache cache;
+
+  @Before
+  public void initDB() {
+    TestSchema.initDB(jdbcTemplate);
+    cache = new MessageIdCache(1000, 1, TimeUnit.MINUTES);
+  }
+
+  @Test
+  public void getCountsHitsAndMisses() {
+    assertThat(cache.get("abcd1234"), is(equalTo(MessageIdCache.NOT_CACHED)));
+    cache.put("abcd1234", 1L);
+    assertThat(cache.get("abcd1234"), is(equalTo(1L)));
+    assertThat(cache.get("abcd1234"), is(equalTo(1L)));
+
+    assertThat(cache.getHitCount(), is(equalTo(2L)));
+    assertThat(cache.getMissCount(), is(equalTo(1L)));
+
+    cache.invalidate("abcd1234");
+    assertThat(cache.get("abcd1234"), is(equalTo(MessageIdCache.NOT_CACHED)));
+  }
+
+  @Test
+  public void idsOfCommittedTransactionArePublished() {
+    final BatchMessageUpserter upserter = new BatchMessageUpserter(jdbcTemplate);
+    upserter.setMessageIdCache(cache);
+
+    new TransactionTemplate(tm).execute(new TransactionCallbackWithoutResult() {
+      @Override
+      protected void doInTransactionWithoutResult(TransactionStatus status) {
+        long id = upserter.upsert(new MessageUpsert("new0001", null, UPDATED));
+        // visible within the transaction ...
+        assertThat(cache.get("new0001"), is(equalTo(id)));
+        // ... but not yet to others
+        assertThat(cache.size(), is(equalTo(0L)));
+      }
+    });
+
+    assertThat(cache.get("new0001"), is(equalTo(5L)));
+  }
+
+  @Test
+  public void idsOfRolledBackTransactionAreDiscarded() {
+    final BatchMessageUpserter upserter = new BatchMessageUpserter(jdbcTemplate);
+    upserter.setMessageIdCache(cache);
+
+    new TransactionTemplate(tm).execute(new TransactionCallbackWithoutResult() {
+      @Override
+      protected void doInTransactionWithoutResult(TransactionStatus status) {
+        upserter.upsert(Arrays.asList(
+            new MessageUpsert("abcd1234", null, UPDATED),
+            new MessageUpsert("new0001", null, UPDATED)));
+        status.setRollbackOnly();
+      }
+    });
+
+    assertThat(cache.get("new0001"), is(equalTo(MessageIdCache.NOT_CACHED)));
+    assertThat(cache.get("abcd1234"), is(equalTo(MessageIdCache.NOT_CACHED)));
+    int numMessages = jdbcTemplate.queryForObject("SELECT count(*) FROM message", Integer.class);
+    assertThat("Rolled back message should not exist", numMessages, is(equalTo(4)));
+  }
+
+  @Test
+  public void repeatedStatusEventsResolveIdsFromCache() {
+    StatusEventPipeline pipeline = new StatusEventPipeline(jdbcTemplate, new TransactionTemplate(tm));
+    pipeline.setMessageIdCache(cache);
+
+    pipeline.record(Arrays.asList(
+        new StatusEvent("abcd1234", "UPDATED", UPDATED),
+        new StatusEvent("abcd1235", "UPDATED", UPDATED)).stream());
+    assertThat(cache.getHitCount(), is(equalTo(0L)));
+
+    pipeline.record(Arrays.asList(
+        new StatusEvent("abcd1234", "DELIVERED", UPDATED),
+        new StatusEvent("abcd1235", "DELIVERED", UPDATED)).stream());
+    assertThat(cache.getHitCount(), is(equalTo(2L)));
+    assertThat(cache.getMissCount(), is(equalTo(2L)));
+
+    int numMessages = jdbcTemplate.queryForObject("SELECT count(*) FROM status WHERE messageId = 2", Integer.class);
+    assertThat("Unexpected number of states for second message", numMessages, is(equalTo(4)));
+  }
+
+  @Configuration
+  public static class ContextConfig {
+
+    @Bean
+    public DataSource dataSource() throws Exception {
+      SimpleDriverDataSource db = new SimpleDriverDataSource();
+      db.setDriverClass(org.h2.Driver.class);
+      db.setUrl("jdbc:h2:mem:idcachedb;DB_CLOSE_DELAY=-1;MODE=MYSQL;");
+      return db;
+    }
+
+    @Bean
+    public JdbcTemplate jdbcTemplate() throws Exception {
+      return new JdbcTemplate(dataSource());
+    }
+
+    @Bean
+    public PlatformTransactionManager transactionManager() throws Exception {
+      return new DataSourceTransactionManager(dataSource());
+    }
+  }
+}
@@ -0,0 +1,128 @@
+package at.rovo.h2test.message;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import at.rovo.h2test.Dialect;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.Properties;
+import org.h2.Driver;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+@SuppressWarnings({"SqlNoDataSourceInspection", "SqlDialectInspection"})
+public class MessageKeyResolverTest {
+
+  private static final Timestamp UPDATED = Timestamp.valueOf("2015-09-21 10:40:00");
+
+  private Connection dbConnection = null;
+
+  @Before
+  public void initDB() throws Exception {
+    Properties props = new Properties();
+    props.setProperty("MODE", "MYSQL");
+    this.dbConnection = Driver.load().connect("jdbc:h2:mem:keyresolverdb;", props);
+
+    execute("CREATE TABLE message ("
+        + "id bigint(20) NOT NULL AUTO_INCREMENT, "
+        + "messageId varchar(255) DEFAULT NULL, "
+        + "message longblob, "
+        + "lastStatusChange dateTime DEFAULT NULL, "
+        + "PRIMARY KEY (id), "
+        + "UNIQUE KEY UK_msgId (messageId), "
+        + "KEY idx_lastStatusChange (lastStatusChange) "
+        + ") ENGINE=InnoDB AUTO_INCREMENT=1 DEFAULT CHARSET=UTF8");
+
+    execute("CREATE TABLE status ("
+        + "id bigint(20) NOT NULL AUTO_INCREMENT, "
+        + "lastChange datetime DEFAULT NULL, "
+        + "messageId bigint(20) DEFAULT NULL,"
+        + "status varchar(255) DEFAULT NULL, "
+        + "PRIMARY KEY (id), "
+        + "KEY idx_lastChange (lastChange), "
+        + "KEY fk_status_message (messageId), "
+        + "CONSTRAINT fk_status_message FOREIGN KEY (messageId) REFERENCES message (id) "
+        + ") ENGINE=InnoDB AUTO_INCREMENT=84 DEFAULT CHARSET=UTF8");
+
+    execute("INSERT INTO message (messageId, message, lastStatusChange) VALUES ('abcd1234', RAWTOHEX('Test Message 1'), '2015-09-21 10:34:09')");
+    execute("INSERT INTO status (lastChange, messageId, status) VALUES ('2015-09-21 10:34:09', 1, 'RECEIVED')");
+    execute("INSERT INTO status (lastChange, messageId, status) VALUES ('2015-09-21 10:34:09', 1, 'DELIVERED')");
+    execute("INSERT INTO message (messageId, message, lastStatusChange) VALUES ('abcd1235', RAWTOHEX('Test Message 2'), '2015-09-21 10:34:09')");
+    execute("INSERT INTO status (lastChange, messageId, status) VALUES ('2015-09-21 10:34:09', 2, 'RECEIVED')");
+  }
+
+  @Test
+  public void resolverForH2LooksUpBusinessKey() throws Exception {
+    assertThat(MessageKeyResolver.forDialect(Dialect.of(dbConnection)), instanceOf(LookupKeyResolver.class));
+    assertThat(MessageKeyResolver.forDialect(Dialect.MYSQL), instanceOf(LastInsertIdKeyResolver.class));
+  }
+
+  @Test
+  public void upsertReturnsIdOfUpdatedRow() throws Exception {
+    MessageKeyResolver resolver = MessageKeyResolver.forDialect(Dialect.H2);
+
+    dbConnection.setAutoCommit(false);
+    dbConnection.setTransactionIsolation(Connection.TRANSACTION_READ_UNCOMMITTED);
+
+    long affectedId = resolver.upsert(dbConnection,
+        new MessageUpsert("abcd1234", "Updated Message 1".getBytes(StandardCharsets.UTF_8), UPDATED));
+    assertThat(affectedId, is(equalTo(1L)));
+
+    // no further lookup of the id is needed to satisfy fk_status_message
+    try (PreparedStatement insert = dbConnection.prepareStatement(
+        "INSERT INTO status (lastChange, messageId, status) VALUES (?, ?, 'UPDATED')")) {
+      insert.setTimestamp(1, UPDATED);
+      insert.setLong(2, affectedId);
+      insert.executeUpdate();
+    }
+    dbConnection.commit();
+
+    assertThat(queryLong("SELECT count(*) FROM message"), is(equalTo(2L)));
+    assertThat(queryLong("SELECT count(*) FROM status WHERE messageId = 1"), is(equalTo(3L)));
+  }
+
+  @Test
+  public void upsertReturnsIdOfInsertedRowWithoutSkippingIds() throws Exception {
+    MessageKeyResolver resolver = MessageKeyResolver.forDialect(Dialect.H2);
+
+    assertThat(resolver.upsert(dbConnection, new MessageUpsert("abcd1235", null, UPDATED)), is(equalTo(2L)));
+    assertThat(resolver.upsert(dbConnection, new MessageUpsert("abcd1234", null, UPDATED)), is(equalTo(1L)));
+    // the updates above must not consume auto increment values
+    assertThat(resolver.upsert(dbConnection, new MessageUpsert("new0001", null, UPDATED)), is(equalTo(3L)));
+    assertThat(resolver.upsert(dbConnection, new MessageUpsert("new0001", null, null)), is(equalTo(3L)));
+
+    assertThat(queryLong("SELECT count(*) FROM message"), is(equalTo(3L)));
+    assertThat(queryLong("SELECT count(*) FROM message WHERE lastStatusChange = '2015-09-21 10:40:00'"), is(equalTo(3L)));
+  }
+
+  @After
+  public void close() throws Exception {
+    if (null != dbConnection) {
+      execute("DROP TABLE IF EXISTS status");
+      execute("DROP TABLE IF EXISTS message");
+      dbConnection.close();
+    }
+  }
+
+  private void execute(String statement) throws Exception {
+    try (PreparedStatement stmt = dbConnection.prepareStatement(statement)) {
+      stmt.execute();
+    }
+  }
+
+  private long queryLong(String sql) throws Exception {
+    try (Statement s = dbConnection.createStatement();
+        ResultSet rs = s.executeQuery(sql)) {
+      rs.next();
+      return rs.getLong(1);
+    }
+  }
+}
@@ -0,0 +1,211 @@
+package at.rovo.h2test.message;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import at.rovo.h2test.TestSchema;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import javax.annotation.Resource;
+import javax.sql.DataSource;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.SimpleDriverDataSource;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+
+@SuppressWarnings({"SqlNoDataSourceInspection", "SqlDialectInspection"})
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(classes= {MessagePayloadCacheTest.ContextConfig.class})
+public class MessagePayloadCacheTest {
+
+  private static final Timestamp UPDATED = Timestamp.valueOf("2015-09-21 10:40:00");
+
+  @Resource
+  private JdbcTemplate jdbcTemplate;
+  @Resource
+  private PlatformTransactionManager tm;
+
+  private MessagePayloadCache cache;
+  private BatchMessageUpserter upserter;
+
+  @Before
+  public void initDB() {
+    TestSchema.initDB(jdbcTemplate);
+    cache = new MessagePayloadCache(jdbcTemplate);
+    upserter = new BatchMessageUpserter(jdbcTemplate);
+    upserter.setPayloadCache(cache);
+  }
+
+  @Test
+  public void payloadsAreReadThroughAndCountedAsSavedBytes() {
+    byte[] stored = storedPayload(1L);
+
+    assertArrayEquals(stored, cache.get(1L));
+    assertArrayEquals(stored, cache.get(1L));
+    // callers get a copy they may modify
+    cache.get(1L)[0] = 0;
+    assertArrayEquals(stored, cache.get(1L));
+    assertThat(cache.get(4711L), is(nullValue()));
+
+    assertThat(cache.getMissCount(), is(equalTo(2L)));
+    assertThat(cache.getHitCount(), is(equalTo(3L)));
+    assertThat(cache.getBytesLoaded(), is(equalTo((long) stored.length)));
+    assertThat(cache.getBytesSaved(), is(equalTo(3L * stored.length)));
+    assertThat(cache.size(), is(equalTo(1L)));
+  }
+
+  @Test
+  public void upsertsAndPayloadStoreWritesInvalidateCachedPayloads() {
+    cache.get(1L);
+    cache.get(2L);
+    cache.get(3L);
+
+    upserter.upsert(new MessageUpsert("abcd1234", bytes("Updated Message 1"), UPDATED));
+    upserter.upsert(Arrays.asList(new MessageUpsert("abcd1235", bytes("Updated Message 2"), UPDATED),
+        new MessageUpsert("abcd1236", null, UPDATED)));
+    assertArrayEquals(bytes("Updated Message 1"), cache.get(1L));
+    assertArrayEquals(bytes("Updated Message 2"), cache.get(2L));
+
+    MessagePayloadStore store = new MessagePayloadStore(jdbcTemplate);
+    store.setPayloadCache(cache);
+    byte[] streamed = bytes("Streamed Message 1");
+    store.write("abcd1234", new ByteArrayInputStream(streamed), streamed.length);
+    assertArrayEquals(streamed, cache.get(1L));
+
+    // 3 was kept, the upsert didn't touch its payload
+    assertThat(cache.getHitCount(), is(equalTo(0L)));
+    cache.get(3L);
+    assertThat(cache.getHitCount(), is(equalTo(1L)));
+  }
+
+  @Test
+  public void rolledBackPayloadIsNeitherCachedNorServed() {
+    final byte[] stored = storedPayload(1L);
+    cache.get(1L);
+
+    try {
+      new TransactionTemplate(tm).execute(new TransactionCallbackWithoutResult() {
+        @Override
+        protected void doInTransactionWithoutResult(TransactionStatus status) {
+          upserter.upsert(new MessageUpsert("abcd1234", bytes("Rolled back"), UPDATED));
+          // the transaction sees its own write ...
+          assertArrayEquals(bytes("Rolled back"), cache.get(1L));
+          // ... which doesn't end up in the cache
+          assertThat(cache.size(), is(equalTo(0L)));
+          throw new IllegalStateException("rollback");
+        }
+      });
+      fail("Transaction should have been rolled back");
+    } catch (IllegalStateException isEx) {
+      assertThat(isEx.getMessage(), is(equalTo("rollback")));
+    }
+
+    assertThat(cache.size(), is(equalTo(0L)));
+    assertArrayEquals(stored, cache.get(1L));
+  }
+
+  @Test
+  public void loadsWithinTransactionsDontPopulateTheCache() {
+    final byte[] stored = storedPayload(1L);
+
+    new TransactionTemplate(tm).execute(new TransactionCallbackWithoutResult() {
+      @Override
+      protected void doInTransactionWithoutResult(TransactionStatus status) {
+        assertArrayEquals(stored, cache.get(1L));
+        assertThat(cache.size(), is(equalTo(0L)));
+      }
+    });
+    assertThat(cache.getMissCount(), is(equalTo(1L)));
+
+    assertArrayEquals(stored, cache.get(1L));
+    assertThat(cache.size(), is(equalTo(1L)));
+
+    // entries cached already are served within transactions too
+    new TransactionTemplate(tm).execute(new TransactionCallbackWithoutResult() {
+      @Override
+      protected void doInTransactionWithoutResult(TransactionStatus status) {
+        assertArrayEquals(stored, cache.get(1L));
+      }
+    });
+    assertThat(cache.getHitCount(), is(equalTo(1L)));
+  }
+
+  @Test
+  public void offHeapCacheStaysWithinItsByteBudget() {
+    int payloadSize = 1_000;
+    MessagePayloadCache offHeap = new MessagePayloadCache(jdbcTemplate, new PayloadCacheSettings()
+        .setOffHeap(true)
+        .setMaximumBytes(10 * (payloadSize + MessagePayloadCache.ENTRY_OVERHEAD_BYTES))
+        .setMaximumEntryBytes(2 * payloadSize));
+    byte[] payload = new byte[payloadSize];
+    for (int i = 0; i < 50; i++) {
+      Arrays.fill(payload, (byte) i);
+      upserter.upsert(new MessageUpsert("offheap" + i, payload, UPDATED));
+    }
+    byte[] large = new byte[3 * payloadSize];
+    long largeId = upserter.upsert(new MessageUpsert("large", large, UPDATED));
+
+    for (int round = 0; round < 3; round++) {
+      for (int i = 0; i < 50; i++) {
+        byte[] read = offHeap.get(upserter.upsert(new MessageUpsert("offheap" + i, null, null)));
+        assertThat(read.length, is(equalTo(payloadSize)));
+        assertThat(read[payloadSize - 1], is(equalTo((byte) i)));
+      }
+    }
+    assertArrayEquals(large, offHeap.get(largeId));
+    offHeap.get(largeId);
+
+    offHeap.cleanUp();
+    assertTrue(offHeap.toString(), offHeap.getCachedBytes() <= 10 * (payloadSize
+        + MessagePayloadCache.ENTRY_OVERHEAD_BYTES));
+    // the large payload is never cached
+    assertThat(offHeap.getBytesLoaded() >= 2L * large.length, is(true));
+  }
+
+  private byte[] storedPayload(long id) {
+    return jdbcTemplate.queryForObject("SELECT message FROM message WHERE id = ?", byte[].class, id);
+  }
+
+  private static byte[] bytes(String text) {
+    return text.getBytes(StandardCharsets.UTF_8);
+  }
+
+  @Configuration
+  public static class ContextConfig {
+
+    @Bean
+    public DataSource dataSource() throws Exception {
+      SimpleDriverDataSource db = new SimpleDriverDataSource();
+      db.setDriverClass(org.h2.Driver.class);
+      db.setUrl("jdbc:h2:mem:payloadcachedb;DB_CLOSE_DELAY=-1;MODE=MYSQL;");
+      return db;
+    }
+
+    @Bean
+    public JdbcTemplate jdbcTemplate() throws Exception {
+      return new JdbcTemplate(dataSource());
+    }
+
+    @Bean
+    public PlatformTransactionManager transactionManager() throws Exception {
+      return new DataSourceTransactionManager(dataSource());
+    }
+  }
+}
@@ -0,0 +1,231 @@
+package at.rovo.h2test.message;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import at.rovo.h2test.TestSchema;
+import at.rovo.h2test.message.codec.PayloadCodecs;
+import at.rovo.h2test.message.codec.PayloadFormat;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import javax.annotation.Resource;
+import javax.sql.DataSource;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SimpleDriverDataSource;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+@SuppressWarnings({"SqlNoDataSourceInspection", "SqlDialectInspection"})
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(classes= {MessagePayloadStoreTest.ContextConfig.class})
+public class MessagePayloadStoreTest {
+
+  private static final int LARGE_PAYLOAD = 5 * 1024 * 1024 + 17;
+
+  @Resource
+  private JdbcTemplate jdbcTemplate;
+
+  private MessagePayloadStore store;
+
+  @Before
+  public void initDB() {
+    TestSchema.initDB(jdbcTemplate);
+    store = new MessagePayloadStore(jdbcTemplate);
+  }
+
+  @Test
+  public void largePayloadRoundTripsWithoutMaterializingIt() {
+    store.write("large0001", new PatternInputStream(LARGE_PAYLOAD), LARGE_PAYLOAD);
+
+    ChecksumOutputStream read = new ChecksumOutputStream();
+    assertThat(store.read("large0001", read), is(equalTo((long) LARGE_PAYLOAD)));
+    assertThat(read.crc.getValue(), is(equalTo(PatternInputStream.checksum(LARGE_PAYLOAD))));
+    int length = jdbcTemplate.queryForObject("SELECT LENGTH(message) FROM message WHERE messageId = 'large0001'",
+        Integer.class);
+    assertThat(length, is(equalTo(LARGE_PAYLOAD)));
+  }
+
+  @Test
+  public void writeReplacesPayloadOfExistingMessage() {
+    byte[] payload = "Streamed Message 1".getBytes(StandardCharsets.UTF_8);
+    store.write("abcd1234", new ByteArrayInputStream(payload), payload.length);
+
+    ByteArrayOutputStream read = new ByteArrayOutputStream();
+    assertThat(store.read("abcd1234", read), is(equalTo((long) payload.length)));
+    assertArrayEquals(payload, read.toByteArray());
+    int numMessages = jdbcTemplate.queryForObject("SELECT count(*) FROM message", Integer.class);
+    assertThat("Existing message should have been updated", numMessages, is(equalTo(4)));
+    assertThat(jdbcTemplate.queryForObject("SELECT id FROM message WHERE messageId = 'abcd1234'", Long.class),
+        is(equalTo(1L)));
+  }
+
+  @Test
+  public void readOfUnknownMessageOrMissingPayload() {
+    jdbcTemplate.update("INSERT INTO message (messageId) VALUES ('empty0001')");
+
+    ByteArrayOutputStream read = new ByteArrayOutputStream();
+    assertThat(store.read("unknown", read), is(equalTo(-1L)));
+    assertThat(store.read("empty0001", read), is(equalTo(-1L)));
+    assertThat(read.size(), is(equalTo(0)));
+  }
+
+  @Test
+  public void payloadsOfTheUpserterFormatRoundTripThroughTheStore() {
+    byte[] raw = new byte[20_000];
+    for (int i = 0; i < raw.length; i++) {
+      raw[i] = (byte) ('a' + i % 7);
+    }
+    for (PayloadFormat format : Arrays.asList(new PayloadFormat(PayloadCodecs.LZ4),
+        new PayloadFormat(PayloadCodecs.DEFLATE))) {
+      BatchMessageUpserter upserter = new BatchMessageUpserter(jdbcTemplate);
+      upserter.setPayloadFormat(format);
+      store.setPayloadFormat(format);
+
+      upserter.upsert(new MessageUpsert("format0001", raw, null));
+      assertTrue(jdbcTemplate.queryForObject("SELECT LENGTH(message) FROM message WHERE messageId = ?",
+          Long.class, "format0001") < raw.length);
+      ByteArrayOutputStream read = new ByteArrayOutputStream();
+      assertThat(store.read("format0001", read), is(equalTo((long) raw.length)));
+      assertArrayEquals(raw, read.toByteArray());
+
+      // streamed payloads, including raw ones looking encoded, are read back by the cache as well
+      MessagePayloadCache cache = new MessagePayloadCache(jdbcTemplate);
+      cache.setPayloadFormat(format);
+      byte[] lookalike = {(byte) 0xF5, (byte) 0x9A, 1, 0, 0, 0, 1, 42};
+      for (byte[] payload : Arrays.asList(raw, lookalike)) {
+        store.write("format0002", new ByteArrayInputStream(payload), payload.length);
+        long id = jdbcTemplate.queryForObject("SELECT id FROM message WHERE messageId = 'format0002'", Long.class);
+        cache.invalidate(id);
+        assertArrayEquals(payload, cache.get(id));
+        read.reset();
+        assertThat(store.read("format0002", read), is(equalTo((long) payload.length)));
+        assertArrayEquals(payload, read.toByteArray());
+      }
+    }
+    // existing rows stay readable
+    ByteArrayOutputStream read = new ByteArrayOutputStream();
+    assertThat(store.read("abcd1235", read), is(equalTo((long) jdbcTemplate.queryForObject(
+        "SELECT LENGTH(message) FROM message WHERE messageId = 'abcd1235'", Long.class))));
+  }
+
+  @Test
+  public void largePayloadIsCompressedOnTheFly() {
+    store.setPayloadFormat(new PayloadFormat(PayloadCodecs.DEFLATE));
+    PatternInputStream payload = new PatternInputStream(LARGE_PAYLOAD);
+    store.write("large0002", payload, LARGE_PAYLOAD);
+    assertFalse("The caller's stream was closed", payload.closed);
+
+    ChecksumOutputStream read = new ChecksumOutputStream();
+    assertThat(store.read("large0002", read), is(equalTo((long) LARGE_PAYLOAD)));
+    assertThat(read.crc.getValue(), is(equalTo(PatternInputStream.checksum(LARGE_PAYLOAD))));
+    long stored = jdbcTemplate.queryForObject("SELECT LENGTH(message) FROM message WHERE messageId = 'large0002'",
+        Long.class);
+    assertTrue(stored + " bytes stored", stored < LARGE_PAYLOAD);
+  }
+
+  @Test
+  public void smallEncodedPayloadLeavesTheCallersStreamOpen() {
+    store.setPayloadFormat(new PayloadFormat(PayloadCodecs.DEFLATE));
+    PatternInputStream payload = new PatternInputStream(16);
+    store.write("small0001", payload, 16);
+    assertFalse("The caller's stream was closed", payload.closed);
+
+    ChecksumOutputStream read = new ChecksumOutputStream();
+    assertThat(store.read("small0001", read), is(equalTo(16L)));
+    assertThat(read.crc.getValue(), is(equalTo(PatternInputStream.checksum(16))));
+  }
+
+  /**
+   * Generates a deterministic payload of the given length on the fly.
+   */
+  private static final class PatternInputStream extends InputStream {
+
+    private final long length;
+    private long pos;
+    private boolean closed;
+
+    private PatternInputStream(long length) {
+      this.length = length;
+    }
+
+    private static byte valueAt(long pos) {
+      return (byte) (pos * 31 + (pos >>> 10));
+    }
+
+    private static long checksum(long length) {
+      CRC32 crc = new CRC32();
+      for (long i = 0; i < length; i++) {
+        crc.update(valueAt(i));
+      }
+      return crc.getValue();
+    }
+
+    @Override
+    public int read() {
+      return pos < length ? valueAt(pos++) & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+      if (pos >= length) {
+        return -1;
+      }
+      int n = (int) Math.min(len, length - pos);
+      for (int i = 0; i < n; i++) {
+        b[off + i] = valueAt(pos++);
+      }
+      return n;
+    }
+
+    @Override
+    public void close() {
+      closed = true;
+    }
+  }
+
+  private static final class ChecksumOutputStream extends OutputStream {
+
+    private final CRC32 crc = new CRC32();
+
+    @Override
+    public void write(int b) {
+      crc.update(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      crc.update(b, off, len);
+    }
+  }
+
+  @Configuration
+  public static class ContextConfig {
+
+    @Bean
+    public DataSource dataSource() throws Exception {
+      SimpleDriverDataSource db = new SimpleDriverDataSource();
+      db.setDriverClass(org.h2.Driver.class);
+      db.setUrl("jdbc:h2:mem:payloaddb;DB_CLOSE_DELAY=-1;MODE=MYSQL;");
+      return db;
+    }
+
+    @Bean
+    public JdbcTemplate jdbcTemplate() throws Exception {
+      return new JdbcTemplate(dataSource());
+    }
+  }
+}
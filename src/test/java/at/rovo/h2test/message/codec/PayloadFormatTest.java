@@ -0,0 +1,142 @@
+package at.rovo.h2test.message.codec;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import at.rovo.h2test.TestSchema;
+import at.rovo.h2test.message.BatchMessageUpserter;
+import at.rovo.h2test.message.MessagePayloadCache;
+import at.rovo.h2test.message.MessageUpsert;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SimpleDriverDataSource;
+
+@SuppressWarnings({"SqlNoDataSourceInspection", "SqlDialectInspection"})
+public class PayloadFormatTest {
+
+  private static final Timestamp UPDATED = Timestamp.valueOf("2015-09-21 10:40:00");
+
+  @Test
+  public void compressiblePayloadsRoundTripThroughEveryCodec() {
+    byte[] raw = text(10_000);
+    for (PayloadCodec codec : Arrays.asList(PayloadCodecs.DEFLATE, PayloadCodecs.LZ4,
+        PayloadCodecs.deflate(1))) {
+      PayloadFormat format = new PayloadFormat(codec);
+      byte[] stored = format.encode(raw);
+      assertTrue(codec + " stored " + stored.length + " bytes", stored.length < raw.length / 2);
+      assertArrayEquals(raw, format.decode(stored));
+      // payloads of other codecs are decoded as well
+      assertArrayEquals(raw, new PayloadFormat(PayloadCodecs.NONE).decode(stored));
+    }
+  }
+
+  @Test
+  public void smallAndIncompressiblePayloadsAreStoredAsTheyAre() {
+    PayloadFormat format = new PayloadFormat(PayloadCodecs.LZ4, 100);
+    byte[] small = text(99);
+    assertThat(format.encode(small), is(sameInstance(small)));
+
+    byte[] random = new byte[4_096];
+    new Random(42).nextBytes(random);
+    random[0] = 0;
+    assertThat(format.encode(random), is(sameInstance(random)));
+    assertThat(format.decode(random), is(sameInstance(random)));
+  }
+
+  @Test
+  public void rawPayloadsLookingEncodedAreWrappedAndUndecodableOnesPassThrough() {
+    PayloadFormat format = new PayloadFormat(PayloadCodecs.DEFLATE);
+    byte[] lookalike = {(byte) 0xF5, (byte) 0x9A, 2, 0, 0, 0, 1, 42};
+    byte[] stored = format.encode(lookalike);
+    assertThat(stored.length, is(equalTo(PayloadFormat.HEADER_LENGTH + lookalike.length)));
+    assertArrayEquals(lookalike, format.decode(stored));
+
+    // written before this format, with an unknown codec id
+    byte[] legacy = {(byte) 0xF5, (byte) 0x9A, 77, 0, 0, 0, 1, 42};
+    assertThat(format.decode(legacy), is(sameInstance(legacy)));
+
+    byte[] corrupt = format.encode(text(1_000));
+    corrupt[corrupt.length / 2] ^= 0x55;
+    assertThat(format.decode(corrupt), is(sameInstance(corrupt)));
+  }
+
+  @Test
+  public void legacyPayloadsStartingWithTheMagicBytesAreReturnedAsStored() {
+    PayloadFormat format = new PayloadFormat(PayloadCodecs.LZ4);
+    byte[] body = new byte[64];
+    new Random(42).nextBytes(body);
+    for (int codecId : new int[] {0, 1, 2}) {
+      // a known codec id, announcing 2 GiB, which must not be allocated
+      byte[] huge = legacyPayload(codecId, Integer.MAX_VALUE, body);
+      assertThat(format.decode(huge), is(sameInstance(huge)));
+      // a known codec id and a plausible length, but data the codec can't decode
+      byte[] plausible = legacyPayload(codecId, 1_000, body);
+      assertThat(format.decode(plausible), is(sameInstance(plausible)));
+    }
+  }
+
+  @Test
+  public void upsertedPayloadsAreCompressedAndExistingRowsStayReadable() {
+    SimpleDriverDataSource db = new SimpleDriverDataSource();
+    db.setDriverClass(org.h2.Driver.class);
+    db.setUrl("jdbc:h2:mem:codecdb;DB_CLOSE_DELAY=-1;MODE=MYSQL;");
+    JdbcTemplate jdbcTemplate = new JdbcTemplate(db);
+    TestSchema.initDB(jdbcTemplate);
+    byte[] legacy = jdbcTemplate.queryForObject("SELECT message FROM message WHERE id = 1", byte[].class);
+
+    PayloadFormat format = new PayloadFormat(PayloadCodecs.LZ4);
+    BatchMessageUpserter upserter = new BatchMessageUpserter(jdbcTemplate);
+    upserter.setPayloadFormat(format);
+    MessagePayloadCache cache = new MessagePayloadCache(jdbcTemplate);
+    cache.setPayloadFormat(format);
+    upserter.setPayloadCache(cache);
+
+    byte[] raw = text(20_000);
+    long single = upserter.upsert(new MessageUpsert("abcd1235", raw, UPDATED));
+    long[] batch = upserter.upsert(Arrays.asList(new MessageUpsert("codec1", raw, UPDATED),
+        new MessageUpsert("codec2", text(10), UPDATED)));
+
+    long stored = jdbcTemplate.queryForObject("SELECT LENGTH(message) FROM message WHERE id = ?", Long.class,
+        batch[0]);
+    assertTrue(stored + " bytes stored", stored < raw.length / 2);
+    assertArrayEquals(raw, cache.get(single));
+    assertArrayEquals(raw, cache.get(batch[0]));
+    assertArrayEquals(text(10), cache.get(batch[1]));
+    assertArrayEquals(legacy, cache.get(1L));
+  }
+
+  private static byte[] legacyPayload(int codecId, int originalLength, byte[] body) {
+    byte[] payload = new byte[PayloadFormat.HEADER_LENGTH + body.length];
+    payload[0] = (byte) 0xF5;
+    payload[1] = (byte) 0x9A;
+    payload[2] = (byte) codecId;
+    payload[3] = (byte) (originalLength >>> 24);
+    payload[4] = (byte) (originalLength >>> 16);
+    payload[5] = (byte) (originalLength >>> 8);
+    payload[6] = (byte) originalLength;
+    System.arraycopy(body, 0, payload, PayloadFormat.HEADER_LENGTH, body.length);
+    return payload;
+  }
+
+  /**
+   * Log-like text with some repetition, as payloads typically are.
+   */
+  private static byte[] text(int length) {
+    Random random = new Random(7);
+    StringBuilder sb = new StringBuilder(length + 64);
+    while (sb.length() < length) {
+      sb.append("{\"messageId\":\"msg").append(random.nextInt(1_000)).append("\",\"status\":\"")
+          .append(random.nextBoolean() ? "DELIVERED" : "RECEIVED").append("\",\"attempt\":")
+          .append(random.nextInt(5)).append("}\n");
+    }
+    return Arrays.copyOf(sb.toString().getBytes(StandardCharsets.UTF_8), length);
+  }
+}
@@ -0,0 +1,119 @@
+package at.rovo.h2test.shard;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import at.rovo.h2test.TestSchema;
+import at.rovo.h2test.status.StatusEvent;
+import at.rovo.h2test.status.StatusRecord;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import javax.sql.DataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SimpleDriverDataSource;
+
+@SuppressWarnings({"SqlNoDataSourceInspection", "SqlDialectInspection"})
+public class ShardedMessageStoreTest {
+
+  private static final int SHARDS = 3;
+  private static final Timestamp BASE = Timestamp.valueOf("2015-09-21 10:00:00");
+
+  private final List<DataSource> dataSources = new ArrayList<>();
+  private ShardedMessageStore store;
+
+  @Before
+  public void initShards() {
+    for (int i = 0; i < SHARDS; i++) {
+      SimpleDriverDataSource db = new SimpleDriverDataSource();
+      db.setDriverClass(org.h2.Driver.class);
+      db.setUrl("jdbc:h2:mem:shard" + i + "db;DB_CLOSE_DELAY=-1;MODE=MYSQL;");
+      JdbcTemplate jdbcTemplate = new JdbcTemplate(db);
+      TestSchema.initDB(jdbcTemplate);
+      jdbcTemplate.update("DELETE FROM status");
+      jdbcTemplate.update("DELETE FROM message");
+      dataSources.add(db);
+    }
+    store = new ShardedMessageStore(dataSources, 50);
+  }
+
+  @After
+  public void closeStore() {
+    store.close();
+  }
+
+  @Test
+  public void statusRowsAreStoredOnTheShardOfTheirMessage() {
+    List<StatusEvent> events = new ArrayList<>();
+    for (int i = 0; i < 300; i++) {
+      events.add(new StatusEvent("sharded" + i % 60, "S" + i, minutesAfterBase(i)));
+    }
+    assertThat(store.record(events), is(equalTo(300)));
+    long messageId = store.record(new StatusEvent("sharded7", "LATE", minutesAfterBase(1_000)));
+
+    assertThat(store.countMessages(), is(equalTo(60L)));
+    assertThat(store.countStatuses(), is(equalTo(301L)));
+    assertThat(GlobalIds.shardOf(messageId), is(equalTo(store.shardOf("sharded7"))));
+    for (int i = 0; i < 60; i++) {
+      String key = "sharded" + i;
+      JdbcTemplate shard = new JdbcTemplate(dataSources.get(store.shardOf(key)));
+      long statuses = shard.queryForObject("SELECT COUNT(*) FROM status s JOIN message m ON s.messageId = m.id "
+          + "WHERE m.messageId = ?", Long.class, key);
+      assertThat(key, statuses, is(equalTo(7 == i ? 6L : 5L)));
+    }
+    List<String> history = store.history(messageId).map(StatusRecord::getStatus).collect(Collectors.toList());
+    assertThat(history.get(history.size() - 1), is(equalTo("LATE")));
+    assertThat(history.size(), is(equalTo(6)));
+  }
+
+  @Test
+  public void timeRangesAreMergedAcrossShardsWithUniqueIds() {
+    List<StatusEvent> events = new ArrayList<>();
+    for (int i = 0; i < 200; i++) {
+      // pairs of events share a timestamp, the order between them is decided by the global id
+      events.add(new StatusEvent("merged" + i, "S" + i, minutesAfterBase(i / 2)));
+    }
+    store.record(events);
+
+    Timestamp from = minutesAfterBase(10);
+    Timestamp until = minutesAfterBase(60);
+    List<StatusRecord> range = store.statusChangedBetween(from, until).collect(Collectors.toList());
+
+    assertThat(range.size(), is(equalTo(100)));
+    assertThat(store.countStatusChangedBetween(from, until), is(equalTo(100L)));
+    Set<Long> ids = new HashSet<>();
+    Set<Integer> shards = new HashSet<>();
+    for (int i = 0; i < range.size(); i++) {
+      StatusRecord record = range.get(i);
+      assertTrue(ids.add(record.getId()));
+      shards.add(GlobalIds.shardOf(record.getId()));
+      assertThat(GlobalIds.shardOf(record.getMessageRefId()), is(equalTo(GlobalIds.shardOf(record.getId()))));
+      if (i > 0) {
+        StatusRecord previous = range.get(i - 1);
+        int cmp = previous.getLastChange().compareTo(record.getLastChange());
+        assertTrue(cmp < 0 || (0 == cmp && previous.getId() < record.getId()));
+      }
+    }
+    assertThat(shards.size(), is(equalTo(SHARDS)));
+  }
+
+  @Test
+  public void globalIdsRoundTrip() {
+    long id = GlobalIds.globalId(123_456_789L, 17);
+    assertThat(GlobalIds.shardOf(id), is(equalTo(17)));
+    assertThat(GlobalIds.localId(id), is(equalTo(123_456_789L)));
+    assertTrue(GlobalIds.globalId(2, 0) > GlobalIds.globalId(1, GlobalIds.MAX_SHARDS - 1));
+  }
+
+  private static Timestamp minutesAfterBase(int minutes) {
+    return new Timestamp(BASE.getTime() + minutes * 60_000L);
+  }
+}
@@ -0,0 +1,161 @@
+package at.rovo.h2test.status;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import at.rovo.h2test.TestSchema;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.List;
+import javax.annotation.Resource;
+import javax.sql.DataSource;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.SimpleDriverDataSource;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+@SuppressWarnings({"SqlNoDataSourceInspection", "SqlDialectInspection"})
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(classes= {CurrentStatusProjectionTest.ContextConfig.class})
+public class CurrentStatusProjectionTest {
+
+  private static final Timestamp UPDATED = Timestamp.valueOf("2015-09-21 10:40:00");
+  private static final Timestamp DELIVERED = Timestamp.valueOf("2015-09-21 10:45:00");
+
+  @Resource
+  private JdbcTemplate jdbcTemplate;
+  @Resource
+  private PlatformTransactionManager tm;
+
+  private CurrentStatusProjection projection;
+  private StatusEventPipeline pipeline;
+
+  @Before
+  public void initDB() {
+    jdbcTemplate.execute("DROP TABLE IF EXISTS message_current_status");
+    TestSchema.initDB(jdbcTemplate);
+    projection = new CurrentStatusProjection(jdbcTemplate);
+    projection.createTable();
+
+    pipeline = new StatusEventPipeline(jdbcTemplate, new TransactionTemplate(tm), 3, 2);
+    pipeline.setCurrentStatusProjection(projection);
+  }
+
+  @Test
+  public void rebuildProjectsNewestStatusOfHistory() {
+    assertThat(projection.rebuild(), is(equalTo(4)));
+
+    // both seeded states of the first message share the same timestamp, the later row wins
+    CurrentStatus current = projection.get(1L);
+    assertThat(current.getStatus(), is(equalTo("DELIVERED")));
+    assertThat(current.getStatusId(), is(equalTo(newestStatusId(1))));
+    assertThat(projection.get("abcd1236").getStatus(), is(equalTo("RECEIVED")));
+    assertThat(projection.get("unknown"), is(nullValue()));
+    assertTrue(projection.check().isEmpty());
+  }
+
+  @Test
+  public void pipelineAdvancesProjectionWithinItsTransaction() {
+    projection.rebuild();
+
+    pipeline.record(Arrays.asList(
+        new StatusEvent("abcd1234", "DELIVERED", DELIVERED),
+        new StatusEvent("abcd1234", "UPDATED", UPDATED),
+        new StatusEvent("new0001", "RECEIVED", UPDATED),
+        new StatusEvent("abcd1235", "UPDATED", UPDATED),
+        new StatusEvent("new0001", "DELIVERED", DELIVERED)).iterator());
+
+    assertThat(projection.get("abcd1234").getStatus(), is(equalTo("DELIVERED")));
+    assertThat(projection.get("abcd1234").getLastChange(), is(equalTo(DELIVERED)));
+    assertThat(projection.get("abcd1235").getStatus(), is(equalTo("UPDATED")));
+    assertThat(projection.get("new0001").getStatus(), is(equalTo("DELIVERED")));
+    assertThat(projection.get("abcd1237").getStatus(), is(equalTo("RECEIVED")));
+    assertTrue(projection.check().toString(), projection.check().isEmpty());
+
+    // an event arriving late leaves the projection untouched
+    pipeline.record(Arrays.asList(new StatusEvent("new0001", "LATE", UPDATED)).iterator());
+    assertThat(projection.get("new0001").getStatus(), is(equalTo("DELIVERED")));
+    assertTrue(projection.check().isEmpty());
+  }
+
+  @Test
+  public void failedTransactionDoesNotAdvanceProjection() {
+    projection.rebuild();
+    char[] tooLong = new char[300];
+    Arrays.fill(tooLong, 'x');
+
+    try {
+      pipeline.record(Arrays.asList(
+          new StatusEvent("abcd1234", "UPDATED", UPDATED),
+          new StatusEvent("abcd1234", "DELIVERED", DELIVERED),
+          new StatusEvent("abcd1235", new String(tooLong), UPDATED)).iterator());
+      fail("Should have thrown an exception as the status value exceeds the column size");
+    } catch (DataAccessException daEx) {
+      // expected
+    }
+
+    assertThat(projection.get(1L).getStatusId(), is(equalTo(newestStatusId(1))));
+    assertTrue(projection.check().isEmpty());
+  }
+
+  @Test
+  public void checkReportsDivergenceWhichRebuildRepairs() {
+    projection.rebuild();
+    long oldestOfFirst = jdbcTemplate.queryForObject("SELECT MIN(id) FROM status WHERE messageId = 1", Long.class);
+    jdbcTemplate.update("UPDATE message_current_status SET statusId = ? WHERE messageId = 1", oldestOfFirst);
+    jdbcTemplate.update("DELETE FROM message_current_status WHERE messageId = 3");
+    jdbcTemplate.update("UPDATE message_current_status SET statusId = 999 WHERE messageId = 4");
+
+    List<String> violations = projection.check();
+
+    assertThat(violations.toString(), violations.size(), is(equalTo(4)));
+    assertTrue(violations.toString(), violations.contains(
+        "message 1: newest status is " + newestStatusId(1) + " but projected is " + oldestOfFirst));
+    assertTrue(violations.toString(), violations.contains(
+        "message 3: newest status is " + newestStatusId(3) + " but none is projected"));
+    assertTrue(violations.toString(), violations.contains(
+        "message 4: projected status 999 does not exist or belongs to another message"));
+
+    projection.rebuild();
+    assertTrue(projection.check().isEmpty());
+  }
+
+  private long newestStatusId(long messageRefId) {
+    return jdbcTemplate.queryForObject("SELECT MAX(id) FROM status WHERE messageId = ?", Long.class, messageRefId);
+  }
+
+  @Configuration
+  public static class ContextConfig {
+
+    @Bean
+    public DataSource dataSource() throws Exception {
+      SimpleDriverDataSource db = new SimpleDriverDataSource();
+      db.setDriverClass(org.h2.Driver.class);
+      db.setUrl("jdbc:h2:mem:projectiondb;DB_CLOSE_DELAY=-1;MODE=MYSQL;");
+      return db;
+    }
+
+    @Bean
+    public JdbcTemplate jdbcTemplate() throws Exception {
+      return new JdbcTemplate(dataSource());
+    }
+
+    @Bean
+    public PlatformTransactionManager transactionManager() throws Exception {
+      return new DataSourceTransactionManager(dataSource());
+    }
+  }
+}
@@ -0,0 +1,167 @@
+package at.rovo.h2test.status;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import at.rovo.h2test.TestSchema;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+import javax.annotation.Resource;
+import javax.sql.DataSource;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.SimpleDriverDataSource;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+@SuppressWarnings({"SqlNoDataSourceInspection", "SqlDialectInspection"})
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(classes= {StatusEventPipelineTest.ContextConfig.class})
+public class StatusEventPipelineTest {
+
+  private static final Timestamp UPDATED = Timestamp.valueOf("2015-09-21 10:40:00");
+  private static final Timestamp DELIVERED = Timestamp.valueOf("2015-09-21 10:45:00");
+
+  @Resource
+  private JdbcTemplate jdbcTemplate;
+  @Resource
+  private PlatformTransactionManager tm;
+
+  private TransactionTemplate txTemp;
+
+  @Before
+  public void initDB() {
+    TestSchema.initDB(jdbcTemplate);
+
+    txTemp = new TransactionTemplate(tm);
+    txTemp.setIsolationLevel(TransactionDefinition.ISOLATION_READ_UNCOMMITTED);
+  }
+
+  @Test
+  public void recordAppendsStatusRowsForExistingAndNewMessages() {
+    StatusEventPipeline pipeline = new StatusEventPipeline(jdbcTemplate, txTemp, 3, 2);
+
+    int recorded = pipeline.record(Arrays.asList(
+        new StatusEvent("abcd1234", "UPDATED", UPDATED),
+        new StatusEvent("new0001", "RECEIVED", UPDATED),
+        new StatusEvent("abcd1234", "DELIVERED", DELIVERED),
+        new StatusEvent("new0001", "DELIVERED", DELIVERED),
+        new StatusEvent("abcd1237", "DELIVERED", DELIVERED)).stream());
+
+    assertThat(recorded, is(equalTo(5)));
+    int numMessages = jdbcTemplate.queryForObject("SELECT count(*) FROM message", Integer.class);
+    assertThat("Unexpected number of messages after recording events", numMessages, is(equalTo(5)));
+    numMessages = jdbcTemplate.queryForObject("SELECT count(*) FROM status WHERE messageId = 1", Integer.class);
+    assertThat("Unexpected number of states for first message", numMessages, is(equalTo(4)));
+    numMessages = jdbcTemplate.queryForObject(
+        "SELECT count(*) FROM status s JOIN message m ON s.messageId = m.id WHERE m.messageId = 'new0001'", Integer.class);
+    assertThat("Unexpected number of states for new message", numMessages, is(equalTo(2)));
+    assertThat(jdbcTemplate.queryForObject("SELECT lastStatusChange FROM message WHERE id = 1", Timestamp.class),
+        is(equalTo(DELIVERED)));
+  }
+
+  @Test
+  public void recordKeepsNewestStatusChangeOfOutOfOrderEvents() {
+    StatusEventPipeline pipeline = new StatusEventPipeline(jdbcTemplate, txTemp);
+
+    pipeline.record(Arrays.asList(
+        new StatusEvent("abcd1235", "DELIVERED", DELIVERED),
+        new StatusEvent("abcd1235", "UPDATED", UPDATED)).iterator());
+
+    assertThat(jdbcTemplate.queryForObject("SELECT lastStatusChange FROM message WHERE id = 2", Timestamp.class),
+        is(equalTo(DELIVERED)));
+  }
+
+  @Test
+  public void lateGroupOfOlderEventsDoesNotMoveStatusChangeBackwards() {
+    StatusEventPipeline pipeline = new StatusEventPipeline(jdbcTemplate, txTemp);
+
+    pipeline.record(Arrays.asList(
+        new StatusEvent("abcd1236", "DELIVERED", DELIVERED),
+        new StatusEvent("new0001", "RECEIVED", UPDATED)).iterator());
+    pipeline.record(Arrays.asList(
+        new StatusEvent("abcd1236", "UPDATED", UPDATED),
+        new StatusEvent("new0001", "DELIVERED", DELIVERED)).iterator());
+
+    assertThat(jdbcTemplate.queryForObject("SELECT lastStatusChange FROM message WHERE messageId = 'abcd1236'",
+        Timestamp.class), is(equalTo(DELIVERED)));
+    assertThat(jdbcTemplate.queryForObject("SELECT lastStatusChange FROM message WHERE messageId = 'new0001'",
+        Timestamp.class), is(equalTo(DELIVERED)));
+    int numStates = jdbcTemplate.queryForObject("SELECT count(*) FROM status", Integer.class);
+    assertThat("Late events should still be recorded", numStates, is(equalTo(10)));
+  }
+
+  @Test
+  public void recordManyEventsInSeveralTransactions() {
+    StatusEventPipeline pipeline = new StatusEventPipeline(jdbcTemplate, txTemp, 250);
+
+    int recorded = pipeline.record(IntStream.range(0, 1000)
+        .mapToObj(i -> new StatusEvent("msg" + (i % 50), "STATUS" + i, UPDATED)));
+
+    assertThat(recorded, is(equalTo(1000)));
+    int numMessages = jdbcTemplate.queryForObject("SELECT count(*) FROM message", Integer.class);
+    assertThat("Unexpected number of messages after recording events", numMessages, is(equalTo(54)));
+    numMessages = jdbcTemplate.queryForObject("SELECT count(*) FROM status", Integer.class);
+    assertThat("Unexpected number of states after recording events", numMessages, is(equalTo(1006)));
+  }
+
+  @Test
+  public void failingTransactionOnlyRollsBackItsOwnGroup() {
+    StatusEventPipeline pipeline = new StatusEventPipeline(jdbcTemplate, txTemp, 2);
+
+    char[] tooLong = new char[300];
+    Arrays.fill(tooLong, 'x');
+    List<StatusEvent> events = new ArrayList<>();
+    events.add(new StatusEvent("abcd1234", "UPDATED", UPDATED));
+    events.add(new StatusEvent("abcd1235", "UPDATED", UPDATED));
+    events.add(new StatusEvent("new0001", "RECEIVED", UPDATED));
+    events.add(new StatusEvent("abcd1236", new String(tooLong), UPDATED));
+    try {
+      pipeline.record(events.iterator());
+      fail("Should have thrown an exception as the status value exceeds the column size");
+    } catch (DataAccessException daEx) {
+      // expected
+    }
+
+    int numMessages = jdbcTemplate.queryForObject("SELECT count(*) FROM message", Integer.class);
+    assertThat("Message of rolled back group should not exist", numMessages, is(equalTo(4)));
+    numMessages = jdbcTemplate.queryForObject("SELECT count(*) FROM status", Integer.class);
+    assertThat("Only the states of the first group should be committed", numMessages, is(equalTo(8)));
+  }
+
+  @Configuration
+  public static class ContextConfig {
+
+    @Bean
+    public DataSource dataSource() throws Exception {
+      SimpleDriverDataSource db = new SimpleDriverDataSource();
+      db.setDriverClass(org.h2.Driver.class);
+      db.setUrl("jdbc:h2:mem:pipelinedb;DB_CLOSE_DELAY=-1;MODE=MYSQL;");
+      return db;
+    }
+
+    @Bean
+    public JdbcTemplate jdbcTemplate() throws Exception {
+      return new JdbcTemplate(dataSource());
+    }
+
+    @Bean
+    public PlatformTransactionManager transactionManager() throws Exception {
+      return new DataSourceTransactionManager(dataSource());
+    }
+  }
+}
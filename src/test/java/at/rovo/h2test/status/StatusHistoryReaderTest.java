@@ -0,0 +1,129 @@
+package at.rovo.h2test.status;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import at.rovo.h2test.TestSchema;
+import at.rovo.h2test.message.MessageChange;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import javax.annotation.Resource;
+import javax.sql.DataSource;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SimpleDriverDataSource;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+@SuppressWarnings({"SqlNoDataSourceInspection", "SqlDialectInspection"})
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(classes= {StatusHistoryReaderTest.ContextConfig.class})
+public class StatusHistoryReaderTest {
+
+  private static final Timestamp SEEDED = Timestamp.valueOf("2015-09-21 10:34:09");
+  private static final Timestamp UPDATED = Timestamp.valueOf("2015-09-21 10:40:00");
+
+  @Resource
+  private JdbcTemplate jdbcTemplate;
+
+  @Before
+  public void initDB() {
+    TestSchema.initDB(jdbcTemplate);
+  }
+
+  @Test
+  public void statusChangedSinceStreamsAllRowsInKeysetOrderAcrossPages() {
+    // ten distinct timestamps, so pages frequently end within a run of equal timestamps
+    jdbcTemplate.update("INSERT INTO status (lastChange, messageId, status) "
+        + "SELECT DATEADD('SECOND', MOD(X, 10), ?), MOD(X, 4) + 1, CONCAT('STATUS', X) FROM SYSTEM_RANGE(1, 2500)",
+        UPDATED);
+    StatusHistoryReader reader = new StatusHistoryReader(jdbcTemplate, 100);
+
+    List<StatusRecord> records = reader.statusChangedSince(UPDATED).collect(Collectors.toList());
+
+    assertThat(records.size(), is(equalTo(2500)));
+    Set<Long> ids = new HashSet<>();
+    for (int i = 0; i < records.size(); i++) {
+      assertTrue("Duplicate status " + records.get(i), ids.add(records.get(i).getId()));
+      if (i > 0) {
+        StatusRecord prev = records.get(i - 1);
+        StatusRecord cur = records.get(i);
+        int cmp = prev.getLastChange().compareTo(cur.getLastChange());
+        assertTrue("Out of order: " + prev + " before " + cur, cmp < 0 || (cmp == 0 && prev.getId() < cur.getId()));
+      }
+    }
+    assertThat(reader.statusChangedSince(SEEDED).count(), is(equalTo(2506L)));
+  }
+
+  @Test
+  public void streamIsConsumedLazily() {
+    jdbcTemplate.update("INSERT INTO status (lastChange, messageId, status) "
+        + "SELECT ?, 1, CONCAT('STATUS', X) FROM SYSTEM_RANGE(1, 50)", UPDATED);
+    StatusHistoryReader reader = new StatusHistoryReader(jdbcTemplate, 10);
+
+    Iterator<StatusRecord> history = reader.history(1L).iterator();
+    assertThat(history.next().getStatus(), is(equalTo("RECEIVED")));
+    assertThat(history.next().getStatus(), is(equalTo("DELIVERED")));
+    // rows appended behind the current position are picked up by later pages
+    jdbcTemplate.update("INSERT INTO status (lastChange, messageId, status) VALUES (?, 1, 'LATE')",
+        Timestamp.valueOf("2015-09-22 00:00:00"));
+    String last = null;
+    int remaining = 0;
+    while (history.hasNext()) {
+      last = history.next().getStatus();
+      remaining++;
+    }
+    assertThat(remaining, is(equalTo(51)));
+    assertThat(last, is(equalTo("LATE")));
+
+    assertThat(reader.history(2L).map(StatusRecord::getStatus).collect(Collectors.toList()),
+        is(equalTo(Arrays.asList("RECEIVED", "DELIVERED"))));
+    assertThat(reader.history(999L).count(), is(equalTo(0L)));
+  }
+
+  @Test
+  public void messagesChangedSince() {
+    jdbcTemplate.update("UPDATE message SET lastStatusChange = ? WHERE id IN (2, 4)", UPDATED);
+    jdbcTemplate.update("INSERT INTO message (messageId, lastStatusChange) "
+        + "SELECT CONCAT('bulk', X), ? FROM SYSTEM_RANGE(1, 30)", UPDATED);
+    StatusHistoryReader reader = new StatusHistoryReader(jdbcTemplate, 7);
+
+    List<MessageChange> changed = reader.messagesChangedSince(UPDATED).collect(Collectors.toList());
+
+    assertThat(changed.size(), is(equalTo(32)));
+    assertThat(changed.get(0).getMessageId(), is(equalTo("abcd1235")));
+    assertThat(changed.get(1).getMessageId(), is(equalTo("abcd1237")));
+    assertThat(changed.stream().map(MessageChange::getMessageId).collect(Collectors.toList()).subList(2, 32),
+        is(equalTo(IntStream.rangeClosed(1, 30).mapToObj(i -> "bulk" + i).collect(Collectors.toList()))));
+    assertThat(reader.messagesChangedSince(SEEDED).count(), is(equalTo(34L)));
+  }
+
+  @Configuration
+  public static class ContextConfig {
+
+    @Bean
+    public DataSource dataSource() throws Exception {
+      SimpleDriverDataSource db = new SimpleDriverDataSource();
+      db.setDriverClass(org.h2.Driver.class);
+      db.setUrl("jdbc:h2:mem:historydb;DB_CLOSE_DELAY=-1;MODE=MYSQL;");
+      return db;
+    }
+
+    @Bean
+    public JdbcTemplate jdbcTemplate() throws Exception {
+      return new JdbcTemplate(dataSource());
+    }
+  }
+}
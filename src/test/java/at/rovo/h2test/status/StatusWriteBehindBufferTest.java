@@ -0,0 +1,212 @@
+package at.rovo.h2test.status;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import at.rovo.h2test.TestSchema;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Resource;
+import javax.sql.DataSource;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.SimpleDriverDataSource;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
+
+@SuppressWarnings({"SqlNoDataSourceInspection", "SqlDialectInspection"})
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(classes= {StatusWriteBehindBufferTest.ContextConfig.class})
+public class StatusWriteBehindBufferTest {
+
+  private static final Timestamp UPDATED = Timestamp.valueOf("2015-09-21 10:40:00");
+
+  @Resource
+  private JdbcTemplate jdbcTemplate;
+  @Resource
+  private PlatformTransactionManager tm;
+
+  private TransactionTemplate txTemp;
+
+  @Before
+  public void initDB() {
+    TestSchema.initDB(jdbcTemplate);
+    txTemp = new TransactionTemplate(tm);
+  }
+
+  @Test
+  public void submittedEventsAreGroupCommitted() throws Exception {
+    List<CompletableFuture<Void>> futures = new ArrayList<>();
+    try (StatusWriteBehindBuffer buffer = new StatusWriteBehindBuffer(jdbcTemplate, txTemp, 1_000, 100, 20)) {
+      for (int i = 0; i < 250; i++) {
+        futures.add(buffer.submit(new StatusEvent("msg" + (i % 10), "STATUS" + i, UPDATED)));
+      }
+      CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get(10, TimeUnit.SECONDS);
+
+      assertThat(buffer.getFlushedEvents(), is(equalTo(250L)));
+      assertTrue("Expected group commits but flushed " + buffer.getFlushCount() + " times",
+          buffer.getFlushCount() >= 3 && buffer.getFlushCount() < 250);
+    }
+    int numStates = jdbcTemplate.queryForObject("SELECT count(*) FROM status", Integer.class);
+    assertThat("Unexpected number of states after flushing", numStates, is(equalTo(256)));
+  }
+
+  @Test
+  public void closeDrainsPendingEvents() throws Exception {
+    StatusWriteBehindBuffer buffer = new StatusWriteBehindBuffer(jdbcTemplate, txTemp, 100, 100,
+        TimeUnit.MINUTES.toMillis(1));
+    CompletableFuture<Void> first = buffer.submit(new StatusEvent("abcd1234", "UPDATED", UPDATED));
+    CompletableFuture<Void> second = buffer.submit(new StatusEvent("new0001", "RECEIVED", UPDATED));
+    assertThat(first.isDone(), is(equalTo(false)));
+
+    buffer.close();
+
+    assertTrue(first.isDone() && !first.isCompletedExceptionally());
+    assertTrue(second.isDone() && !second.isCompletedExceptionally());
+    int numStates = jdbcTemplate.queryForObject("SELECT count(*) FROM status", Integer.class);
+    assertThat("Unexpected number of states after closing", numStates, is(equalTo(8)));
+    try {
+      buffer.submit(new StatusEvent("abcd1234", "DELIVERED", UPDATED));
+      fail("Closed buffer should reject events");
+    } catch (IllegalStateException expected) {
+      // expected
+    }
+  }
+
+  @Test
+  public void failedFlushCompletesFuturesExceptionally() throws Exception {
+    char[] tooLong = new char[300];
+    Arrays.fill(tooLong, 'x');
+    CompletableFuture<Void> valid;
+    CompletableFuture<Void> invalid;
+    try (StatusWriteBehindBuffer buffer = new StatusWriteBehindBuffer(jdbcTemplate, txTemp, 10, 10, 1_000)) {
+      valid = buffer.submit(new StatusEvent("abcd1234", "UPDATED", UPDATED));
+      invalid = buffer.submit(new StatusEvent("abcd1235", new String(tooLong), UPDATED));
+    }
+
+    try {
+      valid.get();
+      fail("Event flushed together with an invalid event should have failed");
+    } catch (ExecutionException execEx) {
+      assertThat(execEx.getCause(), is(instanceOf(DataAccessException.class)));
+    }
+    assertTrue(invalid.isCompletedExceptionally());
+    int numStates = jdbcTemplate.queryForObject("SELECT count(*) FROM status", Integer.class);
+    assertThat("States of the failed flush should be rolled back", numStates, is(equalTo(6)));
+  }
+
+  @Test(timeout = 10_000L)
+  public void flusherErrorsFailPendingEventsAndRejectFurtherOnes() throws Exception {
+    final AssertionError error = new AssertionError("flusher broke");
+    TransactionTemplate failing = failingWith(error);
+    StatusWriteBehindBuffer buffer = new StatusWriteBehindBuffer(jdbcTemplate, failing, 2, 1, 1_000);
+    List<CompletableFuture<Void>> futures = new ArrayList<>();
+    int rejected = 0;
+    // more events than the buffer holds, a dead flusher would block the submitter
+    for (int i = 0; i < 10; i++) {
+      try {
+        futures.add(buffer.submit(new StatusEvent("abcd1234", "UPDATED" + i, UPDATED)));
+      } catch (IllegalStateException isEx) {
+        assertThat(isEx.getCause(), is(sameInstance((Throwable) error)));
+        rejected++;
+      }
+    }
+    buffer.close();
+
+    assertTrue(rejected > 0);
+    for (CompletableFuture<Void> future : futures) {
+      try {
+        future.get();
+        fail("Events of a failed buffer must not complete normally");
+      } catch (ExecutionException execEx) {
+        assertThat(execEx.getCause(), is(sameInstance((Throwable) error)));
+      }
+    }
+    assertThat(buffer.getFailedEvents(), is(equalTo((long) futures.size())));
+    assertThat(buffer.getPendingEvents(), is(equalTo(0)));
+  }
+
+  @Test(timeout = 10_000L)
+  public void closeReturnsIfTheFinalFlushFailsWithAnError() throws Exception {
+    AssertionError error = new AssertionError("final flush broke");
+    StatusWriteBehindBuffer buffer = new StatusWriteBehindBuffer(jdbcTemplate, failingWith(error), 10, 10,
+        TimeUnit.MINUTES.toMillis(1));
+    CompletableFuture<Void> first = buffer.submit(new StatusEvent("abcd1234", "UPDATED", UPDATED));
+    CompletableFuture<Void> second = buffer.submit(new StatusEvent("abcd1235", "UPDATED", UPDATED));
+
+    // the flusher only flushes once it took the shutdown marker
+    buffer.close();
+
+    for (CompletableFuture<Void> future : Arrays.asList(first, second)) {
+      try {
+        future.get();
+        fail("Events of the failed final flush must not complete normally");
+      } catch (ExecutionException execEx) {
+        assertThat(execEx.getCause(), is(sameInstance((Throwable) error)));
+      }
+    }
+    assertThat(buffer.getFailedEvents(), is(equalTo(2L)));
+  }
+
+  /**
+   * A transaction template whose transactions can't even be started.
+   */
+  private static TransactionTemplate failingWith(final Error error) {
+    return new TransactionTemplate(new PlatformTransactionManager() {
+      @Override
+      public TransactionStatus getTransaction(TransactionDefinition definition) {
+        throw error;
+      }
+
+      @Override
+      public void commit(TransactionStatus status) {
+      }
+
+      @Override
+      public void rollback(TransactionStatus status) {
+      }
+    });
+  }
+
+  @Configuration
+  public static class ContextConfig {
+
+    @Bean
+    public DataSource dataSource() throws Exception {
+      SimpleDriverDataSource db = new SimpleDriverDataSource();
+      db.setDriverClass(org.h2.Driver.class);
+      db.setUrl("jdbc:h2:mem:writebehinddb;DB_CLOSE_DELAY=-1;MODE=MYSQL;");
+      return db;
+    }
+
+    @Bean
+    public JdbcTemplate jdbcTemplate() throws Exception {
+      return new JdbcTemplate(dataSource());
+    }
+
+    @Bean
+    public PlatformTransactionManager transactionManager() throws Exception {
+      return new DataSourceTransactionManager(dataSource());
+    }
+  }
+}
@@ -0,0 +1,177 @@
+package at.rovo.h2test.status.partition;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import at.rovo.h2test.TestSchema;
+import at.rovo.h2test.status.StatusEvent;
+import at.rovo.h2test.status.StatusEventPipeline;
+import at.rovo.h2test.status.StatusRecord;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import javax.annotation.Resource;
+import javax.sql.DataSource;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.dao.InvalidDataAccessApiUsageException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.SimpleDriverDataSource;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.support.TransactionTemplate;
+
+@SuppressWarnings({"SqlNoDataSourceInspection", "SqlDialectInspection"})
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(classes= {PartitionedStatusStorageTest.ContextConfig.class})
+public class PartitionedStatusStorageTest {
+
+  private static final Timestamp DAY1 = Timestamp.valueOf("2015-09-21 00:00:00");
+  private static final Timestamp DAY3 = Timestamp.valueOf("2015-09-23 00:00:00");
+  private static final Timestamp DAY4 = Timestamp.valueOf("2015-09-24 00:00:00");
+
+  @Resource
+  private JdbcTemplate jdbcTemplate;
+  @Resource
+  private TransactionTemplate txTemplate;
+
+  private PartitionedStatusStorage storage;
+
+  @Before
+  public void initDB() {
+    // buckets reference the message table, so drop them before the schema is recreated
+    PartitionedStatusStorage.tablePerBucket(jdbcTemplate, BucketGranularity.DAY)
+        .dropBucketsBefore(Timestamp.valueOf("9999-01-01 00:00:00"));
+    PartitionedStatusStorage.tablePerBucket(jdbcTemplate, BucketGranularity.MONTH)
+        .dropBucketsBefore(Timestamp.valueOf("9999-01-01 00:00:00"));
+    TestSchema.initDB(jdbcTemplate);
+    storage = PartitionedStatusStorage.tablePerBucket(jdbcTemplate, BucketGranularity.DAY);
+  }
+
+  @Test
+  public void ensureBucketsCreatesOneTablePerDay() {
+    assertThat(storage.ensureBuckets(DAY1, DAY4), is(equalTo(3)));
+    assertThat(storage.ensureBuckets(DAY1, DAY4), is(equalTo(0)));
+
+    assertThat(new ArrayList<>(storage.getBuckets()), is(equalTo(Arrays.asList(
+        LocalDate.of(2015, 9, 21), LocalDate.of(2015, 9, 22), LocalDate.of(2015, 9, 23)))));
+    assertThat(storage.tableFor(Timestamp.valueOf("2015-09-22 13:14:15")), is(equalTo("status_20150922")));
+    // another instance discovers the existing buckets
+    assertThat(PartitionedStatusStorage.tablePerBucket(jdbcTemplate, BucketGranularity.DAY).getBuckets().size(),
+        is(equalTo(3)));
+  }
+
+  @Test
+  public void pipelineRoutesStatusRowsToTheBucketOfTheirTimestamp() {
+    storage.ensureBuckets(DAY1, DAY4);
+    StatusEventPipeline pipeline = new StatusEventPipeline(jdbcTemplate, txTemplate, 100, 7);
+    pipeline.setPartitionedStorage(storage);
+
+    List<StatusEvent> events = new ArrayList<>();
+    for (int i = 0; i < 30; i++) {
+      events.add(new StatusEvent("abcd123" + (4 + i % 4), "STATUS" + i,
+          new Timestamp(DAY1.getTime() + i * 7_200_000L)));
+    }
+    assertThat(pipeline.record(events.iterator()), is(equalTo(30)));
+
+    assertThat(count("status_20150921"), is(equalTo(12)));
+    assertThat(count("status_20150922"), is(equalTo(12)));
+    assertThat(count("status_20150923"), is(equalTo(6)));
+    assertThat("The unpartitioned table must not be touched", count("status"), is(equalTo(6)));
+    // ids of later buckets are greater than those of earlier ones
+    long maxDay1 = jdbcTemplate.queryForObject("SELECT max(id) FROM status_20150921", Long.class);
+    long minDay2 = jdbcTemplate.queryForObject("SELECT min(id) FROM status_20150922", Long.class);
+    assertTrue(maxDay1 + " >= " + minDay2, maxDay1 < minDay2);
+  }
+
+  @Test
+  public void readOnlyReturnsRowsOfTheRequestedRangeInOrder() {
+    storage.ensureBuckets(DAY1, DAY4);
+    for (int i = 0; i < 72; i++) {
+      jdbcTemplate.update("INSERT INTO " + storage.tableFor(hour(i)) + " (lastChange, messageId, status) "
+          + "VALUES (?, ?, ?)", hour(i), 1 + i % 4, "STATUS" + i);
+    }
+
+    List<StatusRecord> records = storage.read(hour(20), hour(50)).collect(Collectors.toList());
+
+    assertThat(records.size(), is(equalTo(30)));
+    for (int i = 0; i < records.size(); i++) {
+      assertThat(records.get(i).getStatus(), is(equalTo("STATUS" + (20 + i))));
+    }
+    assertThat(storage.read(DAY4, Timestamp.valueOf("2015-10-01 00:00:00")).count(), is(equalTo(0L)));
+  }
+
+  @Test
+  public void dropBucketsBeforeRemovesExpiredBucketsOnly() {
+    storage.ensureBuckets(DAY1, DAY4);
+    jdbcTemplate.update("INSERT INTO status_20150921 (lastChange, messageId, status) VALUES (?, 1, 'OLD')", DAY1);
+    jdbcTemplate.update("INSERT INTO status_20150923 (lastChange, messageId, status) VALUES (?, 1, 'NEW')", DAY3);
+
+    // the second bucket isn't over yet at the cutoff
+    assertThat(storage.dropBucketsBefore(Timestamp.valueOf("2015-09-22 12:00:00")), is(equalTo(1)));
+
+    assertThat(new ArrayList<>(storage.getBuckets()), is(equalTo(Arrays.asList(
+        LocalDate.of(2015, 9, 22), LocalDate.of(2015, 9, 23)))));
+    assertThat(storage.read(DAY1, DAY4).map(StatusRecord::getStatus).collect(Collectors.toList()),
+        is(equalTo(Arrays.asList("NEW"))));
+    try {
+      storage.tableFor(DAY1);
+      fail("Rows of dropped buckets must be rejected");
+    } catch (InvalidDataAccessApiUsageException expected) {
+      // expected
+    }
+  }
+
+  @Test
+  public void monthlyBucketsUseYearAndMonthSuffix() {
+    PartitionedStatusStorage monthly = PartitionedStatusStorage.tablePerBucket(jdbcTemplate, BucketGranularity.MONTH);
+
+    assertThat(monthly.ensureBuckets(DAY1, Timestamp.valueOf("2015-11-01 00:00:00")), is(equalTo(2)));
+
+    assertThat(monthly.tableFor(Timestamp.valueOf("2015-10-31 23:59:59")), is(equalTo("status_201510")));
+    assertThat(new ArrayList<>(monthly.getBuckets()), is(equalTo(Arrays.asList(
+        LocalDate.of(2015, 9, 1), LocalDate.of(2015, 10, 1)))));
+    // daily buckets don't mistake monthly tables as their own
+    assertThat(storage.getBuckets().isEmpty(), is(true));
+  }
+
+  private static Timestamp hour(int hour) {
+    return new Timestamp(DAY1.getTime() + hour * 3_600_000L);
+  }
+
+  private int count(String table) {
+    return jdbcTemplate.queryForObject("SELECT count(*) FROM " + table, Integer.class);
+  }
+
+  @Configuration
+  public static class ContextConfig {
+
+    @Bean
+    public DataSource dataSource() throws Exception {
+      SimpleDriverDataSource db = new SimpleDriverDataSource();
+      db.setDriverClass(org.h2.Driver.class);
+      db.setUrl("jdbc:h2:mem:partitiondb;DB_CLOSE_DELAY=-1;MODE=MYSQL;");
+      return db;
+    }
+
+    @Bean
+    public JdbcTemplate jdbcTemplate() throws Exception {
+      return new JdbcTemplate(dataSource());
+    }
+
+    @Bean
+    public TransactionTemplate txTemplate() throws Exception {
+      return new TransactionTemplate(new DataSourceTransactionManager(dataSource()));
+    }
+  }
+}
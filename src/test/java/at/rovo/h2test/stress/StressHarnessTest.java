@@ -0,0 +1,85 @@
+package at.rovo.h2test.stress;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import at.rovo.h2test.TestSchema;
+import at.rovo.h2test.jdbc.PoolSettings;
+import at.rovo.h2test.jdbc.PooledDataSources;
+import at.rovo.h2test.tx.RetryPolicy;
+import com.zaxxer.hikari.HikariDataSource;
+import java.util.concurrent.TimeUnit;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.TransactionDefinition;
+
+public class StressHarnessTest {
+
+  private static HikariDataSource dataSource;
+
+  @BeforeClass
+  public static void createPool() {
+    dataSource = PooledDataSources.h2("stress", "jdbc:h2:mem:stressdb;DB_CLOSE_DELAY=-1;MODE=MYSQL;",
+        new PoolSettings().setMaximumPoolSize(8), null);
+  }
+
+  @AfterClass
+  public static void closePool() {
+    dataSource.close();
+  }
+
+  @Before
+  public void initDB() {
+    TestSchema.initDB(new JdbcTemplate(dataSource));
+  }
+
+  @Test
+  public void concurrentWritersOnHotKeysLeaveConsistentState() throws Exception {
+    StressConfig config = new StressConfig()
+        .setWriters(8)
+        .setKeyDistribution(KeyDistribution.zipf(50, 1.2))
+        .setDurationMillis(TimeUnit.SECONDS.toMillis(1))
+        .setRetryPolicy(new RetryPolicy().setMaxAttempts(10));
+
+    StressReport report = new StressHarness(dataSource, config).run();
+
+    assertTrue(report.toString(), report.isConsistent());
+    assertTrue(report.toString(), report.getCommitted() > 0);
+    assertTrue(report.getLatencyMicros(50) <= report.getLatencyMicros(99.9));
+  }
+
+  @Test
+  public void writersStopAfterConfiguredNumberOfTransactions() throws Exception {
+    StressConfig config = new StressConfig()
+        .setWriters(4)
+        .setKeyDistribution(KeyDistribution.uniform(1_000))
+        .setIsolationLevel(TransactionDefinition.ISOLATION_READ_UNCOMMITTED)
+        .setTransactionsPerWriter(25)
+        .setRetryPolicy(new RetryPolicy().setMaxAttempts(10));
+
+    StressReport report = new StressHarness(dataSource, config).run();
+
+    assertTrue(report.toString(), report.isConsistent());
+    assertThat(report.getCommitted() + report.getFailed(), is(equalTo(100L)));
+    long statusRows = new JdbcTemplate(dataSource).queryForObject(
+        "SELECT count(*) FROM status WHERE status = 'STRESSED'", Long.class);
+    assertThat(statusRows, is(equalTo(report.getCommitted())));
+  }
+
+  @Test
+  public void zipfDistributionFavoursLowKeys() {
+    KeyDistribution zipf = KeyDistribution.zipf(1_000, 1.0);
+    int[] hits = new int[1_000];
+    for (int i = 0; i < 100_000; i++) {
+      hits[zipf.nextKey()]++;
+    }
+    // the first key of a zipf(1000, 1.0) distribution receives about 13% of all picks
+    assertTrue("Key 0 was picked " + hits[0] + " times", hits[0] > 10_000);
+    assertTrue(hits[0] > hits[10] && hits[10] > hits[999]);
+  }
+}
@@ -0,0 +1,265 @@
+package at.rovo.h2test.tx;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import at.rovo.h2test.TestSchema;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Resource;
+import javax.sql.DataSource;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DeadlockLoserDataAccessException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.SimpleDriverDataSource;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+@SuppressWarnings({"SqlNoDataSourceInspection", "SqlDialectInspection"})
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(classes= {RetryingTransactionExecutorTest.ContextConfig.class})
+public class RetryingTransactionExecutorTest {
+
+  @Resource
+  private JdbcTemplate jdbcTemplate;
+  @Resource
+  private PlatformTransactionManager tm;
+
+  private TransactionTemplate txTemp;
+
+  @Before
+  public void initDB() {
+    TestSchema.initDB(jdbcTemplate);
+    txTemp = new TransactionTemplate(tm);
+  }
+
+  @Test
+  public void classifiesVendorErrorsOfH2AndMySql() {
+    SqlErrorClassifier classifier = new SqlErrorClassifier();
+
+    try {
+      jdbcTemplate.update("INSERT INTO message (messageId, message) VALUES ('abcd1234', RAWTOHEX('Dup'))");
+      fail("Inserting an existing messageId should have failed");
+    } catch (DataAccessException daEx) {
+      assertThat(classifier.classify(daEx), is(equalTo(ErrorClass.DUPLICATE_KEY)));
+    }
+    try {
+      jdbcTemplate.update("INSERT INTO status (lastChange, messageId, status) VALUES (NOW(), 999, 'ORPHAN')");
+      fail("Inserting a status of an unknown message should have failed");
+    } catch (DataAccessException daEx) {
+      assertThat(classifier.classify(daEx), is(equalTo(ErrorClass.NON_TRANSIENT)));
+    }
+
+    assertThat(classifier.classify(mySqlError(1213, "40001")), is(equalTo(ErrorClass.DEADLOCK)));
+    assertThat(classifier.classify(mySqlError(1205, "HY000")), is(equalTo(ErrorClass.LOCK_TIMEOUT)));
+    assertThat(classifier.classify(mySqlError(1062, "23000")), is(equalTo(ErrorClass.DUPLICATE_KEY)));
+    assertThat(classifier.classify(mySqlError(1452, "23000")), is(equalTo(ErrorClass.NON_TRANSIENT)));
+    assertThat(classifier.classify(new IllegalStateException("no SQL involved")),
+        is(equalTo(ErrorClass.NON_TRANSIENT)));
+  }
+
+  @Test
+  public void deadlockedAttemptsAreRolledBackAndRetried() {
+    RetryingTransactionExecutor executor = new RetryingTransactionExecutor(txTemp, fastPolicy().setMaxAttempts(3));
+    final AtomicInteger attempts = new AtomicInteger();
+
+    int inserted = executor.execute(new TransactionCallback<Integer>() {
+      @Override
+      public Integer doInTransaction(TransactionStatus status) {
+        int rows = jdbcTemplate.update("INSERT INTO message (messageId, message) VALUES (?, RAWTOHEX('Retried'))",
+            "retry" + attempts.incrementAndGet());
+        if (attempts.get() < 3) {
+          throw new DeadlockLoserDataAccessException("deadlock", mySqlError(1213, "40001"));
+        }
+        return rows;
+      }
+    });
+
+    assertThat(inserted, is(equalTo(1)));
+    assertThat(attempts.get(), is(equalTo(3)));
+    int retried = jdbcTemplate.queryForObject("SELECT count(*) FROM message WHERE messageId LIKE 'retry%'", Integer.class);
+    assertThat("Rows of failed attempts were not rolled back", retried, is(equalTo(1)));
+
+    RetryMetrics metrics = executor.getMetrics();
+    assertThat(metrics.getCommitted(), is(equalTo(1L)));
+    assertThat(metrics.getErrors(ErrorClass.DEADLOCK), is(equalTo(2L)));
+    assertThat(metrics.getRetries(ErrorClass.DEADLOCK), is(equalTo(2L)));
+    assertThat(metrics.getGivenUp(ErrorClass.DEADLOCK), is(equalTo(0L)));
+  }
+
+  @Test
+  public void lastErrorIsPassedOnOnceAllAttemptsFailed() {
+    RetryingTransactionExecutor executor = new RetryingTransactionExecutor(txTemp, fastPolicy().setMaxAttempts(3));
+
+    try {
+      executor.execute(new TransactionCallback<Integer>() {
+        @Override
+        public Integer doInTransaction(TransactionStatus status) {
+          throw new DeadlockLoserDataAccessException("deadlock", mySqlError(1213, "40001"));
+        }
+      });
+      fail("Deadlock should have been passed on");
+    } catch (DeadlockLoserDataAccessException expected) {
+      RetryMetrics metrics = executor.getMetrics();
+      assertThat(metrics.getErrors(ErrorClass.DEADLOCK), is(equalTo(3L)));
+      assertThat(metrics.getRetries(ErrorClass.DEADLOCK), is(equalTo(2L)));
+      assertThat(metrics.getGivenUp(ErrorClass.DEADLOCK), is(equalTo(1L)));
+    }
+  }
+
+  @Test
+  public void duplicateKeysAreRetriedOnlyAsConfigured() {
+    TransactionCallback<Integer> duplicate = new TransactionCallback<Integer>() {
+      @Override
+      public Integer doInTransaction(TransactionStatus status) {
+        return jdbcTemplate.update("INSERT INTO message (messageId, message) VALUES ('abcd1234', RAWTOHEX('Dup'))");
+      }
+    };
+
+    for (int maxRetries = 0; maxRetries <= 2; maxRetries++) {
+      RetryingTransactionExecutor executor = new RetryingTransactionExecutor(txTemp,
+          fastPolicy().setMaxAttempts(5).setMaxDuplicateKeyRetries(maxRetries));
+      try {
+        executor.execute(duplicate);
+        fail("Inserting an existing messageId should have failed");
+      } catch (DuplicateKeyException expected) {
+        RetryMetrics metrics = executor.getMetrics();
+        assertThat(metrics.getErrors(ErrorClass.DUPLICATE_KEY), is(equalTo(maxRetries + 1L)));
+        assertThat(metrics.getRetries(ErrorClass.DUPLICATE_KEY), is(equalTo((long) maxRetries)));
+        assertThat(metrics.getGivenUp(ErrorClass.DUPLICATE_KEY), is(equalTo(1L)));
+      }
+    }
+    assertThat(new RetryPolicy().getMaxDuplicateKeyRetries(), is(equalTo(1)));
+  }
+
+  @Test
+  public void concurrentInsertOfTheSameMessageSucceedsOnRetry() {
+    RetryingTransactionExecutor executor = new RetryingTransactionExecutor(txTemp, fastPolicy());
+    final AtomicInteger attempts = new AtomicInteger();
+
+    int rows = executor.execute(new TransactionCallback<Integer>() {
+      @Override
+      public Integer doInTransaction(TransactionStatus status) {
+        int found = jdbcTemplate.queryForObject("SELECT count(*) FROM message WHERE messageId = 'race0001'",
+            Integer.class);
+        if (1 == attempts.incrementAndGet()) {
+          // another writer commits the same new message between the lookup and the insert
+          new JdbcTemplate(jdbcTemplate.getDataSource())
+              .update("INSERT INTO message (messageId, message) VALUES ('race0001', RAWTOHEX('Winner'))");
+        }
+        return 0 == found
+            ? jdbcTemplate.update("INSERT INTO message (messageId, message) VALUES ('race0001', RAWTOHEX('Loser'))")
+            : jdbcTemplate.update("UPDATE message SET message = RAWTOHEX('Loser') WHERE messageId = 'race0001'");
+      }
+    });
+
+    assertThat(rows, is(equalTo(1)));
+    assertThat(attempts.get(), is(equalTo(2)));
+    assertThat(executor.getMetrics().getRetries(ErrorClass.DUPLICATE_KEY), is(equalTo(1L)));
+  }
+
+  @Test
+  public void nonTransientErrorsAndErrorsOfJoinedTransactionsAreNotRetried() {
+    final RetryingTransactionExecutor executor = new RetryingTransactionExecutor(txTemp, fastPolicy());
+    final TransactionCallback<Integer> orphan = new TransactionCallback<Integer>() {
+      @Override
+      public Integer doInTransaction(TransactionStatus status) {
+        return jdbcTemplate.update("INSERT INTO status (lastChange, messageId, status) VALUES (NOW(), 999, 'ORPHAN')");
+      }
+    };
+    try {
+      executor.execute(orphan);
+      fail("Inserting a status of an unknown message should have failed");
+    } catch (DataIntegrityViolationException expected) {
+      assertThat(executor.getMetrics().getGivenUp(ErrorClass.NON_TRANSIENT), is(equalTo(1L)));
+    }
+
+    try {
+      txTemp.execute(new TransactionCallback<Integer>() {
+        @Override
+        public Integer doInTransaction(TransactionStatus status) {
+          return executor.execute(new TransactionCallback<Integer>() {
+            @Override
+            public Integer doInTransaction(TransactionStatus status) {
+              throw new DeadlockLoserDataAccessException("deadlock", mySqlError(1213, "40001"));
+            }
+          });
+        }
+      });
+      fail("Deadlock within joined transaction should have been passed on");
+    } catch (DeadlockLoserDataAccessException expected) {
+      assertThat(executor.getMetrics().getGivenUp(ErrorClass.DEADLOCK), is(equalTo(1L)));
+    }
+    assertThat(executor.getMetrics().getRetries(), is(equalTo(0L)));
+  }
+
+  @Test
+  public void retriesStopOnceTheBudgetIsExhausted() {
+    RetryingTransactionExecutor executor = new RetryingTransactionExecutor(txTemp,
+        fastPolicy().setBudgetMaxTokens(2).setBudgetRatio(0.0));
+    TransactionCallback<Integer> deadlocked = new TransactionCallback<Integer>() {
+      @Override
+      public Integer doInTransaction(TransactionStatus status) {
+        throw new DeadlockLoserDataAccessException("deadlock", mySqlError(1213, "40001"));
+      }
+    };
+
+    for (int i = 0; i < 2; i++) {
+      try {
+        executor.execute(deadlocked);
+        fail("Deadlock should have been passed on");
+      } catch (DeadlockLoserDataAccessException expected) {
+        // no retries left
+      }
+    }
+
+    RetryMetrics metrics = executor.getMetrics();
+    assertThat(metrics.getRetries(ErrorClass.DEADLOCK), is(equalTo(2L)));
+    assertThat(metrics.getBudgetExhausted(), is(equalTo(2L)));
+    assertThat(metrics.getErrors(ErrorClass.DEADLOCK), is(equalTo(4L)));
+  }
+
+  private static RetryPolicy fastPolicy() {
+    return new RetryPolicy().setInitialBackoffMicros(100).setMaxBackoffMicros(1_000);
+  }
+
+  private static SQLException mySqlError(int errorCode, String sqlState) {
+    return new SQLException("MySQL error " + errorCode, sqlState, errorCode);
+  }
+
+  @Configuration
+  public static class ContextConfig {
+
+    @Bean
+    public DataSource dataSource() throws Exception {
+      SimpleDriverDataSource db = new SimpleDriverDataSource();
+      db.setDriverClass(org.h2.Driver.class);
+      db.setUrl("jdbc:h2:mem:retrydb;DB_CLOSE_DELAY=-1;MODE=MYSQL;");
+      return db;
+    }
+
+    @Bean
+    public JdbcTemplate jdbcTemplate() throws Exception {
+      return new JdbcTemplate(dataSource());
+    }
+
+    @Bean
+    public PlatformTransactionManager transactionManager() throws Exception {
+      return new DataSourceTransactionManager(dataSource());
+    }
+  }
+}
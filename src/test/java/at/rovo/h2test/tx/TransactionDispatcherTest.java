@@ -0,0 +1,131 @@
+package at.rovo.h2test.tx;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import at.rovo.h2test.TestSchema;
+import at.rovo.h2test.jdbc.PoolSettings;
+import at.rovo.h2test.jdbc.PooledDataSources;
+import at.rovo.h2test.message.BatchMessageUpserter;
+import at.rovo.h2test.message.MessageUpsert;
+import at.rovo.h2test.stress.ThreadMode;
+import com.zaxxer.hikari.HikariDataSource;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+
+@SuppressWarnings({"SqlNoDataSourceInspection", "SqlDialectInspection"})
+public class TransactionDispatcherTest {
+
+  private static final Timestamp UPDATED = Timestamp.valueOf("2015-09-21 10:40:00");
+  private static final int POOL_SIZE = 4;
+  private static final int REQUESTS = 2_000;
+
+  private static HikariDataSource dataSource;
+
+  private JdbcTemplate jdbcTemplate;
+  private BatchMessageUpserter upserter;
+
+  @BeforeClass
+  public static void createPool() {
+    dataSource = PooledDataSources.h2("dispatcher", "jdbc:h2:mem:dispatcherdb;DB_CLOSE_DELAY=-1;MODE=MYSQL;",
+        new PoolSettings().setMaximumPoolSize(POOL_SIZE), null);
+  }
+
+  @AfterClass
+  public static void closePool() {
+    dataSource.close();
+  }
+
+  @Before
+  public void initDB() {
+    jdbcTemplate = new JdbcTemplate(dataSource);
+    upserter = new BatchMessageUpserter(jdbcTemplate);
+    TestSchema.initDB(jdbcTemplate);
+  }
+
+  @Test
+  public void platformThreadsNeverExceedPoolSize() throws Exception {
+    dispatchUpsertsAndStatuses(ThreadMode.PLATFORM);
+  }
+
+  @Test
+  public void virtualThreadsNeverExceedPoolSize() throws Exception {
+    assumeTrue("Virtual threads require Java 21", ThreadMode.VIRTUAL.isAvailable());
+    dispatchUpsertsAndStatuses(ThreadMode.VIRTUAL);
+  }
+
+  @Test
+  public void requestsRunWorkOutsideOfTheirTransaction() throws Exception {
+    ThreadMode threadMode = ThreadMode.VIRTUAL.isAvailable() ? ThreadMode.VIRTUAL : ThreadMode.PLATFORM;
+    List<CompletableFuture<Long>> results = new ArrayList<>();
+    try (final TransactionDispatcher dispatcher = TransactionDispatcher.forPool(dataSource, threadMode)) {
+      for (int i = 0; i < 100; i++) {
+        final String messageId = "request" + i;
+        results.add(dispatcher.submit(new Callable<Long>() {
+          @Override
+          public Long call() throws Exception {
+            Thread.sleep(5);
+            return dispatcher.execute(upsertAndInsertStatus(messageId));
+          }
+        }));
+      }
+      CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0])).join();
+      assertThat(dispatcher.getActiveTransactions(), is(equalTo(0)));
+    }
+
+    for (int i = 0; i < results.size(); i++) {
+      assertThat(results.get(i).get(), is(equalTo(queryId("request" + i))));
+    }
+  }
+
+  private void dispatchUpsertsAndStatuses(ThreadMode threadMode) throws Exception {
+    List<CompletableFuture<Long>> results = new ArrayList<>(REQUESTS);
+    try (TransactionDispatcher dispatcher = TransactionDispatcher.forPool(dataSource, threadMode)) {
+      assertThat(dispatcher.getMaxConcurrency(), is(equalTo(POOL_SIZE)));
+      for (int i = 0; i < REQUESTS; i++) {
+        // every message is hit by several requests racing to insert it
+        results.add(dispatcher.submit(upsertAndInsertStatus("dispatched" + i % 200)));
+      }
+      CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0])).join();
+
+      assertTrue(dispatcher.toString(), dispatcher.getPeakActiveTransactions() <= POOL_SIZE);
+      assertThat(dispatcher.getRetryMetrics().getCommitted(), is(equalTo((long) REQUESTS)));
+    }
+
+    long statusRows = jdbcTemplate.queryForObject("SELECT count(*) FROM status WHERE status = 'DISPATCHED'",
+        Long.class);
+    assertThat(statusRows, is(equalTo((long) REQUESTS)));
+    long messages = jdbcTemplate.queryForObject("SELECT count(*) FROM message WHERE messageId LIKE 'dispatched%'",
+        Long.class);
+    assertThat(messages, is(equalTo(200L)));
+  }
+
+  private TransactionCallback<Long> upsertAndInsertStatus(final String messageId) {
+    return new TransactionCallback<Long>() {
+      @Override
+      public Long doInTransaction(TransactionStatus status) {
+        long messageRefId = upserter.upsert(new MessageUpsert(messageId, null, UPDATED));
+        jdbcTemplate.update("INSERT INTO status (lastChange, messageId, status) VALUES (?, ?, ?)",
+            UPDATED, messageRefId, "DISPATCHED");
+        return messageRefId;
+      }
+    };
+  }
+
+  private long queryId(String messageId) {
+    return jdbcTemplate.queryForObject("SELECT id FROM message WHERE messageId = ?", Long.class, messageId);
+  }
+}